@@ -0,0 +1,48 @@
+package com.ooadlabexercise.drawingstudio.model;
+
+import java.awt.Component;
+import java.awt.event.InputEvent;
+import java.awt.event.MouseEvent;
+import java.util.Random;
+
+/** Drawings and input shared by the JMH benchmarks. */
+final class BenchScenes {
+    private BenchScenes() {}
+
+    /** An engine of the given size with a few hundred outlined rectangles and ovals committed on it. */
+    static DrawingEngine outlines(int w, int h) {
+        DrawingEngine engine = new DrawingEngine(w, h);
+        Random rnd = new Random(7);
+        for (int i = 0; i < 300; i++) {
+            int x = rnd.nextInt(w), y = rnd.nextInt(h), s = 20 + rnd.nextInt(w / 10);
+            DrawingCanvasPanel.Tool tool = rnd.nextBoolean() ? DrawingCanvasPanel.Tool.OVAL : DrawingCanvasPanel.Tool.RECTANGLE;
+            engine.perform(new CanvasOperation.ShapeOp(tool, 0xff000000, 3f, x, y, x + s, y + s / 2));
+        }
+        return engine;
+    }
+
+    /** A wandering freehand path of {@code n} points, as x, y pairs. */
+    static int[] path(int w, int h, int n, long seed) {
+        Random rnd = new Random(seed);
+        int[] points = new int[n * 2];
+        int x = w / 2, y = h / 2;
+        for (int i = 0; i < n; i++) {
+            x = Math.max(0, Math.min(w - 1, x + rnd.nextInt(41) - 20));
+            y = Math.max(0, Math.min(h - 1, y + rnd.nextInt(41) - 20));
+            points[2 * i] = x;
+            points[2 * i + 1] = y;
+        }
+        return points;
+    }
+
+    static int[] parseSize(String size) {
+        String[] wh = size.split("x");
+        return new int[] { Integer.parseInt(wh[0]), Integer.parseInt(wh[1]) };
+    }
+
+    /** Delivers a left-button mouse event to the component's listeners. */
+    static void mouse(Component c, int id, int x, int y) {
+        c.dispatchEvent(new MouseEvent(c, id, System.currentTimeMillis(), InputEvent.BUTTON1_DOWN_MASK,
+                                       x, y, 1, false, MouseEvent.BUTTON1));
+    }
+}
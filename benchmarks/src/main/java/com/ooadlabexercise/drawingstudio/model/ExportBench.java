@@ -0,0 +1,49 @@
+package com.ooadlabexercise.drawingstudio.model;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/** Saving a 1080p drawing: flattening onto white and PNG encoding at each compression setting. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ExportBench {
+    @Param({"FAST", "BALANCED", "SMALLEST"})
+    public String compression;
+
+    private DrawingExporter.Compression level;
+    private BufferedImage drawing;
+    private File dir, file;
+
+    @Setup
+    public void setup() throws IOException {
+        level = DrawingExporter.Compression.valueOf(compression);
+        DrawingEngine engine = BenchScenes.outlines(1920, 1080);
+        for (int i = 0; i < 200; i++) {
+            engine.perform(new CanvasOperation.StrokeOp(0xff000000 | (i * 0x2f1b37), 2f + i % 12,
+                                                        BenchScenes.path(1920, 1080, 80, i)));
+        }
+        drawing = engine.getComposite();
+        dir = Files.createTempDirectory("exportbench").toFile();
+        file = new File(dir, "drawing.png");
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+        dir.delete();
+    }
+
+    @Benchmark
+    public File save() throws IOException {
+        DrawingExporter.writePng(DrawingExporter.flatten(drawing), file, level, null);
+        return file;
+    }
+}
@@ -0,0 +1,98 @@
+package com.ooadlabexercise.drawingstudio.model;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.Random;
+
+/**
+ * Times the original per-pixel {@code Point} queue flood fill against {@link ScanlineFill}
+ * and {@link ParallelFill} on 1080p and 8K canvases with a few hundred outlined shapes on them.
+ * <p>
+ * Usage: {@code FillBenchmark [iterations]} (default 5, legacy 8K runs once).
+ */
+public class FillBenchmark {
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        System.setProperty("java.awt.headless", "true");
+        run(1920, 1080, iterations, iterations);
+        run(7680, 4320, iterations, 1);
+    }
+
+    private static void run(int w, int h, int iterations, int legacyIterations) {
+        BufferedImage template = scene(w, h);
+        int[] source = Rasters.pixels(template);
+        BufferedImage canvas = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        int[] px = Rasters.pixels(canvas);
+        int color = Color.ORANGE.getRGB();
+
+        long[] legacy = new long[legacyIterations];
+        for (int i = 0; i < legacyIterations; i++) {
+            System.arraycopy(source, 0, px, 0, px.length);
+            long t = System.nanoTime();
+            legacyFill(canvas, 0, 0, new Color(color));
+            legacy[i] = System.nanoTime() - t;
+        }
+        int[] expected = px.clone();
+
+        long[] scanline = new long[iterations];
+        for (int i = 0; i < iterations; i++) {
+            System.arraycopy(source, 0, px, 0, px.length);
+            long t = System.nanoTime();
+            ScanlineFill.fill(px, w, h, 0, 0, color, 0);
+            scanline[i] = System.nanoTime() - t;
+        }
+        if (!Arrays.equals(expected, px)) throw new AssertionError("scanline fill differs from legacy fill");
+
+        long[] parallel = new long[iterations];
+        for (int i = 0; i < iterations; i++) {
+            System.arraycopy(source, 0, px, 0, px.length);
+            long t = System.nanoTime();
+            ParallelFill.fillParallel(px, w, h, 0, 0, color, 0, ParallelFill.TILE);
+            parallel[i] = System.nanoTime() - t;
+        }
+        if (!Arrays.equals(expected, px)) throw new AssertionError("parallel fill differs from legacy fill");
+
+        double l = best(legacy), s = best(scanline), p = best(parallel);
+        System.out.printf("%dx%d: legacy %.1f ms, scanline %.1f ms (%.0fx), parallel %.1f ms (%.1fx, %d cores)%n",
+            w, h, l, s, l / s, p, l / p, Runtime.getRuntime().availableProcessors());
+    }
+
+    private static BufferedImage scene(int w, int h) {
+        BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = img.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setStroke(new BasicStroke(3, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+        g.setColor(Color.BLACK);
+        Random rnd = new Random(7);
+        for (int i = 0; i < 300; i++) {
+            int x = rnd.nextInt(w), y = rnd.nextInt(h), s = 20 + rnd.nextInt(w / 10);
+            if (rnd.nextBoolean()) g.drawOval(x, y, s, s); else g.drawRect(x, y, s, s / 2);
+        }
+        g.dispose();
+        return img;
+    }
+
+    /** The fill DrawingCanvasPanel used before ScanlineFill; FloodFillBench times it too. */
+    static void legacyFill(BufferedImage canvas, int x, int y, Color c) {
+        int w = canvas.getWidth(), h = canvas.getHeight();
+        int target = canvas.getRGB(x, y);
+        int replacement = c.getRGB(); if (target == replacement) return;
+        Queue<Point> q = new LinkedList<>();
+        q.add(new Point(x, y));
+        while (!q.isEmpty()) {
+            Point p = q.remove(); int px = p.x, py = p.y;
+            if (px < 0 || px >= w || py < 0 || py >= h) continue;
+            if (canvas.getRGB(px, py) != target) continue;
+            canvas.setRGB(px, py, replacement);
+            q.add(new Point(px + 1, py)); q.add(new Point(px - 1, py));
+            q.add(new Point(px, py + 1)); q.add(new Point(px, py - 1));
+        }
+    }
+
+    private static double best(long[] ns) {
+        return Arrays.stream(ns).min().orElse(0) / 1e6;
+    }
+}
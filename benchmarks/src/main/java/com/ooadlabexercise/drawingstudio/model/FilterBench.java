@@ -0,0 +1,63 @@
+package com.ooadlabexercise.drawingstudio.model;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * {@link FilterPipeline} runs over the outlined-shapes scene: a blur, a sharpen
+ * and the per-pixel colour filters together, at full resolution as Apply runs
+ * them and on a proxy at a quarter of the size, as the live preview does at
+ * 50% zoom. The tiles run on the common fork/join pool, so the numbers scale
+ * with the cores the fork gets.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class FilterBench {
+    @Param({"1920x1080", "3840x2160"})
+    public String size;
+
+    @Param({"blur", "sharpen", "colour"})
+    public String filter;
+
+    private FilterPipeline pipeline;
+    private int[] px, proxy;
+    private int w, h;
+
+    @Setup
+    public void setup() {
+        int[] wh = BenchScenes.parseSize(size);
+        w = wh[0];
+        h = wh[1];
+        px = Rasters.pixels(BenchScenes.outlines(w, h).getCanvas()).clone();
+        proxy = new int[(w / 4) * (h / 4)];
+        for (int y = 0; y < h / 4; y++) {
+            for (int x = 0; x < w / 4; x++) proxy[y * (w / 4) + x] = px[y * 4 * w + x * 4];
+        }
+        switch (filter) {
+            case "blur":
+                pipeline = new FilterPipeline(Arrays.asList(new ImageFilter.Blur(10)));
+                break;
+            case "sharpen":
+                pipeline = new FilterPipeline(Arrays.asList(new ImageFilter.Sharpen(1.5f, 2)));
+                break;
+            default:
+                pipeline = new FilterPipeline(Arrays.asList(new ImageFilter.BrightnessContrast(20, 30),
+                                                            new ImageFilter.Posterize(6)));
+        }
+    }
+
+    @Benchmark
+    public int[] fullResolution() {
+        return pipeline.run(px, w, h, 1);
+    }
+
+    @Benchmark
+    public int[] preview() {
+        return pipeline.run(proxy, w / 4, h / 4, 0.25);
+    }
+}
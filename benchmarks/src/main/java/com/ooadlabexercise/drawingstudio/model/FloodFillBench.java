@@ -0,0 +1,69 @@
+package com.ooadlabexercise.drawingstudio.model;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Bucket fill of the background around a few hundred outlined shapes: the
+ * original per-pixel {@code Point} queue fill, the {@link ScanlineFill} kernel
+ * alone, and the whole fill operation as the canvas runs it, including the tile
+ * history commit. The kernels flip the region between two colours, so every
+ * call fills the same pixels; the fill operation is undone before the next call,
+ * so the drawing stays the outlines alone.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Djava.awt.headless=true", "-Xmx6g" })
+public class FloodFillBench {
+    @Param({"800x600", "1920x1080", "3840x2160", "7680x4320"})
+    public String size;
+
+    private DrawingEngine engine;
+    private int[] px;
+    private BufferedImage legacy;
+    private int w, h;
+    private boolean flip, filled;
+
+    @Setup
+    public void setup() {
+        int[] wh = BenchScenes.parseSize(size);
+        w = wh[0];
+        h = wh[1];
+        engine = BenchScenes.outlines(w, h);
+        px = Rasters.pixels(engine.getCanvas()).clone();
+        legacy = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        System.arraycopy(px, 0, Rasters.pixels(legacy), 0, px.length);
+    }
+
+    @Setup(Level.Invocation)
+    public void undoFill() {
+        if (filled) engine.undoStep();
+        filled = false;
+    }
+
+    @Benchmark
+    public BufferedImage pointQueue() {
+        flip = !flip;
+        FillBenchmark.legacyFill(legacy, 0, 0, new Color(flip ? 0xffff8800 : 0xff0088ff));
+        return legacy;
+    }
+
+    @Benchmark
+    public Rectangle scanline() {
+        flip = !flip;
+        return ScanlineFill.fill(px, w, h, 0, 0, flip ? 0xffff8800 : 0xff0088ff, 0);
+    }
+
+    @Benchmark
+    public Rectangle fillOperation() {
+        Rectangle dirty = engine.perform(new CanvasOperation.FillOp(0, 0, 0xffff8800, 0));
+        filled = !dirty.isEmpty();
+        return dirty;
+    }
+}
@@ -0,0 +1,59 @@
+package com.ooadlabexercise.drawingstudio.model;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Cost of making a stroke undoable: the full-frame copy the canvas used to push
+ * on every edit ({@code copyImage}) against committing the stroke's tile deltas,
+ * and undoing and redoing a step.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class HistoryBench {
+    @Param({"1920x1080", "3840x2160"})
+    public String size;
+
+    private DrawingEngine engine;
+    private CanvasOperation[] strokes;
+    private int next;
+
+    @Setup
+    public void setup() {
+        int[] wh = BenchScenes.parseSize(size);
+        engine = BenchScenes.outlines(wh[0], wh[1]);
+        strokes = new CanvasOperation[16];
+        for (int i = 0; i < strokes.length; i++) {
+            int color = (i & 1) == 0 ? 0xffcc2200 : 0xff0022cc;
+            strokes[i] = new CanvasOperation.StrokeOp(color, 4f, BenchScenes.path(wh[0], wh[1], 60, i));
+        }
+    }
+
+    /** The snapshot the canvas took before each edit until tiled history replaced it. */
+    @Benchmark
+    public BufferedImage copyImage() {
+        BufferedImage src = engine.getCanvas();
+        BufferedImage copy = new BufferedImage(src.getWidth(), src.getHeight(), src.getType());
+        copy.getGraphics().drawImage(src, 0, 0, null);
+        return copy;
+    }
+
+    /** Draws and commits a stroke, then undoes it so the canvas stays the same between calls. */
+    @Benchmark
+    public Rectangle strokeCommitAndUndo() {
+        engine.perform(strokes[next++ & (strokes.length - 1)]);
+        return engine.undoStep();
+    }
+
+    @Benchmark
+    public Rectangle undoRedo() {
+        engine.undoStep();
+        return engine.redoStep();
+    }
+}
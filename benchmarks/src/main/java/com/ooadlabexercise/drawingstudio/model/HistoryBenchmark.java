@@ -0,0 +1,119 @@
+package com.ooadlabexercise.drawingstudio.model;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Stack;
+
+/**
+ * Compares retained heap and undo latency of the old full-frame
+ * {@code Stack<BufferedImage>} history against {@link TileHistory}.
+ * <p>
+ * Usage: {@code HistoryBenchmark [width height steps]} (defaults 3840 2160 40).
+ * Run with a generous -Xmx; the legacy stack needs width*height*4 bytes per step.
+ */
+public class HistoryBenchmark {
+    public static void main(String[] args) {
+        int w = args.length > 0 ? Integer.parseInt(args[0]) : 3840;
+        int h = args.length > 1 ? Integer.parseInt(args[1]) : 2160;
+        int steps = args.length > 2 ? Integer.parseInt(args[2]) : 40;
+        System.setProperty("java.awt.headless", "true");
+        System.out.printf("canvas %dx%d, %d strokes%n", w, h, steps);
+
+        // Legacy: a full copy per step, undo redraws the whole frame
+        BufferedImage canvas = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        long before = usedHeap();
+        Stack<BufferedImage> stack = new Stack<>();
+        stack.push(copyImage(canvas));
+        Random rnd = new Random(42);
+        for (int i = 0; i < steps; i++) {
+            stroke(canvas, rnd);
+            stack.push(copyImage(canvas));
+        }
+        long legacyHeap = usedHeap() - before;
+        long[] legacyUndo = new long[steps];
+        Graphics2D g = canvas.createGraphics();
+        for (int i = 0; i < steps; i++) {
+            long t = System.nanoTime();
+            stack.pop();
+            g.setComposite(AlphaComposite.Clear);
+            g.fillRect(0, 0, w, h);
+            g.setComposite(AlphaComposite.SrcOver);
+            g.drawImage(stack.peek(), 0, 0, null);
+            legacyUndo[i] = System.nanoTime() - t;
+        }
+        g.dispose();
+        stack = null;
+        canvas = null;
+
+        // Tiled deltas: only the dirty tiles, compressed
+        canvas = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        before = usedHeap();
+        TileHistory history = new TileHistory();
+        history.setBudget(Long.MAX_VALUE);
+        history.reset(canvas);
+        rnd = new Random(42);
+        long[] commit = new long[steps];
+        for (int i = 0; i < steps; i++) {
+            Rectangle dirty = stroke(canvas, rnd);
+            long t = System.nanoTime();
+            history.commit(canvas, dirty);
+            commit[i] = System.nanoTime() - t;
+        }
+        long tiledHeap = usedHeap() - before;
+        long[] tiledUndo = new long[steps];
+        for (int i = 0; i < steps; i++) {
+            long t = System.nanoTime();
+            history.undo(canvas);
+            tiledUndo[i] = System.nanoTime() - t;
+        }
+
+        System.out.printf("legacy  : retained %,d KB (%,d KB/step), undo median %.2f ms, max %.2f ms%n",
+            legacyHeap / 1024, legacyHeap / 1024 / (steps + 1), median(legacyUndo), max(legacyUndo));
+        System.out.printf("tiled   : retained %,d KB (history reports %,d KB), undo median %.2f ms, max %.2f ms, commit median %.2f ms%n",
+            tiledHeap / 1024, history.getMemoryUsage() / 1024, median(tiledUndo), max(tiledUndo), median(commit));
+    }
+
+    /** Draws a random polyline stroke and returns its dirty bounds. */
+    private static Rectangle stroke(BufferedImage canvas, Random rnd) {
+        Graphics2D g = canvas.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        float width = 1 + rnd.nextInt(20);
+        g.setStroke(new BasicStroke(width, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+        g.setColor(new Color(rnd.nextInt()));
+        int x = rnd.nextInt(canvas.getWidth()), y = rnd.nextInt(canvas.getHeight());
+        Rectangle dirty = null;
+        for (int i = 0; i < 30; i++) {
+            int nx = x + rnd.nextInt(81) - 40, ny = y + rnd.nextInt(81) - 40;
+            g.drawLine(x, y, nx, ny);
+            Rectangle seg = Rasters.segmentBounds(x, y, nx, ny, width);
+            dirty = dirty == null ? seg : dirty.union(seg);
+            x = nx; y = ny;
+        }
+        g.dispose();
+        return dirty;
+    }
+
+    private static BufferedImage copyImage(BufferedImage src) {
+        BufferedImage copy = new BufferedImage(src.getWidth(), src.getHeight(), src.getType());
+        copy.getGraphics().drawImage(src, 0, 0, null);
+        return copy;
+    }
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) System.gc();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    private static double median(long[] ns) {
+        long[] s = ns.clone();
+        Arrays.sort(s);
+        return s[s.length / 2] / 1e6;
+    }
+
+    private static double max(long[] ns) {
+        return Arrays.stream(ns).max().orElse(0) / 1e6;
+    }
+}
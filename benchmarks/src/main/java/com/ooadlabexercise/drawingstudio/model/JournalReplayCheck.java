@@ -0,0 +1,214 @@
+package com.ooadlabexercise.drawingstudio.model;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+
+/**
+ * Checks that an {@link OperationJournal} replays a session to the same drawing.
+ * Each session draws random strokes, shapes, bucket fills and clears, undoes and
+ * redoes, resizes, pans and edits the layer stack, journalling every step as the
+ * canvas does, so it crosses several checkpoints. The journal is then replayed
+ * into a fresh engine, which must end up with the same layers, view and pixels,
+ * including the tiles outside the window.
+ * <p>
+ * Each session then runs again with every checkpoint of its last steps failing
+ * to write, as if the process died before they landed. Replay falls back to the
+ * older generations and must end in a state the session really was in since the
+ * failures began, not one mixing undone steps with later ones.
+ * <p>
+ * Usage: {@code JournalReplayCheck [steps per session ...]} (defaults 50, 300,
+ * 3000; session n is seeded with n). Runs headless; exits with 1 if any session
+ * replays differently.
+ */
+public class JournalReplayCheck {
+    private static final int W = 800, H = 600;
+    private static final Rectangle CHECKED = new Rectangle(-1024, -1024, 3072, 2560);
+    private static final int LOST_STEPS = 150;
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        int[] sessions = args.length > 0 ? Arrays.stream(args).mapToInt(Integer::parseInt).toArray()
+                                         : new int[] { 50, 300, 3000 };
+        boolean same = true;
+        for (int i = 0; i < sessions.length; i++) same &= session(sessions[i], i + 1);
+        for (int i = 0; i < sessions.length; i++) same &= lostCheckpoints(sessions[i], i + 1);
+        System.out.println(same ? "all sessions replay the same" : "REPLAYS DIFFER");
+        System.exit(same ? 0 : 1);
+    }
+
+    private static boolean session(int steps, long seed) throws Exception {
+        File dir = Files.createTempDirectory("journal-check").toFile();
+        try {
+            DrawingEngine engine = new DrawingEngine(W, H);
+            OperationJournal journal = new OperationJournal(dir);
+            journal.start(engine, false);
+            Random rnd = new Random(seed);
+            for (int i = 0; i < steps; i++) step(engine, journal, rnd);
+            journal.flush();
+            String[] files = dir.list();
+
+            DrawingEngine replayed = new DrawingEngine(W, H);
+            long t = System.nanoTime();
+            new OperationJournal(dir).replay(replayed);
+            double ms = (System.nanoTime() - t) / 1e6;
+            String difference = difference(engine, replayed);
+            System.out.printf("%d steps, %d layers, files %s: replay %.1f ms, %s%n", steps, engine.getLayerCount(),
+                              Arrays.toString(files), ms, difference == null ? "same" : "DIFFERS in " + difference);
+            return difference == null;
+        } finally {
+            File[] left = dir.listFiles();
+            if (left != null) for (File f : left) f.delete();
+            dir.delete();
+        }
+    }
+
+    private static boolean lostCheckpoints(int steps, long seed) throws Exception {
+        File dir = Files.createTempDirectory("journal-check").toFile();
+        try {
+            DrawingEngine engine = new DrawingEngine(W, H);
+            OperationJournal journal = new OperationJournal(dir);
+            journal.start(engine, false);
+            Random rnd = new Random(seed);
+            int failing = Math.min(LOST_STEPS, steps / 2);
+            for (int i = 0; i < steps - failing; i++) step(engine, journal, rnd);
+            journal.flush();
+            // a directory where a checkpoint is first written makes the write fail; a step rolls at most 3 times
+            int gen = 0;
+            for (String name : dir.list()) {
+                if (name.startsWith("journal-")) gen = Math.max(gen, Integer.parseInt(name.replaceAll("\\D", "")));
+            }
+            for (int g = gen + 1; g <= gen + 3 * failing + 1; g++) new File(dir, "checkpoint-" + g + ".dsp.tmp").mkdir();
+            List<Long> seen = new ArrayList<>();
+            seen.add(signature(engine));
+            for (int i = 0; i < failing; i++) {
+                step(engine, journal, rnd);
+                seen.add(signature(engine));
+            }
+            journal.flush();
+
+            DrawingEngine replayed = new DrawingEngine(W, H);
+            new OperationJournal(dir).replay(replayed);
+            int at = seen.lastIndexOf(signature(replayed));
+            System.out.printf("%d steps, checkpoints lost over the last %d: %s%n", steps, failing,
+                              at < 0 ? "REPLAY MATCHES NO STATE" : "replay ends " + (failing - at) + " steps short");
+            return at >= 0;
+        } finally {
+            File[] left = dir.listFiles();
+            if (left != null) for (File f : left) f.delete();
+            dir.delete();
+        }
+    }
+
+    /** One thing a user could do, journalled the way DrawingCanvasPanel journals it. */
+    private static void step(DrawingEngine engine, OperationJournal journal, Random rnd) throws IOException {
+        int k = rnd.nextInt(20);
+        if (k < 12) {
+            CanvasOperation op = operation(engine, rnd);
+            if (engine.commit(op, engine.apply(op))) journal.logOperation(op, engine);
+        } else if (k < 14) {
+            for (int n = 1 + rnd.nextInt(3); n > 0; n--) {
+                if (engine.undoStep() != null) journal.logUndo(engine);
+            }
+        } else if (k < 15) {
+            for (int n = 1 + rnd.nextInt(2); n > 0; n--) {
+                if (engine.redoStep() != null) journal.logRedo(engine);
+            }
+        } else if (k < 16) {
+            int w = 200 + rnd.nextInt(700), h = 150 + rnd.nextInt(550);
+            engine.resizeCanvas(w, h);
+            journal.logResize(w, h);
+        } else if (k < 17) {
+            int x = rnd.nextInt(1201) - 600, y = rnd.nextInt(1201) - 600;
+            engine.pan(x, y);
+            journal.logView(x, y);
+        } else {
+            LayerEdit edit = layerEdit(engine, rnd);
+            engine.edit(edit);
+            journal.logLayerEdit(edit, engine);
+        }
+    }
+
+    /** A random operation in world coordinates, mostly over the window and partly beyond it. */
+    private static CanvasOperation operation(DrawingEngine engine, Random rnd) {
+        BufferedImage canvas = engine.getCanvas();
+        int vx = engine.getViewX(), vy = engine.getViewY(), w = canvas.getWidth(), h = canvas.getHeight();
+        int color = rnd.nextInt(4) == 0 ? rnd.nextInt() : 0xff000000 | rnd.nextInt(0x1000000);
+        int x = vx - 100 + rnd.nextInt(w + 200), y = vy - 100 + rnd.nextInt(h + 200);
+        switch (rnd.nextInt(12)) {
+            case 0:
+                return new CanvasOperation.FillOp(vx + rnd.nextInt(w), vy + rnd.nextInt(h), color,
+                                                  rnd.nextInt(3) == 0 ? rnd.nextInt(50) : 0);
+            case 1:
+                return rnd.nextInt(4) == 0 ? new CanvasOperation.ClearOp()
+                                           : new CanvasOperation.FillOp(x, y, color, 0);
+            case 2:
+            case 3: {
+                DrawingCanvasPanel.Tool[] tools = {
+                    DrawingCanvasPanel.Tool.LINE, DrawingCanvasPanel.Tool.RECTANGLE, DrawingCanvasPanel.Tool.OVAL };
+                return new CanvasOperation.ShapeOp(tools[rnd.nextInt(3)], color, 1 + rnd.nextInt(6),
+                                                   x, y, x + rnd.nextInt(241) - 120, y + rnd.nextInt(241) - 120);
+            }
+            default: {
+                int[] points = new int[2 * (2 + rnd.nextInt(30))];
+                for (int i = 0; i < points.length; i += 2) {
+                    points[i] = x += rnd.nextInt(31) - 15;
+                    points[i + 1] = y += rnd.nextInt(31) - 15;
+                }
+                return new CanvasOperation.StrokeOp(color, 1 + rnd.nextInt(10), points, rnd.nextBoolean());
+            }
+        }
+    }
+
+    private static LayerEdit layerEdit(DrawingEngine engine, Random rnd) {
+        int active = engine.getActiveLayer(), count = engine.getLayerCount();
+        switch (rnd.nextInt(8)) {
+            case 0: return LayerEdit.add(active + 1, "Layer " + (count + 1));
+            case 1:
+            case 2: return count < 4 ? LayerEdit.add(active + 1, "Layer " + (count + 1)) : LayerEdit.remove(active);
+            case 3: return LayerEdit.move(active, rnd.nextInt(count));
+            case 4: return LayerEdit.select(rnd.nextInt(count));
+            case 5: return LayerEdit.opacity(active, rnd.nextFloat());
+            case 6: return LayerEdit.blend(active, BlendMode.values()[rnd.nextInt(BlendMode.values().length)]);
+            default: return LayerEdit.visible(active, rnd.nextInt(4) != 0);
+        }
+    }
+
+    /** A hash of everything {@link #difference} compares. */
+    private static long signature(DrawingEngine e) {
+        long h = Objects.hash(e.getLayerCount(), e.getActiveLayer(), e.getViewX(), e.getViewY(),
+                              e.getCanvas().getWidth(), e.getCanvas().getHeight());
+        for (int i = 0; i < e.getLayerCount(); i++) {
+            Layer layer = e.getLayer(i);
+            h = 31 * h + Objects.hash(layer.name, layer.opacity, layer.blend, layer.visible);
+            h = 31 * h + Arrays.hashCode(Rasters.pixels(layer.copyArea(CHECKED)));
+        }
+        return 31 * h + Arrays.hashCode(Rasters.pixels(e.getComposite()));
+    }
+
+    /** What differs between the two engines, or null if nothing does. */
+    private static String difference(DrawingEngine a, DrawingEngine b) {
+        if (a.getLayerCount() != b.getLayerCount()) return "layer count";
+        if (a.getActiveLayer() != b.getActiveLayer()) return "active layer";
+        if (a.getViewX() != b.getViewX() || a.getViewY() != b.getViewY()) return "view";
+        if (a.getCanvas().getWidth() != b.getCanvas().getWidth()
+                || a.getCanvas().getHeight() != b.getCanvas().getHeight()) return "canvas size";
+        for (int i = 0; i < a.getLayerCount(); i++) {
+            Layer la = a.getLayer(i), lb = b.getLayer(i);
+            if (!la.name.equals(lb.name) || la.opacity != lb.opacity || la.blend != lb.blend
+                    || la.visible != lb.visible) return "layer " + i + " settings";
+            if (!Arrays.equals(Rasters.pixels(la.copyArea(CHECKED)), Rasters.pixels(lb.copyArea(CHECKED)))) {
+                return "layer " + i + " pixels";
+            }
+        }
+        if (!Arrays.equals(Rasters.pixels(a.getComposite()), Rasters.pixels(b.getComposite()))) return "composite";
+        return null;
+    }
+}
@@ -0,0 +1,83 @@
+package com.ooadlabexercise.drawingstudio.model;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Random;
+
+/**
+ * Checks that {@link ParallelFill} fills exactly what {@link ScanlineFill} fills:
+ * random canvases of speckled, near-black pixels with random seeds, exact and
+ * tolerance fills and tile sizes from 1 to 80 pixels, so regions wind across
+ * many tile borders. Pixels and bounds must match; then both fill a 16384x8192
+ * canvas of long walls at the default tile size and the times are printed.
+ * <p>
+ * Usage: {@code ParallelFillCheck [canvases] [seed]} (defaults 300, 5). Exits
+ * with 1 at the first difference. The large canvas needs about 3 GB of heap.
+ */
+public class ParallelFillCheck {
+    public static void main(String[] args) {
+        int canvases = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 5;
+        Random rnd = new Random(seed);
+        for (int i = 0; i < canvases; i++) {
+            int w = 1 + rnd.nextInt(700), h = 1 + rnd.nextInt(500);
+            int[] px = speckled(rnd, w, h);
+            int[] parallel = px.clone();
+            int x = rnd.nextInt(w), y = rnd.nextInt(h);
+            int replacement = rnd.nextBoolean() ? 0xffff0000 : 0xff000005;
+            int tolerance = rnd.nextInt(3) == 0 ? rnd.nextInt(40) : 0;
+            int tile = 1 + rnd.nextInt(80);
+            Rectangle expected = ScanlineFill.fill(px, w, h, x, y, replacement, tolerance);
+            Rectangle actual = ParallelFill.fillParallel(parallel, w, h, x, y, replacement, tolerance, tile);
+            if (!Arrays.equals(px, parallel) || !Objects.equals(expected, actual)) {
+                System.out.printf("canvas %d (%dx%d, seed %d,%d, tolerance %d, tile %d) differs: bounds %s vs %s%n",
+                                  i, w, h, x, y, tolerance, tile, expected, actual);
+                System.exit(1);
+            }
+        }
+        System.out.println(canvases + " random canvases filled the same");
+
+        int w = 16384, h = 8192;
+        int[] source = walls(rnd, w, h);
+        int[] px = new int[source.length], parallel = new int[source.length];
+        for (int i = 0; i < 3; i++) {
+            System.arraycopy(source, 0, px, 0, px.length);
+            System.arraycopy(source, 0, parallel, 0, parallel.length);
+            long t0 = System.nanoTime();
+            ScanlineFill.fill(px, w, h, 1, 1, 0xffff0000, 0);
+            long t1 = System.nanoTime();
+            ParallelFill.fillParallel(parallel, w, h, 1, 1, 0xffff0000, 0, ParallelFill.TILE);
+            long t2 = System.nanoTime();
+            boolean same = Arrays.equals(px, parallel);
+            System.out.printf("%dx%d: scanline %.1f ms, parallel %.1f ms (%d cores)%s%n", w, h, (t1 - t0) / 1e6,
+                              (t2 - t1) / 1e6, Runtime.getRuntime().availableProcessors(), same ? "" : " DIFFER");
+            if (!same) System.exit(1);
+        }
+    }
+
+    /** Mostly black with some dark noise, and {@code density} percent speckles of other dark colours. */
+    private static int[] speckled(Random rnd, int w, int h) {
+        int[] px = new int[w * h];
+        int density = rnd.nextInt(60);
+        for (int i = 0; i < px.length; i++) {
+            px[i] = rnd.nextInt(100) < density ? 0xff000000 | rnd.nextInt(60)
+                  : 0xff000000 | (rnd.nextInt(3) == 0 ? rnd.nextInt(30) : 0);
+        }
+        return px;
+    }
+
+    /** A transparent canvas crossed by 2000 horizontal and 2000 vertical black walls, 500 pixels long. */
+    private static int[] walls(Random rnd, int w, int h) {
+        int[] px = new int[w * h];
+        for (int i = 0; i < 2000; i++) {
+            int x = rnd.nextInt(w - 500), y = rnd.nextInt(h);
+            Arrays.fill(px, y * w + x, y * w + x + 500, 0xff000000);
+        }
+        for (int i = 0; i < 2000; i++) {
+            int x = rnd.nextInt(w), y = rnd.nextInt(h - 500);
+            for (int k = 0; k < 500; k++) px[(y + k) * w + x] = 0xff000000;
+        }
+        return px;
+    }
+}
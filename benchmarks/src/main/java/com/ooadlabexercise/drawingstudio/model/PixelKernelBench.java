@@ -0,0 +1,97 @@
+package com.ooadlabexercise.drawingstudio.model;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * The {@link PixelKernels} over a whole raster, scalar against SIMD: flattening
+ * onto white for saving, normal-mode compositing of a half-transparent layer at
+ * full and at partial opacity, premultiplying for the mipmap (after copying the
+ * source back, which both variants pay the same) and finding the runs of
+ * near-background pixels row by row, as the parallel fill's labelling does.
+ * <p>
+ * The {@code simd} variant fails when the Vector API kernels are not on the class
+ * path; the fork adds the incubator module, so this benchmark needs JDK 17+.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Djava.awt.headless=true", "--add-modules=jdk.incubator.vector", "-Xmx3g" })
+public class PixelKernelBench {
+    private static final int BACKGROUND = 0xfff4f0e8;
+
+    @Param({"3840x2160", "7680x4320"})
+    public String size;
+
+    @Param({"scalar", "simd"})
+    public String kernels;
+
+    private PixelKernels k;
+    private int[] canvas, layer, out;
+    private int w, h;
+
+    @Setup
+    public void setup() {
+        if (kernels.equals("simd")) {
+            if (PixelKernels.SHARED == PixelKernels.SCALAR) {
+                throw new IllegalStateException("SIMD kernels not available");
+            }
+            k = PixelKernels.SHARED;
+        } else {
+            k = PixelKernels.SCALAR;
+        }
+        int[] wh = BenchScenes.parseSize(size);
+        w = wh[0];
+        h = wh[1];
+        canvas = new int[w * h];
+        layer = new int[w * h];
+        out = new int[w * h];
+        Random rnd = new Random(42);
+        for (int i = 0; i < canvas.length; i++) {
+            // a background with light noise and the odd stroke; a layer half empty, half translucent paint
+            canvas[i] = rnd.nextInt(50) == 0 ? 0xff000000 | rnd.nextInt(0x1000000)
+                : BACKGROUND - rnd.nextInt(4) * 0x010101;
+            layer[i] = rnd.nextBoolean() ? 0 : rnd.nextInt(256) << 24 | rnd.nextInt(0x1000000);
+        }
+    }
+
+    @Benchmark
+    public int[] overWhite() {
+        k.overWhite(layer, out, 0, out.length);
+        return out;
+    }
+
+    @Benchmark
+    public int[] blendOpaque() {
+        k.blend(canvas, layer, out, 0, out.length, 1f, BlendMode.NORMAL);
+        return out;
+    }
+
+    @Benchmark
+    public int[] blendFaded() {
+        k.blend(canvas, layer, out, 0, out.length, 0.6f, BlendMode.NORMAL);
+        return out;
+    }
+
+    @Benchmark
+    public boolean premultiply() {
+        System.arraycopy(layer, 0, out, 0, out.length);
+        return k.premultiply(out, 0, out.length);
+    }
+
+    @Benchmark
+    public int matchingRuns() {
+        int runs = 0;
+        for (int row = 0; row < canvas.length; row += w) {
+            for (int x = row, end = row + w; ; runs++) {
+                x = k.nextMatch(canvas, x, end, BACKGROUND, 8);
+                if (x == end) break;
+                x = k.endOfMatches(canvas, x, end, BACKGROUND, 8);
+            }
+        }
+        return runs;
+    }
+}
@@ -0,0 +1,68 @@
+package com.ooadlabexercise.drawingstudio.model;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.event.ComponentEvent;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * A line, rectangle or oval being dragged out on the drawing panel: each call
+ * moves the far corner and paints the area the old and new dashed previews
+ * cover, the way the panel repaints during the drag. The panel paints into an
+ * offscreen image, so no display is needed; it is driven from the benchmark
+ * thread, which is fine while it is not shown.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class PreviewBench {
+    private static final int W = 1280, H = 800;
+
+    @Param({"LINE", "RECTANGLE", "OVAL"})
+    public String tool;
+
+    private DrawingCanvasPanel panel;
+    private BufferedImage screen;
+    private int[] points;
+    private int next, lastX, lastY;
+
+    @Setup
+    public void setup() {
+        panel = new DrawingCanvasPanel();
+        panel.setSize(W, H);
+        panel.dispatchEvent(new ComponentEvent(panel, ComponentEvent.COMPONENT_RESIZED));
+        screen = new BufferedImage(W, H, BufferedImage.TYPE_INT_RGB);
+        paint(new Rectangle(0, 0, W, H));
+        panel.setTool(DrawingCanvasPanel.Tool.valueOf(tool));
+        BenchScenes.mouse(panel, MouseEvent.MOUSE_PRESSED, W / 2, H / 2);
+        lastX = W / 2;
+        lastY = H / 2;
+        points = BenchScenes.path(W, H, 1024, 5);
+    }
+
+    @Benchmark
+    public BufferedImage dragPreview() {
+        int i = 2 * (next++ % 1024);
+        int x = points[i], y = points[i + 1];
+        BenchScenes.mouse(panel, MouseEvent.MOUSE_DRAGGED, x, y);
+        Rectangle dirty = Rasters.segmentBounds(W / 2, H / 2, lastX, lastY, 2f)
+            .union(Rasters.segmentBounds(W / 2, H / 2, x, y, 2f));
+        lastX = x;
+        lastY = y;
+        paint(dirty);
+        return screen;
+    }
+
+    private void paint(Rectangle clip) {
+        Graphics2D g = screen.createGraphics();
+        g.setClip(clip);
+        panel.paint(g);
+        g.dispose();
+    }
+}
@@ -0,0 +1,78 @@
+package com.ooadlabexercise.drawingstudio.model;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * The reference board with scattered, optionally rotated images: painting the
+ * whole board straight from the images (no display cache, so every call draws
+ * each transformed image), and clicking, which finds the topmost image under
+ * the pointer.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ReferenceBench {
+    private static final int W = 1600, H = 1000, CLICKS = 1024;
+
+    @Param({"10", "100"})
+    public int images;
+
+    @Param({"0", "30"})
+    public int rotation;
+
+    private ReferenceCanvasPanel panel;
+    private BufferedImage screen;
+    private int[] clicks;
+    private int next;
+
+    @Setup
+    public void setup() {
+        panel = new ReferenceCanvasPanel();
+        panel.setSize(W, H);
+        panel.setDisplayCacheMode(DisplayCache.Mode.NONE);
+        Random rnd = new Random(5);
+        for (int i = 0; i < images; i++) {
+            BufferedImage img = new BufferedImage(320, 240, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = img.createGraphics();
+            g.setPaint(new GradientPaint(0, 0, new Color(rnd.nextInt()), 320, 240, new Color(rnd.nextInt())));
+            g.fillRect(0, 0, 320, 240);
+            g.dispose();
+            // new images land in the middle on top; drag each one somewhere else
+            panel.addImage(img);
+            BenchScenes.mouse(panel, MouseEvent.MOUSE_PRESSED, W / 2, H / 2);
+            BenchScenes.mouse(panel, MouseEvent.MOUSE_DRAGGED, rnd.nextInt(W), rnd.nextInt(H));
+            BenchScenes.mouse(panel, MouseEvent.MOUSE_RELEASED, 0, 0);
+            panel.rotateSelected(rotation);
+        }
+        screen = new BufferedImage(W, H, BufferedImage.TYPE_INT_RGB);
+        clicks = new int[2 * CLICKS];
+        for (int i = 0; i < CLICKS; i++) {
+            clicks[2 * i] = rnd.nextInt(W);
+            clicks[2 * i + 1] = rnd.nextInt(H);
+        }
+    }
+
+    @Benchmark
+    public BufferedImage paintBoard() {
+        Graphics2D g = screen.createGraphics();
+        panel.paint(g);
+        g.dispose();
+        return screen;
+    }
+
+    @Benchmark
+    public void hitTest() {
+        int i = 2 * (next++ % CLICKS);
+        BenchScenes.mouse(panel, MouseEvent.MOUSE_PRESSED, clicks[i], clicks[i + 1]);
+    }
+}
@@ -0,0 +1,210 @@
+package com.ooadlabexercise.drawingstudio.model;
+
+import java.awt.*;
+import java.awt.event.InputEvent;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Random;
+import javax.swing.*;
+
+/**
+ * Frame times of the drawing and reference panels painting straight from their
+ * model rasters ({@code none}) versus through the {@link DisplayCache} as a
+ * screen-compatible image or a {@code VolatileImage}.
+ * <p>
+ * Two kinds of frame are timed: a stroke (or image drag) followed by painting
+ * the dirty region, and a full repaint with nothing changed, as when the window
+ * is uncovered or the split pane moves.
+ * <p>
+ * Usage: {@code RenderBenchmark [frames]} (default 300). With a display the
+ * panels are shown in a window and painted on screen: run once with
+ * {@code -Dsun.java2d.xrender=false} for the software-only X11 pipeline and once
+ * without for the default accelerated one. Without a display the panels paint
+ * into an offscreen image, which only exercises the software loops.
+ */
+public class RenderBenchmark {
+    private static final int W = 1280, H = 800;
+
+    /**
+     * Collects repaint requests instead of scheduling them, so each frame paints
+     * exactly what the panel asked for, on this thread. The stock manager also
+     * drops requests from panels that are not in a showing window.
+     */
+    private static class DirtyRecorder extends RepaintManager {
+        Rectangle dirty = new Rectangle();
+        @Override public void addDirtyRegion(JComponent c, int x, int y, int w, int h) {
+            Rectangle r = new Rectangle(x, y, w, h);
+            dirty = dirty.isEmpty() ? r : dirty.union(r);
+        }
+    }
+    private static final DirtyRecorder repaints = new DirtyRecorder();
+
+    public static void main(String[] args) throws Exception {
+        int frames = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+        boolean headless = GraphicsEnvironment.isHeadless();
+        System.out.println("pipeline: " + pipeline(headless) + ", " + W + "x" + H + ", " + frames + " frames");
+        SwingUtilities.invokeAndWait(() -> {
+            RepaintManager.setCurrentManager(repaints);
+            JFrame frame = headless ? null : new JFrame("RenderBenchmark");
+            BufferedImage screen = headless ? new BufferedImage(W, H, BufferedImage.TYPE_INT_RGB) : null;
+
+            DrawingCanvasPanel draw = new DrawingCanvasPanel();
+            draw.setStrokeSmoothing(false);  // draw synchronously, one segment per event
+            show(frame, draw);
+            prepareDrawing(draw);
+            for (DisplayCache.Mode mode : DisplayCache.Mode.values()) {
+                draw.setDisplayCacheMode(mode);
+                report("drawing", mode, drawingFrames(draw, screen, frames));
+            }
+
+            ReferenceCanvasPanel ref = new ReferenceCanvasPanel();
+            show(frame, ref);
+            prepareBoard(ref);
+            for (DisplayCache.Mode mode : DisplayCache.Mode.values()) {
+                ref.setDisplayCacheMode(mode);
+                report("reference", mode, boardFrames(ref, screen, frames));
+            }
+            if (frame != null) frame.dispose();
+        });
+        System.exit(0);
+    }
+
+    private static String pipeline(boolean headless) {
+        if (headless) return "headless offscreen (software loops)";
+        GraphicsConfiguration gc = GraphicsEnvironment.getLocalGraphicsEnvironment()
+            .getDefaultScreenDevice().getDefaultConfiguration();
+        return gc.getClass().getSimpleName()
+            + (Boolean.getBoolean("sun.java2d.opengl") ? " (OpenGL)" : "")
+            + ("false".equals(System.getProperty("sun.java2d.xrender")) ? " (XRender off)" : "");
+    }
+
+    private static void show(JFrame frame, JComponent panel) {
+        panel.setPreferredSize(new Dimension(W, H));
+        panel.setSize(W, H);
+        if (frame == null) {
+            // no window: tell the panel its size the way a layout would
+            panel.dispatchEvent(new java.awt.event.ComponentEvent(panel, java.awt.event.ComponentEvent.COMPONENT_RESIZED));
+            return;
+        }
+        frame.setContentPane(panel);
+        frame.pack();
+        frame.setVisible(true);
+        panel.paintImmediately(0, 0, W, H);
+        Toolkit.getDefaultToolkit().sync();
+    }
+
+    /** A few hundred strokes on two layers, so the composite is not trivial. */
+    private static void prepareDrawing(DrawingCanvasPanel draw) {
+        Random rnd = new Random(3);
+        for (int layer = 0; layer < 2; layer++) {
+            if (layer > 0) draw.addLayer();
+            for (int i = 0; i < 150; i++) {
+                draw.setPenColor(new Color(rnd.nextInt(0xffffff)));
+                draw.setPenSize(1 + rnd.nextInt(12));
+                int x = rnd.nextInt(W), y = rnd.nextInt(H);
+                mouse(draw, MouseEvent.MOUSE_PRESSED, x, y);
+                for (int s = 0; s < 20; s++) mouse(draw, MouseEvent.MOUSE_DRAGGED, x += rnd.nextInt(41) - 20, y += rnd.nextInt(41) - 20);
+                mouse(draw, MouseEvent.MOUSE_RELEASED, x, y);
+            }
+        }
+        draw.setLayerBlendMode(BlendMode.MULTIPLY);
+    }
+
+    private static void prepareBoard(ReferenceCanvasPanel ref) {
+        Random rnd = new Random(5);
+        for (int i = 0; i < 12; i++) {
+            BufferedImage img = new BufferedImage(480, 360, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = img.createGraphics();
+            g.setPaint(new GradientPaint(0, 0, new Color(rnd.nextInt()), 480, 360, new Color(rnd.nextInt())));
+            g.fillRect(0, 0, 480, 360);
+            g.dispose();
+            ref.addImage(img);
+        }
+        mouse(ref, MouseEvent.MOUSE_PRESSED, W / 2, H / 2);
+    }
+
+    /** Stroke frames, then full repaints: nanos per frame for each. */
+    private static long[][] drawingFrames(DrawingCanvasPanel draw, BufferedImage screen, int frames) {
+        long[] stroke = new long[frames], expose = new long[frames];
+        paintDirty(draw, screen);
+        int x = W / 2, y = H / 2;
+        mouse(draw, MouseEvent.MOUSE_PRESSED, x, y);
+        paintDirty(draw, screen);
+        for (int i = 0; i < frames; i++) {
+            double a = i * 0.15;
+            x = W / 2 + (int) (300 * Math.cos(a) * Math.sin(a * 0.3));
+            y = H / 2 + (int) (250 * Math.sin(a));
+            long t = System.nanoTime();
+            mouse(draw, MouseEvent.MOUSE_DRAGGED, x, y);
+            paintDirty(draw, screen);
+            stroke[i] = System.nanoTime() - t;
+        }
+        mouse(draw, MouseEvent.MOUSE_RELEASED, x, y);
+        paintDirty(draw, screen);
+        draw.undo();
+        paintDirty(draw, screen);
+        for (int i = 0; i < frames; i++) {
+            long t = System.nanoTime();
+            paint(draw, screen, new Rectangle(0, 0, W, H));
+            expose[i] = System.nanoTime() - t;
+        }
+        return new long[][] { stroke, expose };
+    }
+
+    /** Image drag frames, then full repaints. */
+    private static long[][] boardFrames(ReferenceCanvasPanel ref, BufferedImage screen, int frames) {
+        long[] drag = new long[frames], expose = new long[frames];
+        paintDirty(ref, screen);
+        for (int i = 0; i < frames; i++) {
+            int nx = W / 2 + (int) (200 * Math.cos(i * 0.1)), ny = H / 2 + (int) (150 * Math.sin(i * 0.1));
+            long t = System.nanoTime();
+            mouse(ref, MouseEvent.MOUSE_DRAGGED, nx, ny);
+            paintDirty(ref, screen);
+            drag[i] = System.nanoTime() - t;
+        }
+        for (int i = 0; i < frames; i++) {
+            long t = System.nanoTime();
+            paint(ref, screen, new Rectangle(0, 0, W, H));
+            expose[i] = System.nanoTime() - t;
+        }
+        return new long[][] { drag, expose };
+    }
+
+    /** Paints what the panel asked to repaint, like the RepaintManager would, and waits for it to reach the screen. */
+    private static void paintDirty(JComponent panel, BufferedImage screen) {
+        Rectangle dirty = repaints.dirty.intersection(new Rectangle(0, 0, W, H));
+        repaints.dirty = new Rectangle();
+        if (!dirty.isEmpty()) paint(panel, screen, dirty);
+    }
+
+    private static void paint(JComponent panel, BufferedImage screen, Rectangle r) {
+        if (screen == null) {
+            panel.paintImmediately(r);
+            Toolkit.getDefaultToolkit().sync();
+            return;
+        }
+        Graphics2D g = screen.createGraphics();
+        g.setClip(r);
+        panel.paint(g);
+        g.dispose();
+    }
+
+    private static void mouse(Component c, int id, int x, int y) {
+        c.dispatchEvent(new MouseEvent(c, id, System.currentTimeMillis(), InputEvent.BUTTON1_DOWN_MASK,
+                                       x, y, 1, false, MouseEvent.BUTTON1));
+    }
+
+    private static void report(String panel, DisplayCache.Mode mode, long[][] times) {
+        System.out.printf("%-9s %-10s change+paint p50 %6.2f ms p99 %6.2f ms | full repaint p50 %6.2f ms p99 %6.2f ms%n",
+            panel, mode.name().toLowerCase(), percentile(times[0], 50), percentile(times[0], 99),
+            percentile(times[1], 50), percentile(times[1], 99));
+    }
+
+    private static double percentile(long[] nanos, double p) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        int i = (int) Math.min(sorted.length - 1, Math.ceil(sorted.length * p / 100.0) - 1);
+        return sorted[Math.max(0, i)] / 1e6;
+    }
+}
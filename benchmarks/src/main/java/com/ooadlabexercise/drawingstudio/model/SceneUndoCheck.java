@@ -0,0 +1,140 @@
+package com.ooadlabexercise.drawingstudio.model;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks undo and redo through the tiled history and the retained scene. Three
+ * engines take the same random strokes, shapes, fills and clears, undo and redo
+ * runs, resizes and pans: one with the default history budget, whose tile deltas
+ * undo every step, one with a small budget, where older steps are re-rendered
+ * from the scene, and one with none, where every undo is a re-render. Their
+ * windows must match after every step. Every 100 steps and at the end each is
+ * compared, tiles outside the window included, against an engine that drew only
+ * the operations still applied, in order and never undone.
+ * <p>
+ * Usage: {@code SceneUndoCheck [steps] [seed]} (defaults 2000, 3). Runs headless;
+ * exits with 1 at the first difference.
+ */
+public class SceneUndoCheck {
+    private static final int W = 800, H = 600;
+    private static final Rectangle CHECKED = new Rectangle(-1024, -1024, 3072, 2560);
+    private static final long[] BUDGETS = { TileHistory.DEFAULT_BUDGET, 256 * 1024, 0 };
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        int steps = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 3;
+        Random rnd = new Random(seed);
+        DrawingEngine[] engines = new DrawingEngine[BUDGETS.length];
+        for (int i = 0; i < engines.length; i++) {
+            engines[i] = new DrawingEngine(W, H);
+            engines[i].setHistoryBudget(BUDGETS[i]);
+        }
+        // the operations the engines still show, then those undone and not yet redrawn over
+        List<CanvasOperation> history = new ArrayList<>();
+        int applied = 0, undos = 0, resizes = 0;
+
+        for (int step = 1; step <= steps; step++) {
+            int k = rnd.nextInt(20);
+            if (k < 13) {
+                CanvasOperation op = operation(engines[0], rnd);
+                boolean stepped = false;
+                for (int i = 0; i < engines.length; i++) {
+                    boolean s = engines[i].commit(op, engines[i].apply(op));
+                    if (i == 0) stepped = s;
+                    else if (s != stepped) fail(step, "budget " + BUDGETS[i] + " made a different undo step");
+                }
+                if (stepped) {
+                    history.subList(applied, history.size()).clear();
+                    // a fill replays the spans it covered here, not a fresh fill under another view
+                    history.add(op instanceof CanvasOperation.FillOp ? ((CanvasOperation.FillOp) op).filled() : op);
+                    applied++;
+                }
+            } else if (k < 16) {
+                for (int n = 1 + rnd.nextInt(3); n > 0 && applied > 0; n--, applied--, undos++) {
+                    for (DrawingEngine e : engines) e.undoStep();
+                }
+            } else if (k < 18) {
+                for (int n = 1 + rnd.nextInt(3); n > 0 && applied < history.size(); n--, applied++) {
+                    for (DrawingEngine e : engines) e.redoStep();
+                }
+            } else if (k < 19) {
+                int w = 100 + rnd.nextInt(900), h = 80 + rnd.nextInt(700);
+                for (DrawingEngine e : engines) e.resizeCanvas(w, h);
+                resizes++;
+            } else {
+                int x = rnd.nextInt(801) - 400, y = rnd.nextInt(801) - 400;
+                for (DrawingEngine e : engines) e.pan(x, y);
+            }
+            int[] window = Rasters.pixels(engines[0].getCanvas());
+            for (int i = 1; i < engines.length; i++) {
+                if (!Arrays.equals(window, Rasters.pixels(engines[i].getCanvas()))) {
+                    fail(step, "the window with budget " + BUDGETS[i] + " differs from the tile deltas");
+                }
+            }
+            if (step % 100 == 0 || step == steps) {
+                DrawingEngine linear = linear(engines[0], history.subList(0, applied));
+                int[] expected = Rasters.pixels(linear.getLayer(0).copyArea(CHECKED));
+                for (int i = 0; i < engines.length; i++) {
+                    if (!Arrays.equals(expected, Rasters.pixels(engines[i].getLayer(0).copyArea(CHECKED)))) {
+                        fail(step, "budget " + BUDGETS[i] + " differs from drawing the applied operations");
+                    }
+                }
+            }
+        }
+        System.out.printf("%d steps (%d operations applied, %d undone, %d resizes) the same on all budgets%n",
+                          steps, applied, undos, resizes);
+    }
+
+    /** A fresh engine with the view of {@code like} that drew {@code ops} and nothing else. */
+    private static DrawingEngine linear(DrawingEngine like, List<CanvasOperation> ops) {
+        BufferedImage canvas = like.getCanvas();
+        DrawingEngine engine = new DrawingEngine(canvas.getWidth(), canvas.getHeight());
+        engine.setHistoryBudget(0);
+        engine.pan(like.getViewX(), like.getViewY());
+        for (CanvasOperation op : ops) engine.perform(op);
+        return engine;
+    }
+
+    /** A random operation in world coordinates, mostly over the window and partly beyond it. */
+    private static CanvasOperation operation(DrawingEngine engine, Random rnd) {
+        BufferedImage canvas = engine.getCanvas();
+        int vx = engine.getViewX(), vy = engine.getViewY(), w = canvas.getWidth(), h = canvas.getHeight();
+        int color = rnd.nextInt(4) == 0 ? rnd.nextInt() : 0xff000000 | rnd.nextInt(0x1000000);
+        int x = vx - 100 + rnd.nextInt(w + 200), y = vy - 100 + rnd.nextInt(h + 200);
+        switch (rnd.nextInt(16)) {
+            case 0:
+            case 1:
+                return new CanvasOperation.FillOp(vx + rnd.nextInt(w), vy + rnd.nextInt(h), color,
+                                                  rnd.nextInt(3) == 0 ? rnd.nextInt(50) : 0);
+            case 2:
+                return new CanvasOperation.ClearOp();
+            case 3:
+            case 4:
+            case 5: {
+                DrawingCanvasPanel.Tool[] tools = {
+                    DrawingCanvasPanel.Tool.LINE, DrawingCanvasPanel.Tool.RECTANGLE, DrawingCanvasPanel.Tool.OVAL };
+                return new CanvasOperation.ShapeOp(tools[rnd.nextInt(3)], color, 1 + rnd.nextInt(6),
+                                                   x, y, x + rnd.nextInt(241) - 120, y + rnd.nextInt(241) - 120);
+            }
+            default: {
+                int[] points = new int[2 * (2 + rnd.nextInt(30))];
+                for (int i = 0; i < points.length; i += 2) {
+                    points[i] = x += rnd.nextInt(31) - 15;
+                    points[i + 1] = y += rnd.nextInt(31) - 15;
+                }
+                return new CanvasOperation.StrokeOp(color, 1 + rnd.nextInt(10), points, rnd.nextBoolean());
+            }
+        }
+    }
+
+    private static void fail(int step, String what) {
+        System.out.println("step " + step + ": " + what);
+        System.exit(1);
+    }
+}
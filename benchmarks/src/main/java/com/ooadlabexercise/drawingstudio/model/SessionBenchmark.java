@@ -0,0 +1,214 @@
+package com.ooadlabexercise.drawingstudio.model;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.zip.CRC32;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+/**
+ * Throughput and latency of a shared {@link DrawingSession} over loopback. This
+ * JVM hosts; every other peer is a JVM of its own, started with the same class
+ * path. Each peer draws random strokes, shapes and bucket fills, a few per
+ * frame, partly outside its 800x600 view, until it has drawn its share, and then
+ * waits until it has drawn everyone's operations in the host's order.
+ * <p>
+ * Every peer prints the operations per second it drew (its own and the
+ * others'), the round trip of its own operations from drawing to the host's
+ * order coming back (p50/p99/max; on the host, until the batch with them went
+ * out to the peers), how long its session ticks took against the 16 ms frame
+ * and a checksum of its layers. The host then checks that all checksums match.
+ * <p>
+ * Usage: {@code SessionBenchmark [peers] [operations per peer] [per frame]}
+ * (defaults 3, 1000, 8). Runs headless.
+ */
+public class SessionBenchmark {
+    private static final int W = 800, H = 600;
+    /** The frame budget, in ms: a peer submits every frame, and its session tick should fit in one. */
+    private static final int FRAME = 16;
+    private static final Rectangle CHECKED = new Rectangle(-64, -64, 1200, 900);
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        if (args.length > 0 && args[0].equals("--peer")) {
+            peer(Integer.parseInt(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]),
+                 Integer.parseInt(args[4]), Long.parseLong(args[5]));
+            return;
+        }
+        int peers = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int ops = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int perFrame = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+        int total = peers * ops;
+
+        DrawingEngine engine = new DrawingEngine(W, H);
+        DrawingSession session = onEdt(() -> DrawingSession.host(engine, 0, null, listener()));
+        System.out.println(peers + " peers, " + ops + " operations each, " + perFrame + " per frame, port "
+                           + session.getPort());
+
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        List<Process> children = new ArrayList<>();
+        List<CompletableFuture<String>> checksums = new ArrayList<>();
+        for (int i = 1; i < peers; i++) {
+            Process p = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                    SessionBenchmark.class.getName(), "--peer", String.valueOf(session.getPort()),
+                    String.valueOf(ops), String.valueOf(perFrame), String.valueOf(total), String.valueOf(i))
+                .redirectErrorStream(true).start();
+            children.add(p);
+            checksums.add(CompletableFuture.supplyAsync(() -> relay(p)));
+        }
+
+        String own = draw("host", engine, session, ops, perFrame, total, 0);
+        for (Process p : children) p.waitFor();
+        onEdt(() -> { session.close(); return null; });
+
+        boolean same = true;
+        for (CompletableFuture<String> c : checksums) same &= own.equals(c.get());
+        System.out.println(same ? "all peers have the same pixels" : "PEERS DIFFER");
+        System.exit(same ? 0 : 1);
+    }
+
+    /** A peer in a JVM of its own. */
+    private static void peer(int port, int ops, int perFrame, int total, long seed) throws Exception {
+        DrawingEngine engine = new DrawingEngine(W, H);
+        DrawingSession session = onEdt(() ->
+            DrawingSession.join(engine, new InetSocketAddress("localhost", port), null, listener()));
+        draw("peer " + seed, engine, session, ops, perFrame, total, seed);
+        onEdt(() -> { session.close(); return null; });
+        System.exit(0);
+    }
+
+    /**
+     * Draws {@code ops} operations, {@code perFrame} every 16 ms, then waits until all
+     * {@code total} have been drawn here in the host's order. Prints and returns the checksum.
+     */
+    private static String draw(String name, DrawingEngine engine, DrawingSession session,
+                               int ops, int perFrame, int total, long seed) throws Exception {
+        Random rnd = new Random(seed);
+        CountDownLatch done = new CountDownLatch(1);
+        long[] start = new long[1];
+        int[] drawn = new int[1];
+        PerfHistogram.Snapshot before = PerfMonitor.SHARED.snapshot(PerfMonitor.Metric.SESSION_ROUND_TRIP);
+        PerfHistogram.Snapshot ticksBefore = PerfMonitor.SHARED.snapshot(PerfMonitor.Metric.SESSION_TICK);
+        SwingUtilities.invokeAndWait(() -> {
+            start[0] = System.nanoTime();
+            Timer timer = new Timer(FRAME, null);
+            timer.addActionListener(e -> {
+                for (int i = 0; i < perFrame && drawn[0] < ops; i++, drawn[0]++) {
+                    CanvasOperation op = randomOperation(rnd);
+                    Rectangle dirty = engine.apply(op);
+                    session.submit(op, engine.commit(op, dirty));
+                }
+                if (drawn[0] == ops && session.getSequence() >= total && session.getPendingCount() == 0) {
+                    timer.stop();
+                    done.countDown();
+                }
+            });
+            timer.start();
+        });
+        done.await();
+        double seconds = (System.nanoTime() - start[0]) / 1e9;
+        PerfHistogram.Snapshot rt = PerfMonitor.SHARED.snapshot(PerfMonitor.Metric.SESSION_ROUND_TRIP).minus(before);
+        PerfHistogram.Snapshot ticks = PerfMonitor.SHARED.snapshot(PerfMonitor.Metric.SESSION_TICK).minus(ticksBefore);
+        String checksum = onEdt(() -> checksum(engine));
+        System.out.printf("%s: %d operations in %.2f s = %.0f ops/s; round trip p50 %.1f ms, p99 %.1f ms, max %.1f ms;"
+                          + " tick p50 %.1f ms, p99 %.1f ms, max %.1f ms (frame %d ms); checksum %s%n",
+                          name, total, seconds, total / seconds,
+                          rt.percentile(50) / 1e6, rt.percentile(99) / 1e6, rt.max() / 1e6,
+                          ticks.percentile(50) / 1e6, ticks.percentile(99) / 1e6, ticks.max() / 1e6,
+                          FRAME, checksum);
+        return checksum;
+    }
+
+    private static CanvasOperation randomOperation(Random rnd) {
+        int color = 0xff000000 | rnd.nextInt(0x1000000);
+        int x = rnd.nextInt(1000), y = rnd.nextInt(760);
+        switch (rnd.nextInt(10)) {
+            case 0:
+                return new CanvasOperation.FillOp(rnd.nextInt(W), rnd.nextInt(H), color, rnd.nextInt(40));
+            case 1:
+            case 2: {
+                DrawingCanvasPanel.Tool[] tools = {
+                    DrawingCanvasPanel.Tool.LINE, DrawingCanvasPanel.Tool.RECTANGLE, DrawingCanvasPanel.Tool.OVAL };
+                return new CanvasOperation.ShapeOp(tools[rnd.nextInt(3)], color, 1 + rnd.nextInt(6),
+                                                   x, y, x + rnd.nextInt(160) - 80, y + rnd.nextInt(160) - 80);
+            }
+            default: {
+                int[] points = new int[2 * (2 + rnd.nextInt(20))];
+                for (int i = 0; i < points.length; i += 2) {
+                    points[i] = x += rnd.nextInt(21) - 10;
+                    points[i + 1] = y += rnd.nextInt(21) - 10;
+                }
+                return new CanvasOperation.StrokeOp(color, 1 + rnd.nextInt(8), points, rnd.nextBoolean());
+            }
+        }
+    }
+
+    /** CRC of every layer's pixels over the area the operations reach. */
+    private static String checksum(DrawingEngine engine) {
+        CRC32 crc = new CRC32();
+        for (int i = 0; i < engine.getLayerCount(); i++) {
+            BufferedImage img = engine.getLayer(i).copyArea(CHECKED);
+            for (int px : Rasters.pixels(img)) {
+                crc.update(px >>> 24);
+                crc.update(px >>> 16);
+                crc.update(px >>> 8);
+                crc.update(px);
+            }
+        }
+        return Long.toHexString(crc.getValue());
+    }
+
+    /** Echoes a child's output and returns its checksum. */
+    private static String relay(Process p) {
+        String checksum = null;
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
+            for (String line; (line = in.readLine()) != null; ) {
+                System.out.println(line);
+                int at = line.lastIndexOf("checksum ");
+                if (at >= 0) checksum = line.substring(at + 9).trim();
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+        return checksum;
+    }
+
+    private static DrawingSession.Listener listener() {
+        return new DrawingSession.Listener() {
+            @Override public void drawn(Rectangle area) {}
+            @Override public void replaced() {}
+            @Override public void closed(IOException cause) {
+                System.out.println("session lost: " + cause);
+                System.exit(2);
+            }
+            @Override public boolean busy() { return false; }
+        };
+    }
+
+    private interface EdtTask<T> { T run() throws Exception; }
+
+    private static <T> T onEdt(EdtTask<T> task) throws Exception {
+        Object[] result = new Object[1];
+        Exception[] failure = new Exception[1];
+        SwingUtilities.invokeAndWait(() -> {
+            try {
+                result[0] = task.run();
+            } catch (Exception ex) {
+                failure[0] = ex;
+            }
+        });
+        if (failure[0] != null) throw failure[0];
+        @SuppressWarnings("unchecked") T t = (T) result[0];
+        return t;
+    }
+}
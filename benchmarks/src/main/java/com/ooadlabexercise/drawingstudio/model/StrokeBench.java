@@ -0,0 +1,64 @@
+package com.ooadlabexercise.drawingstudio.model;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * One freehand segment per call, drawn with the canvas's antialiased round pen:
+ * a straight segment as with {@code -Ddrawingstudio.strokes=direct}, and one
+ * smoothed curve piece as the default stroke path draws it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class StrokeBench {
+    private static final int POINTS = 4096;
+
+    @Param({"1", "2", "5", "10", "25", "50"})
+    public float pen;
+
+    private Graphics2D g;
+    private int[] points;
+    private int next;
+
+    @Setup
+    public void setup() {
+        BufferedImage canvas = BenchScenes.outlines(1920, 1080).getCanvas();
+        g = canvas.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setStroke(new BasicStroke(pen, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+        g.setColor(Color.BLUE);
+        points = BenchScenes.path(1920, 1080, POINTS, 11);
+    }
+
+    @TearDown
+    public void tearDown() {
+        g.dispose();
+    }
+
+    @Benchmark
+    public Rectangle segment() {
+        int i = 2 * (next++ % (POINTS - 1));
+        int x1 = points[i], y1 = points[i + 1], x2 = points[i + 2], y2 = points[i + 3];
+        g.drawLine(x1, y1, x2, y2);
+        return Rasters.segmentBounds(x1, y1, x2, y2, pen);
+    }
+
+    @Benchmark
+    public Rectangle smoothPiece() {
+        int i = next++ % (POINTS - 3);
+        Path2D piece = CanvasOperation.smoothPath(points, POINTS, i + 1, i + 2);
+        g.draw(piece);
+        return CanvasOperation.pathBounds(piece, pen);
+    }
+}
@@ -0,0 +1,192 @@
+package com.ooadlabexercise.drawingstudio.model;
+
+import static jdk.incubator.vector.VectorOperators.GE;
+import static jdk.incubator.vector.VectorOperators.I2F;
+import static jdk.incubator.vector.VectorOperators.LE;
+import static jdk.incubator.vector.VectorOperators.LSHL;
+import static jdk.incubator.vector.VectorOperators.LSHR;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link PixelKernels} on SIMD registers through the incubating Vector API, as
+ * many pixels at a time as the CPU's widest vectors hold. Needs JDK 17+ and
+ * {@code --add-modules jdk.incubator.vector}; {@link PixelKernels#SHARED} loads
+ * it by name, so the rest of the studio builds and runs without it.
+ * <p>
+ * Every kernel gives the scalar loops' exact pixels: divisions by 255 become a
+ * multiply and shift that is exact over the range used, and float compositing
+ * keeps the scalar expression's order, rounding as {@link Math#round(float)}.
+ * Blend modes other than normal, and the pixels after the last full vector,
+ * fall back to the scalar loops.
+ */
+final class VectorPixelKernels extends PixelKernels {
+    private static final VectorSpecies<Integer> I = IntVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Float> F = VectorSpecies.of(float.class, I.vectorShape());
+    private static final int L = I.length();
+    private static final ThreadLocal<int[]> SCRATCH = ThreadLocal.withInitial(() -> new int[64 * L]);
+
+    VectorPixelKernels() {
+        if (L < 4) throw new UnsupportedOperationException("No SIMD registers");
+    }
+
+    @Override String name() { return "simd " + I.vectorBitSize() + "-bit"; }
+
+    @Override void overWhite(int[] src, int[] dst, int from, int to) {
+        int i = from;
+        for (int bound = from + I.loopBound(to - from); i < bound; i += L) {
+            IntVector c = IntVector.fromArray(I, src, i);
+            IntVector a = c.lanewise(LSHR, 24);
+            IntVector white = a.neg().add(255).mul(255).add(127);
+            IntVector r = div255(c.lanewise(LSHR, 16).and(0xff).mul(a).add(white));
+            IntVector g = div255(c.lanewise(LSHR, 8).and(0xff).mul(a).add(white));
+            IntVector b = div255(c.and(0xff).mul(a).add(white));
+            r.lanewise(LSHL, 16).or(g.lanewise(LSHL, 8)).or(b).or(0xff000000).intoArray(dst, i);
+        }
+        super.overWhite(src, dst, i, to);
+    }
+
+    @Override void blend(int[] dst, int[] src, int[] out, int from, int to, float opacity, BlendMode mode) {
+        if (mode != BlendMode.NORMAL || opacity <= 0f) {
+            super.blend(dst, src, out, from, to, opacity, mode);
+            return;
+        }
+        int bound = from + I.loopBound(to - from);
+        normal(dst, src, out, from, bound, opacity);
+        super.blend(dst, src, out, bound, to, opacity, mode);
+    }
+
+    /**
+     * Normal blend of whole vectors, a chunk at a time: each colour channel in a pass of
+     * its own into {@code acc}, then alpha and the covering pixels. One pass for all four
+     * is past the JIT's inlining budget, and its vectors would be boxed.
+     */
+    private static void normal(int[] dst, int[] src, int[] out, int from, int to, float opacity) {
+        int[] acc = SCRATCH.get();
+        for (int c = from; c < to; c += acc.length) {
+            int end = Math.min(to, c + acc.length);
+            for (int shift = 16; shift >= 0; shift -= 8) channel(dst, src, acc, c, end, opacity, shift);
+            finish(dst, src, acc, out, c, end, opacity);
+        }
+    }
+
+    /** Sets {@code acc} to one colour channel of the blend, or ORs it in. */
+    private static void channel(int[] dst, int[] src, int[] acc, int from, int to, float opacity, int shift) {
+        for (int i = from; i < to; i += L) {
+            IntVector s = IntVector.fromArray(I, src, i), d = IntVector.fromArray(I, dst, i);
+            FloatVector as = toFloat(s.lanewise(LSHR, 24)).div(255f).mul(opacity);
+            FloatVector ab = toFloat(d.lanewise(LSHR, 24)).div(255f);
+            FloatVector ao = as.add(ab.mul(as.neg().add(1f)));
+            FloatVector cs = toFloat(s.lanewise(LSHR, shift).and(0xff)).div(255f);
+            FloatVector cb = toFloat(d.lanewise(LSHR, shift).and(0xff)).div(255f);
+            FloatVector co = as.mul(ab.neg().add(1f)).mul(cs).add(as.mul(ab).mul(cs)).add(as.neg().add(1f).mul(ab).mul(cb));
+            IntVector v = round(co.div(ao).mul(255f)).max(0).min(255).lanewise(LSHL, shift);
+            (shift == 16 ? v : v.or(IntVector.fromArray(I, acc, i - from))).intoArray(acc, i - from);
+        }
+    }
+
+    /** Adds alpha to {@code acc} and writes the pixels out, taking the covering and empty ones as they are. */
+    private static void finish(int[] dst, int[] src, int[] acc, int[] out, int from, int to, float opacity) {
+        for (int i = from; i < to; i += L) {
+            IntVector s = IntVector.fromArray(I, src, i), d = IntVector.fromArray(I, dst, i);
+            IntVector sa = s.lanewise(LSHR, 24), da = d.lanewise(LSHR, 24);
+            FloatVector as = toFloat(sa).div(255f).mul(opacity);
+            FloatVector ab = toFloat(da).div(255f);
+            FloatVector ao = as.add(ab.mul(as.neg().add(1f)));
+            // the source covers the backdrop: onto nothing, or opaque; at full opacity
+            // the covering alpha rounds back to the source's own
+            VectorMask<Integer> cover = da.eq(0).or(atLeast(as, 1f));
+            IntVector covered = round(as.mul(255f)).lanewise(LSHL, 24).or(s.and(0xffffff));
+            round(ao.mul(255f)).lanewise(LSHL, 24).or(IntVector.fromArray(I, acc, i - from))
+                .blend(covered, cover).blend(d, sa.eq(0)).intoArray(out, i);
+        }
+    }
+
+    @Override boolean premultiply(int[] px, int from, int to) {
+        boolean any = false;
+        IntVector zero = IntVector.zero(I);
+        int i = from;
+        for (int bound = from + I.loopBound(to - from); i < bound; i += L) {
+            IntVector c = IntVector.fromArray(I, px, i);
+            IntVector a = c.lanewise(LSHR, 24);
+            VectorMask<Integer> clear = a.eq(0);
+            any |= !clear.allTrue();
+            IntVector r = div255(c.lanewise(LSHR, 16).and(0xff).mul(a).add(127));
+            IntVector g = div255(c.lanewise(LSHR, 8).and(0xff).mul(a).add(127));
+            IntVector b = div255(c.and(0xff).mul(a).add(127));
+            a.lanewise(LSHL, 24).or(r.lanewise(LSHL, 16)).or(g.lanewise(LSHL, 8)).or(b)
+                .blend(c, a.eq(255)).blend(zero, clear).intoArray(px, i);
+        }
+        return super.premultiply(px, i, to) | any;
+    }
+
+    @Override int endOfMatches(int[] px, int from, int to, int target, int tolerance) {
+        int i = from;
+        for (; i + L <= to; i += L) {
+            VectorMask<Integer> miss = matches(IntVector.fromArray(I, px, i), target, tolerance).not();
+            if (miss.anyTrue()) return i + miss.firstTrue();
+        }
+        return super.endOfMatches(px, i, to, target, tolerance);
+    }
+
+    @Override int nextMatch(int[] px, int from, int to, int target, int tolerance) {
+        int i = from;
+        for (; i + L <= to; i += L) {
+            VectorMask<Integer> hit = matches(IntVector.fromArray(I, px, i), target, tolerance);
+            if (hit.anyTrue()) return i + hit.firstTrue();
+        }
+        return super.nextMatch(px, i, to, target, tolerance);
+    }
+
+    @Override int startOfMatches(int[] px, int from, int to, int target, int tolerance) {
+        int i = to;
+        for (; i - L >= from; i -= L) {
+            VectorMask<Integer> miss = matches(IntVector.fromArray(I, px, i - L), target, tolerance).not();
+            if (miss.anyTrue()) return i - L + miss.lastTrue() + 1;
+        }
+        return super.startOfMatches(px, from, i, target, tolerance);
+    }
+
+    /** {@link ScanlineFill#matches} on every lane. */
+    private static VectorMask<Integer> matches(IntVector c, int target, int tolerance) {
+        VectorMask<Integer> same = c.eq(target);
+        if (tolerance <= 0) return same;
+        VectorMask<Integer> near = c.lanewise(LSHR, 24).sub(target >>> 24).abs().compare(LE, tolerance);
+        for (int shift = 16; shift >= 0; shift -= 8) {
+            near = near.and(c.lanewise(LSHR, shift).and(0xff).sub(target >> shift & 0xff).abs().compare(LE, tolerance));
+        }
+        return same.or(near);
+    }
+
+    /** {@code x / 255} for 0 <= x <= 65535. */
+    private static IntVector div255(IntVector x) {
+        return x.mul(0x8081).lanewise(LSHR, 23);
+    }
+
+    private static FloatVector toFloat(IntVector v) {
+        return (FloatVector) v.convertShape(I2F, F, 0);
+    }
+
+    /**
+     * {@link Math#round(float)} of lanes in [0, 2^22). Adding 2^23 rounds to the nearest
+     * integer, ties to even, which leaves it in the low bits; ties are then rounded up.
+     * (A float to int conversion is not compiled to SIMD instructions on JDK 17.)
+     */
+    private static IntVector round(FloatVector x) {
+        IntVector n = x.add(0x1p23f).reinterpretAsInts().sub(0x4b000000);
+        IntVector tie = x.sub(toFloat(n)).sub(0.5f).reinterpretAsInts();
+        return n.sub(tie.eq(0).toVector());
+    }
+
+    /**
+     * {@code x >= bound} as an int mask, for 0 < bound and x < 2 * bound: the subtraction is
+     * exact near the bound and only its sign matters. Casting float masks is not compiled
+     * to SIMD instructions on every JDK, and falls back to boxed lanes.
+     */
+    private static VectorMask<Integer> atLeast(FloatVector x, float bound) {
+        return x.sub(bound).reinterpretAsInts().compare(GE, 0);
+    }
+}
@@ -0,0 +1,133 @@
+package com.ooadlabexercise.drawingstudio.model;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Renders operation files to PNG without a display, in parallel.
+ * <p>
+ * Each worker thread keeps one {@link DrawingEngine} and reuses its canvas for
+ * every file it renders. Inputs are {@link OperationScript} text files
+ * ({@code .ops}) or autosave journal files ({@code journal-N.bin}); each becomes
+ * {@code <name>.png} in the output folder, flattened onto white like a saved
+ * drawing.
+ */
+class BatchRenderer {
+    static final int DEFAULT_WIDTH = 800, DEFAULT_HEIGHT = 600;
+
+    /** Outcome of a batch run. */
+    static final class Result {
+        final int rendered, failed;
+        final long nanos;
+
+        Result(int rendered, int failed, long nanos) {
+            this.rendered = rendered; this.failed = failed; this.nanos = nanos;
+        }
+
+        double imagesPerSecond() { return nanos == 0 ? 0 : rendered * 1e9 / nanos; }
+    }
+
+    private final File outDir;
+    private final int threads;
+    private final DrawingExporter.Compression compression;
+
+    BatchRenderer(File outDir, int threads, DrawingExporter.Compression compression) {
+        this.outDir = outDir;
+        this.threads = Math.max(1, threads);
+        this.compression = compression;
+    }
+
+    /** Renders every input, reporting failures to {@code log}; blocks until all are done. */
+    Result run(List<File> inputs, PrintStream log) throws IOException, InterruptedException {
+        if (!outDir.isDirectory() && !outDir.mkdirs()) throw new IOException("Cannot create " + outDir);
+        ThreadLocal<DrawingEngine> engines = ThreadLocal.withInitial(BatchRenderer::newEngine);
+        AtomicInteger failed = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        try {
+            List<Future<?>> tasks = new ArrayList<>();
+            for (File in : inputs) {
+                tasks.add(pool.submit(() -> {
+                    try {
+                        BufferedImage canvas = render(engines.get(), in);
+                        DrawingExporter.writePng(DrawingExporter.flatten(canvas), new File(outDir, pngName(in)),
+                                                 compression, null);
+                    } catch (IOException | RuntimeException ex) {
+                        failed.incrementAndGet();
+                        log.println(in + ": " + ex.getMessage());
+                    }
+                }));
+            }
+            for (Future<?> f : tasks) {
+                try {
+                    f.get();
+                } catch (ExecutionException ex) {
+                    throw new IllegalStateException(ex.getCause());
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+        long nanos = System.nanoTime() - start;
+        return new Result(inputs.size() - failed.get(), failed.get(), nanos);
+    }
+
+    /** Engine for unattended rendering: undo steps in scripts are re-rendered from the scene, no tile deltas kept. */
+    static DrawingEngine newEngine() {
+        DrawingEngine engine = new DrawingEngine(1, 1);
+        engine.setHistoryBudget(0);
+        return engine;
+    }
+
+    /** Replays one operation file into the engine and returns the flattened layers. */
+    static BufferedImage render(DrawingEngine engine, File in) throws IOException {
+        if (in.getName().endsWith(".bin")) {
+            // journals start from the panel's initial 1x1 canvas and record its resizes
+            engine.reset(1, 1);
+            OperationJournal.replayFile(in, engine);
+        } else {
+            engine.reset(DEFAULT_WIDTH, DEFAULT_HEIGHT);
+            try (BufferedReader reader = Files.newBufferedReader(in.toPath(), StandardCharsets.UTF_8)) {
+                OperationScript.run(reader, engine);
+            }
+        }
+        return engine.getComposite();
+    }
+
+    /** Operation files in the given files and folders (folders are not searched recursively). */
+    static List<File> collectInputs(List<String> paths) {
+        List<File> inputs = new ArrayList<>();
+        for (String path : paths) {
+            File f = new File(path);
+            File[] list = f.isDirectory() ? f.listFiles() : null;
+            if (list == null) {
+                inputs.add(f);
+                continue;
+            }
+            Arrays.sort(list);
+            for (File c : list) {
+                if (c.isFile() && (c.getName().endsWith(".ops") || c.getName().endsWith(".bin"))) inputs.add(c);
+            }
+        }
+        return inputs;
+    }
+
+    private static String pngName(File in) {
+        String name = in.getName();
+        int dot = name.lastIndexOf('.');
+        return (dot > 0 ? name.substring(0, dot) : name) + ".png";
+    }
+}
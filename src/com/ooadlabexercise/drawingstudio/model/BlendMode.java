@@ -0,0 +1,23 @@
+package com.ooadlabexercise.drawingstudio.model;
+
+/**
+ * How a layer's colors combine with the layers below it. These are the separable
+ * blend modes of the W3C compositing spec; the result is then composited
+ * source-over with the layer's alpha and opacity.
+ */
+public enum BlendMode {
+    NORMAL, MULTIPLY, SCREEN, OVERLAY, DARKEN, LIGHTEN, ADD;
+
+    /** Blended channel value for backdrop {@code cb} and source {@code cs}, both in 0..1. */
+    float apply(float cb, float cs) {
+        switch (this) {
+            case MULTIPLY: return cb * cs;
+            case SCREEN:   return cb + cs - cb * cs;
+            case OVERLAY:  return cb <= 0.5f ? 2 * cb * cs : 1 - 2 * (1 - cb) * (1 - cs);
+            case DARKEN:   return Math.min(cb, cs);
+            case LIGHTEN:  return Math.max(cb, cs);
+            case ADD:      return Math.min(1f, cb + cs);
+            default:       return cs;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.ooadlabexercise.drawingstudio.model;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Downsampled levels of the flattened drawing, tile by tile, for painting it
+ * zoomed out; what {@link MipCache} does for reference images, for a drawing
+ * without edges.
+ * <p>
+ * A level L tile is {@link #TILE} x {@link #TILE} premultiplied pixels covering
+ * 2^L times that in the world. Level 0 tiles are flattened from the layers,
+ * each further level averages four tiles of the level below; all are built on
+ * first use and kept within {@link #DEFAULT_BUDGET} bytes. Past that, least
+ * recently used first, go the levels finer than the one last painted (only
+ * needed to build it), then the coarser ones, and that level last; a level is
+ * cheap to build from the one below, while a coarse tile built from scratch may
+ * stand for thousands of flattened ones. Blocks
+ * the {@link Source} reports empty are skipped without building anything, so
+ * the cost of a frame depends on what is on screen, not on the drawing's size.
+ * Edits invalidate the tiles over their area on every level. EDT only, like
+ * the engine it belongs to.
+ */
+class CanvasMipmap {
+    static final int TILE = TileStore.TILE;
+    static final int MAX_LEVEL = PagedRaster.LEVELS;
+    static final long DEFAULT_BUDGET = 128L * 1024 * 1024;
+    private static final int MAX_ENTRIES = 1 << 16;
+    private static final long TILE_BYTES = (long) TILE * TILE * 4;
+    // cached stand-in for a tile that turned out transparent
+    private static final BufferedImage BLANK = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB_PRE);
+
+    /** Where the level 0 pixels come from. */
+    interface Source {
+        /** True if anything may be drawn in the block of 2^level x 2^level tiles at block position (bx, by). */
+        boolean occupied(int level, int bx, int by);
+
+        /** Flattens the tile whose top-left pixel is world (x, y) into {@code px} (ARGB); false if it is blank. */
+        boolean flatten(int x, int y, int[] px);
+    }
+
+    private final Source source;
+    // per level, least recently used first
+    private final List<Map<Long, BufferedImage>> levels = new ArrayList<>();
+    private int count;
+    private final long budget;
+    private long used;
+    private int shown;  // level of the last paint
+
+    CanvasMipmap(Source source) {
+        this(source, DEFAULT_BUDGET);
+    }
+
+    CanvasMipmap(Source source, long budget) {
+        this.source = source;
+        this.budget = budget;
+        for (int l = 0; l <= MAX_LEVEL; l++) levels.add(new LinkedHashMap<>(64, 0.75f, true));
+    }
+
+    /** Level that is at most twice as detailed as {@code zoom} (below 1) needs. */
+    static int levelFor(double zoom) {
+        int level = 0;
+        while (level < MAX_LEVEL && zoom * (2 << level) <= 1) level++;
+        return level;
+    }
+
+    /**
+     * Paints the drawing at {@code zoom} (below 1) inside {@code area} of {@code g}, where
+     * pixel (x, y) shows world point (viewX + x / zoom, viewY + y / zoom). Transparent
+     * parts are left as they are.
+     */
+    void paint(Graphics2D g, double zoom, double viewX, double viewY, Rectangle area) {
+        int level = levelFor(zoom);
+        shown = level;
+        long size = (long) TILE << level;
+        int tx0 = (int) Math.floorDiv((long) Math.floor(viewX + area.x / zoom), size);
+        int ty0 = (int) Math.floorDiv((long) Math.floor(viewY + area.y / zoom), size);
+        int tx1 = (int) Math.floorDiv((long) Math.ceil(viewX + (area.x + area.width) / zoom), size);
+        int ty1 = (int) Math.floorDiv((long) Math.ceil(viewY + (area.y + area.height) / zoom), size);
+        Object hint = g.getRenderingHint(RenderingHints.KEY_INTERPOLATION);
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        for (int ty = ty0; ty <= ty1; ty++) {
+            // edges rounded to whole pixels, so neighbouring tiles meet without gaps
+            int dy0 = (int) Math.round((ty * size - viewY) * zoom), dy1 = (int) Math.round(((ty + 1) * size - viewY) * zoom);
+            for (int tx = tx0; tx <= tx1; tx++) {
+                BufferedImage tile = tile(level, tx, ty);
+                if (tile == null) continue;
+                int dx0 = (int) Math.round((tx * size - viewX) * zoom), dx1 = (int) Math.round(((tx + 1) * size - viewX) * zoom);
+                g.drawImage(tile, dx0, dy0, dx1, dy1, 0, 0, TILE, TILE, null);
+            }
+        }
+        if (hint != null) g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, hint);
+    }
+
+    /** Tile (tx, ty) of the given level, built if missing; null if it is transparent. */
+    BufferedImage tile(int level, int tx, int ty) {
+        long key = key(tx, ty);
+        BufferedImage img = levels.get(level).get(key);
+        if (img == null) {
+            img = build(level, tx, ty);
+            put(level, key, img != null ? img : BLANK);
+        }
+        return img == BLANK ? null : img;
+    }
+
+    /** The drawing changed inside {@code world}; drops the tiles over it on every level. */
+    void invalidate(Rectangle world) {
+        if (world == null || world.isEmpty() || count == 0) return;
+        for (int level = 0; level <= MAX_LEVEL; level++) {
+            Map<Long, BufferedImage> tiles = levels.get(level);
+            if (tiles.isEmpty()) continue;
+            long size = (long) TILE << level;
+            int tx0 = (int) Math.floorDiv(world.x, size), tx1 = (int) Math.floorDiv(world.x + (long) world.width - 1, size);
+            int ty0 = (int) Math.floorDiv(world.y, size), ty1 = (int) Math.floorDiv(world.y + (long) world.height - 1, size);
+            if ((long) (tx1 - tx0 + 1) * (ty1 - ty0 + 1) > tiles.size()) {
+                // fewer tiles cached than the area covers
+                for (Iterator<Map.Entry<Long, BufferedImage>> it = tiles.entrySet().iterator(); it.hasNext(); ) {
+                    Map.Entry<Long, BufferedImage> e = it.next();
+                    long k = e.getKey();
+                    int tx = (int) (k >> 32), ty = (int) k;
+                    if (tx >= tx0 && tx <= tx1 && ty >= ty0 && ty <= ty1) {
+                        used -= bytes(e.getValue());
+                        count--;
+                        it.remove();
+                    }
+                }
+            } else {
+                for (int ty = ty0; ty <= ty1; ty++) {
+                    for (int tx = tx0; tx <= tx1; tx++) {
+                        BufferedImage old = tiles.remove(key(tx, ty));
+                        if (old != null) {
+                            used -= bytes(old);
+                            count--;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /** Drops every tile, e.g. after a layer's opacity or blend mode changed. */
+    void clear() {
+        for (Map<Long, BufferedImage> tiles : levels) tiles.clear();
+        count = 0;
+        used = 0;
+    }
+
+    long getMemoryUsage() { return used; }
+
+    private BufferedImage build(int level, int tx, int ty) {
+        if (!source.occupied(level, tx, ty)) return null;
+        BufferedImage img = new BufferedImage(TILE, TILE, BufferedImage.TYPE_INT_ARGB_PRE);
+        int[] px = Rasters.pixels(img);
+        if (level == 0) {
+            if (!source.flatten(tx * TILE, ty * TILE, px)) return null;
+            return PixelKernels.SHARED.premultiply(px, 0, px.length) ? img : null;
+        }
+        boolean any = false;
+        for (int q = 0; q < 4; q++) {
+            BufferedImage child = tile(level - 1, 2 * tx + (q & 1), 2 * ty + (q >> 1));
+            if (child == null) continue;
+            any = true;
+            halve(Rasters.pixels(child), px, (q & 1) * TILE / 2, (q >> 1) * TILE / 2);
+        }
+        return any ? img : null;
+    }
+
+    /** Averages each 2x2 block of premultiplied {@code src} into a quarter of {@code dst} starting at (dx, dy). */
+    private static void halve(int[] src, int[] dst, int dx, int dy) {
+        int half = TILE / 2;
+        for (int y = 0; y < half; y++) {
+            int s = 2 * y * TILE, d = (dy + y) * TILE + dx;
+            for (int x = 0; x < half; x++, s += 2, d++) {
+                int a = src[s], b = src[s + 1], c = src[s + TILE], e = src[s + TILE + 1];
+                int out = 0;
+                for (int shift = 24; shift >= 0; shift -= 8) {
+                    int sum = (a >>> shift & 0xff) + (b >>> shift & 0xff) + (c >>> shift & 0xff) + (e >>> shift & 0xff);
+                    out |= (sum + 2) >> 2 << shift;
+                }
+                dst[d] = out;
+            }
+        }
+    }
+
+    private void put(int level, long key, BufferedImage img) {
+        levels.get(level).put(key, img);
+        used += bytes(img);
+        count++;
+        for (int i = 0; i <= MAX_LEVEL && (used > budget || count > MAX_ENTRIES); i++) {
+            int l = i < shown ? i : i < MAX_LEVEL ? i + 1 : shown;
+            for (Iterator<Map.Entry<Long, BufferedImage>> it = levels.get(l).entrySet().iterator();
+                 it.hasNext() && (used > budget || count > MAX_ENTRIES); ) {
+                Map.Entry<Long, BufferedImage> e = it.next();
+                // the tile just built always stays
+                if (l == level && e.getKey() == key) continue;
+                used -= bytes(e.getValue());
+                count--;
+                it.remove();
+            }
+        }
+    }
+
+    private static long bytes(BufferedImage img) {
+        return img == BLANK ? 0 : TILE_BYTES;
+    }
+
+    private static long key(int tx, int ty) {
+        return (long) tx << 32 | (ty & 0xffffffffL);
+    }
+}
@@ -0,0 +1,606 @@
+package com.ooadlabexercise.drawingstudio.model;
+
+import java.awt.AlphaComposite;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.FlatteningPathIterator;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A committed drawing operation: a freehand stroke, a shape, a bucket fill, a filter or a clear.
+ * <p>
+ * Operations replay exactly what the canvas does when the user draws, so
+ * applying the same sequence to the same starting raster reproduces it
+ * pixel for pixel. They also have a compact binary form (tag byte followed
+ * by zigzag varints) used by the autosave journal.
+ * <p>
+ * Once applied, an operation is a retained primitive of the {@link DrawingScene}:
+ * {@link #render} draws it again at any scale, restricted to a clip, without
+ * looking at what is underneath. A fill remembers the spans it covered for this,
+ * and a filter the pixels it produced.
+ * <p>
+ * Coordinates are in the drawing's world space, which is unbounded; a raster
+ * holds the part of it that starts at its origin.
+ */
+abstract class CanvasOperation {
+    static final byte STROKE = 1, SHAPE = 2, FILL = 3, CLEAR = 4, SMOOTH_STROKE = 5, FILLED = 6,
+                      FILTER = 7;
+
+    /** Draws the operation onto a canvas whose top-left pixel is world (0, 0); see {@link #apply(BufferedImage, int, int)}. */
+    final Rectangle apply(BufferedImage canvas) {
+        return apply(canvas, 0, 0);
+    }
+
+    /**
+     * Draws the operation onto a canvas whose top-left pixel is at world ({@code ox}, {@code oy}).
+     * Returns the changed area in canvas pixels, or null for the whole canvas.
+     */
+    abstract Rectangle apply(BufferedImage canvas, int ox, int oy);
+
+    /** Renders into a target whose top-left pixel is world (0, 0); see {@link #render(BufferedImage, double, int, int, Rectangle)}. */
+    final void render(BufferedImage target, double scale, Rectangle clip) {
+        render(target, scale, 0, 0, clip);
+    }
+
+    /**
+     * Draws the already applied operation into {@code target} scaled by {@code scale},
+     * touching only pixels inside {@code clip}. Target pixel (x, y) shows world point
+     * ((x + ox) / scale, (y + oy) / scale). At scale 1 this matches {@link #apply}.
+     */
+    abstract void render(BufferedImage target, double scale, int ox, int oy, Rectangle clip);
+
+    /** World area the operation covers at scale 1, or null if it covers everything. */
+    abstract Rectangle bounds();
+
+    /** Approximate heap bytes retained by the operation. */
+    abstract long memoryUsage();
+
+    abstract void write(DataOutput out) throws IOException;
+
+    static CanvasOperation read(DataInput in) throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case STROKE:
+            case SMOOTH_STROKE: {
+                int color = in.readInt();
+                float width = in.readFloat();
+                int[] points = new int[readVarInt(in) * 2];
+                int x = 0, y = 0;
+                for (int i = 0; i < points.length; i += 2) {
+                    points[i] = x += readVarInt(in);
+                    points[i + 1] = y += readVarInt(in);
+                }
+                return new StrokeOp(color, width, points, tag == SMOOTH_STROKE);
+            }
+            case SHAPE: {
+                DrawingCanvasPanel.Tool tool = shapeTool(in.readByte());
+                int color = in.readInt();
+                float width = in.readFloat();
+                int x1 = readVarInt(in), y1 = readVarInt(in);
+                return new ShapeOp(tool, color, width, x1, y1, readVarInt(in), readVarInt(in));
+            }
+            case FILL: {
+                int x = readVarInt(in), y = readVarInt(in);
+                return new FillOp(x, y, in.readInt(), in.readUnsignedByte());
+            }
+            case FILLED: {
+                int x = readVarInt(in), y = readVarInt(in);
+                FillOp fill = new FillOp(x, y, in.readInt(), in.readUnsignedByte());
+                int[] spans = new int[readVarInt(in) * 3];
+                int sy = 0, sx = 0;
+                for (int i = 0; i < spans.length; i += 3) {
+                    spans[i] = sy += readVarInt(in);
+                    spans[i + 1] = sx += readVarInt(in);
+                    spans[i + 2] = sx + readVarInt(in);
+                }
+                return fill.fix(spans);
+            }
+            case FILTER:
+                return new FilterOp(FilterPipeline.read(in));
+            case CLEAR:
+                return new ClearOp();
+            default:
+                throw new IOException("Unknown operation tag " + tag);
+        }
+    }
+
+    /** Graphics set up the same way as the canvas pen, in world coordinates. */
+    static Graphics2D penGraphics(BufferedImage canvas, int color, float width, int ox, int oy) {
+        Graphics2D g = canvas.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setStroke(new BasicStroke(width, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+        g.setColor(new Color(color, true));
+        if (ox != 0 || oy != 0) g.translate(-ox, -oy);
+        return g;
+    }
+
+    /** Pen graphics for {@link #render}: clipped in device space, then moved to the origin and scaled. */
+    static Graphics2D renderGraphics(BufferedImage target, int color, float width, double scale,
+                                     int ox, int oy, Rectangle clip) {
+        Graphics2D g = penGraphics(target, color, width, 0, 0);
+        g.setClip(clip);
+        if (ox != 0 || oy != 0) g.translate(-ox, -oy);
+        if (scale != 1) g.scale(scale, scale);
+        return g;
+    }
+
+    /** {@code r} moved by (-ox, -oy), e.g. from world to canvas pixels. */
+    static Rectangle offset(Rectangle r, int ox, int oy) {
+        return new Rectangle(r.x - ox, r.y - oy, r.width, r.height);
+    }
+
+    static void drawShape(Graphics2D g, DrawingCanvasPanel.Tool tool, int x1, int y1, int x2, int y2) {
+        switch (tool) {
+            case LINE:      g.drawLine(x1,y1,x2,y2); break;
+            case RECTANGLE: g.drawRect(Math.min(x1,x2),Math.min(y1,y2),Math.abs(x2-x1),Math.abs(y2-y1)); break;
+            case OVAL:      g.draw(ovalOutline(Math.min(x1,x2),Math.min(y1,y2),Math.abs(x2-x1),Math.abs(y2-y1))); break;
+            default: break;
+        }
+    }
+
+    /**
+     * Ovals are drawn as a finely flattened polygon: the renderer subdivides curves
+     * differently depending on the clip, and re-rendering a strip must match the
+     * pixels drawn when the whole oval was on screen.
+     */
+    static Path2D ovalOutline(int x, int y, int w, int h) {
+        Path2D.Float path = new Path2D.Float();
+        path.append(new FlatteningPathIterator(new Ellipse2D.Float(x, y, w, h).getPathIterator(null), 0.05), false);
+        return path;
+    }
+
+    /**
+     * Catmull-Rom curve through the first {@code n} stroke points, covering the segments
+     * from point {@code from} to point {@code to}; the end points
+     * are repeated so the curve runs through them. The curve is flattened finely,
+     * like {@link #ovalOutline}, so clipped re-renders match. Segment {@code i}
+     * depends only on points {@code i-1 .. i+2}, so a stroke can be drawn piecewise
+     * while it is still growing.
+     */
+    static Path2D smoothPath(int[] points, int n, int from, int to) {
+        Path2D.Float curve = new Path2D.Float();
+        curve.moveTo(points[2 * from], points[2 * from + 1]);
+        for (int i = from; i < to && i + 1 < n; i++) {
+            int a = Math.max(i - 1, 0), d = Math.min(i + 2, n - 1);
+            float x1 = points[2 * i], y1 = points[2 * i + 1];
+            float x2 = points[2 * i + 2], y2 = points[2 * i + 3];
+            curve.curveTo(x1 + (x2 - points[2 * a]) / 6f, y1 + (y2 - points[2 * a + 1]) / 6f,
+                          x2 - (points[2 * d] - x1) / 6f, y2 - (points[2 * d + 1] - y1) / 6f,
+                          x2, y2);
+        }
+        Path2D.Float path = new Path2D.Float();
+        path.append(new FlatteningPathIterator(curve.getPathIterator(null), 0.05), false);
+        return path;
+    }
+
+    /** Device-space area a pen of the given width touches when drawing {@code path}. */
+    static Rectangle pathBounds(Path2D path, float width) {
+        Rectangle b = path.getBounds();
+        int pad = (int) Math.ceil(width / 2f) + 2;
+        b.grow(pad, pad);
+        b.width++; b.height++;
+        return b;
+    }
+
+    /**
+     * Freehand stroke: a polyline drawn segment by segment like a mouse drag, or,
+     * when {@code smooth}, one {@link #smoothPath} through the points.
+     */
+    static final class StrokeOp extends CanvasOperation {
+        final int color;
+        final float width;
+        final int[] points;  // x0, y0, x1, y1, ...
+        final boolean smooth;
+        private Rectangle bounds;
+
+        StrokeOp(int color, float width, int[] points) {
+            this(color, width, points, false);
+        }
+
+        StrokeOp(int color, float width, int[] points, boolean smooth) {
+            this.color = color; this.width = width; this.points = points; this.smooth = smooth;
+        }
+
+        @Override Rectangle apply(BufferedImage canvas, int ox, int oy) {
+            Graphics2D g = penGraphics(canvas, color, width, ox, oy);
+            draw(g);
+            g.dispose();
+            return offset(bounds(), ox, oy);
+        }
+
+        @Override void render(BufferedImage target, double scale, int ox, int oy, Rectangle clip) {
+            Graphics2D g = renderGraphics(target, color, width, scale, ox, oy, clip);
+            draw(g);
+            g.dispose();
+        }
+
+        private void draw(Graphics2D g) {
+            if (smooth) {
+                if (points.length >= 4) g.draw(smoothPath(points, points.length / 2, 0, points.length / 2 - 1));
+                return;
+            }
+            for (int i = 2; i + 1 < points.length; i += 2) {
+                g.drawLine(points[i - 2], points[i - 1], points[i], points[i + 1]);
+            }
+        }
+
+        @Override Rectangle bounds() {
+            if (bounds == null) {
+                Rectangle b = null;
+                if (smooth) {
+                    if (points.length >= 4) b = pathBounds(smoothPath(points, points.length / 2, 0, points.length / 2 - 1), width);
+                } else {
+                    for (int i = 2; i + 1 < points.length; i += 2) {
+                        Rectangle s = Rasters.segmentBounds(points[i - 2], points[i - 1], points[i], points[i + 1], width);
+                        b = b == null ? s : b.union(s);
+                    }
+                }
+                bounds = b != null ? b : new Rectangle();
+            }
+            return new Rectangle(bounds);
+        }
+
+        @Override long memoryUsage() { return 64 + points.length * 4L; }
+
+        @Override void write(DataOutput out) throws IOException {
+            out.writeByte(smooth ? SMOOTH_STROKE : STROKE);
+            out.writeInt(color);
+            out.writeFloat(width);
+            writeVarInt(out, points.length / 2);
+            int x = 0, y = 0;
+            for (int i = 0; i + 1 < points.length; i += 2) {
+                writeVarInt(out, points[i] - x);
+                writeVarInt(out, points[i + 1] - y);
+                x = points[i]; y = points[i + 1];
+            }
+        }
+    }
+
+    /** Line, rectangle or oval outline between two corners. */
+    static final class ShapeOp extends CanvasOperation {
+        final DrawingCanvasPanel.Tool tool;
+        final int color;
+        final float width;
+        final int x1, y1, x2, y2;
+
+        ShapeOp(DrawingCanvasPanel.Tool tool, int color, float width, int x1, int y1, int x2, int y2) {
+            this.tool = tool; this.color = color; this.width = width;
+            this.x1 = x1; this.y1 = y1; this.x2 = x2; this.y2 = y2;
+        }
+
+        @Override Rectangle apply(BufferedImage canvas, int ox, int oy) {
+            Graphics2D g = penGraphics(canvas, color, width, ox, oy);
+            drawShape(g, tool, x1, y1, x2, y2);
+            g.dispose();
+            return offset(bounds(), ox, oy);
+        }
+
+        @Override void render(BufferedImage target, double scale, int ox, int oy, Rectangle clip) {
+            Graphics2D g = renderGraphics(target, color, width, scale, ox, oy, clip);
+            drawShape(g, tool, x1, y1, x2, y2);
+            g.dispose();
+        }
+
+        @Override Rectangle bounds() { return Rasters.segmentBounds(x1, y1, x2, y2, width); }
+
+        @Override long memoryUsage() { return 64; }
+
+        @Override void write(DataOutput out) throws IOException {
+            out.writeByte(SHAPE);
+            out.writeByte(tool == DrawingCanvasPanel.Tool.LINE ? 0 : tool == DrawingCanvasPanel.Tool.RECTANGLE ? 1 : 2);
+            out.writeInt(color);
+            out.writeFloat(width);
+            writeVarInt(out, x1); writeVarInt(out, y1);
+            writeVarInt(out, x2); writeVarInt(out, y2);
+        }
+    }
+
+    /**
+     * Bucket fill from a seed pixel. The region depends on the raster it is applied
+     * to, so {@link #apply} records the filled spans and {@link #render} paints those.
+     * The fill stays inside the raster it is applied to: on the unbounded canvas
+     * that is the visible part. A {@link #filled} copy paints the same spans
+     * whatever raster it is applied to, which is how a fill is shared.
+     */
+    static final class FillOp extends CanvasOperation {
+        final int x, y, color, tolerance;
+        private int[] spans = new int[0];  // world y, x0, x1 (inclusive) per filled run
+        private Rectangle bounds = new Rectangle();
+        private boolean fixed;
+
+        FillOp(int x, int y, int color, int tolerance) {
+            this.x = x; this.y = y; this.color = color; this.tolerance = tolerance;
+        }
+
+        /** This fill as the spans it covered when applied, which it paints wherever it is applied again. */
+        FillOp filled() {
+            return fixed ? this : new FillOp(x, y, color, tolerance).fix(spans);
+        }
+
+        private FillOp fix(int[] spans) {
+            this.spans = spans;
+            bounds = new Rectangle();
+            for (int i = 0; i < spans.length; i += 3) {
+                Rectangle run = new Rectangle(spans[i + 1], spans[i], spans[i + 2] - spans[i + 1] + 1, 1);
+                bounds = i == 0 ? run : bounds.union(run);
+            }
+            fixed = true;
+            return this;
+        }
+
+        @Override Rectangle apply(BufferedImage canvas, int ox, int oy) {
+            int w = canvas.getWidth(), h = canvas.getHeight();
+            if (fixed) {
+                Rectangle area = new Rectangle(0, 0, w, h);
+                render(canvas, 1, ox, oy, area);
+                Rectangle hit = offset(bounds, ox, oy).intersection(area);
+                return hit.isEmpty() ? new Rectangle() : hit;
+            }
+            int sx = x - ox, sy = y - oy;
+            if (sx < 0 || sy < 0 || sx >= w || sy >= h) {
+                spans = new int[0];
+                bounds = new Rectangle();
+                return new Rectangle();
+            }
+            ScanlineFill.IntStack out = new ScanlineFill.IntStack();
+            Rectangle filled;
+            PerfMonitor.Span span = PerfMonitor.SHARED.begin(PerfMonitor.Metric.FLOOD_FILL);
+            try {
+                filled = ParallelFill.fill(Rasters.pixels(canvas), w, h, sx, sy, color, tolerance, out);
+            } finally {
+                span.close();
+            }
+            spans = out.toArray();
+            for (int i = 0; i < spans.length; i += 3) {
+                spans[i] += oy;
+                spans[i + 1] += ox;
+                spans[i + 2] += ox;
+            }
+            bounds = filled != null ? offset(filled, -ox, -oy) : new Rectangle();
+            return filled != null ? filled : new Rectangle();
+        }
+
+        @Override void render(BufferedImage target, double scale, int ox, int oy, Rectangle clip) {
+            if (scale == 1) {
+                // exact: write the spans straight into the raster
+                int[] px = Rasters.pixels(target);
+                int w = target.getWidth();
+                Rectangle area = clip.intersection(new Rectangle(0, 0, w, target.getHeight()));
+                int cx1 = area.x + area.width - 1, cy1 = area.y + area.height - 1;
+                for (int i = 0; i < spans.length; i += 3) {
+                    int sy = spans[i] - oy;
+                    if (sy < area.y || sy > cy1) continue;
+                    int x0 = Math.max(spans[i + 1] - ox, area.x), x1 = Math.min(spans[i + 2] - ox, cx1);
+                    if (x0 <= x1) Arrays.fill(px, sy * w + x0, sy * w + x1 + 1, color);
+                }
+                return;
+            }
+            Graphics2D g = target.createGraphics();
+            g.setComposite(AlphaComposite.Src);
+            g.setColor(new Color(color, true));
+            g.setClip(clip);
+            g.translate(-ox, -oy);
+            g.scale(scale, scale);
+            for (int i = 0; i < spans.length; i += 3) {
+                g.fillRect(spans[i + 1], spans[i], spans[i + 2] - spans[i + 1] + 1, 1);
+            }
+            g.dispose();
+        }
+
+        @Override Rectangle bounds() { return new Rectangle(bounds); }
+
+        @Override long memoryUsage() { return 64 + spans.length * 4L; }
+
+        @Override void write(DataOutput out) throws IOException {
+            out.writeByte(fixed ? FILLED : FILL);
+            writeVarInt(out, x); writeVarInt(out, y);
+            out.writeInt(color);
+            out.writeByte(tolerance);
+            if (!fixed) return;
+            writeVarInt(out, spans.length / 3);
+            int sy = 0, sx = 0;
+            for (int i = 0; i < spans.length; i += 3) {
+                writeVarInt(out, spans[i] - sy);
+                writeVarInt(out, spans[i + 1] - sx);
+                writeVarInt(out, spans[i + 2] - spans[i + 1]);
+                sy = spans[i];
+                sx = spans[i + 1];
+            }
+        }
+    }
+
+    /**
+     * A {@link FilterPipeline} run over the raster it is applied to: on the unbounded
+     * canvas that is the visible part, as for a bucket fill. The result depends on the
+     * pixels underneath, so the operation keeps the filtered pixels, deflated, and
+     * {@link #render} puts those back. One made {@link #filtered} brings pixels computed
+     * elsewhere, e.g. in the background, and writes them wherever it is applied.
+     * The journal only keeps the pipeline and replays it over the same raster.
+     */
+    static final class FilterOp extends CanvasOperation {
+        final FilterPipeline pipeline;
+        private Rectangle bounds = new Rectangle();  // world area of the result
+        private byte[] packed;                       // the result, deflated
+        private int[] pending;                       // the result until it is first applied
+
+        FilterOp(FilterPipeline pipeline) {
+            this.pipeline = pipeline;
+        }
+
+        /** The pipeline's output {@code px} for the raster whose area in the world is {@code area}. Deflates it. */
+        static FilterOp filtered(FilterPipeline pipeline, int[] px, Rectangle area) {
+            FilterOp op = new FilterOp(pipeline);
+            op.bounds = new Rectangle(area);
+            op.packed = deflate(px);
+            op.pending = px;
+            return op;
+        }
+
+        @Override Rectangle apply(BufferedImage canvas, int ox, int oy) {
+            int w = canvas.getWidth(), h = canvas.getHeight();
+            Rectangle area = new Rectangle(0, 0, w, h);
+            if (packed == null) {
+                bounds = new Rectangle(ox, oy, w, h);
+                pending = pipeline.run(Rasters.pixels(canvas), w, h, 1);
+                packed = deflate(pending);
+            }
+            render(canvas, 1, ox, oy, area);
+            pending = null;
+            Rectangle hit = offset(bounds, ox, oy).intersection(area);
+            return hit.isEmpty() ? new Rectangle() : hit;
+        }
+
+        @Override void render(BufferedImage target, double scale, int ox, int oy, Rectangle clip) {
+            if (bounds.isEmpty()) return;
+            int[] px = pending != null ? pending : inflate(packed, bounds.width * bounds.height);
+            if (scale == 1 && target.getType() == BufferedImage.TYPE_INT_ARGB) {
+                // exact: copy the rows straight into the raster
+                int tw = target.getWidth();
+                Rectangle r = clip.intersection(new Rectangle(tw, target.getHeight()))
+                                  .intersection(offset(bounds, ox, oy));
+                int[] dst = Rasters.pixels(target);
+                for (int y = r.y; y < r.y + r.height; y++) {
+                    System.arraycopy(px, (y + oy - bounds.y) * bounds.width + r.x + ox - bounds.x,
+                                     dst, y * tw + r.x, r.width);
+                }
+                return;
+            }
+            Graphics2D g = target.createGraphics();
+            g.setComposite(AlphaComposite.Src);
+            g.setClip(clip);
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.translate(-ox, -oy);
+            g.scale(scale, scale);
+            g.drawImage(Rasters.wrapArgb(px, bounds.width, bounds.height), bounds.x, bounds.y, null);
+            g.dispose();
+        }
+
+        @Override Rectangle bounds() { return new Rectangle(bounds); }
+
+        @Override long memoryUsage() {
+            return 64 + (packed != null ? packed.length : 0) + (pending != null ? pending.length * 4L : 0);
+        }
+
+        @Override void write(DataOutput out) throws IOException {
+            out.writeByte(FILTER);
+            pipeline.write(out);
+        }
+
+        private static byte[] deflate(int[] px) {
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] raw = new byte[64 * 1024], buf = new byte[64 * 1024];
+            IntBuffer ints = ByteBuffer.wrap(raw).asIntBuffer();
+            for (int i = 0; i < px.length; i += raw.length / 4) {
+                int n = Math.min(raw.length / 4, px.length - i);
+                ints.clear();
+                ints.put(px, i, n);
+                deflater.setInput(raw, 0, n * 4);
+                while (!deflater.needsInput()) out.write(buf, 0, deflater.deflate(buf));
+            }
+            deflater.finish();
+            while (!deflater.finished()) out.write(buf, 0, deflater.deflate(buf));
+            deflater.end();
+            return out.toByteArray();
+        }
+
+        private static int[] inflate(byte[] packed, int count) {
+            Inflater inflater = new Inflater();
+            inflater.setInput(packed);
+            int[] px = new int[count];
+            byte[] raw = new byte[64 * 1024];
+            IntBuffer ints = ByteBuffer.wrap(raw).asIntBuffer();
+            try {
+                for (int i = 0; i < count; ) {
+                    int len = 0, want = Math.min(raw.length, (count - i) * 4);
+                    while (len < want) {
+                        int r = inflater.inflate(raw, len, want - len);
+                        if (r == 0 && (inflater.finished() || inflater.needsInput())) throw new IllegalStateException("Corrupt filter result");
+                        len += r;
+                    }
+                    ints.clear();
+                    ints.get(px, i, len / 4);
+                    i += len / 4;
+                }
+            } catch (DataFormatException ex) {
+                throw new IllegalStateException("Corrupt filter result", ex);
+            } finally {
+                inflater.end();
+            }
+            return px;
+        }
+    }
+
+    /** Wipes the canvas to transparent. */
+    static final class ClearOp extends CanvasOperation {
+        @Override Rectangle apply(BufferedImage canvas, int ox, int oy) {
+            render(canvas, 1, new Rectangle(0, 0, canvas.getWidth(), canvas.getHeight()));
+            return null;
+        }
+
+        @Override void render(BufferedImage target, double scale, int ox, int oy, Rectangle clip) {
+            if (target.getType() == BufferedImage.TYPE_INT_ARGB) {
+                Rectangle r = clip.intersection(new Rectangle(target.getWidth(), target.getHeight()));
+                int[] px = Rasters.pixels(target);
+                int w = target.getWidth();
+                for (int y = r.y; y < r.y + r.height; y++) {
+                    PixelKernels.SHARED.fill(px, y * w + r.x, y * w + r.x + r.width, 0);
+                }
+                return;
+            }
+            Graphics2D g = target.createGraphics();
+            g.setComposite(AlphaComposite.Clear);
+            g.fill(clip);
+            g.dispose();
+        }
+
+        @Override Rectangle bounds() { return null; }
+
+        @Override long memoryUsage() { return 16; }
+
+        @Override void write(DataOutput out) throws IOException { out.writeByte(CLEAR); }
+    }
+
+    private static DrawingCanvasPanel.Tool shapeTool(byte code) throws IOException {
+        switch (code) {
+            case 0: return DrawingCanvasPanel.Tool.LINE;
+            case 1: return DrawingCanvasPanel.Tool.RECTANGLE;
+            case 2: return DrawingCanvasPanel.Tool.OVAL;
+            default: throw new IOException("Unknown shape " + code);
+        }
+    }
+
+    static void writeVarInt(DataOutput out, int v) throws IOException {
+        int z = (v << 1) ^ (v >> 31);
+        while ((z & ~0x7f) != 0) {
+            out.writeByte((z & 0x7f) | 0x80);
+            z >>>= 7;
+        }
+        out.writeByte(z);
+    }
+
+    static int readVarInt(DataInput in) throws IOException {
+        int z = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            z |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) return (z >>> 1) ^ -(z & 1);
+        }
+        throw new IOException("Malformed varint");
+    }
+}
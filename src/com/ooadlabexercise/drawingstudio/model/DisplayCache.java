@@ -0,0 +1,113 @@
+package com.ooadlabexercise.drawingstudio.model;
+
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
+import java.util.Locale;
+
+/**
+ * Screen-side copy of what a panel paints, kept in video memory where possible.
+ * <p>
+ * The model rasters are written through their {@code int[]} arrays, which stops
+ * Java2D from caching them on the graphics card, so painting them directly
+ * converts and uploads the pixels on every repaint. The cache is an opaque
+ * {@link VolatileImage} (or an image compatible with the screen) that is only
+ * redrawn inside the areas reported dirty; repaints otherwise just blit it.
+ * When the surface is lost, e.g. after a display mode change, it is validated
+ * and redrawn in full.
+ * <p>
+ * {@code -Ddrawingstudio.displayCache=volatile} (default), {@code compatible} or
+ * {@code none} to paint straight from the model, for comparison.
+ */
+class DisplayCache {
+    enum Mode { VOLATILE, COMPATIBLE, NONE }
+
+    /** Paints the panel's content for {@code area}; the graphics are clipped to it. */
+    interface Painter {
+        void paintArea(Graphics2D g, Rectangle area);
+    }
+
+    private final Painter painter;
+    private Mode mode;
+    private Image image;
+    private Rectangle dirty;
+
+    DisplayCache(Painter painter) {
+        this.painter = painter;
+        String mode = System.getProperty("drawingstudio.displayCache", "volatile").toUpperCase(Locale.ROOT);
+        this.mode = mode.equals("NONE") ? Mode.NONE : mode.equals("COMPATIBLE") ? Mode.COMPATIBLE : Mode.VOLATILE;
+    }
+
+    void setMode(Mode mode) {
+        this.mode = mode;
+        flush();
+    }
+
+    Mode getMode() { return mode; }
+
+    /** The content changed inside {@code r} and has to be painted again there. */
+    void invalidate(Rectangle r) {
+        dirty = dirty == null ? new Rectangle(r) : dirty.union(r);
+    }
+
+    /** The content changed everywhere. */
+    void invalidateAll() {
+        dirty = new Rectangle(0, 0, Integer.MAX_VALUE / 2, Integer.MAX_VALUE / 2);
+    }
+
+    /** Releases the cached surface; it is recreated on the next paint. */
+    void flush() {
+        if (image != null) image.flush();
+        image = null;
+    }
+
+    /** Paints {@code clip} of a {@code w x h} panel, refreshing the dirty part of the cache first. */
+    void paint(Graphics g, int w, int h, Rectangle clip) {
+        GraphicsConfiguration gc = ((Graphics2D) g).getDeviceConfiguration();
+        if (mode == Mode.NONE || gc == null || w <= 0 || h <= 0) {
+            Graphics2D direct = (Graphics2D) g.create();
+            painter.paintArea(direct, clip);
+            direct.dispose();
+            return;
+        }
+        // a lost volatile surface is redrawn and blitted again; give up after a few tries
+        for (int attempt = 0; attempt < 3; attempt++) {
+            boolean full = false;
+            if (image == null || image.getWidth(null) != w || image.getHeight(null) != h) {
+                flush();
+                image = mode == Mode.VOLATILE ? gc.createCompatibleVolatileImage(w, h, Transparency.OPAQUE)
+                                              : gc.createCompatibleImage(w, h, Transparency.OPAQUE);
+                full = true;
+            }
+            if (image instanceof VolatileImage) {
+                int state = ((VolatileImage) image).validate(gc);
+                if (state == VolatileImage.IMAGE_INCOMPATIBLE) {
+                    flush();
+                    continue;
+                }
+                full |= state == VolatileImage.IMAGE_RESTORED;
+            }
+            Rectangle all = new Rectangle(0, 0, w, h);
+            Rectangle area = full ? all : dirty != null ? dirty.intersection(all) : null;
+            if (area != null && !area.isEmpty()) {
+                Graphics2D cg = image instanceof VolatileImage ? ((VolatileImage) image).createGraphics()
+                                                               : ((BufferedImage) image).createGraphics();
+                cg.setClip(area);
+                painter.paintArea(cg, area);
+                cg.dispose();
+            }
+            dirty = null;
+            int x2 = clip.x + clip.width, y2 = clip.y + clip.height;
+            g.drawImage(image, clip.x, clip.y, x2, y2, clip.x, clip.y, x2, y2, null);
+            if (!(image instanceof VolatileImage) || !((VolatileImage) image).contentsLost()) return;
+        }
+        Graphics2D direct = (Graphics2D) g.create();
+        painter.paintArea(direct, clip);
+        direct.dispose();
+    }
+}
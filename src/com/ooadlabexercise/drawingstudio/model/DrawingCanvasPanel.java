@@ -2,161 +2,664 @@ package com.ooadlabexercise.drawingstudio.model;
 
 import java.awt.*;
 import java.awt.event.*;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Path2D;
+import java.awt.geom.Point2D;
 import java.awt.image.BufferedImage;
-import java.util.Stack;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import javax.swing.*;
 
 public class DrawingCanvasPanel extends JPanel {
     public enum Tool { FREEHAND, LINE, RECTANGLE, OVAL, FILL }
     private Tool currentTool = Tool.FREEHAND;
 
-    // Canvas buffer will now resize dynamically
-    private BufferedImage canvas;
+    // Layers, their composite and the undo history live in the engine; the buffers resize with the panel
+    private final DrawingEngine engine = new DrawingEngine(1, 1);
     private Graphics2D g2;
 
     private int startX, startY, currX, currY;
     private boolean previewing = false;
     private Color fillColor = Color.WHITE;
+    private int fillTolerance = 0;
 
-    private final Stack<BufferedImage> undoStack = new Stack<>();
-    private final Stack<BufferedImage> redoStack = new Stack<>();
+    private Rectangle strokeBounds;
+
+    // Only the area touched by each mouse event is repainted
+    private static final float PREVIEW_WIDTH = 2f;
+    private final RepaintMeter repaintMeter = new RepaintMeter();
+    // What is on screen is blitted from a video memory copy, refreshed only where the drawing changed
+    private final DisplayCache display = new DisplayCache(this::paintCanvas);
+
+    // Committed operations are logged for crash recovery; stroke points are collected while dragging
+    private OperationJournal journal;
+    private int[] strokePoints = new int[256];
+    private int strokeLength;
+
+    // Smoothed freehand: drags queued up since the last pass are drawn together as one
+    // curve piece; -Ddrawingstudio.strokes=direct draws a line per event instead
+    private boolean smoothStrokes = !"direct".equals(System.getProperty("drawingstudio.strokes"));
+    private boolean strokeFlushQueued;
+    private int strokeDrawn;
+
+    // Input latency: event time of each stroke point, until its pixels have been painted
+    private final LatencyMeter inputLatency = new LatencyMeter();
+    private long[] pointTimes = new long[128];
+    private int pointsShown, pointsPainted;
+
+    // The drawing has no edges: a middle-button drag or the wheel (with Shift: sideways) moves the
+    // view over it, Ctrl+wheel zooms around the pointer. The engine's rasters follow what is shown,
+    // up to MAX_WINDOW times the panel; moves queued up since the last pass are applied together.
+    // Zoomed in, the composite is scaled up pixel for pixel; zoomed out, the panel paints from the
+    // engine's downsampled levels, so a frame costs about the same at any zoom
+    private static final int WHEEL_STEP = 24;
+    private static final double MIN_ZOOM = 1.0 / 64, MAX_ZOOM = 32;
+    private static final int MAX_WINDOW = 2;
+    private double viewX, viewY;  // world point at the panel's top-left corner
+    private double zoom = 1;
+    private boolean panning;
+    private int panFromX, panFromY;
+    private double panViewX, panViewY;
+    private boolean viewQueued;
+
+    // A shared session draws the other peers' operations between ours, never while a button is down
+    private DrawingSession session;
+    private boolean drawing;
+
+    // Filters: while one is previewed, the visible part of the drawing is shown with the active layer
+    // filtered, computed in the background from a downsampled proxy that is taken again whenever the
+    // drawing or the view changes. Applying filters the whole raster and commits it as one undo step,
+    // unless the drawing changed meanwhile, in which case it starts again from what is there now
+    private FilterPipeline filterPipeline;         // previewed, or null
+    private FilterProxy filterProxy;               // taken for the current drawing and view, or null
+    private FilterPipeline.Job<?> filterJob, applyJob;
+    private FilterProxy filterShown;               // what the preview image was made from
+    private BufferedImage filterPreview;
+    private boolean filterQueued;
+    private int changeCount;
 
     public DrawingCanvasPanel() {
         setBackground(Color.WHITE);
         // initial tiny buffer
-        canvas = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
         setupGraphics();
 
         // Handle resizing: expand buffer to panel size
         addComponentListener(new ComponentAdapter() {
             @Override public void componentResized(ComponentEvent e) {
-                int w = getWidth(), h = getHeight();
-                if (w <= 0 || h <= 0) return;
-                BufferedImage newCanvas = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
-                Graphics2D g = newCanvas.createGraphics();
-                g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-                g.setStroke(new BasicStroke(2, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
-                g.setColor(Color.BLACK);
-                // copy old content
-                g.drawImage(canvas, 0, 0, null);
-                g.dispose();
-                canvas = newCanvas;
-                setupGraphics();
-                // reset undo/redo
-                undoStack.clear();
-                undoStack.push(copyImage(canvas));
-                redoStack.clear();
-                repaint();
+                updateView();
             }
         });
 
         // Mouse listeners
         addMouseListener(new MouseAdapter() {
             @Override public void mousePressed(MouseEvent e) {
-                startX = e.getX(); startY = e.getY(); currX = startX; currY = startY;
+                if (SwingUtilities.isMiddleMouseButton(e)) {
+                    // not in the middle of drawing with another button
+                    if ((e.getModifiersEx() & (InputEvent.BUTTON1_DOWN_MASK | InputEvent.BUTTON3_DOWN_MASK)) == 0) {
+                        panning = true;
+                        panFromX = e.getX(); panFromY = e.getY();
+                        panViewX = viewX; panViewY = viewY;
+                    }
+                    return;
+                }
+                if (panning) return;
+                drawing = true;
+                startX = canvasX(e.getX()); startY = canvasY(e.getY()); currX = startX; currY = startY;
                 if (currentTool == Tool.FILL) {
-                    floodFill(startX, startY, fillColor);
-                    saveState(); repaint();
+                    CanvasOperation fill = new CanvasOperation.FillOp(worldX(startX), worldY(startY), fillColor.getRGB(), fillTolerance);
+                    Rectangle filled = engine.apply(fill);
+                    if (!filled.isEmpty()) { saveState(fill, filled); canvasChanged(filled); }
                 } else if (currentTool != Tool.FREEHAND) {
                     previewing = true;
                 }
                 // FREEHAND: commit on release
+                strokeBounds = null;
+                strokeLength = 0;
+                strokeDrawn = 0;
+                addStrokePoint(startX, startY, e.getWhen());
+                pointsShown = pointsPainted = 1;
             }
             @Override public void mouseReleased(MouseEvent e) {
+                if (SwingUtilities.isMiddleMouseButton(e)) {
+                    panning = false;
+                    return;
+                }
+                if (panning) return;
+                drawing = false;
                 if (previewing) {
-                    drawShape(g2, startX, startY, currX, currY);
-                    previewing = false; saveState(); repaint();
+                    CanvasOperation op = new CanvasOperation.ShapeOp(currentTool, g2.getColor().getRGB(), penWidth(),
+                                                                      worldX(startX), worldY(startY), worldX(currX), worldY(currY));
+                    Rectangle shape = engine.apply(op);
+                    previewing = false; saveState(op, shape);
+                    repaint(previewBounds());
+                    canvasChanged(shape);
                 } else if (currentTool == Tool.FREEHAND) {
-                    saveState();
+                    if (smoothStrokes) drawQueuedStroke(true);
+                    if (strokeBounds == null) return;
+                    int[] points = Arrays.copyOf(strokePoints, strokeLength);
+                    for (int i = 0; i < points.length; i += 2) {
+                        points[i] = worldX(points[i]);
+                        points[i + 1] = worldY(points[i + 1]);
+                    }
+                    CanvasOperation op = new CanvasOperation.StrokeOp(g2.getColor().getRGB(), penWidth(), points, smoothStrokes);
+                    if (smoothStrokes) {
+                        // the live pieces overlap where they join; draw the stroke again as one curve
+                        engine.discard(strokeBounds);
+                        strokeBounds = strokeBounds.union(engine.apply(op));
+                        canvasChanged(strokeBounds);
+                    }
+                    saveState(op, strokeBounds);
                 }
             }
         });
 
         addMouseMotionListener(new MouseMotionAdapter() {
             @Override public void mouseDragged(MouseEvent e) {
-                if (currentTool == Tool.FREEHAND) {
-                    int x = e.getX(), y = e.getY();
+                if (panning) {
+                    viewX = panViewX - (e.getX() - panFromX) / zoom;
+                    viewY = panViewY - (e.getY() - panFromY) / zoom;
+                    queueViewUpdate();
+                    return;
+                }
+                if (SwingUtilities.isMiddleMouseButton(e)
+                        && !SwingUtilities.isLeftMouseButton(e) && !SwingUtilities.isRightMouseButton(e)) {
+                    return;
+                }
+                if (currentTool == Tool.FREEHAND && smoothStrokes) {
+                    addStrokePoint(canvasX(e.getX()), canvasY(e.getY()), e.getWhen());
+                    if (!strokeFlushQueued) {
+                        // runs after the drags already waiting in the event queue
+                        strokeFlushQueued = true;
+                        SwingUtilities.invokeLater(() -> drawQueuedStroke(false));
+                    }
+                } else if (currentTool == Tool.FREEHAND) {
+                    int x = canvasX(e.getX()), y = canvasY(e.getY());
                     g2.drawLine(startX, startY, x, y);
-                    startX = x; startY = y; repaint();
+                    Rectangle seg = Rasters.segmentBounds(startX, startY, x, y, penWidth());
+                    strokeBounds = strokeBounds == null ? seg : strokeBounds.union(seg);
+                    addStrokePoint(x, y, e.getWhen());
+                    pointsShown = strokeLength / 2;
+                    startX = x; startY = y;
+                    engine.invalidate(seg); canvasChanged(seg);
                 } else if (previewing) {
-                    currX = e.getX(); currY = e.getY(); repaint();
+                    Rectangle old = previewBounds();
+                    currX = canvasX(e.getX()); currY = canvasY(e.getY());
+                    repaint(old.union(previewBounds()));
                 }
             }
         });
+
+        addMouseWheelListener(e -> {
+            if (panning || (e.getModifiersEx() & (InputEvent.BUTTON1_DOWN_MASK | InputEvent.BUTTON3_DOWN_MASK)) != 0) return;
+            if (e.isControlDown()) {
+                zoomAround(zoom * Math.pow(2, -e.getPreciseWheelRotation() / 4), e.getX(), e.getY());
+            } else {
+                double d = e.getUnitsToScroll() * WHEEL_STEP / zoom;
+                if (e.isShiftDown()) viewX += d; else viewY += d;
+            }
+            queueViewUpdate();
+        });
+
+        // -Ddrawingstudio.repaintStats=true prints repaint throughput once a second
+        if (Boolean.getBoolean("drawingstudio.repaintStats")) {
+            new Timer(1000, e -> System.out.printf("repainted %,d px/s in %d paints%n",
+                repaintMeter.pixelsPerSecond(), repaintMeter.paintsPerSecond())).start();
+        }
+        // -Ddrawingstudio.latencyStats=true prints freehand event-to-screen latency once a second
+        if (Boolean.getBoolean("drawingstudio.latencyStats")) {
+            new Timer(1000, e -> {
+                if (inputLatency.count() > 0) {
+                    System.out.printf("%s strokes: input latency p50 %d ms, p99 %d ms, max %d ms over %d events%n",
+                        smoothStrokes ? "smoothed" : "direct", inputLatency.percentile(50),
+                        inputLatency.percentile(99), inputLatency.max(), inputLatency.count());
+                }
+            }).start();
+        }
+    }
+
+    /**
+     * Draws the stroke segments that became drawable since the last call as one path.
+     * A curve segment needs the point after its end, so the newest segment waits for
+     * the next event unless this is the end of the stroke.
+     */
+    private void drawQueuedStroke(boolean last) {
+        strokeFlushQueued = false;
+        int n = strokeLength / 2;
+        int end = last ? n - 1 : n - 2;
+        if (end <= strokeDrawn) return;
+        Path2D piece = CanvasOperation.smoothPath(strokePoints, n, strokeDrawn, end);
+        g2.draw(piece);
+        Rectangle r = CanvasOperation.pathBounds(piece, penWidth());
+        strokeBounds = strokeBounds == null ? r : strokeBounds.union(r);
+        strokeDrawn = end;
+        pointsShown = end + 1;
+        engine.invalidate(r);
+        canvasChanged(r);
+    }
+
+    // Panel pixel to canvas (raster) pixel, through the view; canvas to world
+    private int canvasX(int x) { return (int) Math.floor(viewX + (x + 0.5) / zoom) - engine.getViewX(); }
+    private int canvasY(int y) { return (int) Math.floor(viewY + (y + 0.5) / zoom) - engine.getViewY(); }
+    private int worldX(int x) { return x + engine.getViewX(); }
+    private int worldY(int y) { return y + engine.getViewY(); }
+    // Canvas position to panel position
+    private double screenX(double x) { return (x + engine.getViewX() - viewX) * zoom; }
+    private double screenY(double y) { return (y + engine.getViewY() - viewY) * zoom; }
+
+    /** Panel area showing {@code r} (canvas coordinates), with a margin for scaling. */
+    private Rectangle toScreen(Rectangle r) {
+        if (unscaled()) return r;
+        int x0 = (int) Math.floor(screenX(r.x)) - 2, y0 = (int) Math.floor(screenY(r.y)) - 2;
+        int x1 = (int) Math.ceil(screenX(r.x + r.width)) + 2, y1 = (int) Math.ceil(screenY(r.y + r.height)) + 2;
+        return new Rectangle(x0, y0, x1 - x0, y1 - y0);
+    }
+
+    /** True if panel and canvas pixels are the same, as at 100% once the view has settled. */
+    private boolean unscaled() {
+        return zoom == 1 && viewX == engine.getViewX() && viewY == engine.getViewY();
+    }
+
+    /** Panel area of the dashed shape preview. */
+    private Rectangle previewBounds() {
+        return shapeBounds(previewX(startX), previewY(startY), previewX(currX), previewY(currY), PREVIEW_WIDTH);
+    }
+    private int previewX(int x) { return (int) Math.floor(screenX(x + 0.5)); }
+    private int previewY(int y) { return (int) Math.floor(screenY(y + 0.5)); }
+
+    /** Zooms to {@code z}, keeping the world point under panel position (px, py) in place. */
+    private void zoomAround(double z, int px, int py) {
+        z = Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, z));
+        if (Math.abs(z - 1) < 1e-3) z = 1;
+        if (z == zoom) return;
+        double wx = viewX + px / zoom, wy = viewY + py / zoom;
+        zoom = z;
+        viewX = wx - px / z;
+        viewY = wy - py / z;
+    }
+
+    /** Fits the engine to the view once the events already waiting in the queue are handled. */
+    private void queueViewUpdate() {
+        if (viewQueued) return;
+        viewQueued = true;
+        SwingUtilities.invokeLater(() -> {
+            viewQueued = false;
+            updateView();
+        });
+    }
+
+    /**
+     * Sizes and moves the engine's rasters to cover what the panel shows, then repaints.
+     * Zoomed far out they cover MAX_WINDOW times the panel around its centre: drawing
+     * outside that is kept all the same but only shows once committed.
+     */
+    private void updateView() {
+        int pw = getWidth(), ph = getHeight();
+        if (pw <= 0 || ph <= 0) return;
+        if (zoom == 1) {
+            // whole pixels, so the composite is drawn unscaled
+            viewX = Math.round(viewX);
+            viewY = Math.round(viewY);
+        }
+        double vw = pw / zoom, vh = ph / zoom;
+        int edge = zoom == 1 ? 0 : 1;  // a partly shown pixel
+        int w = (int) Math.min(Math.ceil(vw) + edge, (long) pw * MAX_WINDOW);
+        int h = (int) Math.min(Math.ceil(vh) + edge, (long) ph * MAX_WINDOW);
+        int x = (int) Math.floor(w < vw ? viewX + (vw - w) / 2 : viewX);
+        int y = (int) Math.floor(h < vh ? viewY + (vh - h) / 2 : viewY);
+        BufferedImage canvas = engine.getCanvas();
+        if (w != canvas.getWidth() || h != canvas.getHeight()) {
+            resizeCanvas(w, h);
+            if (journal != null) journal.logResize(w, h);
+        }
+        if (x != engine.getViewX() || y != engine.getViewY()) {
+            engine.pan(x, y);
+            if (journal != null) journal.logView(x, y);
+        }
+        canvasChanged(null);
     }
 
     private void setupGraphics() {
-        g2 = canvas.createGraphics();
+        // keep the pen when the canvas is replaced
+        Color color = g2 != null ? g2.getColor() : Color.BLACK;
+        Stroke stroke = g2 != null ? g2.getStroke() : new BasicStroke(2, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+        if (g2 != null) g2.dispose();
+        g2 = engine.getCanvas().createGraphics();
         g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-        g2.setStroke(new BasicStroke(2, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
-        g2.setColor(Color.BLACK);
+        g2.setStroke(stroke);
+        g2.setColor(color);
+    }
+
+    /** The drawing changed inside {@code r} (null = everywhere); refresh the display cache and repaint there. */
+    private void canvasChanged(Rectangle r) {
+        changeCount++;
+        if (filterPipeline != null) {
+            filterProxy = null;
+            queueFilterPreview();
+        }
+        if (r == null) {
+            display.invalidateAll();
+            repaint();
+        } else {
+            Rectangle shown = toScreen(r);
+            display.invalidate(shown);
+            repaint(shown);
+        }
+    }
+
+    /** Display cache path: the drawing, with the filter preview over it while there is one. */
+    private void paintCanvas(Graphics2D g, Rectangle area) {
+        paintDrawing(g, area);
+        if (filterPreview != null) {
+            Graphics2D pg = (Graphics2D) g.create();
+            pg.clip(area);
+            AffineTransform at = filterTransform(filterShown);
+            pg.setColor(getBackground());
+            pg.fill(at.createTransformedShape(new Rectangle(filterShown.width, filterShown.height)));
+            pg.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            pg.drawImage(filterPreview, at, null);
+            pg.dispose();
+        }
+    }
+
+    /** Empty panel background plus the flattened layers, through the view. */
+    private void paintDrawing(Graphics2D g, Rectangle area) {
+        g.setColor(getBackground());
+        g.fillRect(area.x, area.y, area.width, area.height);
+        if (zoom < 1) {
+            engine.getMipmap().paint(g, zoom, viewX, viewY, area);
+            return;
+        }
+        BufferedImage canvas = engine.getComposite();
+        if (unscaled()) {
+            Rectangle src = area.intersection(new Rectangle(0, 0, canvas.getWidth(), canvas.getHeight()));
+            if (!src.isEmpty()) {
+                int x2 = src.x + src.width, y2 = src.y + src.height;
+                g.drawImage(canvas, src.x, src.y, x2, y2, src.x, src.y, x2, y2, null);
+            }
+            return;
+        }
+        // only the canvas pixels under the area, each scaled up to a block of panel pixels
+        int x0 = Math.max(0, canvasX(area.x) - 1), y0 = Math.max(0, canvasY(area.y) - 1);
+        int x1 = Math.min(canvas.getWidth(), canvasX(area.x + area.width) + 1);
+        int y1 = Math.min(canvas.getHeight(), canvasY(area.y + area.height) + 1);
+        if (x0 >= x1 || y0 >= y1) return;
+        Graphics2D scaled = (Graphics2D) g.create();
+        scaled.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+        scaled.translate(screenX(0), screenY(0));
+        scaled.scale(zoom, zoom);
+        scaled.drawImage(canvas, x0, y0, x1, y1, x0, y0, x1, y1, null);
+        scaled.dispose();
+    }
+
+    private void resizeCanvas(int w, int h) {
+        engine.resizeCanvas(w, h);
+        setupGraphics();
     }
 
     private void drawShape(Graphics2D g, int x1, int y1, int x2, int y2) {
-        switch (currentTool) {
-            case LINE:      g.drawLine(x1,y1,x2,y2); break;
-            case RECTANGLE: g.drawRect(Math.min(x1,x2),Math.min(y1,y2),Math.abs(x2-x1),Math.abs(y2-y1)); break;
-            case OVAL:      g.drawOval(Math.min(x1,x2),Math.min(y1,y2),Math.abs(x2-x1),Math.abs(y2-y1)); break;
-            default: break;
+        CanvasOperation.drawShape(g, currentTool, x1, y1, x2, y2);
+    }
+
+    private void addStrokePoint(int x, int y, long when) {
+        if (strokeLength + 2 > strokePoints.length) strokePoints = Arrays.copyOf(strokePoints, strokePoints.length * 2);
+        if (strokeLength / 2 == pointTimes.length) pointTimes = Arrays.copyOf(pointTimes, pointTimes.length * 2);
+        pointTimes[strokeLength / 2] = when;
+        strokePoints[strokeLength++] = x;
+        strokePoints[strokeLength++] = y;
+    }
+
+    private Rectangle shapeBounds(int x1, int y1, int x2, int y2, float strokeWidth) {
+        return Rasters.segmentBounds(x1, y1, x2, y2, strokeWidth);
+    }
+
+    private float penWidth() {
+        Stroke s = g2.getStroke();
+        return s instanceof BasicStroke ? ((BasicStroke) s).getLineWidth() : 1f;
+    }
+
+    /**
+     * Records the pixels {@code op} changed inside {@code dirty} (null = whole canvas)
+     * as one undo step, and keeps and journals the operation if anything changed.
+     * In a session it goes to the other peers either way.
+     */
+    private void saveState(CanvasOperation op, Rectangle dirty) {
+        PerfMonitor.Span span = PerfMonitor.SHARED.begin(PerfMonitor.Metric.SAVE_STATE);
+        try {
+            boolean stepped = engine.commit(op, dirty);
+            if (stepped && journal != null) journal.logOperation(op, engine);
+            if (session != null) session.submit(op, stepped);
+        } finally {
+            span.close();
         }
+        PerfMonitor.SHARED.setHistoryBytes(engine.getHistoryMemoryUsage());
     }
 
-    private void saveState() {
-        undoStack.push(copyImage(canvas));
-        redoStack.clear();
+    /**
+     * Shows the drawing with the active layer run through {@code pipeline}, computed in the
+     * background on a proxy of the visible part; a preview still being computed is cancelled.
+     */
+    void previewFilter(FilterPipeline pipeline) {
+        filterPipeline = pipeline.isEmpty() ? null : pipeline;
+        refreshFilterPreview();
     }
 
-    private BufferedImage copyImage(BufferedImage src) {
-        BufferedImage copy = new BufferedImage(src.getWidth(), src.getHeight(), src.getType());
-        copy.getGraphics().drawImage(src,0,0,null);
-        return copy;
+    /** Stops previewing a filter and shows the drawing as it is. */
+    void endFilterPreview() {
+        filterPipeline = null;
+        refreshFilterPreview();
     }
 
-    public void undo() {
-        if (undoStack.size()>1) {
-            redoStack.push(undoStack.pop());
-            restoreImage(undoStack.peek());
+    /**
+     * Runs {@code pipeline} over the active layer's raster in the background and commits the
+     * result as one undo step, then calls {@code done}. False in a shared session: peers would
+     * need the filtered pixels, not the filter.
+     */
+    boolean applyFilter(FilterPipeline pipeline, Runnable done) {
+        if (session != null) return false;
+        if (applyJob != null) applyJob.cancel(false);
+        if (pipeline.isEmpty()) {
+            done.run();
+            return true;
         }
+        int version = changeCount;
+        BufferedImage canvas = engine.getCanvas();
+        int w = canvas.getWidth(), h = canvas.getHeight();
+        int[] snapshot = Rasters.pixels(canvas).clone();
+        Rectangle world = new Rectangle(engine.getViewX(), engine.getViewY(), w, h);
+        applyJob = FilterPipeline.submit(
+            cancelled -> CanvasOperation.FilterOp.filtered(pipeline, pipeline.run(snapshot, w, h, 1, cancelled), world),
+            op -> {
+                applyJob = null;
+                if (version != changeCount) {
+                    applyFilter(pipeline, done);
+                    return;
+                }
+                endFilterPreview();
+                Rectangle dirty = engine.apply(op);
+                saveState(op, dirty);
+                canvasChanged(dirty);
+                done.run();
+            });
+        return true;
     }
 
-    public void redo() {
-        if (!redoStack.isEmpty()) {
-            BufferedImage next = redoStack.pop();
-            undoStack.push(copyImage(next));
-            restoreImage(next);
+    /** Filters the proxy again once the events already waiting in the queue are handled. */
+    private void queueFilterPreview() {
+        if (filterQueued) return;
+        filterQueued = true;
+        SwingUtilities.invokeLater(this::refreshFilterPreview);
+    }
+
+    private void refreshFilterPreview() {
+        filterQueued = false;
+        if (filterJob != null) filterJob.cancel(false);
+        filterJob = null;
+        Rectangle visible = new Rectangle(canvasX(0), canvasY(0), 0, 0);
+        visible.add(canvasX(getWidth() - 1) + 1, canvasY(getHeight() - 1) + 1);
+        visible = visible.intersection(new Rectangle(engine.getCanvas().getWidth(), engine.getCanvas().getHeight()));
+        if (filterPipeline == null || visible.isEmpty()) {
+            filterProxy = null;
+            showFilterPreview(null, null);
+            return;
+        }
+        if (filterProxy == null) {
+            // about one proxy pixel per two panel pixels each way
+            filterProxy = FilterProxy.capture(engine, visible, Math.max(1, (int) Math.ceil(2 / zoom)));
         }
+        FilterProxy proxy = filterProxy;
+        FilterPipeline pipeline = filterPipeline;
+        filterJob = FilterPipeline.submit(cancelled -> proxy.preview(pipeline, cancelled), px -> {
+            filterJob = null;
+            showFilterPreview(proxy, Rasters.wrapArgb(px, proxy.width, proxy.height));
+        });
     }
 
-    private void restoreImage(BufferedImage img) {
-        g2.setComposite(AlphaComposite.Clear);
-        g2.fillRect(0,0,canvas.getWidth(),canvas.getHeight());
-        g2.setComposite(AlphaComposite.SrcOver);
-        g2.drawImage(img,0,0,null);
-        repaint();
+    private void showFilterPreview(FilterProxy proxy, BufferedImage image) {
+        Rectangle shown = filterShown != null ? filterBounds(filterShown) : null;
+        if (proxy != null) shown = shown == null ? filterBounds(proxy) : shown.union(filterBounds(proxy));
+        filterShown = proxy;
+        filterPreview = image;
+        if (shown != null) {
+            display.invalidate(shown);
+            repaint(shown);
+        }
     }
 
-    private void floodFill(int x,int y,Color c) {
-        int w = canvas.getWidth(), h = canvas.getHeight();
-        int target;
-        try { target = canvas.getRGB(x,y); } catch (Exception ex) { return; }
-        int replacement = c.getRGB(); if (target==replacement) return;
-        java.util.Queue<Point> q = new java.util.LinkedList<>();
-        q.add(new Point(x,y));
-        while (!q.isEmpty()) {
-            Point p = q.remove(); int px = p.x, py = p.y;
-            if (px<0||px>=w||py<0||py>=h) continue;
-            if (canvas.getRGB(px,py)!=target) continue;
-            canvas.setRGB(px, py, replacement);
-            q.add(new Point(px+1,py)); q.add(new Point(px-1,py));
-            q.add(new Point(px,py+1)); q.add(new Point(px,py-1));
+    /** Proxy pixels to panel pixels, through the view. */
+    private AffineTransform filterTransform(FilterProxy proxy) {
+        AffineTransform at = AffineTransform.getTranslateInstance((proxy.world.x - viewX) * zoom, (proxy.world.y - viewY) * zoom);
+        at.scale(proxy.step * zoom, proxy.step * zoom);
+        return at;
+    }
+
+    /** Panel area of a filter preview. */
+    private Rectangle filterBounds(FilterProxy proxy) {
+        Rectangle r = filterTransform(proxy).createTransformedShape(new Rectangle(proxy.width, proxy.height)).getBounds();
+        r.grow(2, 2);
+        return r;
+    }
+
+    public void undo() {
+        // the session's order is the history now
+        if (session != null) return;
+        Rectangle changed = engine.undoStep();
+        if (changed != null) {
+            canvasChanged(changed);
+            if (journal != null) journal.logUndo(engine);
+            PerfMonitor.SHARED.setHistoryBytes(engine.getHistoryMemoryUsage());
+        }
+    }
+
+    public void redo() {
+        if (session != null) return;
+        Rectangle changed = engine.redoStep();
+        if (changed != null) {
+            canvasChanged(changed);
+            if (journal != null) journal.logRedo(engine);
+            PerfMonitor.SHARED.setHistoryBytes(engine.getHistoryMemoryUsage());
         }
     }
 
+    /** Clears the active layer */
     public void clearCanvas() {
-        g2.setComposite(AlphaComposite.Clear);
-        g2.fillRect(0,0,canvas.getWidth(),canvas.getHeight());
-        g2.setComposite(AlphaComposite.SrcOver);
-        saveState(); repaint();
+        CanvasOperation clear = new CanvasOperation.ClearOp();
+        engine.apply(clear);
+        saveState(clear, null); canvasChanged(null);
+    }
+
+    /** World point shown at the top-left corner of the panel */
+    public Point2D getViewOrigin() { return new Point2D.Double(viewX, viewY); }
+
+    /** Scroll the unbounded drawing so the top-left corner of the panel shows world (x, y) */
+    public void setViewOrigin(double x, double y) {
+        viewX = x;
+        viewY = y;
+        updateView();
+    }
+
+    /** Panel pixels per drawing pixel: above 1 zoomed in, below 1 zoomed out */
+    public double getZoom() { return zoom; }
+
+    /** Zoom around the centre of the panel, between 1/64 and 32 */
+    public void setZoom(double z) {
+        zoomAround(z, getWidth() / 2, getHeight() / 2);
+        updateView();
+    }
+
+    /** Log every committed operation to the journal from now on */
+    public void setJournal(OperationJournal journal) { this.journal = journal; }
+
+    /** Rebuild the canvas and its undo history from the journal of a previous session */
+    public void recover(OperationJournal previous) throws IOException {
+        previous.replay(engine);
+        setupGraphics();
+        viewX = engine.getViewX();
+        viewY = engine.getViewY();
+        zoom = 1;
+        updateView();
+        canvasChanged(null);
+    }
+
+    /** Show the project's layers and view; tiles are decoded as they come into view */
+    void openProject(ProjectFile project) {
+        leaveSession();
+        project.restore(engine);
+        if (journal != null) journal.checkpoint(engine);
+        setupGraphics();
+        viewX = project.getViewX();
+        viewY = project.getViewY();
+        zoom = Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, project.getZoom()));
+        updateView();
+    }
+
+    /** Save the layers, the view and the given reference board into the project, writing only changed tiles */
+    void saveProject(ProjectFile project, List<ReferenceCanvasPanel.Placement> board) throws IOException {
+        project.save(engine, viewX, viewY, zoom, board);
+        // the saved tiles go into the checkpoint as they are, so this is cheap and keeps replay short
+        if (journal != null) journal.checkpoint(engine);
+    }
+
+    /** Share the drawing with peers that join on {@code port} (0 = any free port) */
+    DrawingSession hostSession(int port) throws IOException {
+        leaveSession();
+        session = DrawingSession.host(engine, port, journal, sessionListener());
+        return session;
+    }
+
+    /** Draw together with the session hosted at {@code address}; the drawing is replaced by the host's */
+    DrawingSession joinSession(InetSocketAddress address) throws IOException {
+        leaveSession();
+        session = DrawingSession.join(engine, address, journal, sessionListener());
+        return session;
+    }
+
+    /** Stop sharing; the drawing stays as it is */
+    void leaveSession() {
+        if (session == null) return;
+        session.close();
+        session = null;
+    }
+
+    DrawingSession getSession() { return session; }
+
+    private DrawingSession.Listener sessionListener() {
+        return new DrawingSession.Listener() {
+            @Override public void drawn(Rectangle area) { canvasChanged(area); }
+            @Override public void replaced() {
+                setupGraphics();
+                canvasChanged(null);
+            }
+            @Override public void closed(IOException cause) {
+                session = null;
+                JOptionPane.showMessageDialog(DrawingCanvasPanel.this,
+                    "The drawing session ended: " + cause.getMessage(), "Session", JOptionPane.WARNING_MESSAGE);
+            }
+            @Override public boolean busy() { return drawing; }
+        };
     }
 
     /** Set drawing tool (FREEHAND, LINE, etc.) */
@@ -167,19 +670,100 @@ public class DrawingCanvasPanel extends JPanel {
     public void setPenSize(float size) { g2.setStroke(new BasicStroke(size, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND)); }
     /** Change fill bucket color */
     public void setFillColor(Color color) { fillColor = color; }
+    /** Per-channel color distance still filled by the bucket (0 = exact match) */
+    public void setFillTolerance(int tolerance) { fillTolerance = Math.max(0, Math.min(255, tolerance)); }
+    /** Cap the memory used by undo history; oldest steps are dropped first */
+    public void setHistoryBudget(long bytes) { engine.setHistoryBudget(bytes); }
+    /** Bytes currently held by undo/redo history */
+    public long getHistoryMemoryUsage() { return engine.getHistoryMemoryUsage(); }
+    /** Bytes held by the retained drawing operations */
+    public long getSceneMemoryUsage() { return engine.getSceneMemoryUsage(); }
+    /** Bytes of drawing tiles outside the Java heap, in memory or paged out to disk */
+    public long getTileMemoryUsage() { return engine.getTileMemoryUsage(); }
+
+    /** Add a blank layer above the active one and draw on it */
+    public void addLayer() {
+        Set<String> names = new HashSet<>();
+        for (int i = 0; i < engine.getLayerCount(); i++) names.add(engine.getLayer(i).name);
+        int n = engine.getLayerCount() + 1;
+        while (names.contains("Layer " + n)) n++;
+        editLayers(LayerEdit.add(engine.getActiveLayer() + 1, "Layer " + n));
+    }
+    /** Delete the active layer and its undo steps; the last layer is kept */
+    public void removeLayer() { editLayers(LayerEdit.remove(engine.getActiveLayer())); }
+    /** Move the active layer to another position in the stack (0 = bottom) */
+    public void moveLayer(int to) { editLayers(LayerEdit.move(engine.getActiveLayer(), to)); }
+    /** Draw on another layer (0 = bottom) */
+    public void selectLayer(int index) { editLayers(LayerEdit.select(index)); }
+    public void renameLayer(String name) { editLayers(LayerEdit.rename(engine.getActiveLayer(), name)); }
+    /** Opacity of the active layer, 0..1 */
+    public void setLayerOpacity(float opacity) { editLayers(LayerEdit.opacity(engine.getActiveLayer(), opacity)); }
+    /** How the active layer blends with the layers below it */
+    public void setLayerBlendMode(BlendMode mode) { editLayers(LayerEdit.blend(engine.getActiveLayer(), mode)); }
+    public void setLayerVisible(boolean visible) { editLayers(LayerEdit.visible(engine.getActiveLayer(), visible)); }
+    public int getLayerCount() { return engine.getLayerCount(); }
+    public int getActiveLayer() { return engine.getActiveLayer(); }
+    public String getLayerName(int index) { return engine.getLayer(index).name; }
+    public float getLayerOpacity(int index) { return engine.getLayer(index).opacity; }
+    public BlendMode getLayerBlendMode(int index) { return engine.getLayer(index).blend; }
+    public boolean isLayerVisible(int index) { return engine.getLayer(index).visible; }
 
-    /** Expose canvas image for external use */
-    public BufferedImage getCanvasImage() { return canvas; }
+    private void editLayers(LayerEdit edit) {
+        // peers draw on layers by index, so the stack keeps its order while shared
+        if (session != null && (edit.kind == LayerEdit.ADD || edit.kind == LayerEdit.REMOVE
+                                || edit.kind == LayerEdit.MOVE)) return;
+        engine.edit(edit);
+        if (journal != null) journal.logLayerEdit(edit, engine);
+        // the active layer may have changed
+        setupGraphics();
+        canvasChanged(null);
+    }
+
+    /** Expose the flattened drawing (all visible layers) for saving and export */
+    public BufferedImage getCanvasImage() { return engine.getComposite(); }
+    /** Engine behind the canvas, for the autosave journal */
+    DrawingEngine getEngine() { return engine; }
+    /** Render the visible drawing again at another zoom, e.g. 2.0 for a double-size export */
+    public BufferedImage renderDrawing(double scale) { return engine.render(scale); }
+    /** Pixels repainted during the last second, to check what dirty-region repaints save */
+    public long getRepaintedPixelsPerSecond() { return repaintMeter.pixelsPerSecond(); }
+    /** Draw freehand strokes as smoothed curves, batched per event-queue pass, or a line per mouse event */
+    public void setStrokeSmoothing(boolean smooth) { smoothStrokes = smooth; }
+    /** Freehand latency from mouse event to painted pixels at the given percentile, in milliseconds */
+    public long getInputLatencyMillis(double percentile) { return inputLatency.percentile(percentile); }
+    /** Forget the latencies measured so far, e.g. before comparing stroke modes */
+    public void resetInputLatency() { inputLatency.reset(); }
+
+    /** Paint straight from the model or through a video memory copy, e.g. to compare frame times */
+    void setDisplayCacheMode(DisplayCache.Mode mode) {
+        display.setMode(mode);
+        canvasChanged(null);
+    }
 
     @Override protected void paintComponent(Graphics g) {
-        super.paintComponent(g);
-        g.drawImage(canvas,0,0,null);
-        if (previewing) {
-            Graphics2D tmp = (Graphics2D)g.create();
-            tmp.setColor(g2.getColor());
-            tmp.setStroke(new BasicStroke(2, BasicStroke.CAP_ROUND,BasicStroke.JOIN_ROUND,1.0f,new float[]{4},0));
-            drawShape(tmp,startX,startY,currX,currY);
-            tmp.dispose();
+        // the display cache covers the whole clip, background included
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) clip = new Rectangle(0, 0, getWidth(), getHeight());
+        repaintMeter.record(clip);
+        PerfMonitor.Span span = PerfMonitor.SHARED.begin(PerfMonitor.Metric.DRAWING_PAINT);
+        try {
+            display.paint(g, getWidth(), getHeight(), clip);
+            if (previewing) {
+                Graphics2D tmp = (Graphics2D)g.create();
+                tmp.setColor(g2.getColor());
+                tmp.setStroke(new BasicStroke(PREVIEW_WIDTH, BasicStroke.CAP_ROUND,BasicStroke.JOIN_ROUND,1.0f,new float[]{4},0));
+                drawShape(tmp,previewX(startX),previewY(startY),previewX(currX),previewY(currY));
+                tmp.dispose();
+            }
+        } finally {
+            span.close();
+        }
+        if (pointsPainted < pointsShown) {
+            // flush the pipeline so the time is taken once the pixels are on screen
+            Toolkit.getDefaultToolkit().sync();
+            long now = System.currentTimeMillis();
+            for (int i = pointsPainted; i < pointsShown; i++) inputLatency.record(now - pointTimes[i]);
+            pointsPainted = pointsShown;
         }
     }
 }
\ No newline at end of file
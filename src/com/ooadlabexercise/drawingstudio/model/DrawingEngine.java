@@ -0,0 +1,361 @@
+package com.ooadlabexercise.drawingstudio.model;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The drawing core without any Swing: a stack of {@link Layer}s, their cached
+ * composite and one undo order across all of them. Operations go to the active
+ * layer. {@link DrawingCanvasPanel} drives it from mouse events; the batch
+ * renderer drives it from operation scripts. Safe to use with
+ * {@code java.awt.headless=true}. Not thread-safe; use one engine per thread.
+ * <p>
+ * The drawing has no edges. The layers' rasters are a window onto it, at the
+ * view origin moved by {@link #pan}; operations use world coordinates, and
+ * what is drawn outside the window is kept in off-heap tiles that the engine's
+ * {@link TileStore} pages out to disk past its memory budget. A
+ * {@link CanvasMipmap} keeps downsampled levels of the whole drawing for
+ * painting it zoomed out.
+ */
+class DrawingEngine implements OperationJournal.Replayer {
+    private final List<Layer> layers = new ArrayList<>();
+    private int active;
+    // the layer each operation went to, oldest first; entries from stepsApplied on can be redone
+    private final List<Layer> steps = new ArrayList<>();
+    private int stepsApplied;
+    private final LayerCompositor compositor = new LayerCompositor();
+    private long historyBudget = TileHistory.DEFAULT_BUDGET;
+    private final TileStore tiles = new TileStore();
+    private int viewX, viewY;  // world position of the rasters' top-left pixel
+    private final CanvasMipmap mipmap = new CanvasMipmap(new CanvasMipmap.Source() {
+        @Override public boolean occupied(int level, int bx, int by) { return occupiedBlock(level, bx, by); }
+        @Override public boolean flatten(int x, int y, int[] px) { return flattenTile(x, y, px); }
+    });
+    private final BufferedImage mipScratch =
+        new BufferedImage(CanvasMipmap.TILE, CanvasMipmap.TILE, BufferedImage.TYPE_INT_ARGB);
+
+    DrawingEngine(int w, int h) {
+        layers.add(new Layer("Layer 1", w, h, tiles));
+    }
+
+    /** Raster of the active layer, where operations are drawn. It is replaced on resize and restore. */
+    BufferedImage getCanvas() { return layers.get(active).getCanvas(); }
+
+    int getViewX() { return viewX; }
+    int getViewY() { return viewY; }
+
+    /** All visible layers blended together, updated where they changed since the last call. */
+    BufferedImage getComposite() { return compositor.update(layers, active); }
+
+    /** Downsampled levels of the drawing, kept up to date with every change. */
+    CanvasMipmap getMipmap() { return mipmap; }
+
+    /** Starts over with one blank layer of the given size and no history. */
+    void reset(int w, int h) {
+        Layer first = layers.get(0);
+        for (Layer layer : layers) if (layer != first) layer.dispose();
+        layers.clear();
+        first.reset(w, h);
+        viewX = viewY = 0;
+        first.name = "Layer 1";
+        first.opacity = 1f;
+        first.blend = BlendMode.NORMAL;
+        first.visible = true;
+        layers.add(first);
+        active = 0;
+        clearSteps();
+        applyHistoryBudget();
+    }
+
+    /** Draws the operation onto the active layer's raster without committing it; returns the changed raster area. */
+    Rectangle apply(CanvasOperation op) {
+        return op.apply(getCanvas(), viewX, viewY);
+    }
+
+    /** Applies and commits the operation; returns the area to repaint, empty if nothing changed. */
+    Rectangle perform(CanvasOperation op) {
+        Rectangle dirty = apply(op);
+        if (!commit(op, dirty)) return new Rectangle();
+        return dirty != null ? dirty : new Rectangle(0, 0, getCanvas().getWidth(), getCanvas().getHeight());
+    }
+
+    /**
+     * Records an operation already drawn onto the active layer, looking for changes inside
+     * {@code dirty} (null = whole canvas). Returns false, keeping nothing, if no pixel changed.
+     */
+    boolean commit(CanvasOperation op, Rectangle dirty) {
+        Layer layer = layers.get(active);
+        compositor.layerChanged(active, active, dirty);
+        boolean changed = layer.commit(op, dirty);
+        touched(layer);
+        if (!changed) return false;
+        steps.subList(stepsApplied, steps.size()).clear();
+        steps.add(layer);
+        stepsApplied++;
+        return true;
+    }
+
+    /** Pixels of the active layer were drawn inside {@code area} without a commit yet, e.g. a live stroke. */
+    void invalidate(Rectangle area) {
+        compositor.layerChanged(active, active, area);
+        mipmap.invalidate(world(area));
+    }
+
+    /** Drops whatever was drawn into {@code area} of the active layer since the last commit. */
+    void discard(Rectangle area) {
+        layers.get(active).discard(area);
+        compositor.layerChanged(active, active, area);
+        mipmap.invalidate(world(area));
+    }
+
+    /**
+     * Reverts the last operation, on whichever layer it was, and returns the changed
+     * area, or null if there is none. Tile deltas undo recent steps; steps from before
+     * a resize or beyond the history budget are re-rendered from the layer's scene.
+     */
+    Rectangle undoStep() {
+        if (stepsApplied == 0) return null;
+        Layer layer = steps.get(--stepsApplied);
+        Rectangle changed = layer.undo();
+        compositor.layerChanged(layers.indexOf(layer), active, changed);
+        touched(layer);
+        return changed;
+    }
+
+    /** Re-applies the last undone operation and returns the changed area, or null if there is none. */
+    Rectangle redoStep() {
+        if (stepsApplied == steps.size()) return null;
+        Layer layer = steps.get(stepsApplied++);
+        Rectangle changed = layer.redo();
+        compositor.layerChanged(layers.indexOf(layer), active, changed);
+        touched(layer);
+        return changed;
+    }
+
+    /** Resizes every layer's raster, keeping the view origin; the new area comes from the tiles. */
+    void resizeCanvas(int w, int h) {
+        for (Layer layer : layers) layer.resize(w, h);
+        compositor.invalidateAll();
+    }
+
+    /**
+     * Moves the view so the rasters' top-left pixel shows world ({@code x}, {@code y}).
+     * Undo steps from before the move are re-rendered from the scene.
+     */
+    void pan(int x, int y) {
+        if (x == viewX && y == viewY) return;
+        viewX = x;
+        viewY = y;
+        for (Layer layer : layers) layer.pan(x, y);
+        compositor.invalidateAll();
+    }
+
+    /** Renders what the view shows again at another zoom, e.g. 2.0 for a double-size export. */
+    BufferedImage render(double scale) {
+        BufferedImage canvas = getCanvas();
+        int w = Math.max(1, (int) Math.ceil(canvas.getWidth() * scale));
+        int h = Math.max(1, (int) Math.ceil(canvas.getHeight() * scale));
+        int ox = (int) Math.round(viewX * scale), oy = (int) Math.round(viewY * scale);
+        if (layers.size() == 1 && layers.get(0).isPlain()) {
+            BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+            layers.get(0).render(img, scale, ox, oy, null);
+            return img;
+        }
+        List<Layer> scaled = new ArrayList<>();
+        for (Layer layer : layers) {
+            Layer copy = new Layer(layer.name, w, h, tiles);
+            copy.opacity = layer.opacity;
+            copy.blend = layer.blend;
+            copy.visible = layer.visible;
+            if (layer.visible) layer.render(copy.getCanvas(), scale, ox, oy, null);
+            scaled.add(copy);
+        }
+        int[] px = new int[w * h];
+        LayerCompositor.flatten(scaled, 0, scaled.size(), px, new Rectangle(0, 0, w, h));
+        return Rasters.wrapArgb(px, w, h);
+    }
+
+    // Layer stack, bottom first
+
+    int getLayerCount() { return layers.size(); }
+    int getActiveLayer() { return active; }
+    Layer getLayer(int index) { return layers.get(index); }
+
+    /** Applies a change to the layer stack. Edits addressing a layer that does not exist are ignored. */
+    void edit(LayerEdit e) {
+        int limit = e.kind == LayerEdit.ADD ? layers.size() : layers.size() - 1;
+        if (e.index < 0 || e.index > limit) return;
+        Layer layer = e.kind == LayerEdit.ADD ? null : layers.get(e.index);
+        switch (e.kind) {
+            case LayerEdit.ADD: {
+                BufferedImage canvas = getCanvas();
+                layers.add(e.index, new Layer(e.name, canvas.getWidth(), canvas.getHeight(), tiles, viewX, viewY));
+                active = e.index;
+                applyHistoryBudget();
+                break;
+            }
+            case LayerEdit.REMOVE:
+                if (layers.size() == 1) return;
+                layers.remove(e.index).dispose();
+                // its operations can no longer be undone or redone
+                for (int i = steps.size() - 1; i >= 0; i--) {
+                    if (steps.get(i) == layer) {
+                        steps.remove(i);
+                        if (i < stepsApplied) stepsApplied--;
+                    }
+                }
+                if (e.index < active || active == layers.size()) active--;
+                applyHistoryBudget();
+                break;
+            case LayerEdit.MOVE: {
+                if (e.to < 0 || e.to >= layers.size()) return;
+                Layer current = layers.get(active);
+                layers.add(e.to, layers.remove(e.index));
+                active = layers.indexOf(current);
+                break;
+            }
+            case LayerEdit.SELECT:  active = e.index; break;
+            case LayerEdit.RENAME:  layer.name = e.name; return;
+            case LayerEdit.OPACITY: layer.opacity = e.opacity; break;
+            case LayerEdit.BLEND:   layer.blend = e.blendMode(); break;
+            case LayerEdit.VISIBLE: layer.visible = e.to != 0; break;
+            default: return;
+        }
+        compositor.invalidateAll();
+        if (e.kind != LayerEdit.SELECT) mipmap.clear();
+    }
+
+    /** Maximum bytes of undo history, shared equally by the layers. */
+    void setHistoryBudget(long bytes) {
+        historyBudget = Math.max(0, bytes);
+        applyHistoryBudget();
+    }
+
+    long getHistoryMemoryUsage() {
+        long bytes = 0;
+        for (Layer layer : layers) bytes += layer.getHistoryMemoryUsage();
+        return bytes;
+    }
+
+    long getSceneMemoryUsage() {
+        long bytes = 0;
+        for (Layer layer : layers) bytes += layer.getSceneMemoryUsage();
+        return bytes;
+    }
+
+    /** Off-heap bytes of the layers' tiles, whether in memory or paged out. */
+    long getTileMemoryUsage() {
+        long bytes = 0;
+        for (Layer layer : layers) bytes += layer.getTileMemoryUsage();
+        return bytes;
+    }
+
+    /** Direct memory the tile store holds and the part of the tiles paged out to its scratch file. */
+    long getTileHotBytes() { return tiles.getHotBytes(); }
+    long getTileSpilledBytes() { return tiles.getSpilledBytes(); }
+
+    /** Drops the downsampled tiles over what changed on {@code layer}. */
+    private void touched(Layer layer) {
+        mipmap.invalidate(layer.takeTouched());
+    }
+
+    /** World area of {@code area} on the rasters; null means all of them. */
+    private Rectangle world(Rectangle area) {
+        if (area == null) return new Rectangle(viewX, viewY, getCanvas().getWidth(), getCanvas().getHeight());
+        return new Rectangle(area.x + viewX, area.y + viewY, area.width, area.height);
+    }
+
+    private boolean occupiedBlock(int level, int bx, int by) {
+        for (Layer layer : layers) {
+            if (layer.visible && layer.occupied(level, bx, by)) return true;
+        }
+        return false;
+    }
+
+    /** Flattens the visible layers' pixels of the tile at world (x, y) into {@code dst}. */
+    private boolean flattenTile(int x, int y, int[] dst) {
+        Arrays.fill(dst, 0);
+        boolean any = false;
+        int[] px = Rasters.pixels(mipScratch);
+        for (Layer layer : layers) {
+            if (!layer.visible || !layer.copyInto(mipScratch, x, y)) continue;
+            any = true;
+            PixelKernels.SHARED.blend(dst, px, dst, 0, px.length, layer.opacity, layer.blend);
+        }
+        return any;
+    }
+
+    private void applyHistoryBudget() {
+        for (Layer layer : layers) layer.setHistoryBudget(historyBudget / layers.size());
+    }
+
+    private void clearSteps() {
+        steps.clear();
+        stepsApplied = 0;
+        compositor.invalidateAll();
+        mipmap.clear();
+    }
+
+    // Replayer: journals and operation scripts drive the engine directly
+
+    @Override public void restore(List<BufferedImage> checkpoint, List<Point> origins) {
+        BufferedImage canvas = getCanvas();
+        int w = canvas.getWidth(), h = canvas.getHeight();
+        for (Layer layer : layers) layer.dispose();
+        layers.clear();
+        if (checkpoint.isEmpty()) layers.add(new Layer("Layer 1", w, h, tiles, viewX, viewY));
+        for (int i = 0; i < checkpoint.size(); i++) {
+            Layer layer = new Layer("Layer " + (layers.size() + 1), w, h, tiles, viewX, viewY);
+            Point at = i < origins.size() ? origins.get(i) : new Point();
+            layer.restore(checkpoint.get(i), at.x, at.y);
+            layers.add(layer);
+        }
+        active = 0;
+        clearSteps();
+        applyHistoryBudget();
+    }
+
+    /**
+     * Replaces the layers with those of a project, bottom first, with the window moved to
+     * world ({@code x}, {@code y}); their tiles are decoded as they are first needed. The
+     * history starts over.
+     */
+    void open(List<ProjectFile.StoredLayer> stored, int active, int x, int y) {
+        BufferedImage canvas = getCanvas();
+        int w = canvas.getWidth(), h = canvas.getHeight();
+        for (Layer layer : layers) layer.dispose();
+        layers.clear();
+        viewX = x;
+        viewY = y;
+        for (ProjectFile.StoredLayer s : stored) {
+            Layer layer = new Layer(s.name, w, h, tiles, x, y);
+            layer.opacity = s.opacity;
+            layer.blend = s.blend;
+            layer.visible = s.visible;
+            layer.open(s.tiles);
+            layers.add(layer);
+        }
+        if (layers.isEmpty()) layers.add(new Layer("Layer 1", w, h, tiles, x, y));
+        this.active = Math.max(0, Math.min(active, layers.size() - 1));
+        clearSteps();
+        applyHistoryBudget();
+    }
+
+    @Override public void project(File file) throws IOException {
+        // stays open while the layers' tiles point into it
+        ProjectFile.open(file).restore(this);
+    }
+
+    @Override public void resize(int w, int h) { resizeCanvas(w, h); }
+    @Override public void view(int x, int y) { pan(x, y); }
+    @Override public void operation(CanvasOperation op) { perform(op); }
+    @Override public void undo() { undoStep(); }
+    @Override public void redo() { redoStep(); }
+    @Override public void layerEdit(LayerEdit edit) { edit(edit); }
+}
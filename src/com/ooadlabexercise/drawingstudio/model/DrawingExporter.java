@@ -0,0 +1,183 @@
+package com.ooadlabexercise.drawingstudio.model;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.event.IIOWriteProgressListener;
+import javax.imageio.stream.ImageOutputStream;
+import javax.swing.SwingWorker;
+
+/**
+ * Saves drawings as PNG without blocking the Event Dispatch Thread.
+ * <p>
+ * The canvas is copied on the EDT (a single array copy), then flattened onto
+ * white and encoded on a background thread. Files are named drawing1.png,
+ * drawing2.png, ... in the target folder, which is listed only once.
+ */
+class DrawingExporter {
+    /** PNG deflate effort; faster levels produce larger files. */
+    enum Compression {
+        FAST("Fast", 1), BALANCED("Balanced", 4), SMALLEST("Smallest", 9);
+
+        final String label;
+        final int deflateLevel;
+
+        Compression(String label, int deflateLevel) { this.label = label; this.deflateLevel = deflateLevel; }
+
+        /** ImageIO's PNG writer maps quality q to deflate level 9 - round(9 * q). */
+        float quality() { return 1f - deflateLevel / 9f; }
+
+        @Override public String toString() { return label; }
+    }
+
+    /** Save callbacks, all delivered on the Event Dispatch Thread. */
+    interface Listener {
+        void progress(int percent);
+        void saved(File file);
+        void failed(Exception ex);
+    }
+
+    private static final Pattern NAME = Pattern.compile("drawing(\\d+)\\.png");
+
+    private final File dir;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "drawing-save");
+        t.setDaemon(true);
+        t.setPriority(Thread.NORM_PRIORITY - 1);
+        return t;
+    });
+    private int nextIndex = -1;  // only touched on the save thread
+
+    DrawingExporter(File dir) {
+        this.dir = dir;
+    }
+
+    /** Snapshots the canvas and queues it for encoding. Must be called on the EDT. */
+    void save(BufferedImage canvas, Compression compression, Listener listener) {
+        BufferedImage snapshot = Rasters.copy(canvas);
+        executor.execute(new SaveTask(snapshot, compression, listener));
+    }
+
+    private class SaveTask extends SwingWorker<File, Void> {
+        private final BufferedImage snapshot;
+        private final Compression compression;
+        private final Listener listener;
+
+        SaveTask(BufferedImage snapshot, Compression compression, Listener listener) {
+            this.snapshot = snapshot;
+            this.compression = compression;
+            this.listener = listener;
+            addPropertyChangeListener(e -> {
+                if ("progress".equals(e.getPropertyName())) listener.progress((Integer) e.getNewValue());
+            });
+        }
+
+        @Override protected File doInBackground() throws IOException {
+            File file = nextFile();
+            PerfMonitor.Span span = PerfMonitor.SHARED.begin(PerfMonitor.Metric.SAVE_DRAWING);
+            try {
+                writePng(flatten(snapshot), file, compression, new ProgressListener());
+            } finally {
+                span.close();
+            }
+            return file;
+        }
+
+        @Override protected void done() {
+            try {
+                listener.saved(get());
+            } catch (Exception ex) {
+                listener.failed(ex);
+            }
+        }
+
+        private class ProgressListener implements IIOWriteProgressListener {
+            @Override public void imageProgress(ImageWriter source, float percentageDone) {
+                setProgress(Math.max(0, Math.min(100, (int) percentageDone)));
+            }
+            @Override public void imageComplete(ImageWriter source) { setProgress(100); }
+            @Override public void imageStarted(ImageWriter source, int imageIndex) {}
+            @Override public void thumbnailStarted(ImageWriter source, int imageIndex, int thumbnailIndex) {}
+            @Override public void thumbnailProgress(ImageWriter source, float percentageDone) {}
+            @Override public void thumbnailComplete(ImageWriter source) {}
+            @Override public void writeAborted(ImageWriter source) {}
+        }
+    }
+
+    /** The drawing on a white background, as it is saved. */
+    static BufferedImage flatten(BufferedImage canvas) {
+        int w = canvas.getWidth(), h = canvas.getHeight();
+        BufferedImage out = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        if (canvas.getType() == BufferedImage.TYPE_INT_ARGB) {
+            // the same pixels Java2D draws, with SIMD where available
+            PixelKernels.SHARED.overWhite(Rasters.pixels(canvas), Rasters.pixels(out), 0, w * h);
+            return out;
+        }
+        Graphics2D g = out.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, w, h);
+        g.drawImage(canvas, 0, 0, null);
+        g.dispose();
+        return out;
+    }
+
+    /**
+     * Encodes an image as PNG with the given deflate effort. The data goes to a
+     * .part file that is renamed on success, so {@code file} is never half-written.
+     */
+    static void writePng(BufferedImage img, File file, Compression compression,
+                         IIOWriteProgressListener progress) throws IOException {
+        File part = new File(file.getParentFile(), file.getName() + ".part");
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("png").next();
+        try (ImageOutputStream stream = ImageIO.createImageOutputStream(part)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            if (param.canWriteCompressed()) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(compression.quality());
+            }
+            writer.setOutput(stream);
+            if (progress != null) writer.addIIOWriteProgressListener(progress);
+            writer.write(null, new IIOImage(img, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        Files.move(part.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /** Next free drawingN.png; the folder is scanned once and again only if a name turns out taken. */
+    private File nextFile() throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create " + dir);
+        if (nextIndex < 0) nextIndex = scanNextIndex();
+        File file = new File(dir, "drawing" + nextIndex + ".png");
+        if (file.exists()) {
+            nextIndex = scanNextIndex();
+            file = new File(dir, "drawing" + nextIndex + ".png");
+        }
+        nextIndex++;
+        return file;
+    }
+
+    private int scanNextIndex() {
+        int max = 0;
+        String[] names = dir.list();
+        if (names != null) {
+            for (String name : names) {
+                Matcher m = NAME.matcher(name);
+                if (m.matches() && m.group(1).length() < 10) max = Math.max(max, Integer.parseInt(m.group(1)));
+            }
+        }
+        return max + 1;
+    }
+}
@@ -0,0 +1,112 @@
+package com.ooadlabexercise.drawingstudio.model;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The drawing as a list of retained operations, optionally on top of a base picture.
+ * <p>
+ * Operations before the cursor are applied; the ones after it are the redo tail,
+ * dropped when a new operation is added. Any part of the drawing can be
+ * rasterized again at any scale, which lets the canvas raster act as a cache:
+ * a resize only renders the newly exposed strips, and an undo the history can
+ * no longer reverse only re-renders the area of the undone operation.
+ * Everything after the last clear is all that is ever drawn.
+ */
+class DrawingScene {
+    private final List<CanvasOperation> ops = new ArrayList<>();
+    private int applied;
+    private PagedRaster base;  // starting picture, e.g. a recovered checkpoint
+
+    /** Drops every operation and releases the old base; the drawing starts again from {@code base} (may be null). */
+    void reset(PagedRaster base) {
+        ops.clear();
+        applied = 0;
+        if (this.base != null && this.base != base) this.base.clear();
+        this.base = base;
+    }
+
+    /** Appends an applied operation, discarding anything that could have been redone. */
+    void add(CanvasOperation op) {
+        ops.subList(applied, ops.size()).clear();
+        ops.add(op);
+        applied++;
+    }
+
+    /** Moves the cursor back one operation and returns it, or null if nothing is applied. */
+    CanvasOperation undo() {
+        return applied == 0 ? null : ops.get(--applied);
+    }
+
+    /** Moves the cursor forward one operation and returns it, or null if there is nothing to redo. */
+    CanvasOperation redo() {
+        return applied == ops.size() ? null : ops.get(applied++);
+    }
+
+    int appliedCount() { return applied; }
+
+    /** Approximate heap bytes held by the operations. */
+    long getMemoryUsage() {
+        long bytes = 0;
+        for (CanvasOperation op : ops) bytes += op.memoryUsage();
+        return bytes;
+    }
+
+    /** Off-heap bytes held by the base picture's tiles. */
+    long getBaseMemoryUsage() {
+        return base != null ? base.getMemoryUsage() : 0;
+    }
+
+    /** Renders into a target whose top-left pixel is world (0, 0); see {@link #rasterize(BufferedImage, double, int, int, Rectangle)}. */
+    void rasterize(BufferedImage target, double scale, Rectangle clip) {
+        rasterize(target, scale, 0, 0, clip);
+    }
+
+    /**
+     * Renders the applied operations into {@code target} at the given scale. Only
+     * pixels inside {@code clip} (target coordinates, null for all) are replaced;
+     * target pixel (x, y) shows world point ((x + ox) / scale, (y + oy) / scale).
+     */
+    void rasterize(BufferedImage target, double scale, int ox, int oy, Rectangle clip) {
+        Rectangle area = new Rectangle(0, 0, target.getWidth(), target.getHeight());
+        if (clip != null) area = area.intersection(clip);
+        if (area.isEmpty()) return;
+
+        int start = applied;
+        while (start > 0 && !(ops.get(start - 1) instanceof CanvasOperation.ClearOp)) start--;
+
+        Graphics2D g = target.createGraphics();
+        g.setComposite(AlphaComposite.Clear);
+        g.fill(area);
+        g.dispose();
+        if (start == 0 && base != null) base.draw(target, scale, ox, oy, area);
+
+        Rectangle shifted = new Rectangle(area.x + ox, area.y + oy, area.width, area.height);
+        for (int i = start; i < applied; i++) {
+            CanvasOperation op = ops.get(i);
+            Rectangle b = op.bounds();
+            if (b == null || scaled(b, scale).intersects(shifted)) op.render(target, scale, ox, oy, area);
+        }
+    }
+
+    /** World bounds of the whole drawing at scale 1 (base picture plus every applied operation). */
+    Rectangle extent() {
+        Rectangle r = base != null ? base.bounds() : new Rectangle();
+        for (int i = 0; i < applied; i++) {
+            Rectangle b = ops.get(i).bounds();
+            if (b != null && !b.isEmpty()) r = r.isEmpty() ? b : r.union(b);
+        }
+        return r;
+    }
+
+    private static Rectangle scaled(Rectangle r, double scale) {
+        if (scale == 1) return r;
+        int x0 = (int) Math.floor(r.x * scale) - 1, y0 = (int) Math.floor(r.y * scale) - 1;
+        int x1 = (int) Math.ceil((r.x + r.width) * scale) + 1, y1 = (int) Math.ceil((r.y + r.height) * scale) + 1;
+        return new Rectangle(x0, y0, x1 - x0, y1 - y0);
+    }
+}
@@ -0,0 +1,820 @@
+package com.ooadlabexercise.drawingstudio.model;
+
+import java.awt.Rectangle;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.swing.SwingUtilities;
+
+/**
+ * One drawing shared by several studios over TCP. One peer hosts: it puts every
+ * operation, its own and those the others send, into a single order and passes
+ * them on in batches, at most one per frame. Every peer draws them in that order
+ * and so ends up with the same pixels.
+ * <p>
+ * A peer draws its own operations at once and sends those of a frame together.
+ * Until the host's order for them comes back they are pending; operations of
+ * other peers that were ordered before them belong underneath. Once per frame
+ * the peer takes everything that arrived and undoes its operations back to the
+ * oldest pending one that any of the others' overlaps on the same layer, draws
+ * the others' and then its own again. Operations whose bounds do not meet give
+ * the same pixels in either order, so the others' are drawn straight on top of
+ * those, and how much is redrawn depends on how much overlaps rather than on
+ * how far the host's order lags behind. Bucket fills travel as the spans they
+ * filled, since a fill only spreads over what the filling peer's view shows.
+ * <p>
+ * A joining peer is sent a snapshot of the host's layers as deflated tiles and
+ * the operations ordered since the snapshot was taken, which is retaken once
+ * more than {@link #TAIL_LIMIT} have piled up. The layer stack itself is not
+ * shared: operations go to the layer with the same index on every peer, and
+ * undo is left out while a session runs.
+ * <p>
+ * Messages are length-prefixed frames of a type byte and a payload, operations
+ * in their {@link CanvasOperation} form. A frame holds at most {@link #MAX_FRAME}
+ * bytes: operations go in several once a frame passes {@link #CHUNK}, and the
+ * welcome with its snapshot is sent in chunks. Sessions carry no authentication,
+ * so the host listens on the loopback address unless told otherwise. The sockets are non-blocking and served
+ * by one selector thread; the engine is only touched on the Event Dispatch
+ * Thread, once per frame, and not while {@link Listener#busy} says a local
+ * operation is being drawn.
+ */
+final class DrawingSession implements Closeable {
+    static final int DEFAULT_PORT = 7070;
+    /** Operations kept for joining peers before the snapshot is retaken. */
+    static final int TAIL_LIMIT = 2000;
+
+    private static final int MAGIC = 0x44535353;  // "DSSS"
+    private static final int VERSION = 1;
+    private static final byte HELLO = 1, WELCOME = 2, OPS = 3, BATCH = 4, WELCOME_PART = 5;
+    private static final long FRAME_NANOS = 16_000_000;
+    /** Largest frame read; a longer length is refused before anything is allocated for it. */
+    static final int MAX_FRAME = 4 << 20;
+    /** Frames are closed once their payload passes this, so whole operations stay under {@link #MAX_FRAME}. */
+    static final int CHUNK = 1 << 20;
+    private static final int HELLO_FRAME = 64;  // all a peer may send before its hello
+    private static final int CONNECT_TIMEOUT = 10_000;
+    private static final int T = TileStore.TILE;
+
+    /** What the session tells whoever shows its engine; called on the Event Dispatch Thread. */
+    interface Listener {
+        /** Operations of other peers changed the rasters inside {@code area}, or everywhere if null. */
+        void drawn(Rectangle area);
+
+        /** The layers were replaced by the host's. */
+        void replaced();
+
+        /** The connection was lost; the session is over. */
+        void closed(IOException cause);
+
+        /** True while a local operation is being drawn; the others' wait until it is committed. */
+        boolean busy();
+    }
+
+    /** An operation in the host's order. */
+    private static final class Entry {
+        final int origin, layer;
+        final CanvasOperation op;
+
+        Entry(int origin, int layer, CanvasOperation op) {
+            this.origin = origin; this.layer = layer; this.op = op;
+        }
+    }
+
+    /**
+     * An operation drawn here since the oldest one the host has not ordered yet: one of this
+     * peer's, or another peer's drawn on top of them.
+     */
+    private static final class Drawn {
+        final int layer;
+        final CanvasOperation op;
+        final long own;                  // this peer's operations counted from 0, -1 for the others'
+        final PerfMonitor.Span roundTrip;  // this peer's only
+        boolean stepped;                 // made an undo step here
+
+        Drawn(int layer, CanvasOperation op, long own, boolean stepped) {
+            this.layer = layer; this.op = op; this.own = own; this.stepped = stepped;
+            roundTrip = own >= 0 ? PerfMonitor.SHARED.begin(PerfMonitor.Metric.SESSION_ROUND_TRIP) : null;
+        }
+    }
+
+    /** A layer of a snapshot, its tiles still deflated. */
+    private static final class PackedTile implements PagedRaster.StoredTile {
+        private final TileCodec codec;
+        private final byte[] data;
+
+        PackedTile(TileCodec codec, byte[] data) { this.codec = codec; this.data = data; }
+
+        @Override public void read(int[] px) { codec.inflate(ByteBuffer.wrap(data), px); }
+
+        @Override public byte[] deflated() { return data; }
+    }
+
+    /** A connection: one per peer on the host, the one to the host on the others. */
+    private final class Link {
+        final SocketChannel channel;
+        final SelectionKey key;
+        final int id;
+        ByteBuffer in = ByteBuffer.allocate(64 * 1024);      // IO thread
+        final ArrayDeque<ByteBuffer> out = new ArrayDeque<>();  // guarded by itself
+        boolean greeted;                                       // IO thread: sent a valid HELLO
+        ByteArrayOutputStream welcome;                         // IO thread: WELCOME_PART payloads so far
+
+        Link(SocketChannel channel, int id) throws IOException {
+            this.channel = channel;
+            this.id = id;
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            key = channel.register(selector, SelectionKey.OP_READ, this);
+        }
+    }
+
+    private final DrawingEngine engine;
+    private final OperationJournal journal;
+    private final Listener listener;
+    private final boolean host;
+    private final Selector selector;
+    private final ServerSocketChannel server;  // host only
+    private final Link upstream;               // others only
+    private final Thread io;
+    private volatile boolean running = true;
+    private int nextId = 1;  // IO thread; the host is 0
+
+    // IO thread -> EDT: decoded messages, run in arrival order by tick()
+    private final Queue<Runnable> inbox = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean tickQueued = new AtomicBoolean();
+    private final Queue<Link> flushes = new ConcurrentLinkedQueue<>();
+    // EDT -> IO thread: operations drawn here for the next OPS frame, guarded by itself
+    private final ByteArrayOutputStream outgoing = new ByteArrayOutputStream();
+    private int outgoingCount;
+    private volatile boolean batchQueued;
+
+    // EDT
+    private final TileCodec codec = new TileCodec();
+    private long sequence;  // operations ordered so far; on the others, those drawn here
+    private int peerId;
+    private final List<Entry> batch = new ArrayList<>();    // host: ordered, not sent yet
+    private final List<PerfMonitor.Span> unsent = new ArrayList<>();  // host: round trips of its own in batch
+    private final List<Link> joined = new ArrayList<>();    // host: peers that get the batches
+    private byte[] snapshot;
+    private long snapshotSequence;
+    private final ByteArrayOutputStream tail = new ByteArrayOutputStream();
+    private int tailCount;
+    private final ArrayDeque<Drawn> pending = new ArrayDeque<>();  // this peer's, not ordered yet, oldest first
+    private final List<Drawn> drawn = new ArrayList<>();          // from the oldest pending on, in drawing order
+    private long submitted, ordered;                              // this peer's operations so far
+    private final List<Entry> incoming = new ArrayList<>();       // ordered by the host, not drawn yet
+    private boolean welcomed;
+    private Rectangle changed;
+    private boolean changedAll, replaced;
+
+    /**
+     * Hosts the drawing of {@code engine} on {@code port}, 0 for any free one, at
+     * {@link #bindAddress()}.
+     */
+    static DrawingSession host(DrawingEngine engine, int port, OperationJournal journal, Listener listener)
+            throws IOException {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        try {
+            server.bind(new InetSocketAddress(bindAddress(), port));
+            server.configureBlocking(false);
+            return new DrawingSession(engine, journal, listener, server, null);
+        } catch (IOException ex) {
+            server.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Where hosts listen: the loopback address, so only studios on this machine can join,
+     * unless {@code -Ddrawingstudio.sessionBind} names another, e.g. 0.0.0.0 for every interface.
+     */
+    static InetAddress bindAddress() throws IOException {
+        String bind = System.getProperty("drawingstudio.sessionBind");
+        return bind == null ? InetAddress.getLoopbackAddress() : InetAddress.getByName(bind);
+    }
+
+    /** Joins the session hosted at {@code address}; the engine's layers are replaced by the host's. */
+    static DrawingSession join(DrawingEngine engine, InetSocketAddress address, OperationJournal journal,
+                               Listener listener) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.socket().connect(address, CONNECT_TIMEOUT);
+            return new DrawingSession(engine, journal, listener, null, channel);
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    private DrawingSession(DrawingEngine engine, OperationJournal journal, Listener listener,
+                           ServerSocketChannel server, SocketChannel channel) throws IOException {
+        this.engine = engine;
+        this.journal = journal;
+        this.listener = listener;
+        this.server = server;
+        host = server != null;
+        selector = Selector.open();
+        try {
+            if (host) {
+                server.register(selector, SelectionKey.OP_ACCEPT);
+                upstream = null;
+                welcomed = true;
+            } else {
+                upstream = new Link(channel, 0);
+                ByteArrayOutputStream hello = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(hello);
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                queue(upstream, frame(HELLO, hello));
+            }
+        } catch (IOException ex) {
+            selector.close();
+            throw ex;
+        }
+        io = new Thread(this::run, host ? "drawing-session-host" : "drawing-session");
+        io.setDaemon(true);
+        io.start();
+    }
+
+    boolean isHost() { return host; }
+
+    /** Port the host listens on. */
+    int getPort() { return server != null ? server.socket().getLocalPort() : upstream.channel.socket().getPort(); }
+
+    /** Operations ordered so far; on a joined peer, those drawn here. EDT only. */
+    long getSequence() { return sequence; }
+
+    /** Operations drawn here that the host has not ordered yet. EDT only. */
+    int getPendingCount() { return pending.size(); }
+
+    /** Peers currently joined; only the host knows. EDT only. */
+    int getPeerCount() { return joined.size(); }
+
+    /** True once a joined peer has the host's drawing. EDT only. */
+    boolean isWelcomed() { return welcomed; }
+
+    /**
+     * Shares an operation just committed to the active layer; {@code stepped} tells whether
+     * the commit made an undo step. Call on the Event Dispatch Thread.
+     */
+    void submit(CanvasOperation op, boolean stepped) {
+        if (op instanceof CanvasOperation.FillOp) op = ((CanvasOperation.FillOp) op).filled();
+        int layer = engine.getActiveLayer();
+        if (host) {
+            // drawn already, so this is its place in the order
+            batch.add(new Entry(0, layer, op));
+            unsent.add(PerfMonitor.SHARED.begin(PerfMonitor.Metric.SESSION_ROUND_TRIP));
+            batchQueued = true;
+            return;
+        }
+        Drawn d = new Drawn(layer, op, submitted++, stepped);
+        pending.add(d);
+        drawn.add(d);
+        synchronized (outgoing) {
+            try {
+                DataOutputStream out = new DataOutputStream(outgoing);
+                CanvasOperation.writeVarInt(out, layer);
+                op.write(out);
+            } catch (IOException ex) {
+                throw new AssertionError(ex);  // in memory
+            }
+            outgoingCount++;
+            if (outgoing.size() >= CHUNK) queue(upstream, takeOutgoing());
+        }
+    }
+
+    /** Leaves the session; the drawing stays as it is. */
+    @Override public void close() {
+        running = false;
+        selector.wakeup();
+        try {
+            io.join(1000);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // IO thread
+
+    private void run() {
+        long nextFrame = System.nanoTime() + FRAME_NANOS;
+        try {
+            while (running) {
+                selector.select(Math.max(1, (nextFrame - System.nanoTime()) / 1_000_000));
+                for (Iterator<SelectionKey> it = selector.selectedKeys().iterator(); it.hasNext(); ) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Link link = (Link) key.attachment();
+                    try {
+                        if (key.isReadable()) read(link);
+                        if (key.isValid() && key.isWritable()) write(link);
+                    } catch (IOException ex) {
+                        drop(link, ex);
+                    }
+                }
+                long now = System.nanoTime();
+                if (now - nextFrame >= 0) {
+                    frame();
+                    nextFrame = now + FRAME_NANOS;
+                }
+                for (Link link; (link = flushes.poll()) != null; ) {
+                    try {
+                        write(link);
+                    } catch (IOException ex) {
+                        drop(link, ex);
+                    }
+                }
+            }
+        } catch (IOException ex) {
+            if (running) lost(ex);
+        } finally {
+            running = false;
+            for (SelectionKey key : selector.keys()) {
+                try {
+                    key.channel().close();
+                } catch (IOException ignored) {
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /** Once per frame: sends what was drawn here and lets the EDT handle what arrived. */
+    private void frame() {
+        if (!host) {
+            ByteBuffer ops = null;
+            synchronized (outgoing) {
+                if (outgoingCount > 0) ops = takeOutgoing();
+            }
+            if (ops != null) queue(upstream, ops);
+        }
+        if ((!inbox.isEmpty() || batchQueued) && tickQueued.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(this::tick);
+        }
+    }
+
+    /** The operations in {@link #outgoing} as an OPS frame, leaving it empty; holding its lock. */
+    private ByteBuffer takeOutgoing() {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(outgoing.size() + 5);
+        try {
+            CanvasOperation.writeVarInt(new DataOutputStream(payload), outgoingCount);
+            outgoing.writeTo(payload);
+        } catch (IOException ex) {
+            throw new AssertionError(ex);
+        }
+        outgoing.reset();
+        outgoingCount = 0;
+        return frame(OPS, payload);
+    }
+
+    private void accept() throws IOException {
+        for (SocketChannel channel; (channel = server.accept()) != null; ) {
+            try {
+                new Link(channel, nextId++);
+            } catch (IOException ex) {
+                channel.close();
+            }
+        }
+    }
+
+    private void read(Link link) throws IOException {
+        if (link.channel.read(link.in) < 0) throw new EOFException("Connection closed");
+        while (link.in.position() >= 4) {
+            int len = link.in.getInt(0);
+            int max = host && !link.greeted ? HELLO_FRAME : MAX_FRAME;
+            if (len <= 0 || len > max) throw new IOException("Bad frame length " + len);
+            if (link.in.position() < 4 + len) {
+                if (link.in.capacity() < 4 + len) {
+                    ByteBuffer grown = ByteBuffer.allocate(4 + len);
+                    link.in.flip();
+                    grown.put(link.in);
+                    link.in = grown;
+                }
+                return;
+            }
+            byte[] payload = new byte[len];
+            link.in.flip();
+            link.in.position(4);
+            link.in.get(payload);
+            link.in.compact();
+            receive(link, payload[0], new DataInputStream(new ByteArrayInputStream(payload, 1, len - 1)));
+        }
+    }
+
+    /** Decodes a message here and leaves its handling to the EDT. */
+    private void receive(Link link, byte type, DataInputStream in) throws IOException {
+        if (host && !link.greeted) {
+            if (type != HELLO || in.readInt() != MAGIC) throw new IOException("Not a drawing session peer");
+            if (in.readInt() != VERSION) throw new IOException("Unsupported session version");
+            link.greeted = true;
+            inbox.add(() -> join(link));
+            return;
+        }
+        if (host && type == OPS) {
+            int n = CanvasOperation.readVarInt(in);
+            List<Entry> ops = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                int layer = CanvasOperation.readVarInt(in);
+                ops.add(new Entry(link.id, layer, CanvasOperation.read(in)));
+            }
+            inbox.add(() -> order(ops));
+        } else if (!host && type == BATCH) {
+            long first = in.readLong();
+            List<Entry> entries = readEntries(in);
+            inbox.add(() -> batch(first, entries));
+        } else if (!host && type == WELCOME_PART) {
+            if (link.welcome == null) link.welcome = new ByteArrayOutputStream();
+            in.transferTo(link.welcome);
+        } else if (!host && type == WELCOME) {
+            if (link.welcome != null) {
+                // the parts sent before, then this last one
+                in.transferTo(link.welcome);
+                in = new DataInputStream(new ByteArrayInputStream(link.welcome.toByteArray()));
+                link.welcome = null;
+            }
+            int id = CanvasOperation.readVarInt(in);
+            long first = in.readLong();
+            List<ProjectFile.StoredLayer> layers = readSnapshot(in);
+            List<Entry> entries = readEntries(in);
+            inbox.add(() -> welcome(id, first, layers, entries));
+        } else {
+            throw new IOException("Unexpected message " + type);
+        }
+    }
+
+    private static List<Entry> readEntries(DataInputStream in) throws IOException {
+        int n = CanvasOperation.readVarInt(in);
+        List<Entry> entries = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            int origin = CanvasOperation.readVarInt(in);
+            int layer = CanvasOperation.readVarInt(in);
+            entries.add(new Entry(origin, layer, CanvasOperation.read(in)));
+        }
+        return entries;
+    }
+
+    private List<ProjectFile.StoredLayer> readSnapshot(DataInputStream in) throws IOException {
+        int count = CanvasOperation.readVarInt(in);
+        List<ProjectFile.StoredLayer> layers = new ArrayList<>(count);
+        BlendMode[] modes = BlendMode.values();
+        for (int i = 0; i < count; i++) {
+            String name = in.readUTF();
+            float opacity = in.readFloat();
+            BlendMode blend = modes[Math.min(in.readUnsignedByte(), modes.length - 1)];
+            boolean visible = in.readBoolean();
+            int n = CanvasOperation.readVarInt(in);
+            Map<Long, PagedRaster.StoredTile> tiles = new HashMap<>();
+            for (int t = 0; t < n; t++) {
+                int tx = CanvasOperation.readVarInt(in), ty = CanvasOperation.readVarInt(in);
+                byte[] data = new byte[CanvasOperation.readVarInt(in)];
+                in.readFully(data);
+                tiles.put(PagedRaster.key(tx, ty), new PackedTile(codec, data));
+            }
+            layers.add(new ProjectFile.StoredLayer(name, opacity, blend, visible, tiles));
+        }
+        return layers;
+    }
+
+    private void write(Link link) throws IOException {
+        if (!link.key.isValid()) return;
+        synchronized (link.out) {
+            for (ByteBuffer b; (b = link.out.peek()) != null; link.out.poll()) {
+                link.channel.write(b);
+                if (b.hasRemaining()) break;
+            }
+            link.key.interestOps(link.out.isEmpty() ? SelectionKey.OP_READ
+                                                    : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    private void drop(Link link, IOException cause) {
+        link.key.cancel();
+        try {
+            link.channel.close();
+        } catch (IOException ignored) {
+        }
+        if (host) {
+            inbox.add(() -> joined.remove(link));
+        } else {
+            lost(cause);
+        }
+    }
+
+    private void lost(IOException cause) {
+        running = false;
+        SwingUtilities.invokeLater(() -> listener.closed(cause));
+    }
+
+    /** Queues a frame for {@code link}; the IO thread sends it. Any thread. */
+    private void queue(Link link, ByteBuffer frame) {
+        synchronized (link.out) {
+            link.out.add(frame);
+        }
+        flushes.add(link);
+        selector.wakeup();
+    }
+
+    private static ByteBuffer frame(byte type, ByteArrayOutputStream payload) {
+        return frame(type, payload.toByteArray(), 0, payload.size());
+    }
+
+    private static ByteBuffer frame(byte type, byte[] payload, int offset, int length) {
+        ByteBuffer b = ByteBuffer.allocate(5 + length);
+        b.putInt(1 + length).put(type).put(payload, offset, length).flip();
+        return b;
+    }
+
+    // EDT
+
+    private void tick() {
+        tickQueued.set(false);
+        if (!running || listener.busy()) return;  // tried again next frame
+        PerfMonitor.Span span = PerfMonitor.SHARED.begin(PerfMonitor.Metric.SESSION_TICK);
+        batchQueued = false;
+        changed = null;
+        changedAll = replaced = false;
+        for (Runnable message; (message = inbox.poll()) != null; ) message.run();
+        if (host) broadcast();
+        else rebase();
+        span.close();
+        if (replaced) {
+            listener.replaced();
+        } else if (changedAll || changed != null) {
+            listener.drawn(changedAll ? null : changed);
+        }
+        PerfMonitor.SHARED.setHistoryBytes(engine.getHistoryMemoryUsage());
+    }
+
+    /** Host: orders the operations a peer sent and draws them. */
+    private void order(List<Entry> ops) {
+        for (Entry e : ops) {
+            draw(e.layer, e.op);
+            batch.add(e);
+        }
+    }
+
+    /**
+     * Host: sends the operations ordered since the last batch to everyone joined, in
+     * several frames if they pass {@link #CHUNK}.
+     */
+    private void broadcast() {
+        if (batch.isEmpty()) return;
+        ByteArrayOutputStream entries = new ByteArrayOutputStream();
+        DataOutputStream entriesOut = new DataOutputStream(entries);
+        for (int i = 0, from = 0; i < batch.size(); i++) {
+            writeEntry(entriesOut, batch.get(i));
+            if (entries.size() < CHUNK && i < batch.size() - 1) continue;
+            ByteArrayOutputStream payload = new ByteArrayOutputStream(entries.size() + 16);
+            try {
+                DataOutputStream out = new DataOutputStream(payload);
+                out.writeLong(sequence);
+                CanvasOperation.writeVarInt(out, i + 1 - from);
+                entries.writeTo(out);
+            } catch (IOException ex) {
+                throw new AssertionError(ex);
+            }
+            ByteBuffer frame = frame(BATCH, payload);
+            for (Link link : joined) queue(link, frame.duplicate());
+            tail.write(entries.toByteArray(), 0, entries.size());
+            tailCount += i + 1 - from;
+            sequence += i + 1 - from;
+            entries.reset();
+            from = i + 1;
+        }
+        for (PerfMonitor.Span roundTrip : unsent) roundTrip.close();
+        unsent.clear();
+        batch.clear();
+    }
+
+    /** Host: a peer said hello; it gets the drawing as it is now, then every batch. */
+    private void join(Link link) {
+        if (!link.channel.isOpen()) return;
+        broadcast();
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        try {
+            if (snapshot == null || tailCount > TAIL_LIMIT) {
+                snapshot = snapshot();
+                snapshotSequence = sequence;
+                tail.reset();
+                tailCount = 0;
+            }
+            DataOutputStream out = new DataOutputStream(payload);
+            CanvasOperation.writeVarInt(out, link.id);
+            out.writeLong(snapshotSequence);
+            out.write(snapshot);
+            CanvasOperation.writeVarInt(out, tailCount);
+            tail.writeTo(out);
+        } catch (IOException ex) {
+            throw new AssertionError(ex);  // tiles are read from memory or the tile store's file
+        }
+        // the snapshot can be far larger than a frame: all but the last chunk go ahead as parts
+        byte[] bytes = payload.toByteArray();
+        int at = 0;
+        for (; bytes.length - at > CHUNK; at += CHUNK) queue(link, frame(WELCOME_PART, bytes, at, CHUNK));
+        queue(link, frame(WELCOME, bytes, at, bytes.length - at));
+        joined.add(link);
+    }
+
+    /** The host's layers: name, opacity, blend mode, visibility and the deflated tiles of each. */
+    private byte[] snapshot() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        CanvasOperation.writeVarInt(out, engine.getLayerCount());
+        int[] px = new int[T * T];
+        for (int i = 0; i < engine.getLayerCount(); i++) {
+            Layer layer = engine.getLayer(i);
+            out.writeUTF(layer.name);
+            out.writeFloat(layer.opacity);
+            out.writeByte(layer.blend.ordinal());
+            out.writeBoolean(layer.visible);
+            ByteArrayOutputStream tiles = new ByteArrayOutputStream();
+            DataOutputStream tileOut = new DataOutputStream(tiles);
+            int[] count = new int[1];
+            layer.writeTiles((tx, ty, old, pixels) -> {
+                if (pixels == null) {
+                    old.read(px);
+                    pixels = px;
+                }
+                byte[] data = codec.deflate(pixels);
+                CanvasOperation.writeVarInt(tileOut, tx);
+                CanvasOperation.writeVarInt(tileOut, ty);
+                CanvasOperation.writeVarInt(tileOut, data.length);
+                tileOut.write(data);
+                count[0]++;
+                return old;
+            });
+            CanvasOperation.writeVarInt(out, count[0]);
+            tiles.writeTo(out);
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Joined peer: starts over from the host's drawing, with what is pending here drawn on top. */
+    private void welcome(int id, long first, List<ProjectFile.StoredLayer> layers, List<Entry> entries) {
+        peerId = id;
+        engine.open(layers, engine.getActiveLayer(), engine.getViewX(), engine.getViewY());
+        for (Entry e : entries) draw(e.layer, e.op, false);
+        sequence = first + entries.size();
+        drawn.clear();
+        for (Drawn d : pending) {
+            d.stepped = draw(d.layer, d.op, false);
+            drawn.add(d);
+        }
+        welcomed = true;
+        if (journal != null) journal.checkpoint(engine);
+        replaced = true;
+    }
+
+    /** Joined peer: takes a batch in the host's order; {@link #rebase} draws it at the end of the tick. */
+    private void batch(long first, List<Entry> entries) {
+        incoming.addAll(entries);
+        sequence = first + entries.size();
+    }
+
+    /**
+     * Joined peer: draws what the host ordered during this tick. Only the operations from the
+     * oldest one still pending that another peer's overlaps are undone; they are drawn again
+     * as the host ordered them: those ordered before this tick, then this tick's, then what is
+     * still pending.
+     */
+    private void rebase() {
+        if (incoming.isEmpty()) return;
+        long before = ordered;
+        List<Drawn> confirmed = new ArrayList<>();
+        int from = drawn.size();
+        for (Entry e : incoming) {
+            if (e.origin == peerId && !pending.isEmpty()) {
+                Drawn d = pending.poll();
+                d.roundTrip.close();
+                confirmed.add(d);
+                ordered++;
+                continue;
+            }
+            for (int i = 0; i < from; i++) {
+                Drawn d = drawn.get(i);
+                if (d.own >= ordered && overlaps(d, e)) {
+                    from = i;
+                    break;
+                }
+            }
+        }
+        List<Drawn> redraw = new ArrayList<>(drawn.subList(from, drawn.size()));
+        for (int i = redraw.size() - 1; i >= 0; i--) {
+            if (redraw.get(i).stepped) undo();
+        }
+        drawn.subList(from, drawn.size()).clear();
+        for (Drawn d : redraw) {
+            if (d.own < before) redraw(d);
+        }
+        int k = 0;
+        for (Entry e : incoming) {
+            if (e.origin == peerId && k < confirmed.size()) {
+                Drawn d = confirmed.get(k++);
+                if (redraw.contains(d)) redraw(d);
+            } else {
+                Drawn d = new Drawn(e.layer, e.op, -1, false);
+                redraw(d);
+            }
+        }
+        for (Drawn d : redraw) {
+            if (d.own >= ordered) redraw(d);
+        }
+        incoming.clear();
+        // what lies under the oldest pending operation stays as it is
+        int settled = 0;
+        while (settled < drawn.size() && drawn.get(settled).own < ordered) settled++;
+        drawn.subList(0, settled).clear();
+    }
+
+    private void redraw(Drawn d) {
+        d.stepped = draw(d.layer, d.op);
+        drawn.add(d);
+    }
+
+    /** True unless {@code d} and {@code e} go to different layers or their bounds do not meet. */
+    private boolean overlaps(Drawn d, Entry e) {
+        if (target(d.layer) != target(e.layer)) return false;
+        Rectangle a = d.op.bounds(), b = e.op.bounds();
+        return a == null || b == null || a.intersects(b);
+    }
+
+    private int target(int layer) {
+        return Math.max(0, Math.min(layer, engine.getLayerCount() - 1));
+    }
+
+    private boolean draw(int layer, CanvasOperation op) {
+        return draw(layer, op, true);
+    }
+
+    /** Draws {@code op} on layer {@code layer} as its own undo step; false if nothing changed. */
+    private boolean draw(int layer, CanvasOperation op, boolean log) {
+        int active = engine.getActiveLayer();
+        int target = target(layer);
+        if (target != active) select(target, log);
+        Rectangle dirty = engine.apply(op);
+        boolean stepped = engine.commit(op, dirty);
+        if (stepped && log && journal != null) journal.logOperation(op, engine);
+        if (target != active) select(active, log);
+        changed(dirty);
+        return stepped;
+    }
+
+    private void select(int layer, boolean log) {
+        LayerEdit edit = LayerEdit.select(layer);
+        engine.edit(edit);
+        if (log && journal != null) journal.logLayerEdit(edit, engine);
+    }
+
+    private void undo() {
+        Rectangle area = engine.undoStep();
+        if (area == null) return;
+        changed(area);
+        if (journal != null) journal.logUndo(engine);
+    }
+
+    private void changed(Rectangle area) {
+        if (area == null) {
+            changedAll = true;
+        } else if (!area.isEmpty()) {
+            changed = changed == null ? new Rectangle(area) : changed.union(area);
+        }
+    }
+
+    private static void writeEntry(DataOutputStream out, Entry e) {
+        try {
+            CanvasOperation.writeVarInt(out, e.origin);
+            CanvasOperation.writeVarInt(out, e.layer);
+            e.op.write(out);
+        } catch (IOException ex) {
+            throw new AssertionError(ex);  // in memory
+        }
+    }
+}
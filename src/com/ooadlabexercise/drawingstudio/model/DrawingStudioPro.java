@@ -2,9 +2,29 @@ package com.ooadlabexercise.drawingstudio.model;
 
 import javax.swing.*;
 import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
 
 public class DrawingStudioPro {
+    private static final String USAGE =
+          "usage: DrawingStudioPro                       start the editor\n"
+        + "       DrawingStudioPro --batch [-o DIR] [-j THREADS] [-c fast|balanced|smallest] FILE|DIR...\n"
+        + "                                              render .ops scripts and journal .bin files to PNG\n"
+        + "       DrawingStudioPro --server [-b ADDRESS] [PORT]\n"
+        + "                                              render scripts POSTed to /render (default port 8080,\n"
+        + "                                              on loopback unless ADDRESS is given, e.g. 0.0.0.0)\n";
+
     public static void main(String[] args) {
+        if (args.length > 0) {
+            // no window is ever opened, so this works on build servers without a display
+            System.setProperty("java.awt.headless", "true");
+            System.exit(runHeadless(args));
+        }
         SwingUtilities.invokeLater(() -> {
             JFrame frame = new JFrame("Drawing Studio Pro");
             frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
@@ -12,6 +32,7 @@ public class DrawingStudioPro {
 
             ReferenceCanvasPanel refCanvas = new ReferenceCanvasPanel();
             DrawingCanvasPanel drawCanvas = new DrawingCanvasPanel();
+            startAutosave(drawCanvas);
             StudioToolbar toolbar = new StudioToolbar(refCanvas, drawCanvas);
 
             frame.add(toolbar, BorderLayout.WEST);
@@ -19,9 +40,94 @@ public class DrawingStudioPro {
             split.setDividerLocation(400);
             frame.add(split, BorderLayout.CENTER);
 
+            PerfMonitor.SHARED.start();
+            PerfOverlay.install(frame);
+
             frame.pack();
             frame.setLocationRelativeTo(null);
             frame.setVisible(true);
         });
     }
+
+    /** Batch or server mode; returns the process exit code. */
+    private static int runHeadless(String[] args) {
+        try {
+            switch (args[0]) {
+                case "--batch":  return runBatch(Arrays.asList(args).subList(1, args.length));
+                case "--server": return runServer(Arrays.asList(args).subList(1, args.length));
+                default:
+                    System.err.print(USAGE);
+                    return 2;
+            }
+        } catch (IllegalArgumentException | IndexOutOfBoundsException ex) {
+            System.err.println(ex.getMessage() != null ? ex.getMessage() : "missing argument");
+            System.err.print(USAGE);
+            return 2;
+        } catch (IOException ex) {
+            System.err.println(ex.getMessage());
+            return 1;
+        } catch (InterruptedException ex) {
+            return 1;
+        }
+    }
+
+    private static int runBatch(List<String> args) throws IOException, InterruptedException {
+        File out = new File("rendered");
+        int threads = Runtime.getRuntime().availableProcessors();
+        DrawingExporter.Compression compression = DrawingExporter.Compression.FAST;
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < args.size(); i++) {
+            switch (args.get(i)) {
+                case "-o": out = new File(args.get(++i)); break;
+                case "-j": threads = Integer.parseInt(args.get(++i)); break;
+                case "-c": compression = DrawingExporter.Compression.valueOf(args.get(++i).toUpperCase(Locale.ROOT)); break;
+                default:   paths.add(args.get(i));
+            }
+        }
+        List<File> inputs = BatchRenderer.collectInputs(paths);
+        if (inputs.isEmpty()) throw new IllegalArgumentException("no operation files given");
+
+        BatchRenderer.Result r = new BatchRenderer(out, threads, compression).run(inputs, System.err);
+        System.out.printf(Locale.ROOT, "rendered %d drawings (%d failed) in %.2f s on %d threads: %.1f images/s%n",
+                          r.rendered, r.failed, r.nanos / 1e9, threads, r.imagesPerSecond());
+        return r.failed == 0 ? 0 : 1;
+    }
+
+    private static int runServer(List<String> args) throws IOException, InterruptedException {
+        InetAddress address = null;
+        int port = 8080;
+        for (int i = 0; i < args.size(); i++) {
+            switch (args.get(i)) {
+                case "-b": address = InetAddress.getByName(args.get(++i)); break;
+                default:   port = Integer.parseInt(args.get(i));
+            }
+        }
+        RenderServer server = new RenderServer(address, port, Runtime.getRuntime().availableProcessors());
+        server.start();
+        System.out.println("rendering on http://" + server.getHost() + ":" + server.getPort() + "/render, stats at /stats");
+        Thread.currentThread().join();  // until the process is killed
+        return 0;
+    }
+
+    /** Offers to recover the previous session, then journals every operation into "autosave". */
+    private static void startAutosave(DrawingCanvasPanel drawCanvas) {
+        OperationJournal journal = new OperationJournal(new File("autosave"));
+        boolean recovered = false;
+        if (journal.hasRecoverableSession()
+                && JOptionPane.showConfirmDialog(null, "Recover the drawing from your last session?",
+                       "Drawing Studio Pro", JOptionPane.YES_NO_OPTION) == JOptionPane.YES_OPTION) {
+            try {
+                drawCanvas.recover(journal);
+                recovered = true;
+            } catch (IOException ex) {
+                JOptionPane.showMessageDialog(null, "Could not recover the last session");
+            }
+        }
+        try {
+            journal.start(drawCanvas.getEngine(), recovered);
+            drawCanvas.setJournal(journal);
+        } catch (IOException ex) {
+            JOptionPane.showMessageDialog(null, "Autosave is disabled: " + ex.getMessage());
+        }
+    }
 }
\ No newline at end of file
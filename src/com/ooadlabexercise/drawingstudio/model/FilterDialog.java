@@ -0,0 +1,121 @@
+package com.ooadlabexercise.drawingstudio.model;
+
+import java.awt.*;
+import java.awt.event.*;
+import java.util.ArrayList;
+import java.util.List;
+import javax.swing.*;
+
+/**
+ * Blur, sharpen, brightness/contrast and posterize for the drawing's active layer
+ * or the selected reference picture. Every slider change previews the filters
+ * again, cancelling the preview still being computed; Apply filters the full
+ * resolution in the background and resets the sliders once it is committed.
+ */
+class FilterDialog extends JDialog {
+    private static final String DRAWING = "Drawing (active layer)", REFERENCE = "Selected reference";
+    private static final float SHARPEN_RADIUS = 2f;
+
+    private final DrawingCanvasPanel drawCanvas;
+    private final ReferenceCanvasPanel refCanvas;
+    private final JComboBox<String> target = new JComboBox<>(new String[] { DRAWING, REFERENCE });
+    private final JSlider blur = new JSlider(0, 50, 0);
+    private final JSlider sharpen = new JSlider(0, 300, 0);
+    private final JSlider brightness = new JSlider(-100, 100, 0);
+    private final JSlider contrast = new JSlider(-100, 100, 0);
+    private final JSlider posterize = new JSlider(0, 15, 0);
+    private final JButton apply = new JButton("Apply");
+    private boolean onDrawing = true;  // where the preview is shown
+    private boolean resetting;
+
+    FilterDialog(Window owner, DrawingCanvasPanel drawCanvas, ReferenceCanvasPanel refCanvas) {
+        super(owner, "Filters", ModalityType.MODELESS);
+        this.drawCanvas = drawCanvas;
+        this.refCanvas = refCanvas;
+        setDefaultCloseOperation(HIDE_ON_CLOSE);
+
+        JPanel controls = new JPanel(new GridLayout(0, 2, 5, 5));
+        controls.setBorder(BorderFactory.createEmptyBorder(8, 8, 8, 8));
+        controls.add(new JLabel("Apply to"));
+        controls.add(target);
+        addSlider(controls, "Blur radius", blur);
+        addSlider(controls, "Sharpen %", sharpen);
+        addSlider(controls, "Brightness", brightness);
+        addSlider(controls, "Contrast", contrast);
+        addSlider(controls, "Posterize", posterize);
+        target.addActionListener(e -> {
+            endPreview();
+            onDrawing = DRAWING.equals(target.getSelectedItem());
+            preview();
+        });
+
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        JButton reset = new JButton("Reset");
+        reset.addActionListener(e -> reset());
+        apply.addActionListener(e -> apply());
+        buttons.add(reset);
+        buttons.add(apply);
+
+        add(controls, BorderLayout.CENTER);
+        add(buttons, BorderLayout.SOUTH);
+        addComponentListener(new ComponentAdapter() {
+            @Override public void componentHidden(ComponentEvent e) { endPreview(); }
+        });
+        pack();
+    }
+
+    private void addSlider(JPanel panel, String label, JSlider slider) {
+        panel.add(new JLabel(label));
+        slider.addChangeListener(e -> {
+            if (!resetting) preview();
+        });
+        panel.add(slider);
+    }
+
+    /** The filters the sliders describe, in a fixed order. */
+    private FilterPipeline pipeline() {
+        List<ImageFilter> filters = new ArrayList<>();
+        filters.add(new ImageFilter.Blur(blur.getValue()));
+        filters.add(new ImageFilter.Sharpen(sharpen.getValue() / 100f, SHARPEN_RADIUS));
+        filters.add(new ImageFilter.BrightnessContrast(brightness.getValue(), contrast.getValue()));
+        // further right is fewer levels, from 16 down to 2
+        filters.add(new ImageFilter.Posterize(posterize.getValue() == 0 ? 0 : 17 - posterize.getValue()));
+        return new FilterPipeline(filters);
+    }
+
+    private void preview() {
+        if (onDrawing) drawCanvas.previewFilter(pipeline());
+        else refCanvas.previewFilter(pipeline());
+    }
+
+    private void endPreview() {
+        if (onDrawing) drawCanvas.endFilterPreview();
+        else refCanvas.endFilterPreview();
+    }
+
+    private void apply() {
+        FilterPipeline pipeline = pipeline();
+        if (pipeline.isEmpty()) return;
+        apply.setEnabled(false);
+        Runnable done = () -> {
+            apply.setEnabled(true);
+            reset();
+        };
+        boolean started = onDrawing ? drawCanvas.applyFilter(pipeline, done) : refCanvas.applyFilter(pipeline, done);
+        if (!started) {
+            apply.setEnabled(true);
+            JOptionPane.showMessageDialog(this, onDrawing ? "Filters are not available in a shared session"
+                                                          : "Select a loaded reference picture first");
+        }
+    }
+
+    /** Puts the sliders back to no change and stops the preview. */
+    private void reset() {
+        resetting = true;
+        for (JSlider s : new JSlider[] { blur, sharpen, brightness, contrast, posterize }) {
+            s.setValue(s == brightness || s == contrast ? 0 : s.getMinimum());
+        }
+        resetting = false;
+        endPreview();
+    }
+}
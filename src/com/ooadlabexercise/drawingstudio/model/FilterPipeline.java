@@ -0,0 +1,217 @@
+package com.ooadlabexercise.drawingstudio.model;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import javax.swing.SwingWorker;
+
+/**
+ * {@link ImageFilter}s applied one after another to a picture of straight ARGB
+ * ints, e.g. a blur, then brightness and contrast.
+ * <p>
+ * A run plans the filters' stages into passes: every stage that reads its
+ * neighbours starts a pass, and the per-pixel stages after it (conversions
+ * to and from premultiplied, merged colour tables) run in the same pass on
+ * the pixels it just wrote. Each pass is split into {@link #TILE} squared
+ * tiles on the common fork/join pool, like {@link ParallelFill}. A tile reads
+ * whatever it needs of the previous pass's output, which is complete by then,
+ * so the result is the same however the picture is tiled.
+ * <p>
+ * Runs check between tiles whether they were cancelled. {@link #submit} runs
+ * work on the filter thread and hands the result to the EDT; a preview that
+ * is out of date is cancelled there and the next one queued.
+ */
+final class FilterPipeline {
+    static final int TILE = 256;
+
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "image-filter");
+        t.setDaemon(true);
+        t.setPriority(Thread.NORM_PRIORITY - 1);
+        return t;
+    });
+
+    private final List<ImageFilter> filters;
+
+    FilterPipeline(List<ImageFilter> filters) {
+        this.filters = Collections.unmodifiableList(new ArrayList<>(filters));
+    }
+
+    List<ImageFilter> getFilters() { return filters; }
+
+    /** True if the pipeline leaves every pixel as it is. */
+    boolean isEmpty() {
+        for (ImageFilter f : filters) if (!f.isIdentity()) return false;
+        return true;
+    }
+
+    /** {@link #run(int[], int, int, double, BooleanSupplier)} that is never cancelled. */
+    int[] run(int[] px, int w, int h, double scale) {
+        return run(px, w, h, scale, () -> false);
+    }
+
+    /**
+     * Filters {@code px}, {@code w} x {@code h} straight ARGB pixels, into a new array; {@code px}
+     * is only read. {@code scale} is the picture's size relative to the one the filters'
+     * radii are for, e.g. 0.25 for a proxy at a quarter of the resolution. Throws
+     * {@link CancellationException} once {@code cancelled} says so.
+     */
+    int[] run(int[] px, int w, int h, double scale, BooleanSupplier cancelled) {
+        PerfMonitor.Span span = PerfMonitor.SHARED.begin(PerfMonitor.Metric.IMAGE_FILTER);
+        List<Pass> passes = plan(scale, w, h);
+        int[] src = px, dst = new int[w * h], spare = null;
+        for (Pass pass : passes) {
+            if (cancelled.getAsBoolean()) throw new CancellationException();
+            int[] in = src, out = dst;
+            forEachTile(w, h, cancelled, (x0, y0, x1, y1) -> pass.run(in, out, w, h, x0, y0, x1, y1));
+            if (in != px) spare = in;
+            else if (spare == null && passes.size() > 1) spare = new int[w * h];
+            src = out;
+            dst = spare;
+        }
+        // a cancelled run is not timed
+        span.close();
+        return src;
+    }
+
+    /**
+     * The stages for a run at {@code scale}, grouped into passes, with conversions between
+     * straight and premultiplied pixels where the stages need them. Both ends are straight.
+     */
+    private List<Pass> plan(double scale, int w, int h) {
+        List<ImageFilter.Stage> stages = new ArrayList<>();
+        for (ImageFilter f : filters) if (!f.isIdentity()) f.stages(stages, scale);
+        List<Pass> passes = new ArrayList<>();
+        Pass pass = new Pass(null);
+        passes.add(pass);
+        boolean premultiplied = false;
+        for (ImageFilter.Stage s : stages) {
+            s.prepare(w, h);
+            if (s.premultiplied() != premultiplied) {
+                pass.add(premultiplied ? ImageFilter.UNPREMULTIPLY : ImageFilter.PREMULTIPLY);
+                premultiplied = !premultiplied;
+            }
+            if (s.perPixel()) {
+                pass.add(s);
+            } else {
+                pass = new Pass(s);
+                passes.add(pass);
+            }
+        }
+        if (premultiplied) pass.add(ImageFilter.UNPREMULTIPLY);
+        return passes;
+    }
+
+    private interface TileAction {
+        void run(int x0, int y0, int x1, int y1);
+    }
+
+    private static void forEachTile(int w, int h, BooleanSupplier cancelled, TileAction action) {
+        int cols = (w + TILE - 1) / TILE, rows = (h + TILE - 1) / TILE;
+        IntConsumer tile = t -> {
+            if (cancelled.getAsBoolean()) throw new CancellationException();
+            int x0 = t % cols * TILE, y0 = t / cols * TILE;
+            action.run(x0, y0, Math.min(w, x0 + TILE), Math.min(h, y0 + TILE));
+        };
+        int n = cols * rows;
+        if (n < 2 || ForkJoinPool.getCommonPoolParallelism() < 2) {
+            for (int t = 0; t < n; t++) tile.accept(t);
+        } else {
+            ForkJoinPool.commonPool().invoke(new ParallelFill.TileRange(0, n, tile));
+        }
+    }
+
+    /** A stage that reads neighbouring pixels, or a plain copy, then per-pixel stages in place. */
+    private static final class Pass {
+        private final ImageFilter.Stage first;  // null: copy
+        private final List<ImageFilter.Stage> perPixel = new ArrayList<>();
+
+        Pass(ImageFilter.Stage first) { this.first = first; }
+
+        /** Appends a per-pixel stage, merging colour tables that follow each other. */
+        void add(ImageFilter.Stage s) {
+            int last = perPixel.size() - 1;
+            if (s instanceof ImageFilter.Lut && last >= 0 && perPixel.get(last) instanceof ImageFilter.Lut) {
+                perPixel.set(last, ((ImageFilter.Lut) perPixel.get(last)).then((ImageFilter.Lut) s));
+            } else {
+                perPixel.add(s);
+            }
+        }
+
+        void run(int[] src, int[] dst, int w, int h, int x0, int y0, int x1, int y1) {
+            if (first != null) {
+                first.run(src, dst, w, h, x0, y0, x1, y1);
+            } else {
+                for (int y = y0; y < y1; y++) System.arraycopy(src, y * w + x0, dst, y * w + x0, x1 - x0);
+            }
+            for (ImageFilter.Stage s : perPixel) {
+                for (int y = y0; y < y1; y++) s.apply(dst, y * w + x0, y * w + x1);
+            }
+        }
+    }
+
+    /**
+     * Runs {@code work} on the filter thread, passing it a check for cancellation, and gives
+     * its result to {@code done} on the EDT unless the job was cancelled first.
+     */
+    static <T> Job<T> submit(Function<BooleanSupplier, T> work, Consumer<T> done) {
+        Job<T> job = new Job<>(work, done);
+        EXECUTOR.execute(job);
+        return job;
+    }
+
+    /** Background work started by {@link #submit}; {@code cancel(false)} stops it at the next tile. */
+    static final class Job<T> extends SwingWorker<T, Void> {
+        private final Function<BooleanSupplier, T> work;
+        private final Consumer<T> done;
+
+        private Job(Function<BooleanSupplier, T> work, Consumer<T> done) {
+            this.work = work;
+            this.done = done;
+        }
+
+        @Override protected T doInBackground() {
+            return work.apply(this::isCancelled);
+        }
+
+        @Override protected void done() {
+            if (isCancelled()) return;
+            T result;
+            try {
+                result = get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof CancellationException) return;
+                throw new IllegalStateException("Filter failed", ex.getCause());
+            }
+            done.accept(result);
+        }
+    }
+
+    void write(DataOutput out) throws IOException {
+        CanvasOperation.writeVarInt(out, filters.size());
+        for (ImageFilter f : filters) f.write(out);
+    }
+
+    static FilterPipeline read(DataInput in) throws IOException {
+        int n = CanvasOperation.readVarInt(in);
+        if (n < 0 || n > 255) throw new IOException("Bad filter count " + n);
+        List<ImageFilter> filters = new ArrayList<>();
+        for (int i = 0; i < n; i++) filters.add(ImageFilter.read(in));
+        return new FilterPipeline(filters);
+    }
+}
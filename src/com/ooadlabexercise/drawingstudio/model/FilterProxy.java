@@ -0,0 +1,91 @@
+package com.ooadlabexercise.drawingstudio.model;
+
+import java.awt.Rectangle;
+import java.util.function.BooleanSupplier;
+
+/**
+ * A downsampled copy of part of the drawing, layer by layer, for previewing a
+ * filter of the active layer: the visible part at one pixel per {@code step} x
+ * {@code step} block, so a preview costs about the same at any zoom and the
+ * full raster is only filtered once the filter is applied.
+ * <p>
+ * It is taken on the EDT, where the layers change, and only read afterwards,
+ * so previews are filtered and composited from it on the filter thread.
+ */
+final class FilterProxy {
+    final Rectangle world;  // part of the drawing covered, world coordinates
+    final int step;         // drawing pixels per proxy pixel, each way
+    final int width, height;
+    private final int[][] layers;  // null for hidden layers
+    private final float[] opacity;
+    private final BlendMode[] blend;
+    private final int active;
+
+    private FilterProxy(Rectangle world, int step, int layerCount, int active) {
+        this.world = world;
+        this.step = step;
+        width = (world.width + step - 1) / step;
+        height = (world.height + step - 1) / step;
+        layers = new int[layerCount][];
+        opacity = new float[layerCount];
+        blend = new BlendMode[layerCount];
+        this.active = active;
+    }
+
+    /** Copies the engine's layers inside {@code area} (canvas pixels), averaging blocks of {@code step} x {@code step}. */
+    static FilterProxy capture(DrawingEngine engine, Rectangle area, int step) {
+        Rectangle world = new Rectangle(area.x + engine.getViewX(), area.y + engine.getViewY(), area.width, area.height);
+        FilterProxy proxy = new FilterProxy(world, step, engine.getLayerCount(), engine.getActiveLayer());
+        for (int l = 0; l < engine.getLayerCount(); l++) {
+            Layer layer = engine.getLayer(l);
+            if (!layer.visible) continue;
+            proxy.layers[l] = proxy.downsample(Rasters.pixels(layer.getCanvas()), layer.getCanvas().getWidth(), area);
+            proxy.opacity[l] = layer.opacity;
+            proxy.blend[l] = layer.blend;
+        }
+        return proxy;
+    }
+
+    /** The drawing with the active layer run through {@code pipeline}, flattened as the compositor does. */
+    int[] preview(FilterPipeline pipeline, BooleanSupplier cancelled) {
+        int n = width * height;
+        int[] out = new int[n];
+        for (int l = 0; l < layers.length; l++) {
+            if (layers[l] == null) continue;
+            int[] px = l == active ? pipeline.run(layers[l], width, height, 1.0 / step, cancelled) : layers[l];
+            PixelKernels.SHARED.blend(out, px, out, 0, n, opacity[l], blend[l]);
+        }
+        return out;
+    }
+
+    /** Mean of each block, weighted by alpha so transparent pixels add no colour. */
+    private int[] downsample(int[] px, int stride, Rectangle area) {
+        int[] out = new int[width * height];
+        if (step == 1) {
+            for (int y = 0; y < height; y++) System.arraycopy(px, (area.y + y) * stride + area.x, out, y * width, width);
+            return out;
+        }
+        int x1 = area.x + area.width, y1 = area.y + area.height;
+        for (int py = 0; py < height; py++) {
+            int by = area.y + py * step, ey = Math.min(y1, by + step);
+            for (int pxl = 0; pxl < width; pxl++) {
+                int bx = area.x + pxl * step, ex = Math.min(x1, bx + step);
+                long sa = 0, sr = 0, sg = 0, sb = 0;
+                for (int y = by; y < ey; y++) {
+                    for (int i = y * stride + bx, end = y * stride + ex; i < end; i++) {
+                        int c = px[i], a = c >>> 24;
+                        sa += a;
+                        sr += a * (c >> 16 & 0xff);
+                        sg += a * (c >> 8 & 0xff);
+                        sb += a * (c & 0xff);
+                    }
+                }
+                if (sa == 0) continue;
+                int count = (ey - by) * (ex - bx), half = (int) (sa / 2);
+                out[py * width + pxl] = (int) ((sa + count / 2) / count) << 24 | (int) ((sr + half) / sa) << 16
+                                        | (int) ((sg + half) / sa) << 8 | (int) ((sb + half) / sa);
+            }
+        }
+        return out;
+    }
+}
@@ -0,0 +1,371 @@
+package com.ooadlabexercise.drawingstudio.model;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * One adjustment in a {@link FilterPipeline}: blur, sharpen, brightness and
+ * contrast, or posterize. A filter only describes itself; for a run it adds the
+ * {@link Stage}s that do the work, sized for the resolution of that run, so a
+ * preview on a downsampled proxy blurs by as many proxy pixels as the full
+ * picture does by its own.
+ * <p>
+ * Blurs work on premultiplied pixels, so transparent pixels do not bleed their
+ * colour into strokes; the per-channel adjustments work on straight ones and
+ * leave alpha alone. The pipeline converts between the two where needed.
+ */
+abstract class ImageFilter {
+    static final byte BLUR = 1, SHARPEN = 2, BRIGHTNESS_CONTRAST = 3, POSTERIZE = 4;
+
+    /** True if the filter leaves every pixel as it is. */
+    abstract boolean isIdentity();
+
+    /** Adds the stages that apply the filter to a picture at {@code scale} of the size its parameters are for. */
+    abstract void stages(List<Stage> out, double scale);
+
+    abstract void write(DataOutput out) throws IOException;
+
+    static ImageFilter read(DataInput in) throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case BLUR: return new Blur(in.readFloat());
+            case SHARPEN: {
+                float amount = in.readFloat();
+                return new Sharpen(amount, in.readFloat());
+            }
+            case BRIGHTNESS_CONTRAST: {
+                int brightness = in.readByte();
+                return new BrightnessContrast(brightness, in.readByte());
+            }
+            case POSTERIZE: return new Posterize(in.readUnsignedByte());
+            default: throw new IOException("Unknown filter " + tag);
+        }
+    }
+
+    /**
+     * One step of a filter. A stage that reads neighbouring pixels writes one tile of
+     * its output from the whole of its input ({@link #run}); a per-pixel stage changes
+     * pixels in place ({@link #apply}) and runs in the same pass as the stage before it.
+     */
+    abstract static class Stage {
+        /** True if the stage expects premultiplied pixels, false for straight ones. */
+        abstract boolean premultiplied();
+
+        /** True if each output pixel depends only on the same input pixel. */
+        boolean perPixel() { return true; }
+
+        /** Called once before a run over a {@code w} x {@code h} picture. */
+        void prepare(int w, int h) {}
+
+        /** Writes {@code dst} inside columns {@code x0..x1-1}, rows {@code y0..y1-1}, reading any of {@code src}. */
+        void run(int[] src, int[] dst, int w, int h, int x0, int y0, int x1, int y1) {
+            throw new UnsupportedOperationException();
+        }
+
+        /** Changes {@code px[from..to)} in place. */
+        void apply(int[] px, int from, int to) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Gaussian-like blur: three box blurs in each direction, each {@code 2r+1} pixels
+     * wide, where r is the radius rounded at the run's scale. The result is close to a
+     * Gaussian of about that radius as sigma, and costs the same at any radius.
+     */
+    static final class Blur extends ImageFilter {
+        final float radius;
+
+        Blur(float radius) { this.radius = Math.max(0, radius); }
+
+        @Override boolean isIdentity() { return radius <= 0; }
+
+        @Override void stages(List<Stage> out, double scale) {
+            addBoxBlurs(out, (int) Math.round(radius * scale));
+        }
+
+        @Override void write(DataOutput out) throws IOException {
+            out.writeByte(BLUR);
+            out.writeFloat(radius);
+        }
+    }
+
+    /**
+     * Unsharp mask: each channel moves away from a blur of the picture by {@code amount}
+     * times the difference (1 = 100%). Alpha is kept, so edges sharpen without halos
+     * in the transparency.
+     */
+    static final class Sharpen extends ImageFilter {
+        final float amount, radius;
+
+        Sharpen(float amount, float radius) {
+            this.amount = Math.max(0, amount);
+            this.radius = Math.max(0, radius);
+        }
+
+        @Override boolean isIdentity() { return amount <= 0 || radius <= 0; }
+
+        @Override void stages(List<Stage> out, double scale) {
+            int r = Math.max(1, (int) Math.round(radius * scale));
+            Keep original = new Keep();
+            out.add(original);
+            addBoxBlurs(out, r);
+            out.add(new Unsharp(original, Math.round(amount * 256)));
+        }
+
+        @Override void write(DataOutput out) throws IOException {
+            out.writeByte(SHARPEN);
+            out.writeFloat(amount);
+            out.writeFloat(radius);
+        }
+    }
+
+    /** Brightness and contrast, each -100..100, applied to red, green and blue. */
+    static final class BrightnessContrast extends ImageFilter {
+        final int brightness, contrast;
+
+        BrightnessContrast(int brightness, int contrast) {
+            this.brightness = Math.max(-100, Math.min(100, brightness));
+            this.contrast = Math.max(-100, Math.min(100, contrast));
+        }
+
+        @Override boolean isIdentity() { return brightness == 0 && contrast == 0; }
+
+        @Override void stages(List<Stage> out, double scale) {
+            // the usual contrast curve around mid-grey, with C from -255 to 255
+            double c = contrast * 2.55, factor = 259 * (c + 255) / (255 * (259 - c));
+            int[] table = new int[256];
+            for (int v = 0; v < 256; v++) {
+                table[v] = clamp((int) Math.round(factor * (v - 128) + 128 + brightness * 2.55));
+            }
+            out.add(new Lut(table));
+        }
+
+        @Override void write(DataOutput out) throws IOException {
+            out.writeByte(BRIGHTNESS_CONTRAST);
+            out.writeByte(brightness);
+            out.writeByte(contrast);
+        }
+    }
+
+    /** Reduces each of red, green and blue to {@code levels} evenly spaced values. */
+    static final class Posterize extends ImageFilter {
+        final int levels;
+
+        Posterize(int levels) { this.levels = Math.max(0, Math.min(255, levels)); }
+
+        @Override boolean isIdentity() { return levels < 2; }
+
+        @Override void stages(List<Stage> out, double scale) {
+            int[] table = new int[256];
+            int steps = levels - 1;
+            for (int v = 0; v < 256; v++) table[v] = (int) Math.round(Math.round(v * steps / 255.0) * 255.0 / steps);
+            out.add(new Lut(table));
+        }
+
+        @Override void write(DataOutput out) throws IOException {
+            out.writeByte(POSTERIZE);
+            out.writeByte(levels);
+        }
+    }
+
+    private static void addBoxBlurs(List<Stage> out, int r) {
+        if (r <= 0) return;
+        for (int i = 0; i < 3; i++) out.add(new BoxBlur(r, true));
+        for (int i = 0; i < 3; i++) out.add(new BoxBlur(r, false));
+    }
+
+    static int clamp(int v) {
+        return v < 0 ? 0 : v > 255 ? 255 : v;
+    }
+
+    /** Maps red, green and blue of straight pixels through a table; consecutive tables are merged. */
+    static final class Lut extends Stage {
+        final int[] table;
+
+        Lut(int[] table) { this.table = table; }
+
+        /** This table followed by {@code next}. */
+        Lut then(Lut next) {
+            int[] t = new int[256];
+            for (int v = 0; v < 256; v++) t[v] = next.table[table[v]];
+            return new Lut(t);
+        }
+
+        @Override boolean premultiplied() { return false; }
+
+        @Override void apply(int[] px, int from, int to) {
+            int[] t = table;
+            for (int i = from; i < to; i++) {
+                int c = px[i];
+                px[i] = c & 0xff000000 | t[c >> 16 & 0xff] << 16 | t[c >> 8 & 0xff] << 8 | t[c & 0xff];
+            }
+        }
+    }
+
+    /** Straight to premultiplied, rounding as the mipmap does. */
+    static final Stage PREMULTIPLY = new Stage() {
+        @Override boolean premultiplied() { return false; }
+
+        @Override void apply(int[] px, int from, int to) {
+            PixelKernels.SHARED.premultiply(px, from, to);
+        }
+    };
+
+    /** Premultiplied back to straight, rounding to nearest. */
+    static final Stage UNPREMULTIPLY = new Stage() {
+        @Override boolean premultiplied() { return true; }
+
+        @Override void apply(int[] px, int from, int to) {
+            for (int i = from; i < to; i++) {
+                int c = px[i], a = c >>> 24;
+                if (a == 0 || a == 255) continue;
+                int inv = UNPREMULTIPLY_BY[a];
+                px[i] = a << 24 | unpremultiply(c >> 16 & 0xff, a, inv) << 16
+                      | unpremultiply(c >> 8 & 0xff, a, inv) << 8 | unpremultiply(c & 0xff, a, inv);
+            }
+        }
+    };
+
+    /** 255 / a in 16.16 fixed point, so unpremultiplying takes a multiply instead of a division. */
+    private static final int[] UNPREMULTIPLY_BY = new int[256];
+    static {
+        for (int a = 1; a < 256; a++) UNPREMULTIPLY_BY[a] = (255 << 16) / a;
+    }
+
+    private static int unpremultiply(int c, int a, int inv) {
+        return Math.min(255, (Math.min(c, a) * inv + 0x8000) >>> 16);
+    }
+
+    /**
+     * Mean of the {@code 2r+1} pixels around each one along a row or a column, edge pixels
+     * repeated. Running sums make it cost the same at any radius. A column pass keeps one
+     * sum per channel and column of the tile and walks down it row by row, in memory order,
+     * in loops simple enough for the JIT to turn into vector instructions.
+     */
+    static final class BoxBlur extends Stage {
+        private final int r;
+        private final boolean horizontal;
+        private final int inv;  // 2^23 / (2r+1), rounded: sum * inv stays below 2^31
+
+        BoxBlur(int r, boolean horizontal) {
+            this.r = r;
+            this.horizontal = horizontal;
+            int n = 2 * r + 1;
+            inv = ((1 << 23) + n / 2) / n;
+        }
+
+        @Override boolean premultiplied() { return true; }
+
+        @Override boolean perPixel() { return false; }
+
+        @Override void run(int[] src, int[] dst, int w, int h, int x0, int y0, int x1, int y1) {
+            if (horizontal) rows(src, dst, w, x0, y0, x1, y1);
+            else columns(src, dst, w, h, x0, y0, x1, y1);
+        }
+
+        private void rows(int[] src, int[] dst, int w, int x0, int y0, int x1, int y1) {
+            // inside [lo, hi) the window is all within the row
+            int lo = Math.min(x1, Math.max(x0, r)), hi = Math.max(lo, Math.min(x1, w - r - 1));
+            for (int y = y0; y < y1; y++) {
+                int row = y * w;
+                int sa = 0, sr = 0, sg = 0, sb = 0;
+                for (int k = x0 - r; k <= x0 + r; k++) {
+                    int c = src[row + Math.max(0, Math.min(w - 1, k))];
+                    sa += c >>> 24; sr += c >> 16 & 0xff; sg += c >> 8 & 0xff; sb += c & 0xff;
+                }
+                for (int x = x0; x < x1; x++) {
+                    dst[row + x] = mean(sa) << 24 | mean(sr) << 16 | mean(sg) << 8 | mean(sb);
+                    int out, in;
+                    if (x >= lo && x < hi) {
+                        out = src[row + x - r];
+                        in = src[row + x + r + 1];
+                    } else {
+                        out = src[row + Math.max(0, x - r)];
+                        in = src[row + Math.min(w - 1, x + r + 1)];
+                    }
+                    sa += (in >>> 24) - (out >>> 24);
+                    sr += (in >> 16 & 0xff) - (out >> 16 & 0xff);
+                    sg += (in >> 8 & 0xff) - (out >> 8 & 0xff);
+                    sb += (in & 0xff) - (out & 0xff);
+                }
+            }
+        }
+
+        private void columns(int[] src, int[] dst, int w, int h, int x0, int y0, int x1, int y1) {
+            int tw = x1 - x0;
+            int[] sa = new int[tw], sr = new int[tw], sg = new int[tw], sb = new int[tw];
+            for (int k = y0 - r; k <= y0 + r; k++) {
+                add(src, Math.max(0, Math.min(h - 1, k)) * w + x0, sa, sr, sg, sb, tw);
+            }
+            for (int y = y0; y < y1; y++) {
+                int row = y * w + x0;
+                for (int x = 0; x < tw; x++) {
+                    dst[row + x] = mean(sa[x]) << 24 | mean(sr[x]) << 16 | mean(sg[x]) << 8 | mean(sb[x]);
+                }
+                int in = Math.min(h - 1, y + r + 1) * w + x0, out = Math.max(0, y - r) * w + x0;
+                for (int x = 0; x < tw; x++) {
+                    int ci = src[in + x], co = src[out + x];
+                    sa[x] += (ci >>> 24) - (co >>> 24);
+                    sr[x] += (ci >> 16 & 0xff) - (co >> 16 & 0xff);
+                    sg[x] += (ci >> 8 & 0xff) - (co >> 8 & 0xff);
+                    sb[x] += (ci & 0xff) - (co & 0xff);
+                }
+            }
+        }
+
+        private static void add(int[] src, int off, int[] sa, int[] sr, int[] sg, int[] sb, int n) {
+            for (int x = 0; x < n; x++) {
+                int c = src[off + x];
+                sa[x] += c >>> 24; sr[x] += c >> 16 & 0xff; sg[x] += c >> 8 & 0xff; sb[x] += c & 0xff;
+            }
+        }
+
+        private int mean(int sum) {
+            return Math.min(255, (sum * inv + (1 << 22)) >>> 23);
+        }
+    }
+
+    /** Copies the pixels as they are at this point of the pipeline, for a later {@link Unsharp}. */
+    static final class Keep extends Stage {
+        int[] pixels;
+
+        @Override boolean premultiplied() { return true; }
+
+        @Override void prepare(int w, int h) { pixels = new int[w * h]; }
+
+        @Override void apply(int[] px, int from, int to) {
+            System.arraycopy(px, from, pixels, from, to - from);
+        }
+    }
+
+    /** Pushes the kept pixels away from the blurred ones by {@code amount}/256 of the difference. */
+    static final class Unsharp extends Stage {
+        private final Keep original;
+        private final int amount;
+
+        Unsharp(Keep original, int amount) {
+            this.original = original;
+            this.amount = amount;
+        }
+
+        @Override boolean premultiplied() { return true; }
+
+        @Override void apply(int[] px, int from, int to) {
+            int[] orig = original.pixels;
+            for (int i = from; i < to; i++) {
+                int o = orig[i], b = px[i], a = o >>> 24;
+                if (a == 0) { px[i] = 0; continue; }
+                px[i] = a << 24 | sharpen(o >> 16 & 0xff, b >> 16 & 0xff, a) << 16
+                      | sharpen(o >> 8 & 0xff, b >> 8 & 0xff, a) << 8 | sharpen(o & 0xff, b & 0xff, a);
+            }
+        }
+
+        private int sharpen(int o, int blurred, int a) {
+            int v = o + (((o - blurred) * amount + 128) >> 8);
+            return v < 0 ? 0 : Math.min(v, a);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.ooadlabexercise.drawingstudio.model;
+
+import java.util.Arrays;
+
+/**
+ * Histogram of input-to-screen latencies in whole milliseconds, with percentiles.
+ * Samples of a second or more share the last bucket. Only touched from the
+ * Event Dispatch Thread.
+ */
+class LatencyMeter {
+    private static final int MAX_MILLIS = 1000;
+
+    private final long[] buckets = new long[MAX_MILLIS + 1];
+    private long count;
+    private long max;
+
+    void record(long millis) {
+        long m = Math.max(0, millis);
+        buckets[(int) Math.min(m, MAX_MILLIS)]++;
+        count++;
+        max = Math.max(max, m);
+    }
+
+    long count() { return count; }
+
+    long max() { return max; }
+
+    /** Smallest latency that {@code p} percent of the samples do not exceed, or 0 without samples. */
+    long percentile(double p) {
+        if (count == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(count * p / 100.0));
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank) return i;
+        }
+        return MAX_MILLIS;
+    }
+
+    void reset() {
+        Arrays.fill(buckets, 0);
+        count = 0;
+        max = 0;
+    }
+}
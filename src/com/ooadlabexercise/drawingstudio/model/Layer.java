@@ -0,0 +1,340 @@
+package com.ooadlabexercise.drawingstudio.model;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * One layer of the drawing: its raster, the retained operations that produced it
+ * and their undo history, plus how it is blended onto the layers below.
+ * <p>
+ * The layer is unbounded. Its raster is a window onto it, whose top-left pixel
+ * sits at a world origin; everything committed lives in off-heap tiles
+ * ({@link PagedRaster}), which the window is stored into and loaded from when it
+ * moves or resizes. Operations reaching past the window are painted straight
+ * into the tiles. The raster is also a cache of the layer's {@link DrawingScene}:
+ * undo steps the history no longer holds, including every step from before the
+ * window last moved, are re-rendered from the scene.
+ */
+class Layer {
+    String name;
+    float opacity = 1f;
+    BlendMode blend = BlendMode.NORMAL;
+    boolean visible = true;
+
+    private BufferedImage canvas;
+    private int ox, oy;  // world position of the raster's top-left pixel
+    private final TileStore store;
+    // everything committed; under the window, as of the last store
+    private final PagedRaster pages;
+    private Rectangle unsaved;  // world area of the window changed since then, null if none
+    private Rectangle touched;  // world area whose pixels changed since takeTouched(), null if none
+    private final DrawingScene scene = new DrawingScene();
+    private final TileHistory history = new TileHistory();
+
+    Layer(String name, int w, int h, TileStore store) {
+        this(name, w, h, store, 0, 0);
+    }
+
+    Layer(String name, int w, int h, TileStore store, int ox, int oy) {
+        this.name = name;
+        this.store = store;
+        this.ox = ox;
+        this.oy = oy;
+        pages = new PagedRaster(store);
+        canvas = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        history.reset(canvas);
+    }
+
+    /** The layer's raster. It is replaced on resize. */
+    BufferedImage getCanvas() { return canvas; }
+
+    int getOriginX() { return ox; }
+    int getOriginY() { return oy; }
+
+    /** True if compositing the layer alone would give its raster unchanged. */
+    boolean isPlain() { return visible && opacity >= 1f; }
+
+    /** Starts over with a blank raster of the given size at the world origin, no tiles and no history. */
+    void reset(int w, int h) {
+        if (canvas.getWidth() == w && canvas.getHeight() == h) {
+            Arrays.fill(Rasters.pixels(canvas), 0);
+        } else {
+            canvas = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        }
+        ox = oy = 0;
+        pages.clear();
+        unsaved = null;
+        history.reset(canvas);
+        scene.reset(null);
+    }
+
+    /**
+     * Starts over from {@code image} placed with its top-left pixel at world ({@code x}, {@code y});
+     * it also becomes the scene's base picture. The window keeps its size and origin.
+     */
+    void restore(BufferedImage image, int x, int y) {
+        BufferedImage argb = image;
+        if (image.getType() != BufferedImage.TYPE_INT_ARGB) {
+            argb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = argb.createGraphics();
+            g.setComposite(AlphaComposite.Src);
+            g.drawImage(image, 0, 0, null);
+            g.dispose();
+        }
+        Rectangle area = new Rectangle(x, y, argb.getWidth(), argb.getHeight());
+        PagedRaster base = new PagedRaster(store);
+        base.store(argb, x, y, area);
+        scene.reset(base);
+        pages.clear();
+        pages.store(argb, x, y, area);
+        pages.load(canvas, ox, oy, window());
+        unsaved = null;
+        history.reset(canvas);
+    }
+
+    /**
+     * Starts over from tiles kept elsewhere, by {@link PagedRaster#key}, which also become the
+     * scene's base picture. Only the tiles under the window are decoded now, the rest when first
+     * needed. The window keeps its size and origin.
+     */
+    void open(Map<Long, PagedRaster.StoredTile> tiles) {
+        PagedRaster base = new PagedRaster(store);
+        pages.clear();
+        for (Map.Entry<Long, PagedRaster.StoredTile> e : tiles.entrySet()) {
+            int tx = (int) (e.getKey() >> 32), ty = (int) (long) e.getKey();
+            base.defer(tx, ty, e.getValue());
+            pages.defer(tx, ty, e.getValue());
+        }
+        scene.reset(base);
+        pages.load(canvas, ox, oy, window());
+        unsaved = null;
+        history.reset(canvas);
+    }
+
+    /**
+     * Hands every tile to {@code writer}, the window's changes included; see
+     * {@link PagedRaster#write}. Pass the result to {@link #tilesStored} once it is kept.
+     */
+    Map<Long, PagedRaster.StoredTile> writeTiles(PagedRaster.TileWriter writer) throws IOException {
+        save();
+        return pages.write(writer);
+    }
+
+    /** The copies {@link #writeTiles} made are kept, so the next write can reuse them. */
+    void tilesStored(Map<Long, PagedRaster.StoredTile> copies) {
+        pages.stored(copies);
+    }
+
+    /**
+     * Records an operation already drawn onto the raster; false if no pixel inside {@code dirty}
+     * changed and the operation stays inside the window. Whatever part of it lies outside the
+     * window is painted into the tiles.
+     */
+    boolean commit(CanvasOperation op, Rectangle dirty) {
+        Rectangle b = op.bounds();
+        boolean clear = op instanceof CanvasOperation.ClearOp;
+        boolean outside = clear ? !pages.isEmpty() : reachesOutside(b);
+        if (!history.commit(canvas, dirty)) {
+            if (!outside) return false;
+            history.skip();
+        }
+        scene.add(op);
+        if (clear) {
+            // the window is blank and so is everything else
+            touch(pages.bounds());
+            touch(window());
+            pages.clear();
+            unsaved = null;
+            return true;
+        }
+        changed(dirty != null ? dirty : new Rectangle(0, 0, canvas.getWidth(), canvas.getHeight()));
+        if (b != null) changed(CanvasOperation.offset(b, ox, oy));
+        if (outside) {
+            pages.paint(b, window(), (tile, x, y, clip) -> op.render(tile, 1, x, y, clip));
+            touch(b);
+        }
+        return true;
+    }
+
+    /** Drops whatever was drawn into {@code area} since the last commit. */
+    void discard(Rectangle area) {
+        history.revert(canvas, area);
+    }
+
+    /** Reverts the layer's last operation and returns the changed area, or null if there is none. */
+    Rectangle undo() {
+        CanvasOperation op = scene.undo();
+        if (op == null) return null;
+        Rectangle changed = history.undo(canvas);
+        Rectangle b = op.bounds();
+        if (changed == null) {
+            Rectangle area = onCanvas(b);
+            scene.rasterize(canvas, 1, ox, oy, area);
+            history.sync(canvas, area);
+            changed = area;
+        }
+        changed(changed);
+        // outside the window, render what is left from the scene
+        Rectangle outside = op instanceof CanvasOperation.ClearOp ? scene.extent() : b;
+        if (reachesOutside(outside)) {
+            pages.paint(outside, window(), (tile, x, y, clip) -> scene.rasterize(tile, 1, x, y, clip));
+            touch(outside);
+        }
+        return changed;
+    }
+
+    /** Re-applies the layer's last undone operation and returns the changed area, or null if there is none. */
+    Rectangle redo() {
+        CanvasOperation op = scene.redo();
+        if (op == null) return null;
+        Rectangle changed = history.redo(canvas);
+        Rectangle b = op.bounds();
+        if (changed == null) {
+            Rectangle area = onCanvas(b);
+            op.render(canvas, 1, ox, oy, area);
+            if (!history.commit(canvas, area)) history.skip();
+            changed = area;
+        }
+        if (op instanceof CanvasOperation.ClearOp) {
+            touch(pages.bounds());
+            touch(window());
+            pages.clear();
+            unsaved = null;
+        } else {
+            changed(changed);
+            if (reachesOutside(b)) {
+                pages.paint(b, window(), (tile, x, y, clip) -> op.render(tile, 1, x, y, clip));
+                touch(b);
+            }
+        }
+        return changed;
+    }
+
+    /** Resizes the raster, keeping its origin; the new area is loaded from the tiles. */
+    void resize(int w, int h) {
+        save();
+        canvas = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        pages.load(canvas, ox, oy, window());
+        // tile deltas are tied to the raster; older steps are undone from the scene
+        history.reset(canvas);
+    }
+
+    /** Moves the window so its top-left pixel shows world ({@code x}, {@code y}). */
+    void pan(int x, int y) {
+        if (x == ox && y == oy) return;
+        save();
+        ox = x;
+        oy = y;
+        pages.load(canvas, ox, oy, window());
+        history.reset(canvas);
+    }
+
+    /**
+     * Renders the layer's operations into {@code target} at the given scale, inside {@code clip}
+     * (null = all); target pixel (x, y) shows world point ((x + ox) / scale, (y + oy) / scale).
+     */
+    void render(BufferedImage target, double scale, int ox, int oy, Rectangle clip) {
+        scene.rasterize(target, scale, ox, oy, clip);
+    }
+
+    /** World bounds of everything drawn on the layer, empty if nothing is. */
+    Rectangle contentBounds() {
+        save();
+        return pages.bounds();
+    }
+
+    /** Copy of the layer's pixels inside {@code area} (world coordinates). */
+    BufferedImage copyArea(Rectangle area) {
+        BufferedImage img = new BufferedImage(Math.max(1, area.width), Math.max(1, area.height), BufferedImage.TYPE_INT_ARGB);
+        copyInto(img, area.x, area.y);
+        return img;
+    }
+
+    /**
+     * Copies the layer's current pixels, uncommitted drawing included, into {@code img}
+     * placed at world ({@code x}, {@code y}). Returns false if that area is certainly blank.
+     */
+    boolean copyInto(BufferedImage img, int x, int y) {
+        int w = img.getWidth();
+        Rectangle area = new Rectangle(x, y, w, img.getHeight());
+        boolean found = pages.load(img, x, y, area);
+        Rectangle r = area.intersection(window());
+        if (r.isEmpty()) return found;
+        int[] src = Rasters.pixels(canvas), dst = Rasters.pixels(img);
+        int cw = canvas.getWidth();
+        for (int row = r.y; row < r.y + r.height; row++) {
+            System.arraycopy(src, (row - oy) * cw + (r.x - ox), dst, (row - y) * w + (r.x - x), r.width);
+        }
+        return true;
+    }
+
+    /** True if anything may be drawn in the block of 2^level x 2^level tiles at block position (bx, by). */
+    boolean occupied(int level, int bx, int by) {
+        int size = TileStore.TILE << level;
+        if (window().intersects(new Rectangle(bx * size, by * size, size, size))) return true;
+        return pages.occupied(level, bx, by);
+    }
+
+    /** World area whose pixels changed since the last call, window and tiles alike; null if none. */
+    Rectangle takeTouched() {
+        Rectangle t = touched;
+        touched = null;
+        return t;
+    }
+
+    /** Releases the layer's tiles; the layer is not used afterwards. */
+    void dispose() {
+        pages.clear();
+        scene.reset(null);
+    }
+
+    void setHistoryBudget(long bytes) { history.setBudget(bytes); }
+    long getHistoryMemoryUsage() { return history.getMemoryUsage(); }
+    long getSceneMemoryUsage() { return scene.getMemoryUsage(); }
+
+    /** Off-heap bytes of the layer's tiles and its scene's base picture. */
+    long getTileMemoryUsage() { return pages.getMemoryUsage() + scene.getBaseMemoryUsage(); }
+
+    /** Stores the changed part of the window into the tiles. */
+    private void save() {
+        if (unsaved == null) return;
+        pages.store(canvas, ox, oy, unsaved);
+        unsaved = null;
+    }
+
+    /** Notes that {@code area} of the raster (raster coordinates) no longer matches the tiles. */
+    private void changed(Rectangle area) {
+        if (area == null || area.isEmpty()) return;
+        Rectangle r = new Rectangle(area.x + ox, area.y + oy, area.width, area.height).intersection(window());
+        if (r.isEmpty()) return;
+        unsaved = unsaved == null ? r : unsaved.union(r);
+        touch(r);
+    }
+
+    private void touch(Rectangle world) {
+        if (world == null || world.isEmpty()) return;
+        touched = touched == null ? new Rectangle(world) : touched.union(world);
+    }
+
+    /** World area the raster shows. */
+    private Rectangle window() {
+        return new Rectangle(ox, oy, canvas.getWidth(), canvas.getHeight());
+    }
+
+    /** Part of world area {@code r} (null = all) on the raster, in raster coordinates. */
+    private Rectangle onCanvas(Rectangle r) {
+        Rectangle all = new Rectangle(0, 0, canvas.getWidth(), canvas.getHeight());
+        if (r == null) return all;
+        Rectangle part = CanvasOperation.offset(r, ox, oy).intersection(all);
+        return part.isEmpty() ? new Rectangle() : part;
+    }
+
+    private boolean reachesOutside(Rectangle r) {
+        return r != null && !r.isEmpty() && !window().contains(r);
+    }
+}
@@ -0,0 +1,126 @@
+package com.ooadlabexercise.drawingstudio.model;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.List;
+
+/**
+ * Keeps the flattened image of a layer stack up to date, recomputing only dirty areas.
+ * <p>
+ * The layers below the active one are cached flattened, and so are the layers
+ * above it when they all blend normally (source-over is associative). Drawing
+ * on the active layer then only blends three planes inside the changed area,
+ * however many layers there are. Changes to another layer refresh its cache
+ * in that area; switching the active layer rebuilds both caches once. A stack
+ * of one plain layer needs no compositing and its raster is used directly.
+ */
+class LayerCompositor {
+    private BufferedImage composite;
+    private int[] below = new int[0], above = new int[0];
+    private int width, height;
+    private int cachedActive = -1;
+    private Rectangle dirty, belowDirty, aboveDirty;
+
+    /** Everything needs recomputing, e.g. after a resize or a change to the stack. */
+    void invalidateAll() {
+        cachedActive = -1;
+    }
+
+    /** Pixels of layer {@code index} changed inside {@code r} (null = everywhere). */
+    void layerChanged(int index, int active, Rectangle r) {
+        if (r == null) r = new Rectangle(0, 0, width, height);
+        if (index < active) belowDirty = union(belowDirty, r);
+        if (index > active) aboveDirty = union(aboveDirty, r);
+        dirty = union(dirty, r);
+    }
+
+    /** The flattened stack; valid until the layers change again. */
+    BufferedImage update(List<Layer> layers, int active) {
+        if (layers.size() == 1 && layers.get(0).isPlain()) return layers.get(0).getCanvas();
+
+        BufferedImage first = layers.get(0).getCanvas();
+        int w = first.getWidth(), h = first.getHeight();
+        if (composite == null || w != width || h != height) {
+            width = w;
+            height = h;
+            composite = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+            below = new int[w * h];
+            above = new int[w * h];
+            cachedActive = -1;
+        }
+        if (cachedActive != active) {
+            Rectangle all = new Rectangle(0, 0, w, h);
+            dirty = belowDirty = aboveDirty = all;
+            cachedActive = active;
+        }
+        boolean aboveFlat = true;
+        for (int i = active + 1; i < layers.size(); i++) aboveFlat &= layers.get(i).blend == BlendMode.NORMAL;
+
+        if (belowDirty != null) {
+            flatten(layers, 0, active, below, clip(belowDirty));
+            belowDirty = null;
+        }
+        if (aboveDirty != null) {
+            if (aboveFlat) flatten(layers, active + 1, layers.size(), above, clip(aboveDirty));
+            aboveDirty = null;
+        }
+        if (dirty != null) {
+            Rectangle r = clip(dirty);
+            dirty = null;
+            int[] out = Rasters.pixels(composite);
+            Layer top = layers.get(active);
+            int[] px = Rasters.pixels(top.getCanvas());
+            PixelKernels kernels = PixelKernels.SHARED;
+            for (int y = r.y; y < r.y + r.height; y += rows(r, w)) {
+                int from = y * w + r.x, to = from + rows(r, w) * r.width;
+                if (top.visible) {
+                    kernels.blend(below, px, out, from, to, top.opacity, top.blend);
+                } else {
+                    System.arraycopy(below, from, out, from, to - from);
+                }
+                if (aboveFlat) {
+                    kernels.blend(out, above, out, from, to, 1f, BlendMode.NORMAL);
+                } else {
+                    for (int l = active + 1; l < layers.size(); l++) {
+                        Layer layer = layers.get(l);
+                        if (layer.visible) {
+                            kernels.blend(out, Rasters.pixels(layer.getCanvas()), out, from, to, layer.opacity, layer.blend);
+                        }
+                    }
+                }
+            }
+        }
+        return composite;
+    }
+
+    /** Flattens layers {@code from..to-1} onto transparency into {@code dst} inside {@code r}. */
+    static void flatten(List<Layer> layers, int from, int to, int[] dst, Rectangle r) {
+        int w = layers.get(0).getCanvas().getWidth();
+        PixelKernels kernels = PixelKernels.SHARED;
+        for (int y = r.y; y < r.y + r.height; y += rows(r, w)) {
+            int start = y * w + r.x, end = start + rows(r, w) * r.width;
+            kernels.fill(dst, start, end, 0);
+            for (int l = from; l < to; l++) {
+                Layer layer = layers.get(l);
+                if (layer.visible) {
+                    kernels.blend(dst, Rasters.pixels(layer.getCanvas()), dst, start, end, layer.opacity, layer.blend);
+                }
+            }
+        }
+    }
+
+    /** Rows of {@code r} that are one contiguous run of pixels: all of them if it spans the width, else one. */
+    private static int rows(Rectangle r, int w) {
+        return r.x == 0 && r.width == w ? Math.max(1, r.height) : 1;
+    }
+
+    private Rectangle clip(Rectangle r) {
+        Rectangle c = r.intersection(new Rectangle(0, 0, width, height));
+        // an area entirely off the canvas intersects to a negative size
+        return c.isEmpty() ? new Rectangle() : c;
+    }
+
+    private static Rectangle union(Rectangle a, Rectangle b) {
+        return a == null ? new Rectangle(b) : a.union(b);
+    }
+}
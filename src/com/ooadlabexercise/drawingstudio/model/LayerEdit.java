@@ -0,0 +1,70 @@
+package com.ooadlabexercise.drawingstudio.model;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A change to the layer stack rather than to pixels: adding, removing, moving or
+ * selecting a layer, or setting one of its properties. Layers are addressed by
+ * position, so replaying the same edits on the same stack gives the same result.
+ * Like {@link CanvasOperation} an edit has a binary form for the journal.
+ */
+final class LayerEdit {
+    static final byte ADD = 1, REMOVE = 2, MOVE = 3, SELECT = 4, RENAME = 5, OPACITY = 6, BLEND = 7, VISIBLE = 8;
+
+    final byte kind;
+    final int index;
+    final int to;           // MOVE target, BLEND ordinal, VISIBLE as 0/1
+    final float opacity;
+    final String name;      // ADD and RENAME
+
+    private LayerEdit(byte kind, int index, int to, float opacity, String name) {
+        this.kind = kind; this.index = index; this.to = to; this.opacity = opacity; this.name = name;
+    }
+
+    /** New blank layer inserted at {@code index}; it becomes the active layer. */
+    static LayerEdit add(int index, String name) { return new LayerEdit(ADD, index, 0, 0, name); }
+    static LayerEdit remove(int index) { return new LayerEdit(REMOVE, index, 0, 0, null); }
+    static LayerEdit move(int from, int to) { return new LayerEdit(MOVE, from, to, 0, null); }
+    static LayerEdit select(int index) { return new LayerEdit(SELECT, index, 0, 0, null); }
+    static LayerEdit rename(int index, String name) { return new LayerEdit(RENAME, index, 0, 0, name); }
+    static LayerEdit opacity(int index, float opacity) {
+        return new LayerEdit(OPACITY, index, 0, Math.max(0f, Math.min(1f, opacity)), null);
+    }
+    static LayerEdit blend(int index, BlendMode mode) { return new LayerEdit(BLEND, index, mode.ordinal(), 0, null); }
+    static LayerEdit visible(int index, boolean visible) { return new LayerEdit(VISIBLE, index, visible ? 1 : 0, 0, null); }
+
+    BlendMode blendMode() { return BlendMode.values()[to]; }
+
+    void write(DataOutput out) throws IOException {
+        out.writeByte(kind);
+        CanvasOperation.writeVarInt(out, index);
+        switch (kind) {
+            case ADD: case RENAME: out.writeUTF(name); break;
+            case MOVE: case BLEND: case VISIBLE: CanvasOperation.writeVarInt(out, to); break;
+            case OPACITY: out.writeFloat(opacity); break;
+            default: break;
+        }
+    }
+
+    static LayerEdit read(DataInput in) throws IOException {
+        byte kind = in.readByte();
+        int index = CanvasOperation.readVarInt(in);
+        switch (kind) {
+            case ADD:     return add(index, in.readUTF());
+            case REMOVE:  return remove(index);
+            case MOVE:    return move(index, CanvasOperation.readVarInt(in));
+            case SELECT:  return select(index);
+            case RENAME:  return rename(index, in.readUTF());
+            case OPACITY: return opacity(index, in.readFloat());
+            case BLEND: {
+                int mode = CanvasOperation.readVarInt(in);
+                if (mode < 0 || mode >= BlendMode.values().length) throw new IOException("Unknown blend mode " + mode);
+                return new LayerEdit(BLEND, index, mode, 0, null);
+            }
+            case VISIBLE: return visible(index, CanvasOperation.readVarInt(in) != 0);
+            default: throw new IOException("Unknown layer edit " + kind);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.ooadlabexercise.drawingstudio.model;
+
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Mip levels of reference images, built on demand and kept in one LRU cache.
+ * <p>
+ * Level 0 is the source converted to the screen's native image type (so drawing
+ * it needs no per-pixel format conversion); each further level halves the
+ * previous one. The cache holds at most {@link #getBudget()} bytes across all
+ * images and evicts the least recently drawn levels first. EDT only.
+ */
+class MipCache {
+    static final long DEFAULT_BUDGET = 256L * 1024 * 1024;
+    static final MipCache SHARED = new MipCache(DEFAULT_BUDGET);
+
+    private static final class Key {
+        final BufferedImage source;
+        final int level;
+        Key(BufferedImage source, int level) { this.source = source; this.level = level; }
+        @Override public boolean equals(Object o) {
+            return o instanceof Key && ((Key) o).source == source && ((Key) o).level == level;
+        }
+        @Override public int hashCode() { return System.identityHashCode(source) * 31 + level; }
+    }
+
+    private final LinkedHashMap<Key, BufferedImage> levels = new LinkedHashMap<>(64, 0.75f, true);
+    private long budget;
+    private long used;
+
+    MipCache(long budget) {
+        this.budget = budget;
+    }
+
+    /** Level whose size is closest above {@code scale} times the source, e.g. 2 for scale 0.3. */
+    static int levelFor(BufferedImage source, double scale) {
+        scale = Math.abs(scale);
+        int level = 0;
+        int w = source.getWidth(), h = source.getHeight();
+        while (scale <= 0.5 && w > 1 && h > 1) {
+            scale *= 2;
+            w = (w + 1) / 2;
+            h = (h + 1) / 2;
+            level++;
+        }
+        return level;
+    }
+
+    /** The given level of the source, building it (and any finer level it needs) if missing. */
+    BufferedImage get(BufferedImage source, int level) {
+        Key key = new Key(source, level);
+        BufferedImage img = levels.get(key);
+        if (img != null) return img;
+        if (level == 0) {
+            img = toCompatible(source);
+            if (img == source) return source;  // already native, nothing to cache
+        } else {
+            img = halve(get(source, level - 1));
+        }
+        levels.put(key, img);
+        used += bytes(img);
+        trim();
+        return img;
+    }
+
+    /** Drops every level of the source, e.g. when the image is removed from the board. */
+    void evict(BufferedImage source) {
+        for (Iterator<Map.Entry<Key, BufferedImage>> it = levels.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<Key, BufferedImage> e = it.next();
+            if (e.getKey().source == source) {
+                used -= bytes(e.getValue());
+                it.remove();
+            }
+        }
+    }
+
+    void setBudget(long bytes) {
+        budget = Math.max(0, bytes);
+        trim();
+    }
+
+    long getBudget() { return budget; }
+
+    long getMemoryUsage() { return used; }
+
+    private void trim() {
+        // the most recent entry is the one just requested; it always stays
+        Iterator<BufferedImage> it = levels.values().iterator();
+        while (used > budget && levels.size() > 1) {
+            used -= bytes(it.next());
+            it.remove();
+        }
+    }
+
+    /** The image in the screen's native type; the source itself if it already is. */
+    static BufferedImage toCompatible(BufferedImage source) {
+        int transparency = source.getColorModel().getTransparency();
+        BufferedImage img;
+        if (GraphicsEnvironment.isHeadless()) {
+            int type = transparency == Transparency.OPAQUE ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB_PRE;
+            if (source.getType() == type) return source;
+            img = new BufferedImage(source.getWidth(), source.getHeight(), type);
+        } else {
+            GraphicsConfiguration gc = GraphicsEnvironment.getLocalGraphicsEnvironment()
+                .getDefaultScreenDevice().getDefaultConfiguration();
+            if (source.getColorModel().equals(gc.getColorModel(transparency))) return source;
+            img = gc.createCompatibleImage(source.getWidth(), source.getHeight(), transparency);
+        }
+        Graphics2D g = img.createGraphics();
+        g.drawImage(source, 0, 0, null);
+        g.dispose();
+        return img;
+    }
+
+    /** Half-size copy; bilinear sampling at exactly half size averages each 2x2 block. */
+    private static BufferedImage halve(BufferedImage src) {
+        int w = Math.max(1, (src.getWidth() + 1) / 2), h = Math.max(1, (src.getHeight() + 1) / 2);
+        BufferedImage img = src.getColorModel().isCompatibleRaster(src.getRaster())
+            ? new BufferedImage(src.getColorModel(), src.getRaster().createCompatibleWritableRaster(w, h),
+                                src.isAlphaPremultiplied(), null)
+            : new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D g = img.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(src, 0, 0, w, h, null);
+        g.dispose();
+        return img;
+    }
+
+    private static long bytes(BufferedImage img) {
+        return (long) img.getWidth() * img.getHeight() * img.getColorModel().getPixelSize() / 8;
+    }
+}
@@ -0,0 +1,430 @@
+package com.ooadlabexercise.drawingstudio.model;
+
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Append-only log of committed canvas operations for crash recovery.
+ * <p>
+ * Records go into a memory-mapped file, so appending is a plain memory write
+ * that survives the JVM being killed. The log is split into generations: the
+ * checkpoint {@code checkpoint-N.dsp} holds the layers as they were when
+ * {@code journal-N.bin} was started, written as a {@link ProjectFile} of its
+ * own and moved into place once complete, so it is opened lazily like any
+ * project. Checkpoints are taken every {@link #CHECKPOINT_RECORDS} operations
+ * (or after a while), tile by tile: on the EDT the tiles that changed since
+ * they were last stored are copied into a {@link TileStore} of the journal's
+ * own, which spills to disk past {@link #CHECKPOINT_MEMORY}, and the rest are
+ * only referenced; the checkpoint thread deflates and writes them, as the
+ * exporter encodes its snapshot. Older generations are deleted on the same
+ * thread once the new checkpoint is on disk, which keeps replay short.
+ * <p>
+ * Undo, redo and layer edits are logged as well. When an undo or redo reaches
+ * past the last checkpoint the replayed history could not follow, so a new
+ * checkpoint is taken instead, after a {@link #ROLL} mark: should that checkpoint
+ * never land, replay falls back to the older generations and stops at the mark,
+ * at the last state they can reproduce. Removing a layer is logged and then
+ * checkpointed, as it drops undo steps.
+ * <p>
+ * Saving or opening a {@link ProjectFile} takes a checkpoint too. The saved
+ * tiles are copied into it as they are deflated, so the journal never depends
+ * on the user's file staying where it is. All logging happens on the Event
+ * Dispatch Thread.
+ */
+class OperationJournal {
+    static final byte OP = 1, UNDO = 2, REDO = 3, RESIZE = 4, LAYER = 5, VIEW = 6;
+    /** What follows needs the next generation's checkpoint, so a replay that reads this stops. */
+    static final byte ROLL = 7;
+    static final int CHECKPOINT_RECORDS = 500;
+    private static final long CHECKPOINT_NANOS = TimeUnit.MINUTES.toNanos(2);
+    private static final long CHECKPOINT_MEMORY = 32L << 20;  // changed tiles held off-heap for checkpoints
+
+    private static final int MAGIC = 0x44534A31;  // "DSJ1"
+    private static final int HEADER = 8;
+    private static final int INITIAL_SIZE = 1 << 20;
+    private static final Pattern JOURNAL = Pattern.compile("journal-(\\d+)\\.bin");
+    private static final Pattern CHECKPOINT = Pattern.compile("checkpoint-(\\d+)\\.dsp");
+    // everything of generation N, unfinished checkpoints and the PNG checkpoints of earlier versions included
+    private static final Pattern GENERATION_FILE =
+        Pattern.compile("(?:journal|checkpoint)-(\\d+)(?:\\.bin|\\.dsp|\\.dsp\\.tmp|(?:-\\d+)?\\.png)");
+
+    /** Receives the records of a previous session, in order. */
+    interface Replayer {
+        /**
+         * Starting layers of the replay, bottom first, or none to start from a blank canvas;
+         * each picture's top-left pixel goes to the world position of the same index.
+         */
+        void restore(List<BufferedImage> checkpoint, List<Point> origins);
+        void resize(int w, int h);
+        /** The view moved so the canvas' top-left pixel shows world ({@code x}, {@code y}). */
+        void view(int x, int y);
+        void operation(CanvasOperation op);
+        void undo();
+        void redo();
+        void layerEdit(LayerEdit edit);
+        /** Starting layers of the replay from a checkpoint, a project file with the layers and the window. */
+        void project(File file) throws IOException;
+    }
+
+    private final File dir;
+    private final ExecutorService checkpointer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "journal-checkpoint");
+        t.setDaemon(true);
+        return t;
+    });
+    // tiles copied for checkpoints not written yet; guarded by itself, as both threads use it
+    private final TileStore copies = new TileStore(CHECKPOINT_MEMORY);
+    private final ByteArrayOutputStream scratch = new ByteArrayOutputStream(256);
+    private final DataOutputStream scratchOut = new DataOutputStream(scratch);
+
+    private FileChannel channel;
+    private MappedByteBuffer buf;
+    private int generation = -1;
+    private int records;
+    private long lastCheckpoint;
+    // Undo steps the replayed history can follow since the last checkpoint
+    private int undoable, redoable;
+
+    OperationJournal(File dir) {
+        this.dir = dir;
+    }
+
+    /** True if an earlier session left a checkpoint or any drawing operation behind. */
+    boolean hasRecoverableSession() {
+        if (!files(CHECKPOINT).isEmpty()) return true;
+        boolean[] found = { false };
+        Replayer probe = new Replayer() {
+            @Override public void restore(List<BufferedImage> checkpoint, List<Point> origins) {}
+            @Override public void resize(int w, int h) {}
+            @Override public void view(int x, int y) {}
+            @Override public void operation(CanvasOperation op) { found[0] = true; }
+            @Override public void undo() {}
+            @Override public void redo() {}
+            @Override public void layerEdit(LayerEdit edit) {}
+            @Override public void project(File file) {}
+        };
+        for (File f : files(JOURNAL).values()) {
+            try {
+                replayFile(f, probe);
+            } catch (IOException ignored) {
+                // unreadable journal, nothing to offer from it
+            }
+            if (found[0]) return true;
+        }
+        return false;
+    }
+
+    /** Feeds the previous session, starting from its newest complete checkpoint, to the replayer. */
+    void replay(Replayer replayer) throws IOException {
+        TreeMap<Integer, File> journals = files(JOURNAL);
+        TreeMap<Integer, File> checkpoints = files(CHECKPOINT);
+        int start;
+        if (!checkpoints.isEmpty()) {
+            start = checkpoints.lastKey();
+            replayer.project(checkpoints.lastEntry().getValue());
+        } else if (!journals.isEmpty()) {
+            start = journals.firstKey();
+            replayer.restore(new ArrayList<>(), new ArrayList<>());
+        } else {
+            return;
+        }
+        for (File f : journals.tailMap(start).values()) {
+            if (!replayFile(f, replayer)) break;
+        }
+    }
+
+    /**
+     * Starts logging. With {@code continueSession} the earlier files are kept until
+     * a checkpoint of the engine's layers is written; otherwise they are deleted and
+     * the new log starts from a blank canvas.
+     */
+    void start(DrawingEngine engine, boolean continueSession) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create " + dir);
+        if (continueSession) {
+            TreeMap<Integer, File> journals = files(JOURNAL);
+            generation = journals.isEmpty() ? 0 : journals.lastKey();
+            checkpoint(engine);
+        } else {
+            // nothing is being written yet
+            deleteBefore(Integer.MAX_VALUE);
+            openGeneration(0);
+        }
+    }
+
+    void logOperation(CanvasOperation op, DrawingEngine engine) {
+        append(OP, op, 0, 0);
+        undoable++;
+        redoable = 0;
+        if (records >= CHECKPOINT_RECORDS
+                || System.nanoTime() - lastCheckpoint > CHECKPOINT_NANOS) {
+            checkpoint(engine);
+        }
+    }
+
+    void logUndo(DrawingEngine engine) {
+        if (undoable == 0) { roll(engine); return; }
+        append(UNDO, null, 0, 0);
+        undoable--;
+        redoable++;
+    }
+
+    void logRedo(DrawingEngine engine) {
+        if (redoable == 0) { roll(engine); return; }
+        append(REDO, null, 0, 0);
+        redoable--;
+        undoable++;
+    }
+
+    /** Checkpoints a step no record could replay, marking where replay must stop if the checkpoint is lost. */
+    private void roll(DrawingEngine engine) {
+        append(ROLL, null, 0, 0);
+        checkpoint(engine);
+    }
+
+    /** History survives a resize (the scene re-renders), so the undo counters carry on. */
+    void logResize(int w, int h) {
+        append(RESIZE, null, w, h);
+    }
+
+    /** The same goes for moving the view. */
+    void logView(int x, int y) {
+        append(VIEW, null, x, y);
+    }
+
+    /**
+     * Logs a change to the layer stack, already applied to {@code engine}. Removing a
+     * layer replays like any edit, but drops undo steps the counters included, so it
+     * also starts a new generation.
+     */
+    void logLayerEdit(LayerEdit edit, DrawingEngine engine) {
+        append(LAYER, null, 0, 0, edit);
+        if (edit.kind == LayerEdit.REMOVE) checkpoint(engine);
+    }
+
+    /**
+     * Starts a new generation whose checkpoint is the current layer stack, written in the
+     * background. Tiles stored since they last changed, e.g. by a project save, are copied
+     * into it still deflated.
+     */
+    void checkpoint(DrawingEngine engine) {
+        List<ProjectFile.StoredLayer> layers = new ArrayList<>();
+        try {
+            for (int i = 0; i < engine.getLayerCount(); i++) {
+                Layer layer = engine.getLayer(i);
+                Map<Long, PagedRaster.StoredTile> tiles =
+                    layer.writeTiles((tx, ty, old, px) -> old != null ? old : new CopiedTile(copies, px));
+                layers.add(new ProjectFile.StoredLayer(layer.name, layer.opacity, layer.blend, layer.visible, tiles));
+            }
+        } catch (IOException ex) {
+            // the tiles are only copied in memory here; the next checkpoint retries
+            release(layers);
+            return;
+        }
+        int gen = generation + 1;
+        try {
+            openGeneration(gen);
+        } catch (IOException ex) {
+            // keep appending to the current generation; the next checkpoint retries
+            release(layers);
+            return;
+        }
+        BufferedImage canvas = engine.getCanvas();
+        append(RESIZE, null, canvas.getWidth(), canvas.getHeight());
+        int active = engine.getActiveLayer(), x = engine.getViewX(), y = engine.getViewY();
+        checkpointer.execute(() -> {
+            try {
+                ProjectFile.write(new File(dir, "checkpoint-" + gen + ".dsp"), layers, active, x, y);
+                deleteBefore(gen);
+            } catch (IOException | UncheckedIOException ex) {
+                // older generations stay on disk and replay to the same canvas, up to any ROLL mark
+            } finally {
+                release(layers);
+            }
+        });
+    }
+
+    /** Waits until the checkpoints started so far are written, e.g. before the files are read back. */
+    void flush() throws InterruptedException {
+        CountDownLatch written = new CountDownLatch(1);
+        checkpointer.execute(written::countDown);
+        written.await();
+    }
+
+    private void release(List<ProjectFile.StoredLayer> layers) {
+        synchronized (copies) {
+            for (ProjectFile.StoredLayer layer : layers) {
+                for (PagedRaster.StoredTile t : layer.tiles.values()) {
+                    if (t instanceof CopiedTile) copies.free(((CopiedTile) t).tile);
+                }
+            }
+        }
+    }
+
+    /** A tile copied on the EDT into {@link #copies}, read back on the checkpoint thread. */
+    private static final class CopiedTile implements PagedRaster.StoredTile {
+        private final TileStore store;
+        private final TileStore.Tile tile;
+
+        CopiedTile(TileStore store, int[] px) {
+            this.store = store;
+            synchronized (store) {
+                tile = store.allocate();
+                IntBuffer buf = store.pixels(tile);
+                buf.position(0);
+                buf.put(px);
+            }
+        }
+
+        @Override public void read(int[] px) {
+            synchronized (store) {
+                IntBuffer buf = store.pixels(tile);
+                buf.position(0);
+                buf.get(px);
+            }
+        }
+
+        @Override public byte[] deflated() { return null; }
+    }
+
+    private void openGeneration(int gen) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(new File(dir, "journal-" + gen + ".bin"), "rw");
+        raf.setLength(0);
+        FileChannel ch = raf.getChannel();
+        MappedByteBuffer mapped = ch.map(FileChannel.MapMode.READ_WRITE, 0, INITIAL_SIZE);
+        mapped.putInt(0, MAGIC);
+        mapped.putInt(4, 1);
+        mapped.position(HEADER);
+        if (channel != null) channel.close();
+        if (buf != null) buf.force();
+        channel = ch;
+        buf = mapped;
+        generation = gen;
+        records = 0;
+        undoable = 0;
+        redoable = 0;
+        lastCheckpoint = System.nanoTime();
+    }
+
+    /**
+     * Writes [length][kind][payload]. The length goes in last, so a record cut
+     * short by a crash reads as the end of the log.
+     */
+    private void append(byte kind, CanvasOperation op, int w, int h) {
+        append(kind, op, w, h, null);
+    }
+
+    private void append(byte kind, CanvasOperation op, int w, int h, LayerEdit edit) {
+        if (buf == null) return;
+        scratch.reset();
+        try {
+            scratchOut.writeByte(kind);
+            if (op != null) op.write(scratchOut);
+            if (edit != null) edit.write(scratchOut);
+            if (kind == RESIZE || kind == VIEW) { scratchOut.writeInt(w); scratchOut.writeInt(h); }
+            put();
+        } catch (IOException ex) {
+            // the journal is best effort; drawing must never fail because of it
+        }
+    }
+
+    /** Appends the record in {@code scratch}. */
+    private void put() throws IOException {
+        int len = scratch.size();
+        int pos = buf.position();
+        if (pos + 4 + len + 4 > buf.capacity()) {
+            long size = Math.max((long) buf.capacity() * 2, pos + 4L + len + 4);
+            buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buf.position(pos);
+        }
+        buf.position(pos + 4);
+        buf.put(scratch.toByteArray(), 0, len);
+        buf.putInt(pos, len);
+        records++;
+    }
+
+    /** Feeds the records of a single journal file to the replayer; false if it stopped at a {@link #ROLL} mark. */
+    static boolean replayFile(File f, Replayer replayer) throws IOException {
+        return readRecords(f, (kind, data) -> {
+            switch (kind) {
+                case OP:      replayer.operation(CanvasOperation.read(data)); break;
+                case UNDO:    replayer.undo(); break;
+                case REDO:    replayer.redo(); break;
+                case RESIZE:  replayer.resize(data.readInt(), data.readInt()); break;
+                case LAYER:   replayer.layerEdit(LayerEdit.read(data)); break;
+                case VIEW:    replayer.view(data.readInt(), data.readInt()); break;
+                case ROLL:    return false;
+                default: throw new IOException("Unknown journal record in " + f);
+            }
+            return true;
+        });
+    }
+
+    private interface RecordReader {
+        /** Handles one record; returns false to stop reading. */
+        boolean read(byte kind, DataInputStream data) throws IOException;
+    }
+
+    /** Reads the records of {@code f} in order; false if the reader stopped early. */
+    private static boolean readRecords(File f, RecordReader reader) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r"); FileChannel ch = raf.getChannel()) {
+            long size = ch.size();
+            if (size < HEADER) return true;
+            MappedByteBuffer in = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (in.getInt(0) != MAGIC) return true;
+            int pos = HEADER;
+            while (pos + 4 <= size) {
+                int len = in.getInt(pos);
+                if (len <= 0 || pos + 4L + len > size) break;
+                byte[] record = new byte[len];
+                in.position(pos + 4);
+                in.get(record);
+                DataInputStream data = new DataInputStream(new ByteArrayInputStream(record));
+                if (!reader.read(data.readByte(), data)) return false;
+                pos += 4 + len;
+            }
+        }
+        return true;
+    }
+
+    /** Deletes the files of generations before {@code gen}; only on the checkpoint thread once logging started. */
+    private void deleteBefore(int gen) {
+        File[] list = dir.listFiles();
+        if (list == null) return;
+        for (File f : list) {
+            Matcher m = GENERATION_FILE.matcher(f.getName());
+            if (m.matches() && m.group(1).length() < 10 && Integer.parseInt(m.group(1)) < gen) f.delete();
+        }
+    }
+
+    private TreeMap<Integer, File> files(Pattern pattern) {
+        TreeMap<Integer, File> found = new TreeMap<>();
+        File[] list = dir.listFiles();
+        if (list == null) return found;
+        for (File f : list) {
+            Matcher m = pattern.matcher(f.getName());
+            if (m.matches() && m.group(1).length() < 10) found.put(Integer.parseInt(m.group(1)), f);
+        }
+        return found;
+    }
+}
@@ -0,0 +1,158 @@
+package com.ooadlabexercise.drawingstudio.model;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Text form of a drawing session, one command per line, for batch rendering:
+ * <pre>
+ * # comments and blank lines are ignored
+ * size 800 600                  resize the canvas
+ * view -400 200                 canvas shows the unbounded drawing from that point on
+ * color #ff0000                 pen color, #rrggbb or #aarrggbb
+ * width 3                       pen width
+ * stroke 10 10 20 15 30 25      freehand stroke through the points
+ * smooth 10 10 20 15 30 25      the same as a smoothed curve
+ * line 0 0 100 100              also rect and oval, between two corners
+ * fill 50 50 #00ff00 16         bucket fill with an optional tolerance
+ * clear                         clears the current layer
+ * undo
+ * redo
+ * layer add Sky                 new layer above the current one, drawn on from now on
+ * layer select 0                draw on another layer (0 = bottom)
+ * layer opacity 0.5             also blend multiply, hide, show, name, move N and remove
+ * </pre>
+ * Coordinates are world coordinates, whatever the view; a fill only spreads
+ * over what the canvas shows. Commands are replayed exactly as the canvas
+ * would perform them.
+ * <p>
+ * Scripts come from anyone who can reach the render server, and every layer
+ * holds a raster of the canvas size, so a script's canvas is at most
+ * {@link #MAX_SIZE} pixels a side and its layers together at most
+ * {@link #MAX_PIXELS}.
+ */
+final class OperationScript {
+    /** Longest canvas side a script may set. */
+    static final int MAX_SIZE = 8192;
+    /** Canvas pixels of all layers together, 256 MB of rasters: two layers at 8K UHD. */
+    static final long MAX_PIXELS = 1L << 26;
+
+    private OperationScript() {}
+
+    static void run(BufferedReader in, OperationJournal.Replayer target) throws IOException {
+        int color = 0xff000000;
+        float width = 2f;
+        int layers = 1, layer = 0;
+        long pixels = (long) BatchRenderer.DEFAULT_WIDTH * BatchRenderer.DEFAULT_HEIGHT;  // of one layer; scripts start at the default size
+        String line;
+        int lineNo = 0;
+        while ((line = in.readLine()) != null) {
+            lineNo++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            String[] t = line.split("\\s+");
+            try {
+                switch (t[0]) {
+                    case "size": {
+                        int w = positive(t[1]), h = positive(t[2]);
+                        if (w > MAX_SIZE || h > MAX_SIZE) throw new IllegalArgumentException("size is at most " + MAX_SIZE);
+                        pixels = (long) w * h;
+                        checkPixels(pixels, layers);
+                        target.resize(w, h);
+                        break;
+                    }
+                    case "view":   target.view(Integer.parseInt(t[1]), Integer.parseInt(t[2])); break;
+                    case "color":  color = parseColor(t[1]); break;
+                    case "width":  width = Float.parseFloat(t[1]); break;
+                    case "stroke":
+                    case "smooth": {
+                        if (t.length < 5 || t.length % 2 == 0) throw new IOException(t[0] + " needs at least two x y points");
+                        int[] points = new int[t.length - 1];
+                        for (int i = 0; i < points.length; i++) points[i] = Integer.parseInt(t[i + 1]);
+                        target.operation(new CanvasOperation.StrokeOp(color, width, points, t[0].equals("smooth")));
+                        break;
+                    }
+                    case "line":   target.operation(shape(DrawingCanvasPanel.Tool.LINE, color, width, t)); break;
+                    case "rect":   target.operation(shape(DrawingCanvasPanel.Tool.RECTANGLE, color, width, t)); break;
+                    case "oval":   target.operation(shape(DrawingCanvasPanel.Tool.OVAL, color, width, t)); break;
+                    case "fill":
+                        target.operation(new CanvasOperation.FillOp(Integer.parseInt(t[1]), Integer.parseInt(t[2]),
+                            parseColor(t[3]), t.length > 4 ? Math.max(0, Math.min(255, Integer.parseInt(t[4]))) : 0));
+                        break;
+                    case "clear":  target.operation(new CanvasOperation.ClearOp()); break;
+                    case "undo":   target.undo(); break;
+                    case "redo":   target.redo(); break;
+                    case "layer": {
+                        LayerEdit edit;
+                        switch (t[1]) {
+                            case "add":
+                                checkPixels(pixels, layers + 1);
+                                edit = LayerEdit.add(layer + 1, t.length > 2 ? rest(line, 2) : "Layer " + (layers + 1));
+                                layers++;
+                                layer++;
+                                break;
+                            case "remove":
+                                if (layers == 1) throw new IllegalArgumentException("cannot remove the last layer");
+                                edit = LayerEdit.remove(layer);
+                                if (layer == --layers) layer--;
+                                break;
+                            case "select":  edit = LayerEdit.select(layer = layerIndex(t[2], layers)); break;
+                            case "move":    edit = LayerEdit.move(layer, layer = layerIndex(t[2], layers)); break;
+                            case "name":    edit = LayerEdit.rename(layer, rest(line, 2)); break;
+                            case "opacity": edit = LayerEdit.opacity(layer, Float.parseFloat(t[2])); break;
+                            case "blend":   edit = LayerEdit.blend(layer, BlendMode.valueOf(t[2].toUpperCase(Locale.ROOT))); break;
+                            case "hide":    edit = LayerEdit.visible(layer, false); break;
+                            case "show":    edit = LayerEdit.visible(layer, true); break;
+                            default: throw new IOException("unknown layer command '" + t[1] + "'");
+                        }
+                        target.layerEdit(edit);
+                        break;
+                    }
+                    default: throw new IOException("unknown command '" + t[0] + "'");
+                }
+            } catch (IOException | RuntimeException ex) {
+                String msg = ex instanceof ArrayIndexOutOfBoundsException ? "missing argument" : ex.getMessage();
+                throw new IOException("line " + lineNo + ": " + msg, ex);
+            }
+        }
+    }
+
+    private static CanvasOperation shape(DrawingCanvasPanel.Tool tool, int color, float width, String[] t) {
+        return new CanvasOperation.ShapeOp(tool, color, width, Integer.parseInt(t[1]), Integer.parseInt(t[2]),
+                                           Integer.parseInt(t[3]), Integer.parseInt(t[4]));
+    }
+
+    private static int layerIndex(String s, int layers) {
+        int v = Integer.parseInt(s);
+        if (v < 0 || v >= layers) throw new IllegalArgumentException("no layer " + v);
+        return v;
+    }
+
+    /** The line from its {@code n}th word on. */
+    private static String rest(String line, int n) {
+        String[] parts = line.split("\\s+", n + 1);
+        if (parts.length <= n) throw new ArrayIndexOutOfBoundsException(n);
+        return parts[n];
+    }
+
+    private static void checkPixels(long pixels, int layers) {
+        if (pixels * layers > MAX_PIXELS) {
+            throw new IllegalArgumentException(layers + " layers of " + pixels + " pixels are more than " + MAX_PIXELS);
+        }
+    }
+
+    private static int positive(String s) {
+        int v = Integer.parseInt(s);
+        if (v <= 0) throw new IllegalArgumentException("size must be positive");
+        return v;
+    }
+
+    private static int parseColor(String s) {
+        if (!s.startsWith("#") || (s.length() != 7 && s.length() != 9)) {
+            throw new IllegalArgumentException("bad color " + s);
+        }
+        long v = Long.parseLong(s.substring(1), 16);
+        return s.length() == 7 ? 0xff000000 | (int) v : (int) v;
+    }
+}
@@ -0,0 +1,356 @@
+package com.ooadlabexercise.drawingstudio.model;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An unbounded ARGB raster made of {@link TileStore} tiles, keyed by tile
+ * position in world coordinates. A tile exists only where something was drawn:
+ * storing transparent pixels into a missing tile does nothing, and a tile that
+ * becomes fully transparent is released. Pixels are moved in and out through
+ * ordinary TYPE_INT_ARGB images: a window onto the world ({@link #store},
+ * {@link #load}), or one tile at a time for drawing ({@link #paint}).
+ * <p>
+ * Tile counts per block of 2^L x 2^L tiles, for L up to {@link #LEVELS}, tell
+ * in constant time whether an area has anything drawn, e.g. to skip empty
+ * regions when building zoomed-out levels.
+ * <p>
+ * A tile may also have a compressed copy elsewhere ({@link StoredTile}, e.g. in
+ * a project file). Tiles added with {@link #defer} exist only as that copy
+ * until first used, and {@link #write} hands out the copies of tiles that did
+ * not change since, so a save only has to compress what changed.
+ */
+class PagedRaster {
+    private static final int T = TileStore.TILE;
+    static final int LEVELS = 12;
+
+    /** Draws into one tile, copied into {@code tile}, whose top-left pixel is world ({@code x}, {@code y}). */
+    interface TilePainter {
+        void paint(BufferedImage tile, int x, int y, Rectangle clip);
+    }
+
+    /** A compressed copy of a tile's pixels kept elsewhere, e.g. in a project file. */
+    interface StoredTile {
+        /** Decodes the tile into {@code px}, {@link TileStore#TILE} squared ARGB pixels. */
+        void read(int[] px);
+
+        /** The tile as {@link TileCodec} deflates it, or null if this copy is not deflated; any thread may call it. */
+        byte[] deflated() throws IOException;
+    }
+
+    /** Stores tiles somewhere; see {@link #write}. */
+    interface TileWriter {
+        /**
+         * Returns a stored copy of tile (tx, ty). {@code old} is its last copy if the tile did
+         * not change since, and {@code px} is null then; otherwise {@code px} holds its pixels.
+         */
+        StoredTile write(int tx, int ty, StoredTile old, int[] px) throws IOException;
+    }
+
+    private final TileStore store;
+    private final Map<Long, TileStore.Tile> tiles = new HashMap<>();
+    // copies matching the tiles; those not in tiles yet are decoded on first use
+    private final Map<Long, StoredTile> stored = new HashMap<>();
+    private int[] decoded;
+    private final List<Map<Long, Integer>> blocks = new ArrayList<>();  // [L]: tiles per 2^L block, L >= 1
+
+    PagedRaster(TileStore store) {
+        this.store = store;
+        for (int l = 0; l <= LEVELS; l++) blocks.add(l == 0 ? null : new HashMap<>());
+    }
+
+    boolean isEmpty() { return tiles.isEmpty() && stored.isEmpty(); }
+
+    int getTileCount() { return keys().size(); }
+
+    /** Off-heap bytes held by the tiles, hot or spilled; tiles not decoded yet take none. */
+    long getMemoryUsage() { return (long) tiles.size() * TileStore.TILE_BYTES; }
+
+    /** World bounds of all tiles, empty if there are none. */
+    Rectangle bounds() {
+        Rectangle r = new Rectangle();
+        for (long key : keys()) {
+            Rectangle t = tileRect((int) (key >> 32), (int) key);
+            r = r.isEmpty() ? t : r.union(t);
+        }
+        return r;
+    }
+
+    /** True if any tile lies in the block of 2^level x 2^level tiles at block position (bx, by). */
+    boolean occupied(int level, int bx, int by) {
+        if (level == 0) return tiles.containsKey(key(bx, by)) || stored.containsKey(key(bx, by));
+        if (level > LEVELS) return !isEmpty();
+        return blocks.get(level).containsKey(key(bx, by));
+    }
+
+    /** Releases every tile. */
+    void clear() {
+        for (TileStore.Tile t : tiles.values()) store.free(t);
+        tiles.clear();
+        stored.clear();
+        for (int l = 1; l <= LEVELS; l++) blocks.get(l).clear();
+    }
+
+    /** Adds tile (tx, ty), replacing any there, as a stored copy that is decoded when first used. */
+    void defer(int tx, int ty, StoredTile copy) {
+        long key = key(tx, ty);
+        TileStore.Tile old = tiles.remove(key);
+        if (old != null) {
+            store.free(old);
+        } else if (!stored.containsKey(key)) {
+            count(tx, ty, 1);
+        }
+        stored.put(key, copy);
+    }
+
+    /**
+     * Passes every tile to {@code writer} and returns the copies it made, by tile key.
+     * Hand them to {@link #stored} once they are safely kept, before the tiles change.
+     */
+    Map<Long, StoredTile> write(TileWriter writer) throws IOException {
+        Map<Long, StoredTile> copies = new HashMap<>();
+        int[] px = null;
+        for (long key : keys()) {
+            StoredTile old = stored.get(key);
+            if (old == null) {
+                if (px == null) px = new int[T * T];
+                IntBuffer buf = store.pixels(tiles.get(key));
+                buf.position(0);
+                buf.get(px);
+            }
+            copies.put(key, writer.write((int) (key >> 32), (int) key, old, old == null ? px : null));
+        }
+        return copies;
+    }
+
+    /** Takes copies made by {@link #write} as matching the tiles from now on. */
+    void stored(Map<Long, StoredTile> copies) {
+        for (Map.Entry<Long, StoredTile> e : copies.entrySet()) {
+            if (tiles.containsKey(e.getKey()) || stored.containsKey(e.getKey())) stored.put(e.getKey(), e.getValue());
+        }
+    }
+
+    /**
+     * Copies the pixels of {@code window}, whose top-left pixel is world ({@code ox}, {@code oy}),
+     * into the tiles wherever they fall inside {@code area} (world coordinates).
+     */
+    void store(BufferedImage window, int ox, int oy, Rectangle area) {
+        int w = window.getWidth();
+        Rectangle r = area.intersection(new Rectangle(ox, oy, w, window.getHeight()));
+        if (r.isEmpty()) return;
+        int[] px = Rasters.pixels(window);
+        for (int ty = Math.floorDiv(r.y, T); ty <= Math.floorDiv(r.y + r.height - 1, T); ty++) {
+            for (int tx = Math.floorDiv(r.x, T); tx <= Math.floorDiv(r.x + r.width - 1, T); tx++) {
+                Rectangle part = r.intersection(tileRect(tx, ty));
+                int off = (part.y - oy) * w + (part.x - ox);
+                boolean blank = isBlank(px, off, w, part.width, part.height);
+                TileStore.Tile t = tile(tx, ty);
+                if (t == null) {
+                    if (blank) continue;
+                    t = add(tx, ty);
+                }
+                IntBuffer buf = store.pixels(t);
+                int toff = (part.y - ty * T) * T + (part.x - tx * T);
+                for (int y = 0; y < part.height; y++) {
+                    buf.position(toff + y * T);
+                    buf.put(px, off + y * w, part.width);
+                }
+                stored.remove(key(tx, ty));
+                if (blank && isBlank(buf)) {
+                    remove(tx, ty, t);
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies the tiles into {@code window}, whose top-left pixel is world ({@code ox}, {@code oy}),
+     * inside {@code area} (world coordinates). Where there is no tile the window becomes transparent.
+     * Returns false if there was none at all.
+     */
+    boolean load(BufferedImage window, int ox, int oy, Rectangle area) {
+        int w = window.getWidth();
+        Rectangle r = area.intersection(new Rectangle(ox, oy, w, window.getHeight()));
+        if (r.isEmpty()) return false;
+        boolean found = false;
+        int[] px = Rasters.pixels(window);
+        for (int ty = Math.floorDiv(r.y, T); ty <= Math.floorDiv(r.y + r.height - 1, T); ty++) {
+            for (int tx = Math.floorDiv(r.x, T); tx <= Math.floorDiv(r.x + r.width - 1, T); tx++) {
+                Rectangle part = r.intersection(tileRect(tx, ty));
+                int off = (part.y - oy) * w + (part.x - ox);
+                TileStore.Tile t = tile(tx, ty);
+                if (t == null) {
+                    for (int y = 0; y < part.height; y++) {
+                        Arrays.fill(px, off + y * w, off + y * w + part.width, 0);
+                    }
+                    continue;
+                }
+                found = true;
+                IntBuffer buf = store.pixels(t);
+                int toff = (part.y - ty * T) * T + (part.x - tx * T);
+                for (int y = 0; y < part.height; y++) {
+                    buf.position(toff + y * T);
+                    buf.get(px, off + y * w, part.width);
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Lets {@code painter} draw into every tile {@code area} (world coordinates) touches,
+     * except tiles lying completely inside {@code skip} (may be null). Tiles are created
+     * for what the painter leaves non-transparent and released where it leaves nothing.
+     */
+    void paint(Rectangle area, Rectangle skip, TilePainter painter) {
+        if (area.isEmpty()) return;
+        BufferedImage img = store.scratch();
+        int[] px = Rasters.pixels(img);
+        for (int ty = Math.floorDiv(area.y, T); ty <= Math.floorDiv(area.y + area.height - 1, T); ty++) {
+            for (int tx = Math.floorDiv(area.x, T); tx <= Math.floorDiv(area.x + area.width - 1, T); tx++) {
+                Rectangle tr = tileRect(tx, ty);
+                if (skip != null && skip.contains(tr)) continue;
+                Rectangle clip = area.intersection(tr);
+                clip.translate(-tr.x, -tr.y);
+                TileStore.Tile t = tile(tx, ty);
+                if (t != null) {
+                    IntBuffer buf = store.pixels(t);
+                    buf.position(0);
+                    buf.get(px);
+                } else {
+                    Arrays.fill(px, 0);
+                }
+                painter.paint(img, tr.x, tr.y, clip);
+                if (isBlank(px, 0, T, T, T)) {
+                    if (t != null) {
+                        remove(tx, ty, t);
+                    }
+                    continue;
+                }
+                if (t == null) {
+                    t = add(tx, ty);
+                }
+                IntBuffer buf = store.pixels(t);
+                buf.position(0);
+                buf.put(px);
+                stored.remove(key(tx, ty));
+            }
+        }
+    }
+
+    /**
+     * Draws the tiles into {@code target} at the given scale, replacing pixels inside
+     * {@code clip}; target pixel (x, y) shows world point ((x + ox) / scale, (y + oy) / scale).
+     * Pixels without a tile are left as they are.
+     */
+    void draw(BufferedImage target, double scale, int ox, int oy, Rectangle clip) {
+        if (isEmpty() || clip.isEmpty()) return;
+        if (scale == 1) {
+            Rectangle world = new Rectangle(clip.x + ox, clip.y + oy, clip.width, clip.height);
+            for (long key : keys()) {
+                Rectangle part = world.intersection(tileRect((int) (key >> 32), (int) key));
+                if (!part.isEmpty()) load(target, ox, oy, part);
+            }
+            return;
+        }
+        BufferedImage tile = new BufferedImage(T, T, BufferedImage.TYPE_INT_ARGB);
+        int[] px = Rasters.pixels(tile);
+        Graphics2D g = target.createGraphics();
+        g.setComposite(AlphaComposite.Src);
+        g.setClip(clip);
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        for (long key : keys()) {
+            Rectangle tr = tileRect((int) (key >> 32), (int) key);
+            double x0 = tr.x * scale - ox, y0 = tr.y * scale - oy;
+            if (!clip.intersects(x0 - 1, y0 - 1, T * scale + 2, T * scale + 2)) continue;
+            IntBuffer buf = store.pixels(tile((int) (key >> 32), (int) key));
+            buf.position(0);
+            buf.get(px);
+            AffineTransform at = new AffineTransform(scale, 0, 0, scale, x0, y0);
+            g.drawImage(tile, at, null);
+        }
+        g.dispose();
+    }
+
+    /** Tile (tx, ty), decoded from its stored copy if it was deferred; null if there is none. */
+    private TileStore.Tile tile(int tx, int ty) {
+        long key = key(tx, ty);
+        TileStore.Tile t = tiles.get(key);
+        if (t != null) return t;
+        StoredTile copy = stored.get(key);
+        if (copy == null) return null;
+        if (decoded == null) decoded = new int[T * T];
+        copy.read(decoded);
+        t = store.allocate();
+        IntBuffer buf = store.pixels(t);
+        buf.position(0);
+        buf.put(decoded);
+        tiles.put(key, t);
+        return t;
+    }
+
+    /** Keys of all tiles, decoded or not. */
+    private Set<Long> keys() {
+        if (stored.isEmpty()) return tiles.keySet();
+        Set<Long> keys = new HashSet<>(stored.keySet());
+        keys.addAll(tiles.keySet());
+        return keys;
+    }
+
+    private TileStore.Tile add(int tx, int ty) {
+        TileStore.Tile t = store.allocate();
+        tiles.put(key(tx, ty), t);
+        count(tx, ty, 1);
+        return t;
+    }
+
+    private void remove(int tx, int ty, TileStore.Tile t) {
+        store.free(t);
+        tiles.remove(key(tx, ty));
+        stored.remove(key(tx, ty));
+        count(tx, ty, -1);
+    }
+
+    private void count(int tx, int ty, int delta) {
+        for (int l = 1; l <= LEVELS; l++) {
+            blocks.get(l).merge(key(tx >> l, ty >> l), delta, (n, d) -> n + d == 0 ? null : n + d);
+        }
+    }
+
+    static long key(int tx, int ty) {
+        return (long) tx << 32 | (ty & 0xffffffffL);
+    }
+
+    private static Rectangle tileRect(int tx, int ty) {
+        return new Rectangle(tx * T, ty * T, T, T);
+    }
+
+    private static boolean isBlank(int[] px, int off, int stride, int w, int h) {
+        for (int y = 0; y < h; y++) {
+            for (int i = off + y * stride, end = i + w; i < end; i++) {
+                if (px[i] != 0) return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isBlank(IntBuffer buf) {
+        for (int i = 0, n = buf.capacity(); i < n; i++) {
+            if (buf.get(i) != 0) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,296 @@
+package com.ooadlabexercise.drawingstudio.model;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * Fork/join flood fill for very large canvases.
+ * <p>
+ * The raster is split into square tiles. Every tile labels its own connected
+ * regions in parallel, regions that touch across tile borders are merged with
+ * a union-find, and finally each tile fills the local regions that belong to
+ * the seed's region, again in parallel. Matching uses the same rule as
+ * {@link ScanlineFill}, so the result is pixel-identical to the sequential fill.
+ */
+final class ParallelFill {
+    /** Canvases with fewer pixels than this are filled sequentially. */
+    static final long PARALLEL_THRESHOLD = 4L * 1024 * 1024;
+    static final int TILE = 256;
+
+    /** Per-worker run buffers, reused across tiles. */
+    private static final ThreadLocal<Runs> RUNS = ThreadLocal.withInitial(Runs::new);
+
+    private ParallelFill() {}
+
+    /** Picks the sequential or parallel fill based on canvas size and available cores. */
+    static Rectangle fill(int[] px, int w, int h, int x, int y, int replacement, int tolerance) {
+        return fill(px, w, h, x, y, replacement, tolerance, null);
+    }
+
+    /** As above, appending the filled spans as (y, x0, x1) to {@code spans} unless it is null. */
+    static Rectangle fill(int[] px, int w, int h, int x, int y, int replacement, int tolerance,
+                          ScanlineFill.IntStack spans) {
+        if ((long) w * h < PARALLEL_THRESHOLD || ForkJoinPool.getCommonPoolParallelism() < 2) {
+            return ScanlineFill.fill(px, w, h, x, y, replacement, tolerance, spans);
+        }
+        return fillParallel(px, w, h, x, y, replacement, tolerance, TILE, spans);
+    }
+
+    static Rectangle fillParallel(int[] px, int w, int h, int x, int y, int replacement, int tolerance, int tile) {
+        return fillParallel(px, w, h, x, y, replacement, tolerance, tile, null);
+    }
+
+    static Rectangle fillParallel(int[] px, int w, int h, int x, int y, int replacement, int tolerance, int tile,
+                                  ScanlineFill.IntStack spans) {
+        if (x < 0 || y < 0 || x >= w || y >= h) return null;
+        int target = px[y * w + x];
+        if (target == replacement) return null;
+        return new Job(px, w, h, target, replacement, tolerance, tile, spans).run(x, y);
+    }
+
+    /** State of one parallel fill. */
+    private static final class Job {
+        final int[] px;
+        final int w, h, target, replacement, tolerance, tile, tilesX, tilesY;
+        final TileLabels[] tiles;
+        final ScanlineFill.IntStack spans;
+        int[] parent;
+        int seedX, seedY;
+
+        Job(int[] px, int w, int h, int target, int replacement, int tolerance, int tile, ScanlineFill.IntStack spans) {
+            this.px = px; this.w = w; this.h = h; this.spans = spans;
+            this.target = target; this.replacement = replacement; this.tolerance = tolerance;
+            this.tile = tile;
+            tilesX = (w + tile - 1) / tile;
+            tilesY = (h + tile - 1) / tile;
+            tiles = new TileLabels[tilesX * tilesY];
+        }
+
+        Rectangle run(int x, int y) {
+            seedX = x; seedY = y;
+            int seedTile = (y / tile) * tilesX + x / tile;
+
+            // A region that never reaches its tile's border is filled right away
+            TileLabels first = label(seedTile);
+            int seedLabel = first.seedLabel;
+            if (!first.touchesBorder(seedLabel)) {
+                int[] rep = { first.reps[seedLabel - 1] };
+                return fillTile(seedTile, rep, 1, spans);
+            }
+            tiles[seedTile] = first;
+
+            // 1. label every tile's regions independently
+            forEachTile(t -> {
+                if (tiles[t] == null) tiles[t] = label(t);
+            });
+
+            // 2. give labels global ids and union them across tile borders
+            int total = 0;
+            for (TileLabels t : tiles) { t.offset = total; total += t.count; }
+            parent = new int[total];
+            for (int i = 0; i < total; i++) parent[i] = i;
+            for (int ty = 0; ty < tilesY; ty++) {
+                for (int tx = 0; tx < tilesX; tx++) {
+                    TileLabels t = tiles[ty * tilesX + tx];
+                    if (tx + 1 < tilesX) mergeEdge(t, t.right, tiles[ty * tilesX + tx + 1], tiles[ty * tilesX + tx + 1].left);
+                    if (ty + 1 < tilesY) mergeEdge(t, t.bottom, tiles[(ty + 1) * tilesX + tx], tiles[(ty + 1) * tilesX + tx].top);
+                }
+            }
+            for (int i = 0; i < total; i++) parent[i] = find(i);
+            int root = parent[first.offset + seedLabel - 1];
+
+            // 3. fill, per tile, the local regions that belong to the seed's region
+            Rectangle[] filled = new Rectangle[tiles.length];
+            ScanlineFill.IntStack[] tileSpans = spans != null ? new ScanlineFill.IntStack[tiles.length] : null;
+            forEachTile(t -> {
+                TileLabels tl = tiles[t];
+                int[] reps = new int[tl.count];
+                int n = 0;
+                for (int k = 0; k < tl.count; k++) {
+                    if (parent[tl.offset + k] == root) reps[n++] = tl.reps[k];
+                }
+                if (n == 0) return;
+                ScanlineFill.IntStack out = null;
+                if (tileSpans != null) tileSpans[t] = out = new ScanlineFill.IntStack();
+                filled[t] = fillTile(t, reps, n, out);
+            });
+            Rectangle bounds = null;
+            for (int t = 0; t < tiles.length; t++) {
+                if (filled[t] != null) bounds = bounds == null ? filled[t] : bounds.union(filled[t]);
+                if (tileSpans != null && tileSpans[t] != null) spans.pushAll(tileSpans[t]);
+            }
+            return bounds;
+        }
+
+        private void mergeEdge(TileLabels a, int[] aEdge, TileLabels b, int[] bEdge) {
+            for (int i = 0; i < aEdge.length; i++) {
+                if (aEdge[i] != 0 && bEdge[i] != 0) union(a.offset + aEdge[i] - 1, b.offset + bEdge[i] - 1);
+            }
+        }
+
+        private int find(int i) {
+            while (parent[i] != i) {
+                parent[i] = parent[parent[i]];
+                i = parent[i];
+            }
+            return i;
+        }
+
+        private void union(int a, int b) {
+            int ra = find(a), rb = find(b);
+            if (ra != rb) parent[Math.max(ra, rb)] = Math.min(ra, rb);
+        }
+
+        private Rectangle fillTile(int t, int[] reps, int n, ScanlineFill.IntStack out) {
+            int x0 = (t % tilesX) * tile, y0 = (t / tilesX) * tile;
+            int x1 = Math.min(w, x0 + tile), y1 = Math.min(h, y0 + tile);
+            ScanlineFill.IntStack stack = new ScanlineFill.IntStack();
+            Rectangle bounds = null;
+            for (int i = 0; i < n; i++) {
+                int rep = reps[i];
+                Rectangle r = ScanlineFill.fillRegion(px, w, x0, y0, x1, y1, rep % w, rep / w,
+                                                      target, replacement, tolerance, stack, out);
+                if (r != null) bounds = bounds == null ? r : bounds.union(r);
+            }
+            return bounds;
+        }
+
+        /**
+         * Labels the matching regions of one tile with 1..count. Runs of matching
+         * pixels are found row by row and united with the overlapping runs above,
+         * so each pixel is read once and no per-pixel label array is needed.
+         */
+        private TileLabels label(int t) {
+            int x0 = (t % tilesX) * tile, y0 = (t / tilesX) * tile;
+            int tw = Math.min(w, x0 + tile) - x0, th = Math.min(h, y0 + tile) - y0;
+            Runs runs = RUNS.get();
+            runs.size = 0;
+            int[] rowStart = new int[th + 1];
+            for (int ly = 0; ly < th; ly++) {
+                rowStart[ly] = runs.size;
+                int row = (y0 + ly) * w + x0, lx = 0;
+                while (lx < tw) {
+                    lx = PixelKernels.SHARED.nextMatch(px, row + lx, row + tw, target, tolerance) - row;
+                    if (lx == tw) break;
+                    int start = lx;
+                    lx = PixelKernels.SHARED.endOfMatches(px, row + lx, row + tw, target, tolerance) - row;
+                    runs.add(start, lx - 1, ly);
+                }
+                if (ly == 0) continue;
+                int a = rowStart[ly - 1], aEnd = rowStart[ly], b = rowStart[ly], bEnd = runs.size;
+                while (a < aEnd && b < bEnd) {
+                    if (runs.end[a] >= runs.start[b] && runs.end[b] >= runs.start[a]) runs.union(a, b);
+                    if (runs.end[a] < runs.end[b]) a++; else b++;
+                }
+            }
+            rowStart[th] = runs.size;
+
+            // Roots are the lowest run index of their set, so they are numbered first
+            int count = 0;
+            int[] reps = new int[16];
+            for (int i = 0; i < runs.size; i++) {
+                int root = runs.find(i);
+                if (root == i) {
+                    if (count == reps.length) reps = Arrays.copyOf(reps, count * 2);
+                    reps[count++] = (y0 + runs.row[i]) * w + x0 + runs.start[i];
+                    runs.label[i] = count;
+                } else {
+                    runs.label[i] = runs.label[root];
+                }
+            }
+
+            TileLabels tl = new TileLabels(tw, th, count, Arrays.copyOf(reps, count));
+            for (int i = rowStart[0]; i < rowStart[1]; i++) Arrays.fill(tl.top, runs.start[i], runs.end[i] + 1, runs.label[i]);
+            for (int i = rowStart[th - 1]; i < rowStart[th]; i++) Arrays.fill(tl.bottom, runs.start[i], runs.end[i] + 1, runs.label[i]);
+            for (int ly = 0; ly < th; ly++) {
+                int first = rowStart[ly], last = rowStart[ly + 1] - 1;
+                if (first > last) continue;
+                if (runs.start[first] == 0) tl.left[ly] = runs.label[first];
+                if (runs.end[last] == tw - 1) tl.right[ly] = runs.label[last];
+            }
+            if (seedX >= x0 && seedX < x0 + tw && seedY >= y0 && seedY < y0 + th) {
+                int sx = seedX - x0, sy = seedY - y0;
+                for (int i = rowStart[sy]; i < rowStart[sy + 1]; i++) {
+                    if (runs.start[i] <= sx && sx <= runs.end[i]) tl.seedLabel = runs.label[i];
+                }
+            }
+            return tl;
+        }
+
+        private void forEachTile(IntConsumer action) {
+            ForkJoinPool.commonPool().invoke(new TileRange(0, tiles.length, action));
+        }
+    }
+
+    /** Regions of one tile: a representative pixel per label and the labels along each edge. */
+    private static final class TileLabels {
+        final int tw, th, count;
+        final int[] reps, top, bottom, left, right;
+        int seedLabel, offset;
+
+        TileLabels(int tw, int th, int count, int[] reps) {
+            this.tw = tw; this.th = th;
+            this.count = count; this.reps = reps;
+            top = new int[tw]; bottom = new int[tw];
+            left = new int[th]; right = new int[th];
+        }
+
+        boolean touchesBorder(int label) {
+            for (int i = 0; i < tw; i++) if (top[i] == label || bottom[i] == label) return true;
+            for (int i = 0; i < th; i++) if (left[i] == label || right[i] == label) return true;
+            return false;
+        }
+    }
+
+    /** Horizontal runs of matching pixels in one tile, with a union-find over run indices. */
+    private static final class Runs {
+        int[] start = new int[256], end = new int[256], row = new int[256];
+        int[] parent = new int[256], label = new int[256];
+        int size;
+
+        void add(int s, int e, int r) {
+            if (size == start.length) {
+                int n = size * 2;
+                start = Arrays.copyOf(start, n); end = Arrays.copyOf(end, n); row = Arrays.copyOf(row, n);
+                parent = Arrays.copyOf(parent, n); label = Arrays.copyOf(label, n);
+            }
+            start[size] = s; end[size] = e; row[size] = r; parent[size] = size;
+            size++;
+        }
+
+        int find(int i) {
+            while (parent[i] != i) {
+                parent[i] = parent[parent[i]];
+                i = parent[i];
+            }
+            return i;
+        }
+
+        void union(int a, int b) {
+            int ra = find(a), rb = find(b);
+            if (ra != rb) parent[Math.max(ra, rb)] = Math.min(ra, rb);
+        }
+    }
+
+    /** Splits a range of tile indices until it is small enough to run directly; also used by {@link FilterPipeline}. */
+    static final class TileRange extends RecursiveAction {
+        private final int from, to;
+        private final IntConsumer action;
+
+        TileRange(int from, int to, IntConsumer action) {
+            this.from = from; this.to = to; this.action = action;
+        }
+
+        @Override protected void compute() {
+            if (to - from <= 2) {
+                for (int t = from; t < to; t++) action.accept(t);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new TileRange(from, mid, action), new TileRange(mid, to, action));
+        }
+    }
+}
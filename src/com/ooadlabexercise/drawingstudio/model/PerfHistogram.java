@@ -0,0 +1,100 @@
+package com.ooadlabexercise.drawingstudio.model;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations in nanoseconds that any thread can record into without
+ * locking. Buckets are log-linear, eight per power of two, so a percentile is
+ * accurate to about 12%; durations of 18 minutes or more share the last bucket.
+ * Readers take a {@link Snapshot}, and two snapshots can be subtracted to get
+ * the durations recorded between them.
+ */
+class PerfHistogram {
+    private static final int SUB_BITS = 3;
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int MAX_BITS = 40;
+    static final int BUCKETS = (MAX_BITS - SUB_BITS + 1) * SUB;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder sum = new LongAdder();
+
+    void record(long nanos) {
+        long v = Math.max(0, nanos);
+        counts.incrementAndGet(bucket(v));
+        sum.add(v);
+    }
+
+    /**
+     * Counts as of now. Records that race with the copy land in this snapshot or
+     * the next one, never both.
+     */
+    Snapshot snapshot() {
+        long[] c = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) c[i] = counts.get(i);
+        return new Snapshot(c, sum.sum());
+    }
+
+    static int bucket(long v) {
+        if (v < SUB) return (int) v;
+        int msb = 63 - Long.numberOfLeadingZeros(v);
+        if (msb >= MAX_BITS) return BUCKETS - 1;
+        int sub = (int) (v >>> (msb - SUB_BITS)) & (SUB - 1);
+        return (msb - SUB_BITS + 1) * SUB + sub;
+    }
+
+    /** Smallest duration that falls into bucket {@code i}. */
+    static long lowerBound(int i) {
+        if (i < SUB) return i;
+        int msb = i / SUB + SUB_BITS - 1;
+        return (long) (SUB + i % SUB) << (msb - SUB_BITS);
+    }
+
+    /** Largest duration that falls into bucket {@code i}. */
+    static long upperBound(int i) {
+        return i == BUCKETS - 1 ? Long.MAX_VALUE : lowerBound(i + 1) - 1;
+    }
+
+    /** Immutable copy of the counts; durations are reported as the top of their bucket. */
+    static final class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(new long[BUCKETS], 0);
+
+        private final long[] counts;
+        private final long sum;
+        private final long count;
+
+        private Snapshot(long[] counts, long sum) {
+            this.counts = counts;
+            this.sum = sum;
+            long n = 0;
+            for (long c : counts) n += c;
+            this.count = n;
+        }
+
+        long count() { return count; }
+
+        /** Mean duration in nanoseconds, or 0 without samples. */
+        double mean() { return count == 0 ? 0 : (double) sum / count; }
+
+        /** Duration that {@code p} percent of the samples do not exceed, or 0 without samples. */
+        long percentile(double p) {
+            if (count == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(count * p / 100.0));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) return upperBound(Math.min(i, BUCKETS - 2));
+            }
+            return upperBound(BUCKETS - 2);
+        }
+
+        long max() { return percentile(100); }
+
+        /** What was recorded after {@code earlier}, a snapshot of the same histogram. */
+        Snapshot minus(Snapshot earlier) {
+            long[] c = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) c[i] = counts[i] - earlier.counts[i];
+            return new Snapshot(c, sum - earlier.sum);
+        }
+    }
+}
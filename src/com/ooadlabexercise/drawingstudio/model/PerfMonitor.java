@@ -0,0 +1,252 @@
+package com.ooadlabexercise.drawingstudio.model;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.time.Instant;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import javax.swing.SwingUtilities;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+
+/**
+ * Timings of the operations users notice, collected while the studio runs.
+ * Each {@link Metric} has a lock-free {@link PerfHistogram} and its own JFR
+ * event type, so a recording ({@code -XX:StartFlightRecording}) shows every
+ * paint, fill, filter and save on the timeline next to GC and the EDT's stack. The
+ * undo history size is a gauge, also emitted to JFR once a second.
+ * <p>
+ * {@link #start()} adds an EDT queue probe and, with
+ * {@code -Ddrawingstudio.metrics=FILE}, appends the last interval's numbers to
+ * FILE every {@code -Ddrawingstudio.metricsInterval} seconds (default 10), as
+ * CSV or, for a .json file, one JSON object per line. {@link PerfOverlay}
+ * shows the same numbers on screen.
+ */
+final class PerfMonitor {
+    enum Metric {
+        DRAWING_PAINT("drawing paint", DrawingPaintEvent::new),
+        REFERENCE_PAINT("reference paint", ReferencePaintEvent::new),
+        FLOOD_FILL("flood fill", FloodFillEvent::new),
+        IMAGE_FILTER("image filter", ImageFilterEvent::new),
+        SAVE_STATE("save state", SaveStateEvent::new),
+        SAVE_DRAWING("save drawing", SaveDrawingEvent::new),
+        EDT_LATENCY("EDT latency", EdtLatencyEvent::new),
+        SESSION_ROUND_TRIP("session round trip", SessionRoundTripEvent::new),
+        SESSION_TICK("session tick", SessionTickEvent::new);
+
+        final String label;
+        private final Supplier<Event> event;
+
+        Metric(String label, Supplier<Event> event) {
+            this.label = label;
+            this.event = event;
+        }
+
+        /** Name used as a CSV column prefix and JSON key, e.g. {@code flood_fill}. */
+        String key() { return name().toLowerCase(Locale.ROOT); }
+    }
+
+    static final PerfMonitor SHARED = new PerfMonitor();
+
+    private static final long EDT_PROBE_MILLIS = 100;
+
+    private final PerfHistogram[] histograms = new PerfHistogram[Metric.values().length];
+    private final AtomicLong historyBytes = new AtomicLong();
+    private final AtomicBoolean probePending = new AtomicBoolean();
+    private ScheduledExecutorService scheduler;
+
+    private PerfMonitor() {
+        for (int i = 0; i < histograms.length; i++) histograms[i] = new PerfHistogram();
+    }
+
+    /** Starts timing {@code metric}; close the span when the operation is done, on any thread. */
+    Span begin(Metric metric) {
+        return new Span(metric);
+    }
+
+    /** Records a duration measured elsewhere; it is not sent to JFR. */
+    void record(Metric metric, long nanos) {
+        histograms[metric.ordinal()].record(nanos);
+    }
+
+    PerfHistogram.Snapshot snapshot(Metric metric) {
+        return histograms[metric.ordinal()].snapshot();
+    }
+
+    /** Bytes the undo history of the drawing canvas holds now. */
+    void setHistoryBytes(long bytes) { historyBytes.set(bytes); }
+
+    long getHistoryBytes() { return historyBytes.get(); }
+
+    /** Starts the EDT probe, the JFR history gauge and the periodic dump if one is configured. */
+    synchronized void start() {
+        if (scheduler != null) return;
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "perf-monitor");
+            t.setDaemon(true);
+            return t;
+        });
+        // a probe still queued means the EDT is stalled; that probe measures the whole stall
+        scheduler.scheduleWithFixedDelay(() -> {
+            if (!probePending.compareAndSet(false, true)) return;
+            Span span = begin(Metric.EDT_LATENCY);
+            SwingUtilities.invokeLater(() -> {
+                probePending.set(false);
+                span.close();
+            });
+        }, EDT_PROBE_MILLIS, EDT_PROBE_MILLIS, TimeUnit.MILLISECONDS);
+
+        FlightRecorder.addPeriodicEvent(HistoryMemoryEvent.class, () -> {
+            HistoryMemoryEvent e = new HistoryMemoryEvent();
+            e.bytes = historyBytes.get();
+            e.commit();
+        });
+
+        String path = System.getProperty("drawingstudio.metrics");
+        if (path != null) {
+            MetricsDump dump = new MetricsDump(new File(path));
+            long seconds = Math.max(1, Long.getLong("drawingstudio.metricsInterval", 10));
+            scheduler.scheduleAtFixedRate(dump::write, seconds, seconds, TimeUnit.SECONDS);
+            Runtime.getRuntime().addShutdownHook(new Thread(dump::write, "perf-monitor-final-dump"));
+        }
+    }
+
+    /** One timed operation; the histogram gets its duration, JFR gets an event if recording. */
+    final class Span implements AutoCloseable {
+        private final Metric metric;
+        private final long start = System.nanoTime();
+        private final Event event;
+
+        private Span(Metric metric) {
+            this.metric = metric;
+            Event e = metric.event.get();
+            if (e.isEnabled()) {
+                e.begin();
+                event = e;
+            } else {
+                event = null;
+            }
+        }
+
+        @Override public void close() {
+            record(metric, System.nanoTime() - start);
+            if (event != null) event.commit();
+        }
+    }
+
+    /** Appends one line per interval with what was recorded since the previous line. */
+    private final class MetricsDump {
+        private final File file;
+        private final boolean json;
+        private final PerfHistogram.Snapshot[] last = new PerfHistogram.Snapshot[Metric.values().length];
+
+        MetricsDump(File file) {
+            this.file = file;
+            this.json = file.getName().toLowerCase(Locale.ROOT).endsWith(".json");
+            for (Metric m : Metric.values()) last[m.ordinal()] = snapshot(m);
+        }
+
+        synchronized void write() {
+            boolean header = !json && file.length() == 0;
+            StringBuilder line = new StringBuilder();
+            if (header) {
+                line.append("time,undo_bytes");
+                for (Metric m : Metric.values()) {
+                    String k = m.key();
+                    line.append(',').append(k).append("_count,").append(k).append("_mean_ms,")
+                        .append(k).append("_p50_ms,").append(k).append("_p90_ms,")
+                        .append(k).append("_p99_ms,").append(k).append("_max_ms");
+                }
+                line.append('\n');
+            }
+            String time = Instant.now().toString();
+            line.append(json ? "{\"time\":\"" + time + "\",\"undoBytes\":" : time + ",").append(historyBytes.get());
+            if (json) line.append(",\"metrics\":{");
+            for (Metric m : Metric.values()) {
+                PerfHistogram.Snapshot now = snapshot(m);
+                PerfHistogram.Snapshot s = now.minus(last[m.ordinal()]);
+                last[m.ordinal()] = now;
+                if (json) {
+                    if (m.ordinal() > 0) line.append(',');
+                    line.append(String.format(Locale.ROOT,
+                        "\"%s\":{\"count\":%d,\"meanMs\":%.3f,\"p50Ms\":%.3f,\"p90Ms\":%.3f,\"p99Ms\":%.3f,\"maxMs\":%.3f}",
+                        m.key(), s.count(), s.mean() / 1e6, s.percentile(50) / 1e6, s.percentile(90) / 1e6,
+                        s.percentile(99) / 1e6, s.max() / 1e6));
+                } else {
+                    line.append(String.format(Locale.ROOT, ",%d,%.3f,%.3f,%.3f,%.3f,%.3f",
+                        s.count(), s.mean() / 1e6, s.percentile(50) / 1e6, s.percentile(90) / 1e6,
+                        s.percentile(99) / 1e6, s.max() / 1e6));
+                }
+            }
+            line.append(json ? "}}\n" : "\n");
+            try (Writer w = new FileWriter(file, true)) {
+                w.write(line.toString());
+            } catch (IOException ex) {
+                System.err.println("metrics: " + ex.getMessage());
+            }
+        }
+    }
+
+    // JFR event types, one per metric; they show up under "Drawing Studio" in JDK Mission Control
+
+    @Name("drawingstudio.DrawingPaint") @Label("Drawing Panel Paint") @Category("Drawing Studio")
+    @Description("Paint of the drawing canvas, display cache refresh included")
+    @StackTrace(false)
+    static class DrawingPaintEvent extends Event {}
+
+    @Name("drawingstudio.ReferencePaint") @Label("Reference Panel Paint") @Category("Drawing Studio")
+    @StackTrace(false)
+    static class ReferencePaintEvent extends Event {}
+
+    @Name("drawingstudio.FloodFill") @Label("Flood Fill") @Category("Drawing Studio")
+    static class FloodFillEvent extends Event {}
+
+    @Name("drawingstudio.ImageFilter") @Label("Image Filter") @Category("Drawing Studio")
+    @Description("A filter pipeline run to completion, on a preview proxy or at full resolution")
+    static class ImageFilterEvent extends Event {}
+
+    @Name("drawingstudio.SaveState") @Label("Save State") @Category("Drawing Studio")
+    @Description("Commit of an operation to the undo history and scene")
+    static class SaveStateEvent extends Event {}
+
+    @Name("drawingstudio.SaveDrawing") @Label("Save Drawing") @Category("Drawing Studio")
+    @Description("Flattening and PNG encoding of a saved drawing, on the save thread")
+    static class SaveDrawingEvent extends Event {}
+
+    @Name("drawingstudio.EdtLatency") @Label("EDT Queue Latency") @Category("Drawing Studio")
+    @Description("Time a probe task waited in the Swing event queue")
+    @StackTrace(false)
+    static class EdtLatencyEvent extends Event {}
+
+    @Name("drawingstudio.SessionRoundTrip") @Label("Session Round Trip") @Category("Drawing Studio")
+    @Description("Time from drawing an operation in a shared session until the host's order for it arrived, or on the host until it was sent")
+    @StackTrace(false)
+    static class SessionRoundTripEvent extends Event {}
+
+    @Name("drawingstudio.SessionTick") @Label("Session Tick") @Category("Drawing Studio")
+    @Description("Drawing what a shared session received in one frame, moving pending operations on top included")
+    @StackTrace(false)
+    static class SessionTickEvent extends Event {}
+
+    @Name("drawingstudio.HistoryMemory") @Label("Undo History Memory") @Category("Drawing Studio")
+    @Period("1 s")
+    @StackTrace(false)
+    static class HistoryMemoryEvent extends Event {
+        @Label("Bytes") @DataAmount
+        long bytes;
+    }
+}
@@ -0,0 +1,88 @@
+package com.ooadlabexercise.drawingstudio.model;
+
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.KeyEvent;
+import javax.swing.*;
+
+/**
+ * Glass pane listing the {@link PerfMonitor} numbers since it was shown, in the
+ * top right corner of the window. F3 toggles it; {@code -Ddrawingstudio.overlay=true}
+ * shows it from the start. It refreshes twice a second and lets the mouse
+ * through to the panels below.
+ */
+class PerfOverlay extends JComponent {
+    private static final int REFRESH_MILLIS = 500;
+
+    private final PerfHistogram.Snapshot[] baseline = new PerfHistogram.Snapshot[PerfMonitor.Metric.values().length];
+    private final Timer refresh = new Timer(REFRESH_MILLIS, e -> repaintBox());
+    private Rectangle box;  // last painted, so refreshes only repaint the panels below it
+
+    /** Installs the overlay as the frame's glass pane and binds F3 to it. */
+    static PerfOverlay install(JFrame frame) {
+        PerfOverlay overlay = new PerfOverlay();
+        frame.setGlassPane(overlay);
+        JRootPane root = frame.getRootPane();
+        root.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(KeyEvent.VK_F3, 0), "togglePerfOverlay");
+        root.getActionMap().put("togglePerfOverlay", new AbstractAction() {
+            @Override public void actionPerformed(ActionEvent e) { overlay.setVisible(!overlay.isVisible()); }
+        });
+        overlay.setVisible(Boolean.getBoolean("drawingstudio.overlay"));
+        return overlay;
+    }
+
+    private PerfOverlay() {
+        setOpaque(false);
+        setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+    }
+
+    @Override public void setVisible(boolean visible) {
+        if (visible && !isVisible()) {
+            for (PerfMonitor.Metric m : PerfMonitor.Metric.values()) {
+                baseline[m.ordinal()] = PerfMonitor.SHARED.snapshot(m);
+            }
+            refresh.start();
+        } else if (!visible) {
+            refresh.stop();
+        }
+        super.setVisible(visible);
+    }
+
+    private void repaintBox() {
+        // with some room for the box to grow when the numbers get wider
+        if (box == null) repaint(); else repaint(box.x - 40, box.y, box.width + 40, box.height + 20);
+    }
+
+    // never the component under the mouse, so clicks and cursors reach the panels
+    @Override public boolean contains(int x, int y) { return false; }
+
+    @Override protected void paintComponent(Graphics g) {
+        if (baseline[0] == null) return;
+        PerfMonitor.Metric[] metrics = PerfMonitor.Metric.values();
+        String[] lines = new String[metrics.length + 2];
+        lines[0] = String.format("%-16s %6s %8s %8s %8s", "since shown (ms)", "count", "p50", "p99", "max");
+        for (PerfMonitor.Metric m : metrics) {
+            PerfHistogram.Snapshot s = PerfMonitor.SHARED.snapshot(m).minus(baseline[m.ordinal()]);
+            lines[m.ordinal() + 1] = String.format("%-16s %6d %8.2f %8.2f %8.2f", m.label, s.count(),
+                s.percentile(50) / 1e6, s.percentile(99) / 1e6, s.max() / 1e6);
+        }
+        lines[lines.length - 1] = String.format("%-16s %,d KB", "undo memory", PerfMonitor.SHARED.getHistoryBytes() / 1024);
+
+        Graphics2D g2 = (Graphics2D) g.create();
+        g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        FontMetrics fm = g2.getFontMetrics();
+        int w = 0;
+        for (String line : lines) w = Math.max(w, fm.stringWidth(line));
+        int lh = fm.getHeight(), pad = 6;
+        int bw = w + 2 * pad, bh = lines.length * lh + 2 * pad;
+        int x = getWidth() - bw - 10, y = 10;
+        box = new Rectangle(x, y, bw, bh);
+        g2.setColor(new Color(0, 0, 0, 170));
+        g2.fillRoundRect(x, y, bw, bh, 8, 8);
+        g2.setColor(Color.WHITE);
+        for (int i = 0; i < lines.length; i++) {
+            g2.drawString(lines[i], x + pad, y + pad + i * lh + fm.getAscent());
+        }
+        g2.dispose();
+    }
+}
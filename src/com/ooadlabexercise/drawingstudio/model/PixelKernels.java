@@ -0,0 +1,123 @@
+package com.ooadlabexercise.drawingstudio.model;
+
+import java.util.Arrays;
+
+/**
+ * The per-pixel loops that run over whole rasters of packed ARGB ints: clearing,
+ * flattening onto white for saving, compositing layers, premultiplying for the
+ * mipmap and finding runs of matching pixels for bucket fills. They work on the
+ * arrays behind TYPE_INT_ARGB images ({@link Rasters#pixels}) over index ranges,
+ * so a caller passes a row, or a whole block of rows when they are contiguous.
+ * <p>
+ * These are the scalar loops. {@link #SHARED} is the SIMD version, built on the
+ * incubating Vector API from {@code src-vector} by JDK 17+ builds, when it is on
+ * the class path and the JVM runs with {@code --add-modules jdk.incubator.vector};
+ * otherwise, or with {@code -Ddrawingstudio.simd=false}, it is these. Both
+ * produce exactly the same pixels.
+ */
+class PixelKernels {
+    static final PixelKernels SCALAR = new PixelKernels();
+    static final PixelKernels SHARED = load();
+
+    private static PixelKernels load() {
+        if (!Boolean.parseBoolean(System.getProperty("drawingstudio.simd", "true"))) return SCALAR;
+        try {
+            return (PixelKernels) Class.forName("com.ooadlabexercise.drawingstudio.model.VectorPixelKernels")
+                .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError | UnsupportedOperationException ex) {
+            // not built, the module is not added, or no SIMD registers
+            return SCALAR;
+        }
+    }
+
+    /** Which implementation this is, e.g. for benchmark output. */
+    String name() { return "scalar"; }
+
+    /** Sets {@code px[from..to)} to {@code value}. The JIT already turns this into vector stores. */
+    final void fill(int[] px, int from, int to, int value) {
+        Arrays.fill(px, from, to, value);
+    }
+
+    /**
+     * Writes {@code src[from..to)} drawn onto opaque white into {@code dst} as opaque pixels,
+     * rounding as Java2D does for a TYPE_INT_RGB image: {@code (a*c + (255-a)*255 + 127) / 255}.
+     */
+    void overWhite(int[] src, int[] dst, int from, int to) {
+        for (int i = from; i < to; i++) {
+            int c = src[i], a = c >>> 24, white = (255 - a) * 255 + 127;
+            dst[i] = 0xff000000 | (a * (c >> 16 & 0xff) + white) / 255 << 16
+                | (a * (c >> 8 & 0xff) + white) / 255 << 8 | (a * (c & 0xff) + white) / 255;
+        }
+    }
+
+    /**
+     * Composites {@code src} onto {@code dst} into {@code out} over {@code [from, to)}, each pixel
+     * as {@link #blend(int, int, float, BlendMode)}. {@code out} may be {@code dst}.
+     */
+    void blend(int[] dst, int[] src, int[] out, int from, int to, float opacity, BlendMode mode) {
+        for (int i = from; i < to; i++) out[i] = blend(dst[i], src[i], opacity, mode);
+    }
+
+    /**
+     * Composites non-premultiplied ARGB {@code src}, faded by {@code opacity}, onto {@code dst}:
+     * {@code co = as*(1-ab)*Cs + as*ab*B(Cb,Cs) + (1-as)*ab*Cb}, {@code ao = as + ab*(1-as)}.
+     */
+    static int blend(int dst, int src, float opacity, BlendMode mode) {
+        int sa = src >>> 24;
+        if (sa == 0 || opacity <= 0f) return dst;
+        int da = dst >>> 24;
+        float as = sa / 255f * opacity;
+        if (da == 0 || (as >= 1f && mode == BlendMode.NORMAL)) {
+            return opacity >= 1f ? src : Math.round(as * 255f) << 24 | (src & 0xffffff);
+        }
+        float ab = da / 255f;
+        float ao = as + ab * (1f - as);
+        int out = Math.round(ao * 255f) << 24;
+        for (int shift = 16; shift >= 0; shift -= 8) {
+            float cs = (src >> shift & 0xff) / 255f, cb = (dst >> shift & 0xff) / 255f;
+            float co = as * (1f - ab) * cs + as * ab * mode.apply(cb, cs) + (1f - as) * ab * cb;
+            int v = Math.round(co / ao * 255f);
+            out |= Math.min(255, Math.max(0, v)) << shift;
+        }
+        return out;
+    }
+
+    /**
+     * Premultiplies {@code px[from..to)} in place, rounding each channel to nearest, and clears
+     * pixels without alpha to 0. Returns whether any pixel has alpha.
+     */
+    boolean premultiply(int[] px, int from, int to) {
+        boolean any = false;
+        for (int i = from; i < to; i++) {
+            int c = px[i], a = c >>> 24;
+            if (a == 0) { px[i] = 0; continue; }
+            any = true;
+            if (a < 255) {
+                px[i] = a << 24 | ((c >> 16 & 0xff) * a + 127) / 255 << 16
+                      | ((c >> 8 & 0xff) * a + 127) / 255 << 8 | ((c & 0xff) * a + 127) / 255;
+            }
+        }
+        return any;
+    }
+
+    /** First index in {@code [from, to)} whose pixel does not {@linkplain ScanlineFill#matches match}, or {@code to}. */
+    int endOfMatches(int[] px, int from, int to, int target, int tolerance) {
+        int i = from;
+        while (i < to && ScanlineFill.matches(px[i], target, tolerance)) i++;
+        return i;
+    }
+
+    /** First index in {@code [from, to)} whose pixel matches, or {@code to}. */
+    int nextMatch(int[] px, int from, int to, int target, int tolerance) {
+        int i = from;
+        while (i < to && !ScanlineFill.matches(px[i], target, tolerance)) i++;
+        return i;
+    }
+
+    /** Lowest index {@code i >= from} such that every pixel in {@code [i, to)} matches. */
+    int startOfMatches(int[] px, int from, int to, int target, int tolerance) {
+        int i = to;
+        while (i > from && ScanlineFill.matches(px[i - 1], target, tolerance)) i--;
+        return i;
+    }
+}
@@ -0,0 +1,625 @@
+package com.ooadlabexercise.drawingstudio.model;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.zip.CRC32;
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageInputStreamImpl;
+
+/**
+ * The native project file: the drawing's layers as compressed tiles and the
+ * reference board with the pictures on it, saved incrementally and opened lazily.
+ * <p>
+ * After a {@link #HEADER}-byte header the file is a run of blobs and indexes. A
+ * tile blob is {@link TileStore#TILE} squared ARGB pixels, deflated like the undo
+ * history's deltas; a picture blob is the picture's original encoded bytes, kept
+ * once however often it is placed (pictures are told apart by SHA-256). An index
+ * holds the view, the layers with their properties and tile positions, and the
+ * placements on the board. A save appends the tiles that changed since the last
+ * save and a new index, forces them to disk and only then points the header at
+ * the index, so a save cut short leaves the previous one in place. Once less than
+ * half of the file is still referenced, the next save writes a compact copy and
+ * moves it over the old file instead.
+ * <p>
+ * Opening reads only the header and the index. Blobs are read through read-only
+ * mappings: tiles are inflated when the engine first needs them (see
+ * {@link PagedRaster#defer}), pictures when the reference board decodes them.
+ * Tiles may still point into a file that compaction replaced, so it stays open
+ * until {@link #close}. Used on the Event Dispatch Thread, except that pictures
+ * are read from the reference loader's threads.
+ */
+class ProjectFile implements Closeable {
+    static final String EXTENSION = "dsp";
+    private static final int MAGIC = 0x44535031;        // "DSP1"
+    private static final int INDEX_MAGIC = 0x44535049;  // "DSPI"
+    private static final int VERSION = 1;
+    private static final int HEADER = 32;
+    private static final long SEGMENT = 1L << 30;       // bytes per read-only mapping
+    private static final long COMPACT_MIN = 4L << 20;   // smaller files are never compacted
+    private static final int T = TileStore.TILE;
+
+    /** A layer as the project keeps it; its tiles are keyed by {@link PagedRaster#key}. */
+    static final class StoredLayer {
+        final String name;
+        final float opacity;
+        final BlendMode blend;
+        final boolean visible;
+        final Map<Long, PagedRaster.StoredTile> tiles;
+
+        StoredLayer(String name, float opacity, BlendMode blend, boolean visible, Map<Long, PagedRaster.StoredTile> tiles) {
+            this.name = name; this.opacity = opacity; this.blend = blend; this.visible = visible; this.tiles = tiles;
+        }
+    }
+
+    private final File file;
+    private Generation current;
+    private final List<Generation> replaced = new ArrayList<>();  // kept open for tiles still pointing into them
+    private long indexOffset;  // of the last save, 0 before the first
+    private long live;         // bytes that index references, header and index included
+    private boolean noCompaction;
+
+    // what the last save or the open left
+    private final List<StoredLayer> layers = new ArrayList<>();
+    private int activeLayer;
+    private int windowX, windowY;
+    private double viewX, viewY, zoom = 1;
+    private final List<ReferenceCanvasPanel.Placement> placements = new ArrayList<>();
+    // pictures in the current file by hash, and the picture last written for each source or in-memory image
+    private final Map<String, Picture> pictures = new HashMap<>();
+    private final Map<Object, Picture> written = new WeakHashMap<>();
+
+    private final TileCodec codec = new TileCodec();
+
+    private ProjectFile(File file, Generation current) {
+        this.file = file;
+        this.current = current;
+    }
+
+    /** A new project that saves into {@code file}, replacing whatever is there. */
+    static ProjectFile create(File file) throws IOException {
+        Generation gen = new Generation(file.toPath(), true);
+        gen.writeAt(header(0), 0);
+        gen.end = HEADER;
+        return new ProjectFile(file, gen);
+    }
+
+    /** Opens the project as its last save left it. */
+    static ProjectFile open(File file) throws IOException {
+        ProjectFile project = new ProjectFile(file, new Generation(file.toPath(), false));
+        try {
+            project.readIndex();
+        } catch (IOException | RuntimeException ex) {
+            project.close();
+            throw ex;
+        }
+        return project;
+    }
+
+    File getFile() { return file; }
+
+    double getViewX() { return viewX; }
+    double getViewY() { return viewY; }
+    double getZoom() { return zoom; }
+
+    /** The reference board, bottom first. */
+    List<ReferenceCanvasPanel.Placement> getPlacements() { return new ArrayList<>(placements); }
+
+    /** Replaces the engine's layers with the project's; tiles are decoded as they are first needed. */
+    void restore(DrawingEngine engine) {
+        engine.open(layers, activeLayer, windowX, windowY);
+    }
+
+    /**
+     * Saves the engine's layers, the view and the reference board, bottom first. Only
+     * tiles that changed since the last save or the open are compressed and written, and
+     * pictures already in the file are not written again.
+     */
+    void save(DrawingEngine engine, double viewX, double viewY, double zoom,
+              List<ReferenceCanvasPanel.Placement> board) throws IOException {
+        if (!noCompaction && current.end > COMPACT_MIN && live * 2 < current.end) {
+            Path tmp = new File(file.getPath() + ".tmp").toPath();
+            Generation copy = new Generation(tmp, true);
+            try {
+                copy.end = HEADER;
+                Save s = write(copy, engine, viewX, viewY, zoom, board);
+                Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                replaced.add(current);
+                current = copy;
+                pictures.clear();
+                commit(s, engine);
+                return;
+            } catch (IOException ex) {
+                // e.g. open files cannot be replaced here; keep appending instead
+                copy.close();
+                Files.deleteIfExists(tmp);
+                noCompaction = true;
+            }
+        }
+        commit(write(current, engine, viewX, viewY, zoom, board), engine);
+    }
+
+    /**
+     * Writes {@code layers}, bottom first, as a project of their own at {@code file}, e.g. the
+     * autosave journal's checkpoints; the window's top-left pixel is world ({@code windowX},
+     * {@code windowY}) and there is no reference board. Tiles that are deflated already are
+     * copied as they are. The file is written under another name and moved into place once
+     * complete. Runs on any thread that may read the layers' tiles.
+     */
+    static void write(File file, List<StoredLayer> layers, int activeLayer, int windowX, int windowY) throws IOException {
+        Path tmp = new File(file.getPath() + ".tmp").toPath();
+        Generation target = new Generation(tmp, true);
+        try {
+            target.writeAt(header(0), 0);
+            target.end = HEADER;
+            TileCodec codec = new TileCodec();
+            int[] px = new int[T * T];
+            ByteArrayOutputStream index = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(index);
+            writeView(out, windowX, windowY, windowX, windowY, 1, activeLayer, layers.size());
+            for (StoredLayer layer : layers) {
+                Map<Long, Location> copies = new HashMap<>();
+                for (Map.Entry<Long, PagedRaster.StoredTile> e : layer.tiles.entrySet()) {
+                    byte[] data = e.getValue().deflated();
+                    if (data == null) {
+                        e.getValue().read(px);
+                        data = codec.deflate(px);
+                    }
+                    copies.put(e.getKey(), new Location(target.append(data, data.length), data.length));
+                }
+                writeLayer(out, layer, copies);
+            }
+            out.writeInt(0);  // pictures
+            out.writeInt(0);  // placements
+            out.flush();
+            writeIndex(target, index.toByteArray());
+        } finally {
+            target.close();
+        }
+        Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override public void close() throws IOException {
+        current.close();
+        for (Generation g : replaced) g.close();
+        replaced.clear();
+    }
+
+    /** What a save wrote, taken on once the header points at it. */
+    private static final class Save {
+        final List<StoredLayer> layers = new ArrayList<>();
+        final List<Map<Long, PagedRaster.StoredTile>> copies = new ArrayList<>();
+        final Map<String, Picture> pictures = new HashMap<>();
+        final Map<Object, Picture> written = new IdentityHashMap<>();
+        int activeLayer, windowX, windowY;
+        double viewX, viewY, zoom;
+        List<ReferenceCanvasPanel.Placement> placements;
+        long indexOffset, live;
+    }
+
+    private Save write(Generation target, DrawingEngine engine, double viewX, double viewY, double zoom,
+                       List<ReferenceCanvasPanel.Placement> board) throws IOException {
+        Save s = new Save();
+        if (target == current) s.pictures.putAll(pictures);
+        target.end = Math.max(target.end, target.channel.size());
+        s.activeLayer = engine.getActiveLayer();
+        s.windowX = engine.getViewX();
+        s.windowY = engine.getViewY();
+        s.viewX = viewX;
+        s.viewY = viewY;
+        s.zoom = zoom;
+        s.placements = new ArrayList<>(board);
+        long bytes = HEADER;
+
+        ByteArrayOutputStream index = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(index);
+        writeView(out, s.windowX, s.windowY, viewX, viewY, zoom, s.activeLayer, engine.getLayerCount());
+        for (int i = 0; i < engine.getLayerCount(); i++) {
+            Layer layer = engine.getLayer(i);
+            Map<Long, PagedRaster.StoredTile> copies = layer.writeTiles((tx, ty, old, px) -> tile(target, old, px));
+            s.copies.add(copies);
+            StoredLayer stored = new StoredLayer(layer.name, layer.opacity, layer.blend, layer.visible, copies);
+            s.layers.add(stored);
+            Map<Long, Location> at = new HashMap<>();
+            for (Map.Entry<Long, PagedRaster.StoredTile> e : copies.entrySet()) {
+                Tile t = (Tile) e.getValue();
+                at.put(e.getKey(), t);
+                bytes += t.length;
+            }
+            writeLayer(out, stored, at);
+        }
+        List<Picture> used = new ArrayList<>();
+        int[] refs = new int[board.size()];
+        for (int i = 0; i < board.size(); i++) {
+            Picture p = picture(target, board.get(i), s);
+            refs[i] = used.indexOf(p);
+            if (refs[i] < 0) {
+                refs[i] = used.size();
+                used.add(p);
+                bytes += p.length;
+            }
+        }
+        out.writeInt(used.size());
+        for (Picture p : used) {
+            out.writeLong(p.offset);
+            out.writeInt(p.length);
+            out.writeUTF(p.name);
+            out.write(Base64.getDecoder().decode(p.hash));
+        }
+        out.writeInt(board.size());
+        for (int i = 0; i < board.size(); i++) {
+            ReferenceCanvasPanel.Placement p = board.get(i);
+            out.writeInt(refs[i]);
+            out.writeInt(p.width);
+            out.writeInt(p.height);
+            out.writeDouble(p.x);
+            out.writeDouble(p.y);
+            out.writeDouble(p.scale);
+            out.writeDouble(p.rotation);
+            out.writeBoolean(p.flipH);
+            out.writeBoolean(p.flipV);
+        }
+        out.flush();
+
+        byte[] data = index.toByteArray();
+        s.indexOffset = writeIndex(target, data);
+        s.live = bytes + 12 + data.length;
+        return s;
+    }
+
+    private static void writeView(DataOutputStream out, int windowX, int windowY, double viewX, double viewY,
+                                  double zoom, int activeLayer, int layerCount) throws IOException {
+        out.writeInt(windowX);
+        out.writeInt(windowY);
+        out.writeDouble(viewX);
+        out.writeDouble(viewY);
+        out.writeDouble(zoom);
+        out.writeInt(activeLayer);
+        out.writeInt(layerCount);
+    }
+
+    /** A layer's entry in the index, its tiles at {@code at} by tile key. */
+    private static void writeLayer(DataOutputStream out, StoredLayer layer, Map<Long, ? extends Location> at)
+            throws IOException {
+        out.writeUTF(layer.name);
+        out.writeFloat(layer.opacity);
+        out.writeByte(layer.blend.ordinal());
+        out.writeBoolean(layer.visible);
+        out.writeInt(at.size());
+        for (Map.Entry<Long, ? extends Location> e : at.entrySet()) {
+            out.writeInt((int) (e.getKey() >> 32));
+            out.writeInt((int) (long) e.getKey());
+            out.writeLong(e.getValue().offset);
+            out.writeInt(e.getValue().length);
+        }
+    }
+
+    /** Appends the index and points the header at it; returns where it went. */
+    private static long writeIndex(Generation target, byte[] data) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        ByteBuffer head = ByteBuffer.allocate(12 + data.length);
+        head.putInt(INDEX_MAGIC).putInt(data.length).putInt((int) crc.getValue()).put(data);
+        long offset = target.append(head.array(), head.capacity());
+        // everything the index refers to is on disk before the header points at it
+        target.channel.force(false);
+        target.writeAt(header(offset), 0);
+        target.channel.force(false);
+        return offset;
+    }
+
+    private void commit(Save s, DrawingEngine engine) {
+        for (int i = 0; i < s.copies.size(); i++) engine.getLayer(i).tilesStored(s.copies.get(i));
+        pictures.putAll(s.pictures);
+        written.putAll(s.written);
+        layers.clear();
+        layers.addAll(s.layers);
+        placements.clear();
+        placements.addAll(s.placements);
+        activeLayer = s.activeLayer;
+        windowX = s.windowX;
+        windowY = s.windowY;
+        viewX = s.viewX;
+        viewY = s.viewY;
+        zoom = s.zoom;
+        indexOffset = s.indexOffset;
+        live = s.live;
+    }
+
+    /** A stored copy of a tile in {@code target}: {@code old} if it is there already, else written. */
+    private PagedRaster.StoredTile tile(Generation target, PagedRaster.StoredTile old, int[] px) throws IOException {
+        if (old instanceof Tile && ((Tile) old).gen == target) return old;
+        byte[] data = old != null ? old.deflated() : null;
+        if (data == null) {
+            if (old != null) {
+                px = new int[T * T];
+                old.read(px);
+            }
+            data = codec.deflate(px);
+        }
+        return new Tile(target, target.append(data, data.length), data.length);
+    }
+
+    /** The picture a placement shows, in {@code target}; written unless an identical one is there. */
+    private Picture picture(Generation target, ReferenceCanvasPanel.Placement placement, Save s) throws IOException {
+        Object key = placement.source != null ? placement.source : placement.image;
+        Picture p = key instanceof Picture ? (Picture) key : s.written.containsKey(key) ? s.written.get(key) : written.get(key);
+        if (p != null && p.gen == target) return p;
+        byte[] data;
+        String name;
+        if (p != null) {
+            data = p.bytes();
+            name = p.name;
+        } else if (placement.source != null) {
+            data = placement.source.bytes();
+            name = placement.source.getName();
+        } else {
+            ByteArrayOutputStream png = new ByteArrayOutputStream();
+            if (!ImageIO.write(placement.image, "png", png)) throw new IOException("No PNG encoder");
+            data = png.toByteArray();
+            name = "picture.png";
+        }
+        String hash = sha256(data);
+        Picture same = s.pictures.get(hash);
+        if (same == null) {
+            same = new Picture(target, target.append(data, data.length), data.length, name, hash);
+            s.pictures.put(hash, same);
+        }
+        if (!(key instanceof Picture)) s.written.put(key, same);
+        return same;
+    }
+
+    private void readIndex() throws IOException {
+        ByteBuffer head = current.read(0, HEADER);
+        if (head.getInt() != MAGIC) throw new IOException(file.getName() + " is not a Drawing Studio project");
+        if (head.getInt() != VERSION) throw new IOException("Unsupported project version in " + file.getName());
+        long offset = head.getLong();
+        if (offset < HEADER || offset + 12 > current.end) throw new IOException("No saved drawing in " + file.getName());
+        ByteBuffer ih = current.read(offset, 12);
+        int length = ih.getInt(4);
+        if (ih.getInt(0) != INDEX_MAGIC || length < 0 || offset + 12 + length > current.end) {
+            throw new IOException("Corrupt project index in " + file.getName());
+        }
+        byte[] data = new byte[length];
+        current.read(offset + 12, length).get(data);
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        if ((int) crc.getValue() != ih.getInt(8)) throw new IOException("Corrupt project index in " + file.getName());
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        long bytes = HEADER + 12 + length;
+        windowX = in.readInt();
+        windowY = in.readInt();
+        viewX = in.readDouble();
+        viewY = in.readDouble();
+        zoom = in.readDouble();
+        activeLayer = in.readInt();
+        for (int n = in.readInt(); n > 0; n--) {
+            String name = in.readUTF();
+            float opacity = in.readFloat();
+            int mode = in.readByte();
+            if (mode < 0 || mode >= BlendMode.values().length) throw new IOException("Unknown blend mode " + mode);
+            boolean visible = in.readBoolean();
+            Map<Long, PagedRaster.StoredTile> tiles = new HashMap<>();
+            for (int t = in.readInt(); t > 0; t--) {
+                long key = PagedRaster.key(in.readInt(), in.readInt());
+                Tile tile = new Tile(current, in.readLong(), in.readInt());
+                check(tile.offset, tile.length);
+                tiles.put(key, tile);
+                bytes += tile.length;
+            }
+            layers.add(new StoredLayer(name, opacity, BlendMode.values()[mode], visible, tiles));
+        }
+        List<Picture> used = new ArrayList<>();
+        for (int n = in.readInt(); n > 0; n--) {
+            long off = in.readLong();
+            int len = in.readInt();
+            String name = in.readUTF();
+            byte[] hash = new byte[32];
+            in.readFully(hash);
+            check(off, len);
+            Picture p = new Picture(current, off, len, name, Base64.getEncoder().encodeToString(hash));
+            used.add(p);
+            pictures.put(p.hash, p);
+            bytes += len;
+        }
+        for (int n = in.readInt(); n > 0; n--) {
+            int ref = in.readInt();
+            if (ref < 0 || ref >= used.size()) throw new IOException("Corrupt project index in " + file.getName());
+            placements.add(new ReferenceCanvasPanel.Placement(used.get(ref), null, in.readInt(), in.readInt(),
+                in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble(), in.readBoolean(), in.readBoolean()));
+        }
+        indexOffset = offset;
+        live = bytes;
+    }
+
+    private void check(long offset, int length) throws IOException {
+        if (offset < HEADER || length < 0 || offset + length > current.end) {
+            throw new IOException("Corrupt project index in " + file.getName());
+        }
+    }
+
+    private static ByteBuffer header(long indexOffset) {
+        ByteBuffer head = ByteBuffer.allocate(HEADER);
+        head.putInt(MAGIC).putInt(VERSION).putLong(indexOffset);
+        head.rewind();
+        return head;
+    }
+
+    private static String sha256(byte[] data) {
+        try {
+            return Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /** Where a deflated tile is in a file. */
+    private static class Location {
+        final long offset;
+        final int length;
+
+        Location(long offset, int length) {
+            this.offset = offset; this.length = length;
+        }
+    }
+
+    /** A deflated tile in one of the files. */
+    private final class Tile extends Location implements PagedRaster.StoredTile {
+        final Generation gen;
+
+        Tile(Generation gen, long offset, int length) {
+            super(offset, length);
+            this.gen = gen;
+        }
+
+        @Override public void read(int[] px) {
+            try {
+                codec.inflate(gen.read(offset, length), px);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+
+        @Override public byte[] deflated() throws IOException {
+            byte[] data = new byte[length];
+            gen.read(offset, length).get(data);
+            return data;
+        }
+    }
+
+    /** An encoded picture in one of the files, decoded straight from the mapping. */
+    private static final class Picture implements ReferenceLoader.Source {
+        final Generation gen;
+        final long offset;
+        final int length;
+        final String name;
+        final String hash;
+
+        Picture(Generation gen, long offset, int length, String name, String hash) {
+            this.gen = gen; this.offset = offset; this.length = length; this.name = name; this.hash = hash;
+        }
+
+        @Override public ImageInputStream open() throws IOException {
+            return new BufferInputStream(gen.read(offset, length));
+        }
+
+        @Override public byte[] bytes() throws IOException {
+            byte[] data = new byte[length];
+            gen.read(offset, length).get(data);
+            return data;
+        }
+
+        @Override public String getName() { return name; }
+    }
+
+    /** An image input stream over a buffer, seeking within it rather than caching what was read. */
+    private static final class BufferInputStream extends ImageInputStreamImpl {
+        private final ByteBuffer data;
+
+        BufferInputStream(ByteBuffer data) {
+            this.data = data;
+        }
+
+        @Override public int read() throws IOException {
+            checkClosed();
+            bitOffset = 0;
+            return streamPos < data.limit() ? data.get((int) streamPos++) & 0xff : -1;
+        }
+
+        @Override public int read(byte[] b, int off, int len) throws IOException {
+            checkClosed();
+            bitOffset = 0;
+            if (streamPos >= data.limit()) return -1;
+            int n = (int) Math.min(len, data.limit() - streamPos);
+            ByteBuffer d = data.duplicate();
+            d.position((int) streamPos);
+            d.get(b, off, n);
+            streamPos += n;
+            return n;
+        }
+
+        @Override public long length() { return data.limit(); }
+    }
+
+    /** One file on disk: appended to by saves, read through read-only mappings of up to {@link #SEGMENT} bytes. */
+    private static final class Generation {
+        final FileChannel channel;
+        long end;  // where the next blob goes
+        private MappedByteBuffer[] segments = new MappedByteBuffer[0];
+
+        Generation(Path path, boolean create) throws IOException {
+            channel = create
+                ? FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                                   StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)
+                : FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            end = channel.size();
+        }
+
+        long append(byte[] data, int length) throws IOException {
+            long at = end;
+            writeAt(ByteBuffer.wrap(data, 0, length), at);
+            end += length;
+            return at;
+        }
+
+        void writeAt(ByteBuffer data, long pos) throws IOException {
+            while (data.hasRemaining()) pos += channel.write(data, pos);
+        }
+
+        /** The {@code length} bytes at {@code offset}; mapped, unless they straddle two segments. */
+        synchronized ByteBuffer read(long offset, int length) throws IOException {
+            int seg = (int) (offset / SEGMENT);
+            long start = seg * SEGMENT;
+            if (offset + length <= start + SEGMENT) {
+                if (seg >= segments.length) segments = Arrays.copyOf(segments, seg + 1);
+                MappedByteBuffer m = segments[seg];
+                if (m == null || start + m.capacity() < offset + length) {
+                    // the file grew since it was mapped
+                    m = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT, channel.size() - start));
+                    segments[seg] = m;
+                }
+                ByteBuffer b = m.duplicate();
+                b.position((int) (offset - start));
+                b.limit((int) (offset - start) + length);
+                return b.slice();
+            }
+            ByteBuffer b = ByteBuffer.allocate(length);
+            while (b.hasRemaining()) {
+                if (channel.read(b, offset + b.position()) < 0) throw new EOFException();
+            }
+            b.flip();
+            return b;
+        }
+
+        synchronized void close() throws IOException {
+            channel.close();
+            segments = new MappedByteBuffer[0];
+        }
+    }
+}
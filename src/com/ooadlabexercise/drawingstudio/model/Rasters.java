@@ -0,0 +1,50 @@
+package com.ooadlabexercise.drawingstudio.model;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+
+/** Small helpers for working on the int[] pixels behind TYPE_INT_ARGB images. */
+final class Rasters {
+    private Rasters() {}
+
+    /** Backing pixel array of an image created as TYPE_INT_ARGB / TYPE_INT_RGB (stride == width). */
+    static int[] pixels(BufferedImage img) {
+        return ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+    }
+
+    /** TYPE_INT_ARGB image backed by the given array (no copy). */
+    static BufferedImage wrapArgb(int[] px, int w, int h) {
+        DirectColorModel cm = (DirectColorModel) ColorModel.getRGBdefault();
+        WritableRaster raster = Raster.createPackedRaster(new DataBufferInt(px, w * h), w, h, w,
+            new int[] { cm.getRedMask(), cm.getGreenMask(), cm.getBlueMask(), cm.getAlphaMask() }, null);
+        return new BufferedImage(cm, raster, false, null);
+    }
+
+    /** Copy of a TYPE_INT_ARGB image: one array copy. */
+    static BufferedImage copy(BufferedImage img) {
+        return wrapArgb(pixels(img).clone(), img.getWidth(), img.getHeight());
+    }
+
+    /** The image itself if it is TYPE_INT_ARGB, else a TYPE_INT_ARGB copy of it. */
+    static BufferedImage argb(BufferedImage img) {
+        if (img.getType() == BufferedImage.TYPE_INT_ARGB) return img;
+        BufferedImage copy = new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = copy.createGraphics();
+        g.drawImage(img, 0, 0, null);
+        g.dispose();
+        return copy;
+    }
+
+    /** Bounds of a line segment drawn with the given stroke width, padded for antialiasing. */
+    static Rectangle segmentBounds(int x1, int y1, int x2, int y2, float strokeWidth) {
+        int pad = (int) Math.ceil(strokeWidth / 2f) + 2;
+        int x = Math.min(x1, x2) - pad, y = Math.min(y1, y2) - pad;
+        return new Rectangle(x, y, Math.abs(x2 - x1) + 2 * pad + 1, Math.abs(y2 - y1) + 2 * pad + 1);
+    }
+}
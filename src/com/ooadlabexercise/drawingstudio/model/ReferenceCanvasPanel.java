@@ -4,55 +4,174 @@ import java.awt.*;
 import java.awt.event.*;
 import java.awt.geom.*;
 import java.awt.image.BufferedImage;
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.BooleanSupplier;
 import javax.swing.*;
 
 public class ReferenceCanvasPanel extends JPanel {
+    /** Where a picture sits on the board, as a project keeps it. */
+    static final class Placement {
+        final ReferenceLoader.Source source;  // null for a picture only held in memory
+        final BufferedImage image;            // that picture, otherwise null
+        final int width, height;              // full resolution
+        final double x, y, scale, rotation;
+        final boolean flipH, flipV;
+
+        Placement(ReferenceLoader.Source source, BufferedImage image, int width, int height,
+                  double x, double y, double scale, double rotation, boolean flipH, boolean flipV) {
+            this.source = source; this.image = image; this.width = width; this.height = height;
+            this.x = x; this.y = y; this.scale = scale; this.rotation = rotation;
+            this.flipH = flipH; this.flipV = flipV;
+        }
+    }
+
+    /**
+     * A placed reference image. Its transform, inverse and screen bounds are cached
+     * and only rebuilt when position, scale, rotation or flip change, which also
+     * moves it in the hit-test grid.
+     * <p>
+     * Geometry is always in the full-resolution size of the picture; {@code img}
+     * may be a subsampled decode of it (or null while loading) and is stretched
+     * to that size when drawn. While a filter is previewed on it, a filtered copy
+     * of the mip level it is drawn from is shown instead.
+     */
     private class RefImage {
         BufferedImage img;
-        double x, y;
-        double scale = 1.0;
-        double rotation = 0.0;
-        boolean flipH = false;
-        boolean flipV = false;
+        int srcW, srcH;
+        ReferenceLoader.Source source;  // where finer decodes come from, null for in-memory images
+        int step = 1;     // subsampling of img relative to the source
+        boolean loading;
+        BufferedImage preview;  // filter preview, or null
+        final int z;  // stacking order, higher is on top
+        private double x, y;
+        private double scale = 1.0;
+        private double rotation = 0.0;
+        private boolean flipH = false;
+        private boolean flipV = false;
+
+        private AffineTransform transform;
+        private AffineTransform inverse;  // null if the transform is not invertible
+        private Rectangle2D bounds;
 
-        RefImage(BufferedImage img) {
+        RefImage(BufferedImage img, int z) {
+            this(img, img.getWidth(), img.getHeight(), null, z);
+        }
+
+        RefImage(BufferedImage img, int srcW, int srcH, ReferenceLoader.Source source, int z) {
             this.img = img;
+            this.srcW = srcW;
+            this.srcH = srcH;
+            this.source = source;
+            this.z = z;
             this.x = getWidth()/2.0;
             this.y = getHeight()/2.0;
+            update();
         }
 
-        boolean contains(Point2D p) {
+        void moveBy(double dx, double dy) { x += dx; y += dy; update(); }
+        void setScale(double s) { scale = s; update(); }
+        void setRotation(double radians) { rotation = radians; update(); }
+        void toggleFlipH() { flipH = !flipH; update(); }
+        void toggleFlipV() { flipV = !flipV; update(); }
+        double getScale() { return scale; }
+
+        /** Takes position, scale, rotation and flips from {@code p}. */
+        void place(Placement p) {
+            x = p.x; y = p.y; scale = p.scale; rotation = p.rotation;
+            flipH = p.flipH; flipV = p.flipV;
+            update();
+        }
+
+        Placement placement() {
+            return new Placement(source, source == null ? img : null, srcW, srcH, x, y, scale, rotation, flipH, flipV);
+        }
+
+        /** Replaces the pixels, keeping position and geometry. */
+        void setPixels(BufferedImage decoded, int step) {
+            if (img != null) MipCache.SHARED.evict(img);
+            img = decoded;
+            this.step = step;
+            boardChanged(bounds);
+        }
+
+        /**
+         * Replaces the picture with pixels held in memory from now on, e.g. after a filter.
+         * It keeps its place and size on the board.
+         */
+        void bake(BufferedImage pixels) {
+            scale *= (double) srcW / pixels.getWidth();
+            srcW = pixels.getWidth();
+            srcH = pixels.getHeight();
+            source = null;
+            preview = null;
+            setPixels(pixels, 1);
+            update();
+        }
+
+        private void update() {
+            transform = new AffineTransform();
+            transform.translate(x, y);
+            transform.rotate(rotation);
+            transform.scale(flipH ? -scale : scale, flipV ? -scale : scale);
+            transform.translate(-srcW/2.0, -srcH/2.0);
             try {
-                AffineTransform at = new AffineTransform();
-                at.translate(x, y);
-                at.rotate(rotation);
-                at.scale(flipH ? -scale : scale, flipV ? -scale : scale);
-                at.translate(-img.getWidth()/2.0, -img.getHeight()/2.0);
-
-                AffineTransform inv = at.createInverse();
-                Point2D local = inv.transform(p, null);
-                return local.getX() >= 0 && local.getX() <= img.getWidth()
-                    && local.getY() >= 0 && local.getY() <= img.getHeight();
+                inverse = transform.createInverse();
             } catch (NoninvertibleTransformException ex) {
-                return false;
+                inverse = null;
             }
+            Rectangle2D old = bounds;
+            bounds = transform.createTransformedShape(new Rectangle(srcW, srcH)).getBounds2D();
+            index.put(this, bounds);
+            boardChanged(old != null ? old.createUnion(bounds) : bounds);
         }
 
+        boolean contains(Point2D p) {
+            if (inverse == null) return false;
+            Point2D local = inverse.transform(p, null);
+            return local.getX() >= 0 && local.getX() <= srcW
+                && local.getY() >= 0 && local.getY() <= srcH;
+        }
+
+        /** Draws the mip level nearest the current scale instead of resampling the full image. */
         void draw(Graphics2D g) {
-            AffineTransform at = new AffineTransform();
-            at.translate(x, y);
-            at.rotate(rotation);
-            at.scale(flipH ? -scale : scale, flipV ? -scale : scale);
-            at.translate(-img.getWidth()/2.0, -img.getHeight()/2.0);
-            g.drawImage(img, at, null);
+            if (img == null) {
+                Graphics2D pg = (Graphics2D) g.create();
+                pg.transform(transform);
+                pg.setColor(new Color(235, 235, 235));
+                pg.fillRect(0, 0, srcW, srcH);
+                pg.setColor(Color.GRAY);
+                pg.drawRect(0, 0, srcW, srcH);
+                pg.dispose();
+                return;
+            }
+            double pixelScale = scale * srcW / img.getWidth();
+            if (pixelScale > 1 && step > 1 && source != null) loadFiner(this);
+            BufferedImage mip = preview != null ? preview : MipCache.SHARED.get(img, MipCache.levelFor(img, pixelScale));
+            if (mip.getWidth() == srcW && mip.getHeight() == srcH) {
+                g.drawImage(mip, transform, null);
+                return;
+            }
+            AffineTransform at = new AffineTransform(transform);
+            at.scale((double) srcW / mip.getWidth(), (double) srcH / mip.getHeight());
+            g.drawImage(mip, at, null);
         }
     }
 
     private final List<RefImage> images = new ArrayList<>();
+    private final ReferenceLoader loader = new ReferenceLoader();
+    // Clicks only test the images indexed in the grid cell under the pointer
+    private final SpatialGrid<RefImage> index = new SpatialGrid<>(128);
+    private int nextZ = 0;
     private RefImage selected = null;
     private Point prevMouse = null;
+    // Repaints blit a video memory copy of the board; moved images only redraw where they were and are
+    private final DisplayCache display = new DisplayCache(this::paintBoard);
+    // Filters act on the selected picture: previews in the background on the mip level it is drawn
+    // from, applying on all the pixels decoded, which it then keeps in memory
+    private RefImage filtering;  // picture showing a preview
+    private FilterPipeline.Job<?> filterJob, applyJob;
 
     public ReferenceCanvasPanel() {
         setPreferredSize(new Dimension(800,600));
@@ -61,9 +180,9 @@ public class ReferenceCanvasPanel extends JPanel {
         addMouseWheelListener(e -> {
             if (selected != null) {
                 double delta = e.getPreciseWheelRotation();
-                selected.scale *= (1 - delta*0.1);
-                selected.scale = Math.max(0.1, selected.scale);
-                repaint();
+                // large photos are fitted below 10%; don't jump up to the usual minimum
+                double min = Math.min(0.1, selected.getScale());
+                selected.setScale(Math.max(min, selected.getScale() * (1 - delta*0.1)));
             }
         });
 
@@ -71,44 +190,24 @@ public class ReferenceCanvasPanel extends JPanel {
             @Override public void mousePressed(MouseEvent e) {
                 Point2D p = e.getPoint();
                 if (SwingUtilities.isLeftMouseButton(e)) {
-                    selected = null;
-                    for (int i = images.size()-1; i >= 0; i--) {
-                        if (images.get(i).contains(p)) {
-                            selected = images.get(i);
-                            prevMouse = e.getPoint();
-                            break;
-                        }
-                    }
+                    selected = imageAt(p);
+                    if (selected != null) prevMouse = e.getPoint();
                 }
             }
 
             @Override public void mouseReleased(MouseEvent e) {
                 // horizontal flip on right-click
                 if (SwingUtilities.isRightMouseButton(e)) {
-                    Point2D p = e.getPoint();
-                    for (int i = images.size()-1; i >= 0; i--) {
-                        RefImage ri = images.get(i);
-                        if (ri.contains(p)) {
-                            ri.flipH = !ri.flipH;
-                            repaint();
-                            break;
-                        }
-                    }
+                    RefImage ri = imageAt(e.getPoint());
+                    if (ri != null) ri.toggleFlipH();
                 }
             }
 
             @Override public void mouseClicked(MouseEvent e) {
                 // vertical flip on double-click (left)
                 if (SwingUtilities.isLeftMouseButton(e) && e.getClickCount() == 2) {
-                    Point2D p = e.getPoint();
-                    for (int i = images.size()-1; i >= 0; i--) {
-                        RefImage ri = images.get(i);
-                        if (ri.contains(p)) {
-                            ri.flipV = !ri.flipV;
-                            repaint();
-                            break;
-                        }
-                    }
+                    RefImage ri = imageAt(e.getPoint());
+                    if (ri != null) ri.toggleFlipV();
                 }
                 super.mouseClicked(e);
             }
@@ -118,23 +217,194 @@ public class ReferenceCanvasPanel extends JPanel {
             @Override public void mouseDragged(MouseEvent e) {
                 if (selected != null && prevMouse != null) {
                     Point p = e.getPoint();
-                    selected.x += p.x - prevMouse.x;
-                    selected.y += p.y - prevMouse.y;
+                    selected.moveBy(p.x - prevMouse.x, p.y - prevMouse.y);
                     prevMouse = p;
-                    repaint();
                 }
             }
         });
     }
 
+    /** Topmost image containing the point, or null */
+    private RefImage imageAt(Point2D p) {
+        RefImage top = null;
+        for (RefImage ri : index.query(p.getX(), p.getY())) {
+            if ((top == null || ri.z > top.z) && ri.contains(p)) top = ri;
+        }
+        return top;
+    }
+
     public void addImage(BufferedImage img) {
-        images.add(new RefImage(img));
-        repaint();
+        images.add(new RefImage(img, nextZ++));
+    }
+
+    /**
+     * Add an image file. A placeholder appears right away; the picture is decoded in
+     * the background at about the panel's resolution and fitted to the panel.
+     */
+    public void addImage(File file) {
+        RefImage ri = new RefImage(null, 320, 240, ReferenceLoader.file(file), nextZ++);
+        ri.loading = true;
+        images.add(ri);
+        Dimension fit = getWidth() > 0 && getHeight() > 0 ? getSize() : getPreferredSize();
+        loader.load(ri.source, fit, new ReferenceLoader.Callback() {
+            @Override public void loaded(ReferenceLoader.Decoded d) {
+                ri.loading = false;
+                if (!images.contains(ri)) return;
+                ri.setPixels(d.image, d.step);
+                ri.srcW = d.width;
+                ri.srcH = d.height;
+                ri.setScale(Math.min(1.0, Math.min((double) fit.width / d.width, (double) fit.height / d.height)));
+            }
+            @Override public void failed(Exception ex) {
+                dropFailed(ri, file.getName());
+            }
+        });
+    }
+
+    /** The images bottom first, as a project stores them. */
+    List<Placement> getPlacements() {
+        List<Placement> placements = new ArrayList<>();
+        for (RefImage ri : images) placements.add(ri.placement());
+        return placements;
+    }
+
+    /**
+     * Replaces the board with the given images, bottom first. Pictures with a source show as
+     * placeholders until they are decoded in the background, at the resolution their scale needs.
+     */
+    void setPlacements(List<Placement> placements) {
+        clearAllImages();
+        for (Placement p : placements) {
+            RefImage ri = p.source == null ? new RefImage(p.image, nextZ++)
+                                           : new RefImage(null, p.width, p.height, p.source, nextZ++);
+            ri.place(p);
+            images.add(ri);
+            if (p.source == null) continue;
+            ri.loading = true;
+            loader.load(p.source, Math.max(1, (int) Math.floor(1 / p.scale)), new ReferenceLoader.Callback() {
+                @Override public void loaded(ReferenceLoader.Decoded d) {
+                    ri.loading = false;
+                    if (images.contains(ri)) ri.setPixels(d.image, d.step);
+                }
+                @Override public void failed(Exception ex) {
+                    dropFailed(ri, p.source.getName());
+                }
+            });
+        }
+    }
+
+    private void dropFailed(RefImage ri, String name) {
+        images.remove(ri);
+        index.remove(ri);
+        if (selected == ri) selected = null;
+        boardChanged(ri.bounds);
+        JOptionPane.showMessageDialog(this, "Failed to load " + name);
+    }
+
+    /** Decodes more pixels of an image that is drawn larger than its current decode */
+    private void loadFiner(RefImage ri) {
+        if (ri.loading) return;
+        int step = Math.max(1, (int) Math.floor(1 / ri.scale));
+        if (step >= ri.step) return;
+        ri.loading = true;
+        loader.load(ri.source, step, new ReferenceLoader.Callback() {
+            @Override public void loaded(ReferenceLoader.Decoded d) {
+                ri.loading = false;
+                // a picture filtered meanwhile keeps its filtered pixels
+                if (!images.contains(ri) || ri.source == null) return;
+                ri.setPixels(d.image, d.step);
+            }
+            @Override public void failed(Exception ex) {
+                // keep showing the coarser decode; give up on refining this image
+                ri.loading = false;
+                ri.step = 1;
+            }
+        });
+    }
+
+    /**
+     * Shows the selected picture run through {@code pipeline}, computed in the background at
+     * the resolution it is drawn at; a preview still being computed is cancelled.
+     */
+    void previewFilter(FilterPipeline pipeline) {
+        if (filterJob != null) filterJob.cancel(false);
+        filterJob = null;
+        RefImage ri = selected;
+        if (filtering != null && filtering != ri) showFiltered(filtering, null);
+        filtering = ri;
+        if (ri == null || ri.img == null) return;
+        if (pipeline.isEmpty()) {
+            showFiltered(ri, null);
+            return;
+        }
+        BufferedImage mip = MipCache.SHARED.get(ri.img, MipCache.levelFor(ri.img, ri.scale * ri.srcW / ri.img.getWidth()));
+        double scale = (double) mip.getWidth() / ri.srcW;
+        filterJob = FilterPipeline.submit(cancelled -> filter(mip, pipeline, scale, cancelled), filtered -> {
+            filterJob = null;
+            if (images.contains(ri)) showFiltered(ri, filtered);
+        });
+    }
+
+    /** Stops previewing a filter and shows the picture as it is. */
+    void endFilterPreview() {
+        if (filterJob != null) filterJob.cancel(false);
+        filterJob = null;
+        if (filtering != null) showFiltered(filtering, null);
+        filtering = null;
+    }
+
+    /**
+     * Runs {@code pipeline} over the selected picture in the background, replaces its pixels
+     * with the result and calls {@code done}. False if no loaded picture is selected. The picture
+     * is kept in memory from then on, at the resolution it was decoded at.
+     */
+    boolean applyFilter(FilterPipeline pipeline, Runnable done) {
+        return applyFilter(selected, pipeline, done);
+    }
+
+    private boolean applyFilter(RefImage ri, FilterPipeline pipeline, Runnable done) {
+        if (ri == null || ri.img == null) return false;
+        if (applyJob != null) applyJob.cancel(false);
+        if (pipeline.isEmpty()) {
+            done.run();
+            return true;
+        }
+        BufferedImage img = ri.img;
+        double scale = (double) img.getWidth() / ri.srcW;
+        applyJob = FilterPipeline.submit(cancelled -> filter(img, pipeline, scale, cancelled), filtered -> {
+            applyJob = null;
+            if (images.contains(ri)) {
+                if (filtering == ri) endFilterPreview();
+                // a finer decode arrived meanwhile: filter that one
+                if (ri.img != img && ri.source != null) {
+                    applyFilter(ri, pipeline, done);
+                    return;
+                }
+                ri.bake(filtered);
+            }
+            done.run();
+        });
+        return true;
+    }
+
+    private static BufferedImage filter(BufferedImage img, FilterPipeline pipeline, double scale, BooleanSupplier cancelled) {
+        int w = img.getWidth(), h = img.getHeight();
+        return Rasters.wrapArgb(pipeline.run(Rasters.pixels(Rasters.argb(img)), w, h, scale, cancelled), w, h);
+    }
+
+    private void showFiltered(RefImage ri, BufferedImage preview) {
+        if (ri.preview == preview) return;
+        ri.preview = preview;
+        boardChanged(ri.bounds);
     }
 
     public void clearAllImages() {
+        for (RefImage ri : images) MipCache.SHARED.evict(ri.img);
         images.clear();
+        index.clear();
         selected = null;
+        filtering = null;
+        display.invalidateAll();
         repaint();
     }
 
@@ -142,17 +412,50 @@ public class ReferenceCanvasPanel extends JPanel {
         selected = null;
     }
 
+    /** Cap the memory shared by the pre-scaled copies of all reference images */
+    public static void setImageCacheBudget(long bytes) {
+        MipCache.SHARED.setBudget(bytes);
+    }
+
     public void rotateSelected(int deg) {
         if (selected != null) {
-            selected.rotation = Math.toRadians(deg);
-            repaint();
+            selected.setRotation(Math.toRadians(deg));
         }
     }
 
+    /** Redraws the part of the board an image covered or now covers. */
+    private void boardChanged(Rectangle2D area) {
+        Rectangle r = area.getBounds();
+        r.grow(2, 2);  // placeholder outlines and edge pixels
+        display.invalidate(r);
+        repaint(r);
+    }
+
+    /** Display cache path: background plus the images overlapping the area, bottom first. */
+    private void paintBoard(Graphics2D g, Rectangle area) {
+        g.setColor(getBackground());
+        g.fillRect(area.x, area.y, area.width, area.height);
+        for (RefImage ri : images) {
+            if (ri.bounds.intersects(area)) ri.draw(g);
+        }
+    }
+
+    /** Paint straight from the model or through a video memory copy, e.g. to compare frame times */
+    void setDisplayCacheMode(DisplayCache.Mode mode) {
+        display.setMode(mode);
+        display.invalidateAll();
+        repaint();
+    }
+
     @Override protected void paintComponent(Graphics g) {
-        super.paintComponent(g);
-        Graphics2D g2 = (Graphics2D) g.create();
-        for (RefImage ri : images) ri.draw(g2);
-        g2.dispose();
+        // the display cache covers the whole clip, background included
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) clip = new Rectangle(0, 0, getWidth(), getHeight());
+        PerfMonitor.Span span = PerfMonitor.SHARED.begin(PerfMonitor.Metric.REFERENCE_PAINT);
+        try {
+            display.paint(g, getWidth(), getHeight(), clip);
+        } finally {
+            span.close();
+        }
     }
 }
@@ -0,0 +1,125 @@
+package com.ooadlabexercise.drawingstudio.model;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.swing.SwingWorker;
+
+/**
+ * Decodes reference images on background threads, only as large as needed.
+ * <p>
+ * The reader's source subsampling skips rows and columns while decoding, so a
+ * 50 megapixel photo shown on an 800x600 board is decoded at about that size
+ * and never exists in memory at full resolution. A finer subsampling step can
+ * be requested later when the user zooms in.
+ * <p>
+ * Pictures come from a {@link Source}: a file, or the bytes a project file
+ * keeps of one.
+ */
+class ReferenceLoader {
+    /** Where a picture's encoded bytes are read from. Read from the loader's threads. */
+    interface Source {
+        /** A new stream over the encoded picture, or null if there is no image reader for it. */
+        ImageInputStream open() throws IOException;
+
+        /** All of the encoded picture, e.g. to keep it in a project. */
+        byte[] bytes() throws IOException;
+
+        /** Names the picture in messages. */
+        String getName();
+    }
+
+    /** The picture in {@code file}. */
+    static Source file(File file) {
+        return new Source() {
+            @Override public ImageInputStream open() throws IOException { return ImageIO.createImageInputStream(file); }
+            @Override public byte[] bytes() throws IOException { return Files.readAllBytes(file.toPath()); }
+            @Override public String getName() { return file.getPath(); }
+        };
+    }
+
+    /** A decoded image together with the size of the file it came from. */
+    static final class Decoded {
+        final BufferedImage image;
+        final int width, height;  // full resolution of the file
+        final int step;           // subsampling used; 1 = every pixel
+
+        Decoded(BufferedImage image, int width, int height, int step) {
+            this.image = image; this.width = width; this.height = height; this.step = step;
+        }
+    }
+
+    /** Load callbacks, delivered on the Event Dispatch Thread. */
+    interface Callback {
+        void loaded(Decoded decoded);
+        void failed(Exception ex);
+    }
+
+    private static final AtomicInteger THREADS = new AtomicInteger();
+
+    private final ExecutorService pool = Executors.newFixedThreadPool(2, r -> {
+        Thread t = new Thread(r, "reference-loader-" + THREADS.incrementAndGet());
+        t.setDaemon(true);
+        t.setPriority(Thread.NORM_PRIORITY - 1);
+        return t;
+    });
+
+    /** Decodes the picture subsampled so it still covers {@code fit} when scaled to fit inside it. */
+    void load(Source source, Dimension fit, Callback callback) {
+        submit(source, fit, 1, callback);
+    }
+
+    /** Decodes the picture keeping every {@code step}-th pixel in each direction. */
+    void load(Source source, int step, Callback callback) {
+        submit(source, null, step, callback);
+    }
+
+    private void submit(Source source, Dimension fit, int step, Callback callback) {
+        pool.execute(new SwingWorker<Decoded, Void>() {
+            @Override protected Decoded doInBackground() throws IOException {
+                return decode(source, fit, step);
+            }
+
+            @Override protected void done() {
+                try {
+                    callback.loaded(get());
+                } catch (Exception ex) {
+                    callback.failed(ex);
+                }
+            }
+        });
+    }
+
+    static Decoded decode(Source source, Dimension fit, int step) throws IOException {
+        try (ImageInputStream in = source.open()) {
+            if (in == null) throw new IOException("Cannot open " + source.getName());
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) throw new IOException("Unsupported image " + source.getName());
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int w = reader.getWidth(0), h = reader.getHeight(0);
+                if (fit != null) {
+                    step = Math.max(1, Math.min(w / Math.max(1, fit.width), h / Math.max(1, fit.height)));
+                }
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                BufferedImage img = reader.read(0, param);
+                // converted here so the mip cache can use it as level 0 without another copy
+                return new Decoded(MipCache.toCompatible(img), w, h, step);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.ooadlabexercise.drawingstudio.model;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.imageio.ImageIO;
+
+/**
+ * Headless HTTP rendering service.
+ * <p>
+ * {@code POST /render} takes an {@link OperationScript} as the request body and
+ * answers with the PNG; {@code GET /stats} reports how many drawings were
+ * rendered and the throughput since startup. Requests run on a pool with one
+ * worker per core, each keeping its own {@link DrawingEngine}. There is no
+ * authentication, so the server listens on the loopback address unless given
+ * another; {@link OperationScript} bounds what a script may allocate.
+ */
+class RenderServer {
+    private final HttpServer server;
+    private final ExecutorService pool;
+    private final ThreadLocal<DrawingEngine> engines = ThreadLocal.withInitial(BatchRenderer::newEngine);
+    private final AtomicLong rendered = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final long started = System.nanoTime();
+
+    /** Serves on {@code port} of {@code address}, the loopback one if null. */
+    RenderServer(InetAddress address, int port, int threads) throws IOException {
+        server = HttpServer.create(
+            new InetSocketAddress(address != null ? address : InetAddress.getLoopbackAddress(), port), 0);
+        pool = Executors.newFixedThreadPool(Math.max(1, threads));
+        server.setExecutor(pool);
+        server.createContext("/render", this::render);
+        server.createContext("/stats", this::stats);
+    }
+
+    void start() { server.start(); }
+
+    void stop() {
+        server.stop(0);
+        pool.shutdown();
+    }
+
+    int getPort() { return server.getAddress().getPort(); }
+
+    /** Address served on, as it goes in a URL; localhost when serving on every interface. */
+    String getHost() {
+        InetAddress address = server.getAddress().getAddress();
+        if (address.isAnyLocalAddress()) return "localhost";
+        String host = address.getHostAddress();
+        return host.contains(":") ? "[" + host + "]" : host;
+    }
+
+    private void render(HttpExchange ex) throws IOException {
+        try {
+            if (!"POST".equals(ex.getRequestMethod())) {
+                reply(ex, 405, "text/plain", "POST an operation script to /render\n".getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            byte[] png;
+            try {
+                DrawingEngine engine = engines.get();
+                engine.reset(BatchRenderer.DEFAULT_WIDTH, BatchRenderer.DEFAULT_HEIGHT);
+                OperationScript.run(new BufferedReader(new InputStreamReader(ex.getRequestBody(), StandardCharsets.UTF_8)),
+                                    engine);
+                BufferedImage out = DrawingExporter.flatten(engine.getComposite());
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                ImageIO.write(out, "png", bytes);
+                png = bytes.toByteArray();
+            } catch (IOException | RuntimeException err) {
+                failed.incrementAndGet();
+                reply(ex, 400, "text/plain", (err.getMessage() + "\n").getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            rendered.incrementAndGet();
+            reply(ex, 200, "image/png", png);
+        } finally {
+            ex.close();
+        }
+    }
+
+    private void stats(HttpExchange ex) throws IOException {
+        try {
+            double seconds = (System.nanoTime() - started) / 1e9;
+            String json = String.format(Locale.ROOT,
+                "{\"rendered\":%d,\"failed\":%d,\"uptimeSeconds\":%.1f,\"imagesPerSecond\":%.2f}%n",
+                rendered.get(), failed.get(), seconds, rendered.get() / Math.max(seconds, 1e-9));
+            reply(ex, 200, "application/json", json.getBytes(StandardCharsets.UTF_8));
+        } finally {
+            ex.close();
+        }
+    }
+
+    private static void reply(HttpExchange ex, int status, String type, byte[] body) throws IOException {
+        ex.getResponseHeaders().set("Content-Type", type);
+        ex.sendResponseHeaders(status, body.length);
+        try (OutputStream out = ex.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
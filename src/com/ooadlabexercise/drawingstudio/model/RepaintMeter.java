@@ -0,0 +1,48 @@
+package com.ooadlabexercise.drawingstudio.model;
+
+import java.awt.Rectangle;
+
+/**
+ * Counts the pixels a panel repaints, reported per one-second window.
+ * Only touched from the Event Dispatch Thread.
+ */
+class RepaintMeter {
+    private static final long WINDOW_NANOS = 1_000_000_000L;
+
+    private long windowStart = System.nanoTime();
+    private long pixels;
+    private long paints;
+    private long lastPixelsPerSecond;
+    private long lastPaintsPerSecond;
+
+    /** Records one paint covering the given area. */
+    void record(Rectangle area) {
+        roll();
+        pixels += (long) area.width * area.height;
+        paints++;
+    }
+
+    /** Pixels repainted during the last complete second. */
+    long pixelsPerSecond() {
+        roll();
+        return lastPixelsPerSecond;
+    }
+
+    /** Number of paints during the last complete second. */
+    long paintsPerSecond() {
+        roll();
+        return lastPaintsPerSecond;
+    }
+
+    private void roll() {
+        long now = System.nanoTime();
+        long elapsed = now - windowStart;
+        if (elapsed < WINDOW_NANOS) return;
+        // A window longer than a second (idle UI) is scaled back to a per-second rate
+        lastPixelsPerSecond = elapsed < 2 * WINDOW_NANOS ? pixels : pixels * WINDOW_NANOS / elapsed;
+        lastPaintsPerSecond = elapsed < 2 * WINDOW_NANOS ? paints : paints * WINDOW_NANOS / elapsed;
+        pixels = 0;
+        paints = 0;
+        windowStart = now;
+    }
+}
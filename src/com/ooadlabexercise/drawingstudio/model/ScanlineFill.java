@@ -0,0 +1,132 @@
+package com.ooadlabexercise.drawingstudio.model;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+/**
+ * Span-based flood fill working directly on an ARGB int[] raster.
+ * <p>
+ * Seeds are kept as pixel indices on a primitive stack, so no objects are
+ * allocated per pixel. With a non-zero tolerance a pixel matches when every
+ * channel (alpha included) is within {@code tolerance} of the seed color.
+ */
+final class ScanlineFill {
+    private ScanlineFill() {}
+
+    /**
+     * Fills the 4-connected region around (x, y) and returns the bounds of the
+     * changed pixels, or null if nothing was filled.
+     */
+    static Rectangle fill(int[] px, int w, int h, int x, int y, int replacement, int tolerance) {
+        return fill(px, w, h, x, y, replacement, tolerance, null);
+    }
+
+    /** Like {@link #fill(int[], int, int, int, int, int, int)}, also appending each filled span as (y, x0, x1) to {@code spans}. */
+    static Rectangle fill(int[] px, int w, int h, int x, int y, int replacement, int tolerance, IntStack spans) {
+        if (x < 0 || y < 0 || x >= w || y >= h) return null;
+        int target = px[y * w + x];
+        if (target == replacement) return null;
+        return fillRegion(px, w, 0, 0, w, h, x, y, target, replacement, tolerance, new IntStack(), spans);
+    }
+
+    /**
+     * Fills the region around (x, y) without leaving the clip [cx0, cx1) x [cy0, cy1)
+     * of a raster with row stride {@code w}. Pixels match against {@code target}.
+     * Filled spans are appended to {@code spans} unless it is null.
+     */
+    static Rectangle fillRegion(int[] px, int w, int cx0, int cy0, int cx1, int cy1, int x, int y,
+                                int target, int replacement, int tolerance, IntStack stack, IntStack spans) {
+        int cw = cx1 - cx0, ch = cy1 - cy0;
+        // Already-filled pixels may still match in tolerance mode; track them explicitly
+        long[] visited = tolerance > 0 && matches(replacement, target, tolerance)
+            ? new long[(int) (((long) cw * ch + 63) >>> 6)] : null;
+
+        // Stack entries are indices local to the clip; row/lrow map them back to the raster
+        int minX = Integer.MAX_VALUE, maxX = -1, minY = Integer.MAX_VALUE, maxY = -1;
+        stack.clear();
+        stack.push((y - cy0) * cw + (x - cx0));
+        while (!stack.isEmpty()) {
+            int seed = stack.pop();
+            int ly = seed / cw, lrow = ly * cw, row = (cy0 + ly) * w + cx0;
+            int l = seed - lrow, r = l;
+            if (!inside(px, visited, row + l, lrow + l, target, tolerance)) continue;
+            if (visited == null) {
+                l = PixelKernels.SHARED.startOfMatches(px, row, row + l, target, tolerance) - row;
+                r = PixelKernels.SHARED.endOfMatches(px, row + r + 1, row + cw, target, tolerance) - row - 1;
+            } else {
+                while (l > 0 && inside(px, visited, row + l - 1, lrow + l - 1, target, tolerance)) l--;
+                while (r < cw - 1 && inside(px, visited, row + r + 1, lrow + r + 1, target, tolerance)) r++;
+            }
+            for (int i = l; i <= r; i++) {
+                px[row + i] = replacement;
+                if (visited != null) visited[(lrow + i) >>> 6] |= 1L << (lrow + i);
+            }
+            if (spans != null) { spans.push(cy0 + ly); spans.push(cx0 + l); spans.push(cx0 + r); }
+            if (l < minX) minX = l;
+            if (r > maxX) maxX = r;
+            if (ly < minY) minY = ly;
+            if (ly > maxY) maxY = ly;
+            if (ly > 0) pushRuns(px, visited, stack, row - w, lrow - cw, l, r, target, tolerance);
+            if (ly < ch - 1) pushRuns(px, visited, stack, row + w, lrow + cw, l, r, target, tolerance);
+        }
+        if (maxX < 0) return null;
+        return new Rectangle(cx0 + minX, cy0 + minY, maxX - minX + 1, maxY - minY + 1);
+    }
+
+    /** Pushes one seed per run of matching pixels in [l, r] of the given row. */
+    private static void pushRuns(int[] px, long[] visited, IntStack stack, int row, int lrow,
+                                 int l, int r, int target, int tolerance) {
+        if (visited == null) {
+            for (int i = l; i <= r; ) {
+                int start = PixelKernels.SHARED.nextMatch(px, row + i, row + r + 1, target, tolerance) - row;
+                if (start > r) break;
+                stack.push(lrow + start);
+                i = PixelKernels.SHARED.endOfMatches(px, row + start, row + r + 1, target, tolerance) - row;
+            }
+            return;
+        }
+        boolean inRun = false;
+        for (int i = l; i <= r; i++) {
+            if (inside(px, visited, row + i, lrow + i, target, tolerance)) {
+                if (!inRun) { stack.push(lrow + i); inRun = true; }
+            } else {
+                inRun = false;
+            }
+        }
+    }
+
+    private static boolean inside(int[] px, long[] visited, int i, int local, int target, int tolerance) {
+        if (visited != null && (visited[local >>> 6] & (1L << local)) != 0) return false;
+        return matches(px[i], target, tolerance);
+    }
+
+    static boolean matches(int c, int target, int tolerance) {
+        if (c == target) return true;
+        if (tolerance <= 0) return false;
+        return Math.abs((c >>> 24) - (target >>> 24)) <= tolerance
+            && Math.abs((c >> 16 & 0xff) - (target >> 16 & 0xff)) <= tolerance
+            && Math.abs((c >> 8 & 0xff) - (target >> 8 & 0xff)) <= tolerance
+            && Math.abs((c & 0xff) - (target & 0xff)) <= tolerance;
+    }
+
+    /** Growable stack of ints. */
+    static final class IntStack {
+        private int[] data = new int[256];
+        private int size;
+
+        void push(int v) {
+            if (size == data.length) data = Arrays.copyOf(data, size * 2);
+            data[size++] = v;
+        }
+        int pop() { return data[--size]; }
+        boolean isEmpty() { return size == 0; }
+        void clear() { size = 0; }
+        int size() { return size; }
+        void pushAll(IntStack other) {
+            if (size + other.size > data.length) data = Arrays.copyOf(data, Math.max(size * 2, size + other.size));
+            System.arraycopy(other.data, 0, data, size, other.size);
+            size += other.size;
+        }
+        int[] toArray() { return Arrays.copyOf(data, size); }
+    }
+}
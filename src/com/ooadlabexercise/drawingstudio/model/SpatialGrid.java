@@ -0,0 +1,86 @@
+package com.ooadlabexercise.drawingstudio.model;
+
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Uniform grid over item bounding boxes, for finding what lies under a point.
+ * <p>
+ * Each item is listed in every cell its bounds overlap. Items spanning more
+ * than {@link #MAX_CELLS} cells (huge or zoomed-in images) are kept in a
+ * separate list that every query includes, so one item never floods the grid.
+ * Queries return candidates only; callers still run their exact test.
+ */
+class SpatialGrid<T> {
+    static final int MAX_CELLS = 256;
+
+    private final double cellSize;
+    private final Map<Long, List<T>> cells = new HashMap<>();
+    private final Map<T, int[]> ranges = new IdentityHashMap<>();  // cx0, cy0, cx1, cy1, or null if oversized
+    private final List<T> oversized = new ArrayList<>();
+
+    SpatialGrid(double cellSize) {
+        this.cellSize = cellSize;
+    }
+
+    /** Adds the item, or moves it if it is already indexed. */
+    void put(T item, Rectangle2D bounds) {
+        remove(item);
+        int cx0 = cell(bounds.getMinX()), cy0 = cell(bounds.getMinY());
+        int cx1 = cell(bounds.getMaxX()), cy1 = cell(bounds.getMaxY());
+        if ((long) (cx1 - cx0 + 1) * (cy1 - cy0 + 1) > MAX_CELLS) {
+            oversized.add(item);
+            ranges.put(item, null);
+            return;
+        }
+        for (int cy = cy0; cy <= cy1; cy++) {
+            for (int cx = cx0; cx <= cx1; cx++) {
+                cells.computeIfAbsent(key(cx, cy), k -> new ArrayList<>(4)).add(item);
+            }
+        }
+        ranges.put(item, new int[] { cx0, cy0, cx1, cy1 });
+    }
+
+    void remove(T item) {
+        if (!ranges.containsKey(item)) return;
+        int[] r = ranges.remove(item);
+        if (r == null) {
+            oversized.remove(item);
+            return;
+        }
+        for (int cy = r[1]; cy <= r[3]; cy++) {
+            for (int cx = r[0]; cx <= r[2]; cx++) {
+                Long k = key(cx, cy);
+                List<T> list = cells.get(k);
+                list.remove(item);
+                if (list.isEmpty()) cells.remove(k);
+            }
+        }
+    }
+
+    void clear() {
+        cells.clear();
+        ranges.clear();
+        oversized.clear();
+    }
+
+    /** Items whose bounds may contain the point, in no particular order. */
+    List<T> query(double x, double y) {
+        List<T> found = new ArrayList<>(oversized);
+        List<T> list = cells.get(key(cell(x), cell(y)));
+        if (list != null) found.addAll(list);
+        return found;
+    }
+
+    private int cell(double v) {
+        return (int) Math.floor(v / cellSize);
+    }
+
+    private static Long key(int cx, int cy) {
+        return ((long) cx << 32) | (cy & 0xffffffffL);
+    }
+}
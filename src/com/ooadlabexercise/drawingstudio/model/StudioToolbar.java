@@ -2,17 +2,31 @@ package com.ooadlabexercise.drawingstudio.model;
 
 import java.awt.*;
 import java.awt.event.*;
-import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
-import javax.imageio.ImageIO;
+import java.net.InetSocketAddress;
 import javax.swing.*;
+import javax.swing.filechooser.FileNameExtensionFilter;
 
 public class StudioToolbar extends JToolBar {
     private final ReferenceCanvasPanel refCanvas;
     private final DrawingCanvasPanel drawCanvas;
     private Color lastPenColor = Color.BLACK;
     private Color lastFillColor = Color.WHITE;
+    private final DrawingExporter exporter = new DrawingExporter(new File("saved drawing"));
+    private final JComboBox<DrawingExporter.Compression> compressionBox =
+        new JComboBox<>(DrawingExporter.Compression.values());
+    private final JProgressBar saveProgress = new JProgressBar(0, 100);
+    private int pendingSaves = 0;
+    private ProjectFile project;  // where Save Project writes, once opened or chosen
+
+    // Layer list shows the top layer first; refreshLayers() sets the controls without firing them
+    private final JComboBox<String> layerBox = new JComboBox<>();
+    private final JSlider layerOpacity = new JSlider(0, 100, 100);
+    private final JComboBox<BlendMode> layerBlend = new JComboBox<>(BlendMode.values());
+    private final JCheckBox layerVisible = new JCheckBox("Visible", true);
+    private boolean refreshingLayers;
+    private FilterDialog filterDialog;  // created when first opened
 
     public StudioToolbar(ReferenceCanvasPanel refCanvas, DrawingCanvasPanel drawCanvas) {
         this.refCanvas = refCanvas;
@@ -28,17 +42,17 @@ public class StudioToolbar extends JToolBar {
         addButton("Redo", e -> drawCanvas.redo());
         addSpacing();
 
+        // Zoom
+        addButton("Zoom In", e -> drawCanvas.setZoom(drawCanvas.getZoom() * 2));
+        addButton("Zoom Out", e -> drawCanvas.setZoom(drawCanvas.getZoom() / 2));
+        addButton("Actual Size", e -> drawCanvas.setZoom(1));
+        addSpacing();
+
         // Reference image controls
         addButton("Open Reference...", e -> loadReference());
         addButton("Clear Reference", e -> refCanvas.clearAllImages());
-        addButton("Add Animal Ref", e -> {
-            BufferedImage img = loadImage("animal.jpg");
-            if (img != null) refCanvas.addImage(img);
-        });
-        addButton("Add Flower Ref", e -> {
-            BufferedImage img = loadImage("flower.jpg");
-            if (img != null) refCanvas.addImage(img);
-        });
+        addButton("Add Animal Ref", e -> refCanvas.addImage(new File("animal.jpg")));
+        addButton("Add Flower Ref", e -> refCanvas.addImage(new File("flower.jpg")));
         addButton("Reset Ref View", e -> refCanvas.clearSelection());
         addSpacing();
 
@@ -63,40 +77,39 @@ public class StudioToolbar extends JToolBar {
         addPenSizeSlider();
         addSpacing();
         addButton("Bucket Fill", e -> chooseFill());
+        addFillToleranceSlider();
+        addSpacing();
+        addLayerControls();
+        addSpacing();
+        addButton("Filters...", e -> showFilters());
         addSpacing();
 
         // Import drawing into reference canvas
         addButton("Import Drawing to Ref", e -> {
-            BufferedImage drawing = drawCanvas.getCanvasImage();
-            BufferedImage copy = new BufferedImage(
-                drawing.getWidth(), drawing.getHeight(), drawing.getType());
-            copy.getGraphics().drawImage(drawing, 0, 0, null);
-            refCanvas.addImage(copy);
+            refCanvas.addImage(Rasters.copy(drawCanvas.getCanvasImage()));
         });
         addSpacing();
 
         // Save Drawing button
-        addButton("Save Drawing", e -> saveDrawing());
+        addSaveControls();
+        addSpacing();
+        addSessionControls();
         addGlue();
     }
 
-    private BufferedImage loadImage(String path) {
-        try {
-            return ImageIO.read(new File(path));
-        } catch (IOException e) {
-            JOptionPane.showMessageDialog(this, "Failed to load " + path);
-            return null;
+    private void showFilters() {
+        if (filterDialog == null) {
+            filterDialog = new FilterDialog(SwingUtilities.getWindowAncestor(this), drawCanvas, refCanvas);
+            filterDialog.setLocationRelativeTo(this);
         }
+        filterDialog.setVisible(true);
     }
 
     private void loadReference() {
         JFileChooser chooser = new JFileChooser();
         if (chooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
-            try {
-                refCanvas.addImage(ImageIO.read(chooser.getSelectedFile()));
-            } catch (IOException ex) {
-                JOptionPane.showMessageDialog(this, "Failed to load reference image");
-            }
+            // decoded in the background; the reference canvas reports failures
+            refCanvas.addImage(chooser.getSelectedFile());
         }
     }
 
@@ -124,6 +137,17 @@ public class StudioToolbar extends JToolBar {
         add(slider);
     }
 
+    private void addFillToleranceSlider() {
+        JLabel lbl = new JLabel("Fill Tolerance");
+        lbl.setAlignmentX(Component.CENTER_ALIGNMENT);
+        add(lbl);
+        JSlider slider = new JSlider(0, 128, 0);
+        slider.setMaximumSize(new Dimension(120, 40));
+        slider.setAlignmentX(Component.CENTER_ALIGNMENT);
+        slider.addChangeListener(e -> drawCanvas.setFillTolerance(slider.getValue()));
+        add(slider);
+    }
+
     private void chooseFill() {
         Color chosen = JColorChooser.showDialog(this, "Fill Color", lastFillColor);
         if (chosen != null) {
@@ -141,6 +165,65 @@ public class StudioToolbar extends JToolBar {
         addButton("Oval", e -> setToolCursor(DrawingCanvasPanel.Tool.OVAL, Cursor.CROSSHAIR_CURSOR));
     }
 
+    private void addLayerControls() {
+        JLabel lbl = new JLabel("Layers");
+        lbl.setAlignmentX(Component.CENTER_ALIGNMENT);
+        add(lbl);
+        layerBox.setMaximumSize(new Dimension(140, 25));
+        layerBox.setAlignmentX(Component.CENTER_ALIGNMENT);
+        layerBox.addActionListener(e -> {
+            if (!refreshingLayers && layerBox.getSelectedIndex() >= 0) {
+                drawCanvas.selectLayer(drawCanvas.getLayerCount() - 1 - layerBox.getSelectedIndex());
+                refreshLayers();
+            }
+        });
+        add(layerBox);
+        addButton("Add Layer", e -> { drawCanvas.addLayer(); refreshLayers(); });
+        addButton("Remove Layer", e -> { drawCanvas.removeLayer(); refreshLayers(); });
+        addButton("Layer Up", e -> moveLayer(1));
+        addButton("Layer Down", e -> moveLayer(-1));
+        layerOpacity.setMaximumSize(new Dimension(120, 40));
+        layerOpacity.setAlignmentX(Component.CENTER_ALIGNMENT);
+        layerOpacity.addChangeListener(e -> {
+            // the composite is rebuilt on every change, so wait for the knob to be let go
+            if (!refreshingLayers && !layerOpacity.getValueIsAdjusting()) {
+                drawCanvas.setLayerOpacity(layerOpacity.getValue() / 100f);
+            }
+        });
+        add(layerOpacity);
+        layerBlend.setMaximumSize(new Dimension(140, 25));
+        layerBlend.setAlignmentX(Component.CENTER_ALIGNMENT);
+        layerBlend.addActionListener(e -> {
+            if (!refreshingLayers) drawCanvas.setLayerBlendMode((BlendMode) layerBlend.getSelectedItem());
+        });
+        add(layerBlend);
+        layerVisible.setAlignmentX(Component.CENTER_ALIGNMENT);
+        layerVisible.addActionListener(e -> drawCanvas.setLayerVisible(layerVisible.isSelected()));
+        add(layerVisible);
+        refreshLayers();
+    }
+
+    private void moveLayer(int by) {
+        int to = drawCanvas.getActiveLayer() + by;
+        if (to >= 0 && to < drawCanvas.getLayerCount()) {
+            drawCanvas.moveLayer(to);
+            refreshLayers();
+        }
+    }
+
+    /** Shows the canvas's layers and the active layer's properties. */
+    private void refreshLayers() {
+        refreshingLayers = true;
+        layerBox.removeAllItems();
+        int n = drawCanvas.getLayerCount(), active = drawCanvas.getActiveLayer();
+        for (int i = n - 1; i >= 0; i--) layerBox.addItem(drawCanvas.getLayerName(i));
+        layerBox.setSelectedIndex(n - 1 - active);
+        layerOpacity.setValue(Math.round(drawCanvas.getLayerOpacity(active) * 100));
+        layerBlend.setSelectedItem(drawCanvas.getLayerBlendMode(active));
+        layerVisible.setSelected(drawCanvas.isLayerVisible(active));
+        refreshingLayers = false;
+    }
+
     private void addButton(String title, ActionListener listener) {
         JButton b = new JButton(title);
         b.setAlignmentX(Component.CENTER_ALIGNMENT);
@@ -152,37 +235,148 @@ public class StudioToolbar extends JToolBar {
     private void addSpacing() { add(Box.createRigidArea(new Dimension(0, 5))); }
     private void addGlue() { add(Box.createVerticalGlue()); }
 
+    private void addSaveControls() {
+        JLabel lbl = new JLabel("PNG Compression");
+        lbl.setAlignmentX(Component.CENTER_ALIGNMENT);
+        add(lbl);
+        compressionBox.setSelectedItem(DrawingExporter.Compression.FAST);
+        compressionBox.setMaximumSize(new Dimension(140, 25));
+        compressionBox.setAlignmentX(Component.CENTER_ALIGNMENT);
+        add(compressionBox);
+        addButton("Save Drawing", e -> saveDrawing());
+        saveProgress.setStringPainted(true);
+        saveProgress.setMaximumSize(new Dimension(140, 18));
+        saveProgress.setAlignmentX(Component.CENTER_ALIGNMENT);
+        saveProgress.setVisible(false);
+        add(saveProgress);
+        addSpacing();
+        addButton("Open Project...", e -> openProject());
+        addButton("Save Project", e -> saveProject());
+    }
+
+    private JFileChooser projectChooser() {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setFileFilter(new FileNameExtensionFilter("Drawing Studio projects", ProjectFile.EXTENSION));
+        return chooser;
+    }
+
+    /** Opens a project in place of the drawing and the reference board; its tiles load as they come into view. */
+    private void openProject() {
+        JFileChooser chooser = projectChooser();
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        ProjectFile opened;
+        try {
+            opened = ProjectFile.open(chooser.getSelectedFile());
+        } catch (IOException ex) {
+            JOptionPane.showMessageDialog(this, "Could not open " + chooser.getSelectedFile().getName() + ": " + ex.getMessage());
+            return;
+        }
+        drawCanvas.openProject(opened);
+        refCanvas.setPlacements(opened.getPlacements());
+        closeProject();
+        project = opened;
+        refreshLayers();
+    }
+
+    /**
+     * Saves the drawing and the reference board into the open project, asking for a file
+     * the first time. Only what changed since the last save is written, so it is quick
+     * enough to run on the Event Dispatch Thread.
+     */
+    private void saveProject() {
+        if (project == null) {
+            JFileChooser chooser = projectChooser();
+            if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+            File file = chooser.getSelectedFile();
+            if (!file.getName().endsWith("." + ProjectFile.EXTENSION)) {
+                file = new File(file.getPath() + "." + ProjectFile.EXTENSION);
+            }
+            try {
+                project = ProjectFile.create(file);
+            } catch (IOException ex) {
+                JOptionPane.showMessageDialog(this, "Save failed");
+                return;
+            }
+        }
+        try {
+            drawCanvas.saveProject(project, refCanvas.getPlacements());
+            JOptionPane.showMessageDialog(this, "Project saved to " + project.getFile().getPath());
+        } catch (IOException ex) {
+            JOptionPane.showMessageDialog(this, "Save failed");
+        }
+    }
+
+    private void addSessionControls() {
+        addButton("Host Session...", e -> hostSession());
+        addButton("Join Session...", e -> joinSession());
+        addButton("Leave Session", e -> drawCanvas.leaveSession());
+    }
+
+    /** Shares the drawing with other studios that join on a port. */
+    private void hostSession() {
+        String port = JOptionPane.showInputDialog(this, "Port to host the session on",
+                                                  String.valueOf(DrawingSession.DEFAULT_PORT));
+        if (port == null) return;
+        try {
+            DrawingSession session = drawCanvas.hostSession(Integer.parseInt(port.trim()));
+            JOptionPane.showMessageDialog(this, "Hosting on port " + session.getPort());
+        } catch (NumberFormatException | IOException ex) {
+            JOptionPane.showMessageDialog(this, "Could not host on port " + port + ": " + ex.getMessage());
+        }
+    }
+
+    /** Draws together with a hosted session; the drawing is replaced by the host's. */
+    private void joinSession() {
+        String address = JOptionPane.showInputDialog(this, "Host and port of the session",
+                                                     "localhost:" + DrawingSession.DEFAULT_PORT);
+        if (address == null) return;
+        try {
+            int colon = address.lastIndexOf(':');
+            String host = colon < 0 ? address.trim() : address.substring(0, colon).trim();
+            int port = colon < 0 ? DrawingSession.DEFAULT_PORT : Integer.parseInt(address.substring(colon + 1).trim());
+            drawCanvas.joinSession(new InetSocketAddress(host, port));
+        } catch (NumberFormatException | IOException ex) {
+            JOptionPane.showMessageDialog(this, "Could not join " + address + ": " + ex.getMessage());
+        }
+    }
+
+    private void closeProject() {
+        if (project == null) return;
+        try {
+            project.close();
+        } catch (IOException ignored) {
+            // nothing more is read from it
+        }
+    }
+
     /**
      * Saves the current drawing into a "saved drawing" folder.
      * Files are named drawing1.png, drawing2.png, ... without overwriting.
+     * Encoding runs in the background; the toolbar shows progress meanwhile.
      */
     private void saveDrawing() {
-        File dir = new File("saved drawing");
-        if (!dir.exists()) dir.mkdirs();
-
-        // find next available filename
-        String base = "drawing";
-        int idx = 1;
-        File file;
-        do {
-            file = new File(dir, base + idx + ".png");
-            idx++;
-        } while (file.exists());
+        pendingSaves++;
+        saveProgress.setValue(0);
+        saveProgress.setVisible(true);
+        revalidate();
+        DrawingExporter.Compression compression = (DrawingExporter.Compression) compressionBox.getSelectedItem();
+        exporter.save(drawCanvas.getCanvasImage(), compression, new DrawingExporter.Listener() {
+            @Override public void progress(int percent) { saveProgress.setValue(percent); }
+            @Override public void saved(File file) {
+                saveFinished();
+                JOptionPane.showMessageDialog(StudioToolbar.this, "Drawing saved to " + file.getPath());
+            }
+            @Override public void failed(Exception ex) {
+                saveFinished();
+                JOptionPane.showMessageDialog(StudioToolbar.this, "Save failed");
+            }
+        });
+    }
 
-        try {
-            BufferedImage raw = drawCanvas.getCanvasImage();
-            int w = raw.getWidth(), h = raw.getHeight();
-            BufferedImage out = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
-            Graphics2D g = out.createGraphics();
-            g.setColor(Color.WHITE);
-            g.fillRect(0, 0, w, h);
-            g.drawImage(raw, 0, 0, null);
-            g.dispose();
-
-            ImageIO.write(out, "PNG", file);
-            JOptionPane.showMessageDialog(this, "Drawing saved to " + file.getPath());
-        } catch (IOException ex) {
-            JOptionPane.showMessageDialog(this, "Save failed");
+    private void saveFinished() {
+        if (--pendingSaves == 0) {
+            saveProgress.setVisible(false);
+            revalidate();
         }
     }
 }
\ No newline at end of file
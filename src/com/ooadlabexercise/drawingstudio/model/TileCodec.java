@@ -0,0 +1,53 @@
+package com.ooadlabexercise.drawingstudio.model;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflates whole {@link TileStore#TILE} squared ARGB tiles and inflates them
+ * back, e.g. for project files and session snapshots. Keeps its buffers
+ * between calls, so use one per thread.
+ */
+final class TileCodec {
+    private static final int T = TileStore.TILE;
+
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final Inflater inflater = new Inflater();
+    private final byte[] raw = new byte[T * T * 4];
+    private byte[] packed = new byte[T * T];
+
+    /** The tile's pixels, deflated. */
+    byte[] deflate(int[] px) {
+        ByteBuffer.wrap(raw).asIntBuffer().put(px, 0, T * T);
+        deflater.reset();
+        deflater.setInput(raw);
+        deflater.finish();
+        int len = 0;
+        while (!deflater.finished()) {
+            if (len == packed.length) packed = Arrays.copyOf(packed, packed.length * 2);
+            len += deflater.deflate(packed, len, packed.length - len);
+        }
+        return Arrays.copyOf(packed, len);
+    }
+
+    /** Inflates a tile from the rest of {@code data} into {@code px}. */
+    void inflate(ByteBuffer data, int[] px) {
+        inflater.reset();
+        inflater.setInput(data);
+        int n = 0;
+        try {
+            while (n < raw.length) {
+                int r = inflater.inflate(raw, n, raw.length - n);
+                if (r == 0 && (inflater.finished() || inflater.needsInput())) break;
+                n += r;
+            }
+        } catch (DataFormatException ex) {
+            throw new IllegalStateException("Corrupt tile", ex);
+        }
+        if (n < raw.length) throw new IllegalStateException("Corrupt tile");
+        ByteBuffer.wrap(raw).asIntBuffer().get(px, 0, T * T);
+    }
+}
@@ -0,0 +1,250 @@
+package com.ooadlabexercise.drawingstudio.model;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Undo/redo history that only keeps the tiles an operation actually changed.
+ * <p>
+ * Each entry stores, per dirty tile, the XOR of the pixels before and after the
+ * operation, deflated. Applying the same delta again toggles between the two
+ * states, so one blob serves both undo and redo. A baseline copy of the last
+ * committed canvas is used to find changed tiles; entries beyond the memory
+ * budget are dropped oldest first. With a budget of zero changes are only
+ * detected, not recorded.
+ */
+class TileHistory {
+    static final int TILE = 64;
+    static final long DEFAULT_BUDGET = 64L * 1024 * 1024;
+
+    private static final class TileDelta {
+        final int tx, ty;
+        final byte[] data;
+        TileDelta(int tx, int ty, byte[] data) { this.tx = tx; this.ty = ty; this.data = data; }
+    }
+
+    private static final class Entry {
+        final TileDelta[] tiles;
+        final long bytes;
+        Entry(TileDelta[] tiles, long bytes) { this.tiles = tiles; this.bytes = bytes; }
+    }
+
+    private final Deque<Entry> undoEntries = new ArrayDeque<>();
+    private final Deque<Entry> redoEntries = new ArrayDeque<>();
+    private long budget = DEFAULT_BUDGET;
+    private long used;
+
+    private int[] baseline = new int[0];
+    private int width, height;
+
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final Inflater inflater = new Inflater();
+    private final byte[] raw = new byte[TILE * TILE * 4];
+    private byte[] packed = new byte[TILE * TILE * 4 + 64];
+    private static final byte[] UNRECORDED = new byte[0];
+
+    /** Drops all history and takes the given canvas as the new starting point. */
+    void reset(BufferedImage canvas) {
+        width = canvas.getWidth();
+        height = canvas.getHeight();
+        int[] px = Rasters.pixels(canvas);
+        if (baseline.length != px.length) baseline = new int[px.length];
+        System.arraycopy(px, 0, baseline, 0, px.length);
+        undoEntries.clear();
+        redoEntries.clear();
+        used = 0;
+    }
+
+    /**
+     * Records the changes made to the canvas since the last commit.
+     * Only tiles intersecting {@code dirty} are compared; pass null to scan the whole canvas.
+     * Returns false if no pixel changed.
+     */
+    boolean commit(BufferedImage canvas, Rectangle dirty) {
+        redoEntries.clear();
+        Rectangle area = new Rectangle(0, 0, width, height);
+        if (dirty != null) area = area.intersection(dirty);
+        if (area.isEmpty()) return false;
+
+        int[] px = Rasters.pixels(canvas);
+        int tx0 = area.x / TILE, ty0 = area.y / TILE;
+        int tx1 = (area.x + area.width - 1) / TILE, ty1 = (area.y + area.height - 1) / TILE;
+        // with no budget nothing would be kept, so only look for changes
+        boolean record = budget > 0;
+        List<TileDelta> tiles = new ArrayList<>();
+        long bytes = 0;
+        boolean changed = false;
+        for (int ty = ty0; ty <= ty1; ty++) {
+            for (int tx = tx0; tx <= tx1; tx++) {
+                byte[] delta = diffTile(px, tx, ty, record);
+                if (delta != null) {
+                    changed = true;
+                    if (record) tiles.add(new TileDelta(tx, ty, delta));
+                    bytes += delta.length + 32;
+                }
+            }
+        }
+        if (!changed) return false;
+        if (!record) {
+            undoEntries.clear();
+            used = 0;
+            return true;
+        }
+
+        undoEntries.addLast(new Entry(tiles.toArray(new TileDelta[0]), bytes));
+        used += bytes;
+        while (used > budget && !undoEntries.isEmpty()) used -= undoEntries.removeFirst().bytes;
+        return true;
+    }
+
+    /**
+     * Records a step that changed nothing on this canvas, e.g. an operation drawn
+     * outside it, so undo and redo stay in step with the operations.
+     */
+    void skip() {
+        redoEntries.clear();
+        if (budget > 0) undoEntries.addLast(new Entry(new TileDelta[0], 0));
+    }
+
+    /** Reverts the last committed operation; returns the repainted area or null if nothing to undo. */
+    Rectangle undo(BufferedImage canvas) {
+        if (undoEntries.isEmpty()) return null;
+        Entry e = undoEntries.removeLast();
+        redoEntries.addLast(e);
+        return apply(canvas, e);
+    }
+
+    /** Re-applies the last undone operation; returns the repainted area or null if nothing to redo. */
+    Rectangle redo(BufferedImage canvas) {
+        if (redoEntries.isEmpty()) return null;
+        Entry e = redoEntries.removeLast();
+        undoEntries.addLast(e);
+        return apply(canvas, e);
+    }
+
+    /**
+     * Takes pixels the canvas got from somewhere other than a commit (e.g. a re-render)
+     * into the baseline. Redo entries no longer apply to such a canvas and are dropped.
+     */
+    void sync(BufferedImage canvas, Rectangle area) {
+        redoEntries.clear();
+        Rectangle r = new Rectangle(0, 0, width, height);
+        if (area != null) r = r.intersection(area);
+        if (r.isEmpty()) return;
+        int[] px = Rasters.pixels(canvas);
+        for (int y = r.y; y < r.y + r.height; y++) {
+            System.arraycopy(px, y * width + r.x, baseline, y * width + r.x, r.width);
+        }
+    }
+
+    /** Puts the committed pixels back into {@code area} of the canvas, dropping uncommitted drawing there. */
+    void revert(BufferedImage canvas, Rectangle area) {
+        Rectangle r = new Rectangle(0, 0, width, height).intersection(area);
+        if (r.isEmpty()) return;
+        int[] px = Rasters.pixels(canvas);
+        for (int y = r.y; y < r.y + r.height; y++) {
+            System.arraycopy(baseline, y * width + r.x, px, y * width + r.x, r.width);
+        }
+    }
+
+    boolean canUndo() { return !undoEntries.isEmpty(); }
+    boolean canRedo() { return !redoEntries.isEmpty(); }
+
+    /** Maximum bytes of compressed deltas kept; older entries are evicted first. */
+    void setBudget(long bytes) {
+        budget = Math.max(0, bytes);
+        while (used > budget && !undoEntries.isEmpty()) used -= undoEntries.removeFirst().bytes;
+    }
+
+    /** Bytes held by the history, including the baseline copy of the canvas. */
+    long getMemoryUsage() {
+        long redoBytes = 0;
+        for (Entry e : redoEntries) redoBytes += e.bytes;
+        return used + redoBytes + baseline.length * 4L;
+    }
+
+    /** Deflated XOR delta of a changed tile, or null if unchanged; the baseline is updated either way. */
+    private byte[] diffTile(int[] px, int tx, int ty, boolean record) {
+        int x0 = tx * TILE, y0 = ty * TILE;
+        int tw = Math.min(TILE, width - x0), th = Math.min(TILE, height - y0);
+        boolean changed = false;
+        for (int y = 0; y < th && !changed; y++) {
+            int off = (y0 + y) * width + x0;
+            for (int x = 0; x < tw; x++) {
+                if (px[off + x] != baseline[off + x]) { changed = true; break; }
+            }
+        }
+        if (!changed) return null;
+        if (!record) {
+            for (int y = 0; y < th; y++) {
+                int off = (y0 + y) * width + x0;
+                System.arraycopy(px, off, baseline, off, tw);
+            }
+            return UNRECORDED;
+        }
+
+        int n = 0;
+        for (int y = 0; y < th; y++) {
+            int off = (y0 + y) * width + x0;
+            for (int x = 0; x < tw; x++) {
+                int v = px[off + x] ^ baseline[off + x];
+                baseline[off + x] = px[off + x];
+                raw[n++] = (byte) (v >>> 24);
+                raw[n++] = (byte) (v >>> 16);
+                raw[n++] = (byte) (v >>> 8);
+                raw[n++] = (byte) v;
+            }
+        }
+        deflater.reset();
+        deflater.setInput(raw, 0, n);
+        deflater.finish();
+        int len = 0;
+        while (!deflater.finished()) {
+            if (len == packed.length) packed = Arrays.copyOf(packed, packed.length * 2);
+            len += deflater.deflate(packed, len, packed.length - len);
+        }
+        return Arrays.copyOf(packed, len);
+    }
+
+    private Rectangle apply(BufferedImage canvas, Entry e) {
+        int[] px = Rasters.pixels(canvas);
+        Rectangle bounds = null;
+        for (TileDelta t : e.tiles) {
+            int x0 = t.tx * TILE, y0 = t.ty * TILE;
+            int tw = Math.min(TILE, width - x0), th = Math.min(TILE, height - y0);
+            inflater.reset();
+            inflater.setInput(t.data);
+            try {
+                int n = 0, want = tw * th * 4;
+                while (n < want) {
+                    int r = inflater.inflate(raw, n, want - n);
+                    if (r == 0 && (inflater.finished() || inflater.needsInput())) break;
+                    n += r;
+                }
+            } catch (DataFormatException ex) {
+                throw new IllegalStateException("Corrupt history tile", ex);
+            }
+            int n = 0;
+            for (int y = 0; y < th; y++) {
+                int off = (y0 + y) * width + x0;
+                for (int x = 0; x < tw; x++, n += 4) {
+                    int v = (raw[n] & 0xff) << 24 | (raw[n + 1] & 0xff) << 16
+                          | (raw[n + 2] & 0xff) << 8 | (raw[n + 3] & 0xff);
+                    px[off + x] ^= v;
+                    baseline[off + x] ^= v;
+                }
+            }
+            Rectangle r = new Rectangle(x0, y0, tw, th);
+            bounds = bounds == null ? r : bounds.union(r);
+        }
+        return bounds;
+    }
+}
@@ -0,0 +1,200 @@
+package com.ooadlabexercise.drawingstudio.model;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Storage for {@link PagedRaster} tiles outside the Java heap.
+ * <p>
+ * Each tile is {@link #TILE} x {@link #TILE} ARGB pixels. Tiles in use live in
+ * direct buffers, carved from 4 MB slabs so slots are reused instead of
+ * allocated per tile. Past the hot budget ({@code -Ddrawingstudio.tileMemory},
+ * in MB, default 256) the least recently used tiles are copied out to a
+ * memory-mapped scratch file, from which they are paged back in on access;
+ * the OS decides what of that file stays in RAM. The scratch file is created
+ * on the first spill and deleted on {@link #close()} or exit.
+ * <p>
+ * Not thread-safe; each engine has its own store.
+ */
+class TileStore {
+    static final int TILE = 256;
+    static final int TILE_BYTES = TILE * TILE * 4;
+    private static final int SLAB_TILES = 16;
+    private static final int SEGMENT_TILES = 256;  // 64 MB per mapping of the scratch file
+
+    private static final int[] BLANK = new int[TILE * TILE];
+
+    static final long DEFAULT_HOT_BUDGET = Long.getLong("drawingstudio.tileMemory", 256) * 1024 * 1024;
+
+    /** One tile's pixels, either in a hot slot or in the scratch file. */
+    static final class Tile {
+        private IntBuffer hot;
+        private int cold = -1;
+        private boolean freed;
+    }
+
+    private final long hotBudget;
+    private BufferedImage scratchTile;
+    private final ArrayDeque<IntBuffer> freeHot = new ArrayDeque<>();
+    private final LinkedHashSet<Tile> lru = new LinkedHashSet<>();  // hot tiles, least recent first
+    private int hotSlots;
+
+    private File scratchFile;
+    private FileChannel scratch;
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+    private final ArrayDeque<Integer> freeCold = new ArrayDeque<>();
+    private int coldSlots, coldUsed;
+
+    TileStore() {
+        this(DEFAULT_HOT_BUDGET);
+    }
+
+    TileStore(long hotBudget) {
+        this.hotBudget = Math.max((long) SLAB_TILES * TILE_BYTES, hotBudget);
+    }
+
+    /** A new, fully transparent tile. */
+    Tile allocate() {
+        Tile t = new Tile();
+        t.hot = hotSlot();
+        t.hot.position(0);
+        t.hot.put(BLANK);
+        t.hot.position(0);
+        lru.add(t);
+        return t;
+    }
+
+    /**
+     * The tile's pixels, row by row, paged in if needed. The buffer is only valid
+     * until the next call on this store, which may page the tile out again.
+     */
+    IntBuffer pixels(Tile t) {
+        if (t.freed) throw new IllegalStateException("tile was freed");
+        if (t.hot != null) {
+            // move to the most recently used end
+            lru.remove(t);
+            lru.add(t);
+            return t.hot;
+        }
+        IntBuffer slot = hotSlot();
+        IntBuffer src = coldSlot(t.cold);
+        slot.position(0);
+        slot.put(src);
+        slot.position(0);
+        freeCold.push(t.cold);
+        coldUsed--;
+        t.cold = -1;
+        t.hot = slot;
+        lru.add(t);
+        return slot;
+    }
+
+    void free(Tile t) {
+        if (t.freed) return;
+        t.freed = true;
+        if (t.hot != null) {
+            lru.remove(t);
+            freeHot.push(t.hot);
+            t.hot = null;
+        } else if (t.cold >= 0) {
+            freeCold.push(t.cold);
+            coldUsed--;
+            t.cold = -1;
+        }
+    }
+
+    /** A heap tile-sized image to draw a tile's pixels in; shared by everyone using this store. */
+    BufferedImage scratch() {
+        if (scratchTile == null) scratchTile = new BufferedImage(TILE, TILE, BufferedImage.TYPE_INT_ARGB);
+        return scratchTile;
+    }
+
+    /** Direct memory held for hot tiles, free slots included. */
+    long getHotBytes() { return (long) hotSlots * TILE_BYTES; }
+
+    /** Bytes of tiles paged out to the scratch file. */
+    long getSpilledBytes() { return (long) coldUsed * TILE_BYTES; }
+
+    int getHotTileCount() { return lru.size(); }
+
+    /** Deletes the scratch file. Tiles still paged out are lost. */
+    void close() {
+        segments.clear();
+        if (scratch != null) {
+            try {
+                scratch.close();
+            } catch (IOException ignored) {
+                // the file is deleted on exit anyway
+            }
+            scratchFile.delete();
+            scratch = null;
+        }
+    }
+
+    /** A free hot slot: a recycled one, a new one within budget, or the least recently used tile's. */
+    private IntBuffer hotSlot() {
+        if (freeHot.isEmpty() && (long) hotSlots * TILE_BYTES < hotBudget) {
+            ByteBuffer slab = ByteBuffer.allocateDirect(SLAB_TILES * TILE_BYTES).order(ByteOrder.nativeOrder());
+            for (int i = 0; i < SLAB_TILES; i++) {
+                slab.limit((i + 1) * TILE_BYTES).position(i * TILE_BYTES);
+                freeHot.push(slab.slice().order(ByteOrder.nativeOrder()).asIntBuffer());
+            }
+            hotSlots += SLAB_TILES;
+        }
+        if (!freeHot.isEmpty()) return freeHot.pop();
+        Iterator<Tile> oldest = lru.iterator();
+        Tile victim = oldest.next();
+        oldest.remove();
+        spill(victim);
+        return freeHot.pop();
+    }
+
+    private void spill(Tile t) {
+        int slot = freeCold.isEmpty() ? newColdSlot() : freeCold.pop();
+        IntBuffer dst = coldSlot(slot);
+        t.hot.position(0);
+        dst.put(t.hot);
+        t.hot.position(0);
+        freeHot.push(t.hot);
+        t.hot = null;
+        t.cold = slot;
+        coldUsed++;
+    }
+
+    private IntBuffer coldSlot(int slot) {
+        ByteBuffer seg = segments.get(slot / SEGMENT_TILES).duplicate();
+        int off = (slot % SEGMENT_TILES) * TILE_BYTES;
+        seg.limit(off + TILE_BYTES).position(off);
+        return seg.slice().order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+
+    private int newColdSlot() {
+        try {
+            if (scratch == null) {
+                scratchFile = File.createTempFile("drawingstudio-tiles", ".bin");
+                scratchFile.deleteOnExit();
+                scratch = new RandomAccessFile(scratchFile, "rw").getChannel();
+            }
+            if (coldSlots == segments.size() * SEGMENT_TILES) {
+                long offset = (long) segments.size() * SEGMENT_TILES * TILE_BYTES;
+                segments.add(scratch.map(FileChannel.MapMode.READ_WRITE, offset, (long) SEGMENT_TILES * TILE_BYTES));
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Cannot page drawing tiles out to disk", ex);
+        }
+        return coldSlots++;
+    }
+}